@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpManagedChannel.ChannelRef;
+import io.grpc.Status;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-call bookkeeping of a pool, {@code activeStreamsCountIncr()} followed by {@code
+ * activeStreamsCountDecr()}, from many threads at once.
+ *
+ * <p>Threads either spread over the channels of the pool, so that only pool-wide metrics are
+ * shared, or all use the same channel. Run with {@code -t} to vary the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ActiveStreamsBenchmark {
+  private static final int CHANNELS = 32;
+
+  @Param({"false", "true"})
+  public boolean sameChannel;
+
+  private GcpManagedChannel pool;
+  private final AtomicInteger nextThread = new AtomicInteger();
+
+  @Setup
+  public void setUp() {
+    pool = NoopManagedChannel.newPool(CHANNELS, null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /** The channel used by a benchmark thread. */
+  @State(Scope.Thread)
+  public static class ThreadChannel {
+    ChannelRef channelRef;
+
+    @Setup
+    public void setUp(ActiveStreamsBenchmark benchmark) {
+      final int index =
+          benchmark.sameChannel ? 0 : benchmark.nextThread.getAndIncrement() % CHANNELS;
+      channelRef = benchmark.pool.channelRefs.get(index);
+    }
+  }
+
+  @Benchmark
+  public void incrDecr(ThreadChannel channel) {
+    channel.channelRef.activeStreamsCountIncr();
+    channel.channelRef.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.proto.AffinityConfig;
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.cloud.grpc.proto.ChannelPoolConfig;
+import com.google.cloud.grpc.proto.MethodConfig;
+import com.google.protobuf.MessageOrBuilder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares getting affinity keys from a message reflectively via {@code getAllFields()} and with a
+ * precompiled {@link AffinityKeyExtractor}.
+ *
+ * <p>Run with {@code -prof gc} to compare allocation rates as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AffinityKeyExtractionBenchmark {
+
+  /** A top-level key in a message with a few other fields set. */
+  private static final String FLAT = "flat";
+  /** A key in repeated nested messages. */
+  private static final String NESTED = "nested";
+
+  @Param({FLAT, NESTED})
+  public String shape;
+
+  private MessageOrBuilder message;
+  private String path;
+  private AffinityKeyExtractor extractor;
+
+  @Setup
+  public void setUp() {
+    if (FLAT.equals(shape)) {
+      message =
+          AffinityConfig.newBuilder()
+              .setCommand(AffinityConfig.Command.BIND)
+              .setAffinityKey("projects/p/instances/i/databases/d/sessions/s")
+              .build();
+      path = "affinity_key";
+    } else {
+      ApiConfig.Builder builder =
+          ApiConfig.newBuilder().setChannelPool(ChannelPoolConfig.newBuilder().setMaxSize(10));
+      for (int i = 0; i < 5; i++) {
+        builder.addMethod(
+            MethodConfig.newBuilder()
+                .addName("google.spanner.v1.Spanner/Method" + i)
+                .setAffinity(
+                    AffinityConfig.newBuilder()
+                        .setCommand(AffinityConfig.Command.BOUND)
+                        .setAffinityKey("session" + i)));
+      }
+      message = builder.build();
+      path = "method.affinity.affinity_key";
+    }
+    extractor = new AffinityKeyExtractor(path);
+  }
+
+  @Benchmark
+  public List<String> reflective() {
+    return GcpManagedChannel.getKeysFromMessage(message, path);
+  }
+
+  @Benchmark
+  public List<String> compiled() {
+    return extractor.extract(message);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.proto.AffinityConfig;
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.cloud.grpc.proto.MethodConfig;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.protobuf.ProtoUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares getting BIND keys from a response with many keys, similar to a {@code
+ * BatchCreateSessions} response: from the parsed message (as the pool does by default) vs. from
+ * the serialized bytes before parsing (as {@link AffinityKeyCapturingMarshaller} does).
+ *
+ * <p>Every benchmark includes parsing, as the response is always parsed for the application.
+ * {@code capturingMarshaller} goes through {@link AffinityKeyCapturingMarshaller#parse} with the
+ * protobuf marshaller of the method, reading a stream of known length supporting mark and reset as
+ * provided by the transport.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindKeysExtractionBenchmark {
+  private static final String PATH = "method.affinity.affinity_key";
+
+  @Param({"1", "100", "1000"})
+  public int keys;
+
+  private byte[] response;
+  private AffinityKeyExtractor extractor;
+  private Marshaller<ApiConfig> marshaller;
+
+  @Setup
+  public void setUp() {
+    ApiConfig.Builder builder = ApiConfig.newBuilder();
+    for (int i = 0; i < keys; i++) {
+      builder.addMethod(
+          MethodConfig.newBuilder()
+              .addName("google.spanner.v1.Spanner/ExecuteSql")
+              .addName("google.spanner.v1.Spanner/ExecuteStreamingSql")
+              .setAffinity(
+                  AffinityConfig.newBuilder()
+                      .setCommand(AffinityConfig.Command.BOUND)
+                      .setAffinityKey("projects/p/instances/i/databases/d/sessions/s" + i)));
+    }
+    response = builder.build().toByteArray();
+    extractor = new AffinityKeyExtractor(PATH);
+    marshaller = ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+  }
+
+  @Benchmark
+  public List<String> parsedReflective(Blackhole blackhole)
+      throws InvalidProtocolBufferException {
+    ApiConfig message = ApiConfig.parseFrom(response);
+    blackhole.consume(message);
+    return GcpManagedChannel.getKeysFromMessage(message, PATH);
+  }
+
+  @Benchmark
+  public List<String> parsedCompiled(Blackhole blackhole) throws InvalidProtocolBufferException {
+    ApiConfig message = ApiConfig.parseFrom(response);
+    blackhole.consume(message);
+    return extractor.extract(message);
+  }
+
+  @Benchmark
+  public List<String> serialized(Blackhole blackhole) throws IOException {
+    List<String> keys =
+        extractor.extract(CodedInputStream.newInstance(response), ApiConfig.getDescriptor());
+    blackhole.consume(ApiConfig.parseFrom(response));
+    return keys;
+  }
+
+  @Benchmark
+  public List<String> capturingMarshaller(Blackhole blackhole) {
+    // A new marshaller is used for every call.
+    AffinityKeyCapturingMarshaller<ApiConfig> capturing =
+        new AffinityKeyCapturingMarshaller<>(marshaller, extractor, ApiConfig.getDescriptor());
+    blackhole.consume(capturing.parse(new KnownLengthStream(response)));
+    return capturing.getKeys();
+  }
+
+  // A serialized message stream as provided by the transport.
+  private static final class KnownLengthStream extends ByteArrayInputStream
+      implements KnownLength {
+    KnownLengthStream(byte[] bytes) {
+      super(bytes);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpManagedChannel.ChannelRef;
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions.ChannelPickStrategy;
+import io.grpc.ManagedChannelBuilder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of picking a channel for a call without affinity depending on the pool size.
+ *
+ * <p>With {@link ChannelPickStrategy#POWER_OF_TWO_CHOICES} the cost is expected to stay flat as
+ * {@code maxSize} grows, while {@link ChannelPickStrategy#LEAST_BUSY} grows linearly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelPickBenchmark {
+
+  @Param({"4", "16", "64", "256"})
+  public int maxSize;
+
+  @Param({"LEAST_BUSY", "POWER_OF_TWO_CHOICES"})
+  public ChannelPickStrategy strategy;
+
+  private GcpManagedChannel pool;
+
+  @Setup
+  public void setUp() {
+    pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(
+                    ManagedChannelBuilder.forAddress("localhost", 443))
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(maxSize)
+                                .setConcurrentStreamsLowWatermark(0)
+                                .setChannelPickStrategy(strategy)
+                                .build())
+                        .build())
+                .build();
+    // With zero low watermark every pick adds a new channel until the pool is full.
+    while (pool.getNumberOfChannels() < maxSize) {
+      pool.getChannelRef(null);
+    }
+    // Spread some active streams over the channels.
+    final Random random = new Random(42);
+    for (ChannelRef channelRef : pool.channelRefs) {
+      int streams = random.nextInt(50);
+      for (int i = 0; i < streams; i++) {
+        channelRef.activeStreamsCountIncr();
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Benchmark
+  public ChannelRef pickChannel() {
+    return pool.getChannelRef(null);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
+import com.google.protobuf.Empty;
+import io.grpc.CallOptions;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares call latency distribution (see the percentiles in the results) with the built-in
+ * {@link ChannelPicker}s against a local server where every fourth connection is ten times slower
+ * than the others, as if it landed on a slow backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class ChannelPickerLatencyBenchmark {
+  private static final int POOL_SIZE = 8;
+  private static final long FAST_MICROS = 200;
+  private static final long SLOW_MICROS = 2000;
+
+  private static final MethodDescriptor<Empty, Empty> METHOD =
+      MethodDescriptor.<Empty, Empty>newBuilder()
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName("benchmark.FakeService/Call")
+          .setRequestMarshaller(ProtoUtils.marshaller(Empty.getDefaultInstance()))
+          .setResponseMarshaller(ProtoUtils.marshaller(Empty.getDefaultInstance()))
+          .build();
+
+  private static final Context.Key<Boolean> SLOW_CONNECTION = Context.key("slow-connection");
+
+  @Param({"leastBusy", "roundRobin", "powerOfTwoChoices", "latencyEwma"})
+  public String picker;
+
+  private ScheduledExecutorService scheduler;
+  private Server server;
+  private GcpManagedChannel pool;
+
+  @Setup
+  public void setUp() throws IOException, InterruptedException {
+    scheduler = Executors.newScheduledThreadPool(4);
+    server = ServerBuilder.forPort(0).addService(fakeService()).build().start();
+    pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(
+                    ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext())
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(POOL_SIZE)
+                                .setMinSize(POOL_SIZE)
+                                .setChannelPicker(newPicker(picker))
+                                .build())
+                        .build())
+                .build();
+    if (!pool.awaitReady(Duration.ofSeconds(10))) {
+      throw new IllegalStateException("Channels are not ready");
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    pool.shutdownNow();
+    server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    scheduler.shutdownNow();
+  }
+
+  @Benchmark
+  public Empty unaryCall() {
+    return ClientCalls.blockingUnaryCall(
+        pool, METHOD, CallOptions.DEFAULT, Empty.getDefaultInstance());
+  }
+
+  private static ChannelPicker newPicker(String name) {
+    switch (name) {
+      case "leastBusy":
+        return ChannelPickers.leastBusy();
+      case "roundRobin":
+        return ChannelPickers.roundRobin();
+      case "powerOfTwoChoices":
+        return ChannelPickers.powerOfTwoChoices();
+      case "latencyEwma":
+        return ChannelPickers.latencyEwma();
+      default:
+        throw new IllegalArgumentException("Unknown picker: " + name);
+    }
+  }
+
+  // Responds after a delay depending on the connection of the call.
+  private ServerServiceDefinition fakeService() {
+    final ServerServiceDefinition service =
+        ServerServiceDefinition.builder("benchmark.FakeService")
+            .addMethod(
+                METHOD,
+                ServerCalls.asyncUnaryCall(
+                    (request, responseObserver) -> {
+                      final long delay =
+                          SLOW_CONNECTION.get() == Boolean.TRUE ? SLOW_MICROS : FAST_MICROS;
+                      scheduler.schedule(
+                          () -> {
+                            responseObserver.onNext(Empty.getDefaultInstance());
+                            responseObserver.onCompleted();
+                          },
+                          delay,
+                          TimeUnit.MICROSECONDS);
+                    }))
+            .build();
+    return ServerInterceptors.intercept(service, new SlowConnectionInterceptor());
+  }
+
+  // Marks every fourth connection in the order of their first call as slow.
+  private static final class SlowConnectionInterceptor implements ServerInterceptor {
+    private final Map<SocketAddress, Boolean> slowByConnection = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+      final SocketAddress remote = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+      final boolean slow =
+          slowByConnection.computeIfAbsent(
+              remote, address -> connections.getAndIncrement() % 4 == 0);
+      return Contexts.interceptCall(
+          Context.current().withValue(SLOW_CONNECTION, slow), call, headers, next);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpManagedChannel.ChannelRef;
+import io.grpc.Status;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the bookkeeping of a call on its channel scales with the number of threads, each
+ * thread using its own channel of the pool: start, first response message, and completion.
+ *
+ * <p>The score is the total throughput of all threads. With no false sharing between the counters
+ * of different channels the score grows linearly with the number of threads up to the number of
+ * cores, leaving only the pool-wide metrics shared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelRefScalingBenchmark {
+  private static final int CHANNELS = 32;
+
+  private GcpManagedChannel pool;
+  private final AtomicInteger nextThread = new AtomicInteger();
+
+  @Setup
+  public void setUp() {
+    pool = NoopManagedChannel.newPool(CHANNELS, null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /** The channel used by a benchmark thread. */
+  @State(Scope.Thread)
+  public static class ThreadChannel {
+    ChannelRef channelRef;
+
+    @Setup
+    public void setUp(ChannelRefScalingBenchmark benchmark) {
+      channelRef =
+          benchmark.pool.channelRefs.get(benchmark.nextThread.getAndIncrement() % CHANNELS);
+    }
+  }
+
+  private static void call(ChannelRef channelRef) {
+    final long startNanos = System.nanoTime();
+    channelRef.activeStreamsCountIncr();
+    channelRef.messageReceived();
+    channelRef.firstMessageReceived(startNanos);
+    channelRef.activeStreamsCountDecr(startNanos, Status.OK, false);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void threads01(ThreadChannel channel) {
+    call(channel.channelRef);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void threads02(ThreadChannel channel) {
+    call(channel.channelRef);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void threads04(ThreadChannel channel) {
+    call(channel.channelRef);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void threads08(ThreadChannel channel) {
+    call(channel.channelRef);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void threads16(ThreadChannel channel) {
+    call(channel.channelRef);
+  }
+
+  @Benchmark
+  @Threads(32)
+  public void threads32(ThreadChannel channel) {
+    call(channel.channelRef);
+  }
+}
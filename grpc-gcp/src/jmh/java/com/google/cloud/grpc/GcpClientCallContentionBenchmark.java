@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.proto.AffinityConfig;
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.cloud.grpc.proto.MethodConfig;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a started streaming {@link GcpClientCall} with one thread sending messages while other
+ * threads poll {@code isReady()}, as flow-controlled streaming calls do.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GcpClientCallContentionBenchmark {
+  private GcpManagedChannel pool;
+  private ClientCall<Void, Void> call;
+
+  @Setup
+  public void setUp() {
+    pool =
+        NoopManagedChannel.newPool(
+            4,
+            ApiConfig.newBuilder()
+                .addMethod(
+                    MethodConfig.newBuilder()
+                        .addName(NoopManagedChannel.BIDI_METHOD.getFullMethodName())
+                        .setAffinity(
+                            AffinityConfig.newBuilder()
+                                .setCommand(AffinityConfig.Command.BOUND)
+                                .setAffinityKey("session")))
+                .build());
+    call = pool.newCall(NoopManagedChannel.BIDI_METHOD, CallOptions.DEFAULT);
+    call.start(new ClientCall.Listener<Void>() {}, new Metadata());
+    call.request(1);
+    // The first message starts the delegate call.
+    call.sendMessage(null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    call.cancel("Benchmark finished", null);
+    pool.shutdownNow();
+  }
+
+  @Benchmark
+  @Group("streaming")
+  @GroupThreads(1)
+  public void sendMessage() {
+    call.sendMessage(null);
+  }
+
+  @Benchmark
+  @Group("streaming")
+  @GroupThreads(3)
+  public boolean isReady() {
+    return call.isReady();
+  }
+}
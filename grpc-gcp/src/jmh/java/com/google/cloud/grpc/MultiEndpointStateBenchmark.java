@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.multiendpoint.MultiEndpoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures picking endpoints of many {@link MultiEndpoint}s sharing the same endpoints, e.g. one
+ * per tenant, while one thread delivers state notifications of a flapping endpoint to all of them
+ * and another repeats notifications of an endpoint which stays ready, as pool state monitoring
+ * does.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiEndpointStateBenchmark {
+  private static final List<String> ENDPOINTS = Arrays.asList("first", "second", "third");
+
+  @Param({"1", "100", "1000"})
+  public int multiEndpoints;
+
+  private final List<MultiEndpoint> mes = new ArrayList<>();
+  private boolean flappingAvailable;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < multiEndpoints; i++) {
+      final MultiEndpoint me = new MultiEndpoint.Builder(ENDPOINTS).build();
+      ENDPOINTS.forEach(e -> me.setEndpointAvailable(e, true));
+      mes.add(me);
+    }
+  }
+
+  @Benchmark
+  @Group("flapping")
+  @GroupThreads(1)
+  public void flap() {
+    flappingAvailable = !flappingAvailable;
+    for (MultiEndpoint me : mes) {
+      me.setEndpointAvailable(ENDPOINTS.get(0), flappingAvailable);
+    }
+  }
+
+  @Benchmark
+  @Group("flapping")
+  @GroupThreads(1)
+  public void repeatReady() {
+    for (MultiEndpoint me : mes) {
+      me.setEndpointAvailable(ENDPOINTS.get(1), true);
+    }
+  }
+
+  @Benchmark
+  @Group("flapping")
+  @GroupThreads(4)
+  public String pick() {
+    return mes.get(ThreadLocalRandom.current().nextInt(mes.size())).pickEndpointId();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.proto.AffinityConfig;
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.cloud.grpc.proto.MethodConfig;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the pool overhead of a call without affinity: {@code newCall}, {@code start} and the
+ * call completing with {@code onClose}, over channels without a transport.
+ *
+ * <p>Run with {@code -prof gc} and compare {@code gc.alloc.rate.norm} (bytes/op).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewCallAllocationBenchmark {
+  private static final int POOL_SIZE = 4;
+  private static final ClientCall.Listener<Void> LISTENER = new ClientCall.Listener<Void>() {};
+
+  /** Whether the pool has an API config with affinity for other methods. */
+  @Param({"false", "true"})
+  public boolean withApiConfig;
+
+  private final Metadata headers = new Metadata();
+  private GcpManagedChannel pool;
+
+  @Setup
+  public void setUp() {
+    ApiConfig apiConfig = null;
+    if (withApiConfig) {
+      apiConfig =
+          ApiConfig.newBuilder()
+              .addMethod(
+                  MethodConfig.newBuilder()
+                      .addName("google.spanner.v1.Spanner/ExecuteSql")
+                      .setAffinity(
+                          AffinityConfig.newBuilder()
+                              .setCommand(AffinityConfig.Command.BOUND)
+                              .setAffinityKey("session")))
+              .build();
+    }
+    pool = NoopManagedChannel.newPool(POOL_SIZE, apiConfig);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Benchmark
+  public ClientCall<Void, Void> unaryCall() {
+    ClientCall<Void, Void> call =
+        pool.newCall(NoopManagedChannel.UNARY_METHOD, CallOptions.DEFAULT);
+    call.start(LISTENER, headers);
+    // Completes the call with onClose.
+    call.halfClose();
+    return call;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
+import com.google.cloud.grpc.proto.ApiConfig;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A READY channel without a transport for benchmarking the pool overhead. Its calls complete with
+ * OK status as soon as they are half-closed and drop sent messages.
+ */
+final class NoopManagedChannel extends ManagedChannel {
+  /** A unary method with empty messages. */
+  static final MethodDescriptor<Void, Void> UNARY_METHOD =
+      newMethod(MethodDescriptor.MethodType.UNARY);
+
+  /** A bidi-streaming method with empty messages. */
+  static final MethodDescriptor<Void, Void> BIDI_METHOD =
+      newMethod(MethodDescriptor.MethodType.BIDI_STREAMING);
+
+  private static final Metadata TRAILERS = new Metadata();
+
+  /**
+   * Creates a pool filled with {@code size} channels of this kind, so that it never creates real
+   * channels.
+   */
+  static GcpManagedChannel newPool(int size, @Nullable ApiConfig apiConfig) {
+    GcpManagedChannelBuilder builder =
+        GcpManagedChannelBuilder.forDelegateBuilder(
+                ManagedChannelBuilder.forAddress("localhost", 443))
+            .withOptions(
+                GcpManagedChannelOptions.newBuilder()
+                    .withChannelPoolOptions(
+                        GcpChannelPoolOptions.newBuilder().setMaxSize(size).build())
+                    .build());
+    if (apiConfig != null) {
+      builder.withApiConfig(apiConfig);
+    }
+    GcpManagedChannel pool = (GcpManagedChannel) builder.build();
+    for (int i = 0; i < size; i++) {
+      pool.channelRefs.add(pool.new ChannelRef(new NoopManagedChannel(), i));
+    }
+    return pool;
+  }
+
+  private static MethodDescriptor<Void, Void> newMethod(MethodDescriptor.MethodType type) {
+    final MethodDescriptor.Marshaller<Void> marshaller =
+        new MethodDescriptor.Marshaller<Void>() {
+          @Override
+          public InputStream stream(Void value) {
+            return new ByteArrayInputStream(new byte[0]);
+          }
+
+          @Override
+          public Void parse(InputStream stream) {
+            return null;
+          }
+        };
+    return MethodDescriptor.<Void, Void>newBuilder()
+        .setType(type)
+        .setFullMethodName(
+            MethodDescriptor.generateFullMethodName("benchmark.Service", type.name()))
+        .setRequestMarshaller(marshaller)
+        .setResponseMarshaller(marshaller)
+        .build();
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+      MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+    return new NoopCall<>();
+  }
+
+  @Override
+  public ConnectivityState getState(boolean requestConnection) {
+    return ConnectivityState.READY;
+  }
+
+  @Override
+  public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {}
+
+  @Override
+  public ManagedChannel shutdown() {
+    return this;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return false;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return false;
+  }
+
+  @Override
+  public ManagedChannel shutdownNow() {
+    return this;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return true;
+  }
+
+  @Override
+  public String authority() {
+    return "localhost";
+  }
+
+  private static final class NoopCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+    private Listener<RespT> listener;
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata headers) {
+      listener = responseListener;
+    }
+
+    @Override
+    public void request(int numMessages) {}
+
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {
+      listener.onClose(Status.CANCELLED, TRAILERS);
+    }
+
+    @Override
+    public void halfClose() {
+      listener.onClose(Status.OK, TRAILERS);
+    }
+
+    @Override
+    public void sendMessage(ReqT message) {}
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+  }
+}
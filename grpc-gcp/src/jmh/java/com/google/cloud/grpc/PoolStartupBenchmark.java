@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannelBuilder;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to create pools with periodic maintenance and a state change notification,
+ * and the number of threads they add to the process (the "threads" secondary result).
+ *
+ * <p>With shared executors the pools only add the threads of the process-wide executors once,
+ * while executors per pool (as if each pool provided its own in the options) add a few threads
+ * per pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PoolStartupBenchmark {
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  @Param({"1", "10", "50"})
+  public int pools;
+
+  @Param({"true", "false"})
+  public boolean sharedExecutors;
+
+  private final List<GcpManagedChannel> created = new ArrayList<>();
+  private final List<ExecutorService> executors = new ArrayList<>();
+
+  /** Threads added by creating the pools. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class ThreadCounters {
+    public long threads;
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws InterruptedException {
+    for (GcpManagedChannel pool : created) {
+      pool.shutdownNow();
+    }
+    created.clear();
+    for (ExecutorService executor : executors) {
+      executor.shutdownNow();
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    executors.clear();
+  }
+
+  @Setup(Level.Invocation)
+  public void setUp(ThreadCounters counters) {
+    counters.threads = -THREADS.getThreadCount();
+  }
+
+  @Benchmark
+  public void startPools(ThreadCounters counters) {
+    for (int i = 0; i < pools; i++) {
+      GcpManagedChannelOptions.Builder options =
+          GcpManagedChannelOptions.newBuilder()
+              .withChannelPoolOptions(
+                  GcpChannelPoolOptions.newBuilder()
+                      .setMaxSize(4)
+                      .setIdleTimeout(Duration.ofMinutes(10))
+                      .build());
+      if (!sharedExecutors) {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        executors.add(scheduler);
+        executors.add(executor);
+        options.withScheduledExecutorService(scheduler).withExecutor(executor);
+      }
+      final GcpManagedChannel pool =
+          (GcpManagedChannel)
+              GcpManagedChannelBuilder.forDelegateBuilder(
+                      ManagedChannelBuilder.forAddress("localhost", 443))
+                  .withOptions(options.build())
+                  .build();
+      // The pool is IDLE, so the callback runs on the state notification executor right away.
+      pool.notifyWhenStateChanged(ConnectivityState.SHUTDOWN, () -> {});
+      created.add(pool);
+    }
+    counters.threads += THREADS.getThreadCount();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Status;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A marshaller wrapping the response marshaller of a call to capture affinity keys from the first
+ * serialized response message before it is parsed.
+ *
+ * <p>The keys are extracted by {@link AffinityKeyExtractor} scanning the serialized bytes, so the
+ * parsed message does not need to be traversed. A stream of known length supporting {@link
+ * InputStream#mark(int)} is scanned in place and rewound for parsing, so the message is not
+ * copied. Other streams, e.g. from the transport deframer or of compressed messages, are copied
+ * and scanned if not larger than {@link #MAX_COPY_BYTES}, otherwise they are parsed without
+ * capturing the keys, leaving them to be extracted from the parsed message. A new instance is used
+ * for every call.
+ */
+final class AffinityKeyCapturingMarshaller<T> implements Marshaller<T> {
+  private static final Logger logger =
+      Logger.getLogger(AffinityKeyCapturingMarshaller.class.getName());
+  // Larger responses which cannot be scanned in place are not copied to capture the keys.
+  static final int MAX_COPY_BYTES = 1024 * 1024;
+
+  private final Marshaller<T> delegate;
+  private final AffinityKeyExtractor extractor;
+  private final Descriptor descriptor;
+  // Keys from the first response message. Set on the transport thread before the message is
+  // delivered to the call listener.
+  @Nullable private volatile List<String> keys;
+  private volatile boolean captured = false;
+
+  AffinityKeyCapturingMarshaller(
+      Marshaller<T> delegate, AffinityKeyExtractor extractor, Descriptor descriptor) {
+    this.delegate = delegate;
+    this.extractor = extractor;
+    this.descriptor = descriptor;
+  }
+
+  @Override
+  public InputStream stream(T value) {
+    return delegate.stream(value);
+  }
+
+  @Override
+  public T parse(InputStream stream) {
+    if (captured) {
+      return delegate.parse(stream);
+    }
+    captured = true;
+    try {
+      if (stream instanceof KnownLength && stream.markSupported()) {
+        stream.mark(stream.available());
+        extractKeys(CodedInputStream.newInstance(stream));
+        stream.reset();
+        return delegate.parse(stream);
+      }
+      if (stream instanceof KnownLength && stream.available() > MAX_COPY_BYTES) {
+        return delegate.parse(stream);
+      }
+      final byte[] bytes = ByteStreams.toByteArray(ByteStreams.limit(stream, MAX_COPY_BYTES + 1));
+      if (bytes.length > MAX_COPY_BYTES) {
+        return delegate.parse(new SequenceInputStream(new ByteArrayInputStream(bytes), stream));
+      }
+      extractKeys(CodedInputStream.newInstance(bytes));
+      return delegate.parse(new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw Status.INTERNAL
+          .withDescription("Failed to read the response message")
+          .withCause(e)
+          .asRuntimeException();
+    }
+  }
+
+  private void extractKeys(CodedInputStream input) {
+    try {
+      keys = extractor.extract(input, descriptor);
+    } catch (IOException e) {
+      // Leave the keys to be extracted from the parsed message which will report the error.
+      logger.log(Level.FINE, "Failed to extract affinity keys from the response bytes", e);
+    }
+  }
+
+  /** Returns the keys captured from the first response message or null if none was captured. */
+  @Nullable
+  List<String> getKeys() {
+    return keys;
+  }
+}
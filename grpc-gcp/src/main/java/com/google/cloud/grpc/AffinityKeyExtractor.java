@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AffinityKeyExtractor gets affinity keys from messages by a precompiled affinity key path.
+ *
+ * <p>The path (e.g. "session" or "mutations.insert.table") is split once, and for every message
+ * type it is used with, it is resolved into a chain of {@link FieldDescriptor}s. Extraction then
+ * reads only the fields on the chain without building the map of all set fields as {@link
+ * MessageOrBuilder#getAllFields()} does. The result is the same as of {@link
+ * GcpManagedChannel#getKeysFromMessage(MessageOrBuilder, String)}: values of the string field
+ * at the end of the path, where intermediate fields may be singular or repeated messages.
+ *
+ * <p>Keys can also be extracted from a serialized message by scanning its tags with {@link
+ * CodedInputStream}, skipping everything but the fields on the chain, without parsing the message.
+ */
+final class AffinityKeyExtractor {
+  private static final FieldDescriptor[] UNRESOLVED = new FieldDescriptor[0];
+
+  private final String[] fieldNames;
+  // Resolved field chains by the root message type. Usually there are only request and response
+  // types of a method.
+  private final Map<Descriptor, FieldDescriptor[]> chains = new ConcurrentHashMap<>();
+
+  AffinityKeyExtractor(String affinityKeyPath) {
+    this.fieldNames = affinityKeyPath.split("\\.", -1);
+  }
+
+  /** Returns the affinity keys found in the message. */
+  List<String> extract(MessageOrBuilder message) {
+    final FieldDescriptor[] chain = resolve(message.getDescriptorForType());
+    if (chain == UNRESOLVED) {
+      return Collections.emptyList();
+    }
+    return extract(message, chain, 0);
+  }
+
+  /**
+   * Returns the affinity keys found in the serialized message of the type described by the
+   * descriptor.
+   *
+   * <p>If a singular field on the path occurs multiple times on the wire, the keys from its last
+   * occurrence are used, following the protobuf rule of the last value winning.
+   */
+  List<String> extract(CodedInputStream input, Descriptor descriptor) throws IOException {
+    final FieldDescriptor[] chain = resolve(descriptor);
+    if (chain == UNRESOLVED) {
+      return Collections.emptyList();
+    }
+    return scan(input, chain, 0);
+  }
+
+  private FieldDescriptor[] resolve(Descriptor descriptor) {
+    FieldDescriptor[] chain = chains.get(descriptor);
+    if (chain == null) {
+      chain = compile(descriptor);
+      chains.put(descriptor, chain);
+    }
+    return chain;
+  }
+
+  private FieldDescriptor[] compile(Descriptor descriptor) {
+    final FieldDescriptor[] chain = new FieldDescriptor[fieldNames.length];
+    Descriptor current = descriptor;
+    for (int i = 0; i < fieldNames.length; i++) {
+      final FieldDescriptor field = current.findFieldByName(fieldNames[i]);
+      if (field == null) {
+        return UNRESOLVED;
+      }
+      final boolean last = i == fieldNames.length - 1;
+      if (last) {
+        // Only a singular string field can hold a key.
+        if (field.isRepeated() || field.getJavaType() != JavaType.STRING) {
+          return UNRESOLVED;
+        }
+      } else {
+        if (field.getJavaType() != JavaType.MESSAGE) {
+          return UNRESOLVED;
+        }
+        current = field.getMessageType();
+      }
+      chain[i] = field;
+    }
+    return chain;
+  }
+
+  // Returns the keys found at chain[depth..] in the message. Avoids allocating a list for the most
+  // common cases of no keys and a single key.
+  private static List<String> extract(
+      MessageOrBuilder message, FieldDescriptor[] chain, int depth) {
+    final FieldDescriptor field = chain[depth];
+    if (!field.isRepeated()) {
+      if (!message.hasField(field)) {
+        return Collections.emptyList();
+      }
+      if (depth == chain.length - 1) {
+        return Collections.singletonList((String) message.getField(field));
+      }
+      return extract((MessageOrBuilder) message.getField(field), chain, depth + 1);
+    }
+    final int count = message.getRepeatedFieldCount(field);
+    List<String> keys = null;
+    for (int i = 0; i < count; i++) {
+      final List<String> found =
+          extract((MessageOrBuilder) message.getRepeatedField(field, i), chain, depth + 1);
+      if (found.isEmpty()) {
+        continue;
+      }
+      if (keys == null) {
+        keys = new ArrayList<>(found);
+      } else {
+        keys.addAll(found);
+      }
+    }
+    return keys == null ? Collections.<String>emptyList() : keys;
+  }
+
+  // Returns the keys found at chain[depth..] in the serialized message, reading the input until
+  // its end or the current limit.
+  private static List<String> scan(CodedInputStream input, FieldDescriptor[] chain, int depth)
+      throws IOException {
+    final FieldDescriptor field = chain[depth];
+    final boolean leaf = depth == chain.length - 1;
+    // Both strings and messages are length-delimited.
+    final int expectedTag =
+        WireFormat.makeTag(field.getNumber(), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    List<String> keys = Collections.emptyList();
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      if (tag != expectedTag) {
+        input.skipField(tag);
+        continue;
+      }
+      if (leaf) {
+        keys = Collections.singletonList(input.readString());
+        continue;
+      }
+      final int oldLimit = input.pushLimit(input.readRawVarint32());
+      final List<String> found = scan(input, chain, depth + 1);
+      input.popLimit(oldLimit);
+      if (!field.isRepeated()) {
+        if (!found.isEmpty()) {
+          keys = found;
+        }
+      } else if (!found.isEmpty()) {
+        if (keys.isEmpty()) {
+          keys = new ArrayList<>(found);
+        } else {
+          keys.addAll(found);
+        }
+      }
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * AffinityKeyStore maps affinity keys to values (channels) with optional bounded size and
+ * access-time based expiration.
+ *
+ * <p>Lookups are O(1) and do not allocate: a hit only updates the access time of the binding.
+ * When the store exceeds its maximum size the least recently accessed keys are evicted on the
+ * eviction executor, so that binding a key does not scan the store. Keys not accessed for longer
+ * than the TTL are evicted by {@link #evictExpired(long)} which is expected to be called
+ * periodically. The eviction listener is called for every evicted key.
+ */
+final class AffinityKeyStore<V> {
+
+  /** Listener of evicted keys. */
+  interface EvictionListener<V> {
+    void onEvicted(String key, V value);
+  }
+
+  private static final class Binding<V> {
+    private final V value;
+    private volatile long lastAccessNanos;
+
+    private Binding(V value, long lastAccessNanos) {
+      this.value = value;
+      this.lastAccessNanos = lastAccessNanos;
+    }
+  }
+
+  private final Map<String, Binding<V>> bindings = new ConcurrentHashMap<>();
+  private final long ttlNanos;
+  private final int maxKeys;
+  // No need to track access time if neither TTL nor max size is set.
+  private final boolean trackAccess;
+  private final Executor evictionExecutor;
+  private final EvictionListener<V> evictionListener;
+  // Whether an eviction of the least recently accessed keys is scheduled or running.
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+  private final AtomicLong evictedCount = new AtomicLong();
+
+  /**
+   * @param ttlNanos time after the last access when a key expires. Zero disables expiration.
+   * @param maxKeys maximum number of keys in the store. Zero means unbounded.
+   * @param evictionExecutor executor to evict the keys exceeding the maximum size on.
+   * @param evictionListener listener called for every evicted key.
+   */
+  AffinityKeyStore(
+      long ttlNanos,
+      int maxKeys,
+      Executor evictionExecutor,
+      EvictionListener<V> evictionListener) {
+    this.ttlNanos = ttlNanos;
+    this.maxKeys = maxKeys;
+    this.trackAccess = ttlNanos > 0 || maxKeys > 0;
+    this.evictionExecutor = evictionExecutor;
+    this.evictionListener = evictionListener;
+  }
+
+  /** Returns the value bound to the key, if any, and refreshes the key's access time. */
+  @Nullable
+  V get(String key) {
+    final Binding<V> binding = bindings.get(key);
+    if (binding == null) {
+      return null;
+    }
+    if (trackAccess) {
+      binding.lastAccessNanos = System.nanoTime();
+    }
+    return binding.value;
+  }
+
+  /**
+   * Binds the key to the value if the key is not bound yet.
+   *
+   * @return the value the key is already bound to or null if the value was bound.
+   */
+  @Nullable
+  V putIfAbsent(String key, V value) {
+    final Binding<V> existing =
+        bindings.putIfAbsent(key, new Binding<>(value, trackAccess ? System.nanoTime() : 0));
+    if (existing != null) {
+      return existing.value;
+    }
+    if (maxKeys > 0 && bindings.size() > maxKeys) {
+      scheduleEviction();
+    }
+    return null;
+  }
+
+  /** Removes the key and returns the value it was bound to, if any. */
+  @Nullable
+  V remove(String key) {
+    final Binding<V> binding = bindings.remove(key);
+    return binding == null ? null : binding.value;
+  }
+
+  /** Rebinds the key to the new value if it is bound to the old value. */
+  boolean replace(String key, V oldValue, V newValue) {
+    final Binding<V> binding = bindings.get(key);
+    if (binding == null || binding.value != oldValue) {
+      return false;
+    }
+    return bindings.replace(key, binding, new Binding<>(newValue, binding.lastAccessNanos));
+  }
+
+  void forEach(BiConsumer<String, V> action) {
+    bindings.forEach((key, binding) -> action.accept(key, binding.value));
+  }
+
+  /** Returns a snapshot of the bound values. */
+  Collection<V> values() {
+    final List<V> values = new ArrayList<>(bindings.size());
+    bindings.values().forEach(binding -> values.add(binding.value));
+    return values;
+  }
+
+  int size() {
+    return bindings.size();
+  }
+
+  long getEvictedCount() {
+    return evictedCount.get();
+  }
+
+  /**
+   * Evicts keys not accessed for longer than the TTL.
+   *
+   * @param nowNanos current {@link System#nanoTime()}.
+   * @return number of evicted keys.
+   */
+  int evictExpired(long nowNanos) {
+    if (ttlNanos <= 0) {
+      return 0;
+    }
+    int evicted = 0;
+    for (Map.Entry<String, Binding<V>> entry : bindings.entrySet()) {
+      if (nowNanos - entry.getValue().lastAccessNanos >= ttlNanos
+          && evict(entry.getKey(), entry.getValue())) {
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  private void scheduleEviction() {
+    if (!evictionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      evictionExecutor.execute(this::evictLeastRecentlyAccessed);
+    } catch (RejectedExecutionException e) {
+      // The pool is shutting down.
+      evictionScheduled.set(false);
+    }
+  }
+
+  // Evicts the least recently accessed keys to get below the max size. To amortize the cost of
+  // finding them, 1/16 of the max size is evicted at once.
+  private void evictLeastRecentlyAccessed() {
+    try {
+      final int toEvict = bindings.size() - maxKeys + Math.max(maxKeys / 16, 1) - 1;
+      if (toEvict <= 0) {
+        return;
+      }
+      // Max-heap by access time keeping the toEvict oldest bindings.
+      final PriorityQueue<Map.Entry<String, Binding<V>>> oldest =
+          new PriorityQueue<>(
+              toEvict + 1,
+              Comparator.comparingLong(
+                      (Map.Entry<String, Binding<V>> e) -> e.getValue().lastAccessNanos)
+                  .reversed());
+      for (Map.Entry<String, Binding<V>> entry : bindings.entrySet()) {
+        oldest.add(entry);
+        if (oldest.size() > toEvict) {
+          oldest.poll();
+        }
+      }
+      for (Map.Entry<String, Binding<V>> entry : oldest) {
+        evict(entry.getKey(), entry.getValue());
+      }
+    } finally {
+      evictionScheduled.set(false);
+    }
+    // Keys bound while evicting did not schedule another eviction.
+    if (bindings.size() > maxKeys) {
+      scheduleEviction();
+    }
+  }
+
+  private boolean evict(String key, Binding<V> binding) {
+    // Do not evict if the key was rebound in the meantime.
+    if (!bindings.remove(key, binding)) {
+      return false;
+    }
+    evictedCount.incrementAndGet();
+    evictionListener.onEvicted(key, binding.value);
+    return true;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import io.grpc.Status;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative counts of completed calls of a pool: their latencies and the number of calls failed
+ * with a status indicating a problem of the endpoint rather than of the request.
+ *
+ * <p>The counts are never reset, so any number of observers can evaluate the calls over their own
+ * intervals from the difference of two {@link Snapshot}s. Recording is lock-free and does not
+ * allocate.
+ */
+final class CallStats {
+  private final AtomicLongArray latencyCounts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+  private final LongAdder errors = new LongAdder();
+
+  /** Records a call completed with the status after the latency in nanoseconds. */
+  void record(long latencyNanos, Status.Code code) {
+    latencyCounts.incrementAndGet(LatencyHistogram.bucketIndex(latencyNanos / 1000));
+    if (isEndpointError(code)) {
+      errors.increment();
+    }
+  }
+
+  /** Returns the counts recorded so far. */
+  Snapshot snapshot() {
+    final long[] counts = new long[LatencyHistogram.BUCKETS];
+    long calls = 0;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = latencyCounts.get(i);
+      calls += counts[i];
+    }
+    return new Snapshot(counts, calls, errors.sum());
+  }
+
+  // Statuses of overloaded, unreachable or failing backends.
+  private static boolean isEndpointError(Status.Code code) {
+    switch (code) {
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+      case INTERNAL:
+      case UNKNOWN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Counts of calls at a point in time or, as a difference of two snapshots, over an interval. */
+  static final class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(new long[LatencyHistogram.BUCKETS], 0, 0);
+
+    private final long[] latencyCounts;
+    private final long calls;
+    private final long errors;
+
+    private Snapshot(long[] latencyCounts, long calls, long errors) {
+      this.latencyCounts = latencyCounts;
+      this.calls = calls;
+      this.errors = errors;
+    }
+
+    long getCalls() {
+      return calls;
+    }
+
+    long getErrors() {
+      return errors;
+    }
+
+    /** Returns the share of failed calls or zero if there were no calls. */
+    double getErrorRate() {
+      // Errors are counted after latencies and may be ahead of the calls.
+      return calls == 0 ? 0 : Math.min((double) errors / calls, 1);
+    }
+
+    /** Returns the latency in microseconds at the percentile (between 0 and 100). */
+    long getLatencyPercentileMicros(double percentile) {
+      return LatencyHistogram.percentileMicros(latencyCounts, percentile);
+    }
+
+    /** Returns the counts of calls completed since the previous snapshot. */
+    Snapshot minus(Snapshot previous) {
+      final long[] counts = new long[latencyCounts.length];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = latencyCounts[i] - previous.latencyCounts[i];
+      }
+      return new Snapshot(counts, calls - previous.calls, errors - previous.errors);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Picks a channel from the pool of a {@link GcpManagedChannel} for a call without affinity or with
+ * an affinity key not yet bound to a channel.
+ *
+ * <p>A picker is called on the call path concurrently from many threads, so it must be thread-safe
+ * and cheap. See {@link ChannelPickers} for the built-in pickers and {@link
+ * GcpManagedChannelOptions.GcpChannelPoolOptions.Builder#setChannelPicker(ChannelPicker)} to
+ * configure a picker.
+ */
+public interface ChannelPicker {
+
+  /**
+   * A read-only view of a channel in the pool. The values are live and may change concurrently
+   * while a pick is made.
+   */
+  interface ChannelInfo {
+    /** Returns the id of the channel, unique within the pool. */
+    int getId();
+
+    /** Returns the number of active streams on the channel. */
+    int getActiveStreamsCount();
+
+    /** Returns the number of affinity keys bound to the channel. */
+    int getAffinityCount();
+
+    /**
+     * Returns the exponentially weighted moving average of call latency on the channel in
+     * nanoseconds, or zero if no call has completed on the channel yet.
+     */
+    long getLatencyEwmaNanos();
+
+    /**
+     * Returns the exponentially weighted moving average of time from the start of a call to its
+     * first response message on the channel in nanoseconds, or zero if no call has received a
+     * message on the channel yet.
+     */
+    long getFirstMessageLatencyEwmaNanos();
+
+    /**
+     * Returns the peak-sensitive moving average of time to the first response message on the
+     * channel in nanoseconds, or zero if no call has received a message on the channel yet. It
+     * rises to a higher sample immediately and otherwise decays over time, so a channel becoming
+     * slow is avoided at once and retried after it has not been observed slow for a while.
+     */
+    long getPeakLatencyEwmaNanos();
+  }
+
+  /**
+   * Picks a channel for a call.
+   *
+   * @param channels the channels in the pool, never empty. The list must not be modified.
+   * @param methodName the full method name of the call or null if not known.
+   * @param affinityKey the affinity key which will be bound to the picked channel or null.
+   * @return one of the channels from the list.
+   */
+  ChannelInfo pick(
+      List<? extends ChannelInfo> channels,
+      @Nullable String methodName,
+      @Nullable String affinityKey);
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.ChannelPicker.ChannelInfo;
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions.ChannelPickStrategy;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+
+/** Built-in {@link ChannelPicker}s. */
+public final class ChannelPickers {
+
+  private ChannelPickers() {}
+
+  /** Returns a picker of the channel with the fewest active streams. */
+  public static ChannelPicker leastBusy() {
+    return LeastBusy.INSTANCE;
+  }
+
+  /** Returns a picker of channels in turn regardless of their load. */
+  public static ChannelPicker roundRobin() {
+    return new RoundRobin();
+  }
+
+  /**
+   * Returns a picker sampling two random channels and picking the one with fewer active streams.
+   * The cost of a pick does not depend on the pool size.
+   */
+  public static ChannelPicker powerOfTwoChoices() {
+    return PowerOfTwoChoices.INSTANCE;
+  }
+
+  /**
+   * Returns a picker of the channel with the lowest expected latency of a new call, estimated as
+   * the latency EWMA of the channel multiplied by its active streams plus one. Channels without
+   * completed calls are assumed to be as fast as the fastest channel, so that they get tried.
+   */
+  public static ChannelPicker latencyEwma() {
+    return LatencyEwma.INSTANCE;
+  }
+
+  /**
+   * Returns a picker of the channel with the lowest peak-EWMA cost: the peak-sensitive latency
+   * average of the channel (see {@link ChannelInfo#getPeakLatencyEwmaNanos()}) multiplied by its
+   * active streams plus one. This is the least busy choice weighted by observed latency, so slow
+   * connections shed load automatically. Channels without samples are assumed to be as fast as
+   * the fastest channel.
+   */
+  public static ChannelPicker peakEwma() {
+    return PeakEwma.INSTANCE;
+  }
+
+  // Returns the built-in picker implementing the pick strategy.
+  static ChannelPicker forStrategy(ChannelPickStrategy strategy) {
+    switch (strategy) {
+      case POWER_OF_TWO_CHOICES:
+        return powerOfTwoChoices();
+      case PEAK_EWMA:
+        return peakEwma();
+      case LEAST_BUSY:
+      default:
+        return leastBusy();
+    }
+  }
+
+  // Picks the channel with the lowest latency multiplied by active streams plus one, where the
+  // latency of channels without samples is the lowest latency observed.
+  private static ChannelInfo pickByWeightedLatency(
+      List<? extends ChannelInfo> channels, ToLongFunction<ChannelInfo> latencyFunction) {
+    ChannelInfo measured = null;
+    double measuredCost = Double.MAX_VALUE;
+    long minLatency = Long.MAX_VALUE;
+    // The least busy channel without samples.
+    ChannelInfo unmeasured = null;
+    int unmeasuredStreams = Integer.MAX_VALUE;
+    for (int i = 0; i < channels.size(); i++) {
+      final ChannelInfo channel = channels.get(i);
+      final long latency = latencyFunction.applyAsLong(channel);
+      final int streams = channel.getActiveStreamsCount();
+      if (latency <= 0) {
+        if (streams < unmeasuredStreams) {
+          unmeasuredStreams = streams;
+          unmeasured = channel;
+        }
+        continue;
+      }
+      minLatency = Math.min(minLatency, latency);
+      final double cost = (double) latency * (streams + 1);
+      if (cost < measuredCost) {
+        measuredCost = cost;
+        measured = channel;
+      }
+    }
+    if (measured == null) {
+      return unmeasured;
+    }
+    if (unmeasured != null && (double) minLatency * (unmeasuredStreams + 1) < measuredCost) {
+      return unmeasured;
+    }
+    return measured;
+  }
+
+  private static final class LeastBusy implements ChannelPicker {
+    private static final LeastBusy INSTANCE = new LeastBusy();
+
+    @Override
+    public ChannelInfo pick(
+        List<? extends ChannelInfo> channels,
+        @Nullable String methodName,
+        @Nullable String affinityKey) {
+      ChannelInfo picked = channels.get(0);
+      int minStreams = picked.getActiveStreamsCount();
+      for (int i = 1; i < channels.size(); i++) {
+        final ChannelInfo channel = channels.get(i);
+        final int streams = channel.getActiveStreamsCount();
+        if (streams < minStreams) {
+          minStreams = streams;
+          picked = channel;
+        }
+      }
+      return picked;
+    }
+
+    @Override
+    public String toString() {
+      return "leastBusy";
+    }
+  }
+
+  private static final class RoundRobin implements ChannelPicker {
+    private final AtomicInteger index = new AtomicInteger();
+
+    @Override
+    public ChannelInfo pick(
+        List<? extends ChannelInfo> channels,
+        @Nullable String methodName,
+        @Nullable String affinityKey) {
+      return channels.get(Math.floorMod(index.getAndIncrement(), channels.size()));
+    }
+
+    @Override
+    public String toString() {
+      return "roundRobin";
+    }
+  }
+
+  private static final class PowerOfTwoChoices implements ChannelPicker {
+    private static final PowerOfTwoChoices INSTANCE = new PowerOfTwoChoices();
+
+    @Override
+    public ChannelInfo pick(
+        List<? extends ChannelInfo> channels,
+        @Nullable String methodName,
+        @Nullable String affinityKey) {
+      final int size = channels.size();
+      if (size == 1) {
+        return channels.get(0);
+      }
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final int i = random.nextInt(size);
+      final int j = random.nextInt(size - 1);
+      final ChannelInfo a = channels.get(i);
+      final ChannelInfo b = channels.get(j >= i ? j + 1 : j);
+      return a.getActiveStreamsCount() <= b.getActiveStreamsCount() ? a : b;
+    }
+
+    @Override
+    public String toString() {
+      return "powerOfTwoChoices";
+    }
+  }
+
+  private static final class LatencyEwma implements ChannelPicker {
+    private static final LatencyEwma INSTANCE = new LatencyEwma();
+
+    @Override
+    public ChannelInfo pick(
+        List<? extends ChannelInfo> channels,
+        @Nullable String methodName,
+        @Nullable String affinityKey) {
+      return pickByWeightedLatency(channels, ChannelInfo::getLatencyEwmaNanos);
+    }
+
+    @Override
+    public String toString() {
+      return "latencyEwma";
+    }
+  }
+
+  private static final class PeakEwma implements ChannelPicker {
+    private static final PeakEwma INSTANCE = new PeakEwma();
+
+    @Override
+    public ChannelInfo pick(
+        List<? extends ChannelInfo> channels,
+        @Nullable String methodName,
+        @Nullable String affinityKey) {
+      return pickByWeightedLatency(channels, ChannelInfo::getPeakLatencyEwmaNanos);
+    }
+
+    @Override
+    public String toString() {
+      return "peakEwma";
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+/**
+ * ChannelPoolAutoscaler recommends the size of a channel pool ahead of demand.
+ *
+ * <p>The autoscaler is fed periodic samples of the pool's total active streams and the number of
+ * completed calls. It tracks smoothed (EWMA) values of the active streams, their trend and the
+ * call rate, and predicts the number of active streams one channel readiness time ahead, so that
+ * new channels are connected by the time the demand arrives. The pool is scaled up as soon as the
+ * prediction exceeds the capacity of the pool (every channel having {@code streamsPerChannel}
+ * streams). To avoid flapping, the pool is scaled down only when the prediction with a
+ * {@link #SCALE_DOWN_MARGIN} stays below the capacity of a smaller pool for {@code
+ * scaleDownSamples} consecutive samples.
+ */
+final class ChannelPoolAutoscaler {
+  // Weight of a new sample in the smoothed values.
+  static final double ALPHA = 0.3;
+  // Extra headroom required before removing channels.
+  static final double SCALE_DOWN_MARGIN = 1.25;
+  // Upper bound of the call rate growth factor applied to the prediction.
+  static final double MAX_GROWTH_FACTOR = 2.0;
+
+  private final int minSize;
+  private final int maxSize;
+  private final int streamsPerChannel;
+  private final int scaleDownSamples;
+
+  @GuardedBy("this")
+  private boolean initialized = false;
+
+  @GuardedBy("this")
+  private boolean hasCallRate = false;
+
+  @GuardedBy("this")
+  private long lastSampleNanos;
+
+  @GuardedBy("this")
+  private long lastCompletedCalls;
+
+  @GuardedBy("this")
+  private double streamsEwma;
+
+  // Change of active streams per second.
+  @GuardedBy("this")
+  private double streamsTrendEwma;
+
+  // Completed calls per second.
+  @GuardedBy("this")
+  private double callRateEwma;
+
+  @GuardedBy("this")
+  private double lastCallRate;
+
+  @GuardedBy("this")
+  private double readinessNanosEwma;
+
+  @GuardedBy("this")
+  private int targetSize;
+
+  @GuardedBy("this")
+  private int belowTargetSamples = 0;
+
+  /**
+   * @param minSize minimum number of channels to recommend.
+   * @param maxSize maximum number of channels to recommend.
+   * @param streamsPerChannel number of active streams a channel should have before adding a new
+   *     channel, i.e., the concurrent streams low watermark of the pool.
+   * @param scaleDownSamples number of consecutive samples the demand must stay low before scaling
+   *     down.
+   */
+  ChannelPoolAutoscaler(int minSize, int maxSize, int streamsPerChannel, int scaleDownSamples) {
+    this.minSize = Math.max(minSize, 1);
+    this.maxSize = Math.max(maxSize, this.minSize);
+    this.streamsPerChannel = Math.max(streamsPerChannel, 1);
+    this.scaleDownSamples = scaleDownSamples;
+    this.targetSize = this.minSize;
+  }
+
+  /** Records the time it took for a channel to become ready. */
+  synchronized void recordReadinessTime(long readinessNanos) {
+    readinessNanosEwma =
+        readinessNanosEwma == 0
+            ? readinessNanos
+            : ALPHA * readinessNanos + (1 - ALPHA) * readinessNanosEwma;
+  }
+
+  /**
+   * Takes a sample of the pool's load and returns the recommended pool size.
+   *
+   * @param nowNanos current {@link System#nanoTime()}.
+   * @param activeStreams total number of active streams in the pool.
+   * @param completedCalls total number of calls completed since the pool creation.
+   * @return the recommended number of channels in the pool.
+   */
+  synchronized int sample(long nowNanos, int activeStreams, long completedCalls) {
+    if (!initialized) {
+      initialized = true;
+      lastSampleNanos = nowNanos;
+      lastCompletedCalls = completedCalls;
+      streamsEwma = activeStreams;
+      targetSize = clamp(sizeFor(activeStreams));
+      return targetSize;
+    }
+    final double elapsedSec =
+        Math.max(nowNanos - lastSampleNanos, 1) / (double) SECONDS.toNanos(1);
+    final double callRate = (completedCalls - lastCompletedCalls) / elapsedSec;
+    final double prevStreamsEwma = streamsEwma;
+    streamsEwma = ALPHA * activeStreams + (1 - ALPHA) * streamsEwma;
+    streamsTrendEwma =
+        ALPHA * ((streamsEwma - prevStreamsEwma) / elapsedSec) + (1 - ALPHA) * streamsTrendEwma;
+    callRateEwma = hasCallRate ? ALPHA * callRate + (1 - ALPHA) * callRateEwma : callRate;
+    hasCallRate = true;
+    lastCallRate = callRate;
+    lastSampleNanos = nowNanos;
+    lastCompletedCalls = completedCalls;
+
+    final double predicted = predictStreams(elapsedSec, activeStreams);
+    final int desired = clamp(sizeFor(predicted));
+    if (desired > targetSize) {
+      targetSize = desired;
+      belowTargetSamples = 0;
+      return targetSize;
+    }
+    final int desiredWithMargin = clamp(sizeFor(predicted * SCALE_DOWN_MARGIN));
+    if (desiredWithMargin < targetSize) {
+      if (++belowTargetSamples >= scaleDownSamples) {
+        targetSize = desiredWithMargin;
+        belowTargetSamples = 0;
+      }
+    } else {
+      belowTargetSamples = 0;
+    }
+    return targetSize;
+  }
+
+  /** Returns the last recommended pool size. */
+  synchronized int getTargetSize() {
+    return targetSize;
+  }
+
+  // Predicts the active streams by the time a new channel would become ready.
+  @GuardedBy("this")
+  private double predictStreams(double sampleIntervalSec, int activeStreams) {
+    final double lookaheadSec =
+        Math.max(readinessNanosEwma / SECONDS.toNanos(1), sampleIntervalSec);
+    double predicted = streamsEwma + Math.max(streamsTrendEwma, 0) * lookaheadSec;
+    // A call rate above its average suggests a burst the streams count has not reflected yet.
+    if (callRateEwma > 0 && lastCallRate > callRateEwma) {
+      predicted *= Math.min(lastCallRate / callRateEwma, MAX_GROWTH_FACTOR);
+    }
+    return Math.max(predicted, activeStreams);
+  }
+
+  private int sizeFor(double streams) {
+    return (int) Math.ceil(streams / streamsPerChannel);
+  }
+
+  private int clamp(int size) {
+    return Math.min(Math.max(size, minSize), maxSize);
+  }
+}
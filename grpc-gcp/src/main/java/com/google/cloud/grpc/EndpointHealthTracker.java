@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpMultiEndpointOptions.EndpointHealthOptions;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Decides which endpoints of a MultiEndpoint are degraded by the {@link EndpointHealthOptions}
+ * thresholds, from the calls completed on the endpoints between consecutive evaluations.
+ */
+final class EndpointHealthTracker {
+  private static final Logger logger = Logger.getLogger(EndpointHealthTracker.class.getName());
+
+  private final EndpointHealthOptions options;
+  // Stats of the endpoints at the previous evaluation.
+  private final Map<String, CallStats.Snapshot> previous = new HashMap<>();
+  // When the degraded endpoints were demoted.
+  private final Map<String, Long> demotedAtNanos = new HashMap<>();
+
+  EndpointHealthTracker(EndpointHealthOptions options) {
+    this.options = options;
+  }
+
+  EndpointHealthOptions getOptions() {
+    return options;
+  }
+
+  /**
+   * Evaluates the calls of the endpoint completed since the previous evaluation and returns
+   * whether the endpoint is degraded.
+   */
+  synchronized boolean evaluate(String endpoint, CallStats.Snapshot snapshot, long nowNanos) {
+    final CallStats.Snapshot last = previous.put(endpoint, snapshot);
+    final Long demotedAt = demotedAtNanos.get(endpoint);
+    if (last == null) {
+      // The first snapshot starts the first interval.
+      return demotedAt != null;
+    }
+    final CallStats.Snapshot interval = snapshot.minus(last);
+    final boolean evaluable = interval.getCalls() >= options.getMinCalls();
+    if (demotedAt == null) {
+      if (evaluable && exceeds(interval, 1)) {
+        demotedAtNanos.put(endpoint, nowNanos);
+        logger.info(String.format("Endpoint %s demoted: %s", endpoint, describe(interval)));
+        return true;
+      }
+      return false;
+    }
+    if (nowNanos - demotedAt < options.getMinDemotionTime().toNanos()) {
+      return true;
+    }
+    if (evaluable && exceeds(interval, options.getRecoveryRatio())) {
+      return true;
+    }
+    demotedAtNanos.remove(endpoint);
+    logger.info(String.format("Endpoint %s recovered: %s", endpoint, describe(interval)));
+    return false;
+  }
+
+  /** Forgets the endpoints not in the collection. */
+  synchronized void retainAll(Collection<String> endpoints) {
+    previous.keySet().retainAll(endpoints);
+    demotedAtNanos.keySet().retainAll(endpoints);
+  }
+
+  private String describe(CallStats.Snapshot interval) {
+    return String.format(
+        "%d calls, p%s latency %d us, error rate %.3f",
+        interval.getCalls(),
+        options.getLatencyPercentile(),
+        interval.getLatencyPercentileMicros(options.getLatencyPercentile()),
+        interval.getErrorRate());
+  }
+
+  // Whether the latency or the error rate exceeds its threshold multiplied by the ratio.
+  private boolean exceeds(CallStats.Snapshot interval, double ratio) {
+    final long latencyThresholdMicros = options.getLatencyThreshold().toNanos() / 1000;
+    if (latencyThresholdMicros > 0
+        && interval.getLatencyPercentileMicros(options.getLatencyPercentile())
+            > latencyThresholdMicros * ratio) {
+      return true;
+    }
+    return options.getErrorRateThreshold() > 0
+        && interval.getErrorRate() > options.getErrorRateThreshold() * ratio;
+  }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.multiendpoint.MultiEndpoint;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A call which is retried on another endpoint of a MultiEndpoint when it fails with a retryable
+ * status before receiving any response.
+ *
+ * <p>The request messages are buffered until the first response headers or message are received,
+ * when the call is committed to the current endpoint, so that they can be replayed on the next
+ * endpoint. Only one attempt of the call is in flight at a time, and the listener receives the
+ * responses of the committed attempt or the failure of the last one.
+ *
+ * <p>The next endpoint is picked under the lock, while the retry is started and the state of the
+ * call is replayed on it outside the lock. The call methods invoked by the application in the
+ * meantime are recorded and replayed afterwards, so the retry sees every call method exactly once.
+ */
+final class FailoverClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+  private static final Logger logger = Logger.getLogger(FailoverClientCall.class.getName());
+
+  private final MethodDescriptor<ReqT, RespT> methodDescriptor;
+  private final CallOptions callOptions;
+  private final MultiEndpoint multiEndpoint;
+  private final Function<String, Channel> channels;
+  private final FailoverPolicy policy;
+  // The context of the call for the retries started on the transport threads.
+  private final Context context = Context.current();
+
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final Set<String> triedEndpoints = new LinkedHashSet<>();
+
+  @GuardedBy("lock")
+  private Attempt current;
+
+  @GuardedBy("lock")
+  private boolean committed = false;
+
+  @GuardedBy("lock")
+  private boolean cancelled = false;
+
+  // Whether a retry is being started and replayed, the call methods of the application are only
+  // recorded meanwhile.
+  @GuardedBy("lock")
+  private boolean retrying = false;
+
+  // The state of the call to replay on a retry.
+  @GuardedBy("lock")
+  private Listener<RespT> responseListener;
+
+  @GuardedBy("lock")
+  private Metadata headers;
+
+  // Null when the call is committed or has sent more messages than can be buffered.
+  @GuardedBy("lock")
+  @Nullable
+  private List<ReqT> messages = new ArrayList<>(1);
+
+  @GuardedBy("lock")
+  private int requested = 0;
+
+  @GuardedBy("lock")
+  private boolean halfClosed = false;
+
+  @GuardedBy("lock")
+  @Nullable
+  private Boolean messageCompression;
+
+  FailoverClientCall(
+      MethodDescriptor<ReqT, RespT> methodDescriptor,
+      CallOptions callOptions,
+      String endpointId,
+      Channel channel,
+      MultiEndpoint multiEndpoint,
+      Function<String, Channel> channels,
+      FailoverPolicy policy) {
+    this.methodDescriptor = methodDescriptor;
+    this.callOptions = callOptions;
+    this.multiEndpoint = multiEndpoint;
+    this.channels = channels;
+    this.policy = policy;
+    synchronized (lock) {
+      triedEndpoints.add(endpointId);
+      current = new Attempt(channel.newCall(methodDescriptor, callOptions));
+    }
+  }
+
+  @Override
+  public void start(Listener<RespT> responseListener, Metadata headers) {
+    final Attempt attempt;
+    synchronized (lock) {
+      this.responseListener = responseListener;
+      // Keep a copy as the channel may modify the headers of the original call.
+      this.headers = new Metadata();
+      this.headers.merge(headers);
+      attempt = current;
+    }
+    attempt.call.start(attempt, headers);
+  }
+
+  // Picks the next endpoint to retry the call on and returns its channel, or null if there is no
+  // endpoint to retry on.
+  @GuardedBy("lock")
+  @Nullable
+  private Channel nextChannel() {
+    if (triedEndpoints.size() >= policy.getOptions().getMaxAttempts()) {
+      return null;
+    }
+    final String endpointId = multiEndpoint.getAlternativeId(triedEndpoints);
+    final Channel channel = endpointId == null ? null : channels.apply(endpointId);
+    if (channel == null) {
+      return null;
+    }
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine(
+          String.format(
+              "Retrying call of %s on %s after failing on %s.",
+              methodDescriptor.getFullMethodName(), endpointId, triedEndpoints));
+    }
+    triedEndpoints.add(endpointId);
+    return channel;
+  }
+
+  // Sends the call to the channel of the next endpoint replaying its state.
+  private void retry(Channel channel, Metadata retryHeaders) {
+    final Attempt attempt;
+    final Context previous = context.attach();
+    try {
+      attempt = new Attempt(channel.newCall(methodDescriptor, callOptions));
+    } finally {
+      context.detach(previous);
+    }
+    synchronized (lock) {
+      current = attempt;
+    }
+    attempt.call.start(attempt, retryHeaders);
+    replay(attempt);
+  }
+
+  // Replays the call methods recorded so far on the retry, repeating until it has caught up with
+  // the application. Until then the application call methods are only recorded, so that they are
+  // not invoked concurrently with the replay.
+  private void replay(Attempt attempt) {
+    Boolean replayedCompression = null;
+    int replayedRequested = 0;
+    int replayedMessages = 0;
+    boolean replayedHalfClose = false;
+    while (true) {
+      final Boolean compression;
+      final int request;
+      final List<ReqT> newMessages;
+      final boolean halfClose;
+      synchronized (lock) {
+        if (current != attempt) {
+          // The retry failed and another retry took over.
+          return;
+        }
+        if (cancelled) {
+          retrying = false;
+          break;
+        }
+        compression =
+            messageCompression != null && !messageCompression.equals(replayedCompression)
+                ? messageCompression
+                : null;
+        request = requested - replayedRequested;
+        newMessages = new ArrayList<>(messages.subList(replayedMessages, messages.size()));
+        halfClose = halfClosed && !replayedHalfClose;
+        if (compression == null && request == 0 && newMessages.isEmpty() && !halfClose) {
+          retrying = false;
+          // The messages sent while replaying are kept beyond the buffer limit for this retry
+          // only.
+          if (committed || messages.size() > policy.getOptions().getMaxBufferedMessages()) {
+            messages = null;
+          }
+          return;
+        }
+      }
+      if (compression != null) {
+        attempt.call.setMessageCompression(compression);
+        replayedCompression = compression;
+      }
+      if (request > 0) {
+        attempt.call.request(request);
+        replayedRequested += request;
+      }
+      for (ReqT message : newMessages) {
+        attempt.call.sendMessage(message);
+      }
+      replayedMessages += newMessages.size();
+      if (halfClose) {
+        attempt.call.halfClose();
+        replayedHalfClose = true;
+      }
+    }
+    // The call has been cancelled while replaying.
+    attempt.call.cancel("The call was cancelled.", null);
+  }
+
+  // Returns the attempt the application call methods should be forwarded to, or null if a retry is
+  // being replayed and picks the call methods up from the recorded state instead.
+  @GuardedBy("lock")
+  @Nullable
+  private Attempt target() {
+    return retrying ? null : current;
+  }
+
+  @Override
+  public void request(int numMessages) {
+    final Attempt attempt;
+    synchronized (lock) {
+      requested = (int) Math.min((long) requested + numMessages, Integer.MAX_VALUE);
+      attempt = target();
+    }
+    if (attempt != null) {
+      attempt.call.request(numMessages);
+    }
+  }
+
+  @Override
+  public void cancel(@Nullable String message, @Nullable Throwable cause) {
+    final Attempt attempt;
+    synchronized (lock) {
+      cancelled = true;
+      attempt = target();
+    }
+    if (attempt != null) {
+      attempt.call.cancel(message, cause);
+    }
+  }
+
+  @Override
+  public void halfClose() {
+    final Attempt attempt;
+    synchronized (lock) {
+      halfClosed = true;
+      attempt = target();
+    }
+    if (attempt != null) {
+      attempt.call.halfClose();
+    }
+  }
+
+  @Override
+  public void sendMessage(ReqT message) {
+    final Attempt attempt;
+    synchronized (lock) {
+      if (messages != null) {
+        // A retry being replayed needs every message, the buffer limit is checked after it.
+        if (retrying || messages.size() < policy.getOptions().getMaxBufferedMessages()) {
+          messages.add(message);
+        } else {
+          messages = null;
+        }
+      }
+      attempt = target();
+    }
+    if (attempt != null) {
+      attempt.call.sendMessage(message);
+    }
+  }
+
+  @Override
+  public void setMessageCompression(boolean enabled) {
+    final Attempt attempt;
+    synchronized (lock) {
+      messageCompression = enabled;
+      attempt = target();
+    }
+    if (attempt != null) {
+      attempt.call.setMessageCompression(enabled);
+    }
+  }
+
+  @Override
+  public boolean isReady() {
+    return current().call.isReady();
+  }
+
+  // Commits the call to the current attempt as it received a response, so it cannot be retried.
+  private void commit() {
+    synchronized (lock) {
+      committed = true;
+      // A retry being replayed needs the messages and drops them when it has caught up.
+      if (!retrying) {
+        messages = null;
+      }
+    }
+  }
+
+  private Listener<RespT> listener() {
+    synchronized (lock) {
+      return responseListener;
+    }
+  }
+
+  // An attempt of the call and the listener of its responses.
+  private final class Attempt extends ClientCall.Listener<RespT> {
+    private final ClientCall<ReqT, RespT> call;
+
+    private Attempt(ClientCall<ReqT, RespT> call) {
+      this.call = call;
+    }
+
+    @Override
+    public void onHeaders(Metadata headers) {
+      commit();
+      listener().onHeaders(headers);
+    }
+
+    @Override
+    public void onMessage(RespT message) {
+      commit();
+      listener().onMessage(message);
+    }
+
+    @Override
+    public void onClose(Status status, Metadata trailers) {
+      final boolean retryAllowed = policy.onAttemptCompleted(status.getCode());
+      final Channel channel;
+      final Metadata retryHeaders = new Metadata();
+      synchronized (lock) {
+        channel =
+            retryAllowed && !committed && !cancelled && messages != null ? nextChannel() : null;
+        if (channel != null) {
+          retrying = true;
+          retryHeaders.merge(headers);
+        }
+      }
+      if (channel != null) {
+        retry(channel, retryHeaders);
+        return;
+      }
+      listener().onClose(status, trailers);
+    }
+
+    @Override
+    public void onReady() {
+      if (current() == this) {
+        listener().onReady();
+      }
+    }
+  }
+}
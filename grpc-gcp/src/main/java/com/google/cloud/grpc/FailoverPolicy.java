@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.GcpMultiEndpointOptions.FailoverOptions;
+import com.google.common.annotations.VisibleForTesting;
+import io.grpc.Status;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Failover options and the retry budget shared by all calls of a MultiEndpoint.
+ *
+ * <p>The budget is a token bucket counted in thousandths of a token so that it can be updated
+ * atomically without locking.
+ */
+final class FailoverPolicy {
+  private static final int TOKEN = 1000;
+
+  private final FailoverOptions options;
+  private final int maxTokens;
+  private final int threshold;
+  private final int tokenRatio;
+  private final AtomicInteger tokens;
+
+  FailoverPolicy(FailoverOptions options) {
+    this.options = options;
+    this.maxTokens = options.getMaxTokens() * TOKEN;
+    this.threshold = maxTokens / 2;
+    this.tokenRatio = (int) (options.getTokenRatio() * TOKEN);
+    this.tokens = new AtomicInteger(maxTokens);
+  }
+
+  FailoverOptions getOptions() {
+    return options;
+  }
+
+  boolean isRetryable(Status.Code code) {
+    return options.getRetryableCodes().contains(code);
+  }
+
+  /**
+   * Counts a completed attempt of a call in the budget. Returns true if the attempt failed with a
+   * retryable status and the budget allows to retry it.
+   */
+  boolean onAttemptCompleted(Status.Code code) {
+    if (code == Status.Code.OK) {
+      tokens.accumulateAndGet(tokenRatio, (current, ratio) -> Math.min(current + ratio, maxTokens));
+      return false;
+    }
+    if (!isRetryable(code)) {
+      return false;
+    }
+    return tokens.accumulateAndGet(TOKEN, (current, token) -> Math.max(current - token, 0))
+        > threshold;
+  }
+
+  /** Returns the number of tokens in the bucket. */
+  @VisibleForTesting
+  double getTokens() {
+    return (double) tokens.get() / TOKEN;
+  }
+}
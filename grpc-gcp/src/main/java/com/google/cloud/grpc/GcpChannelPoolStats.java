@@ -0,0 +1,243 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import io.grpc.ConnectivityState;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the state and counters of a {@link GcpManagedChannel} pool.
+ *
+ * <p>Counters of calls, fallbacks and connections are cumulative since the pool was created, so
+ * rates can be computed from the difference between two snapshots. Other values are taken at the
+ * time of the snapshot. Values are read without locking, so values read concurrently with calls
+ * may be off by the calls in flight.
+ *
+ * <p>Snapshots are taken by {@link GcpManagedChannel#getStatsSnapshot()} or pushed periodically
+ * to a {@link Listener} set with {@link
+ * GcpManagedChannelOptions.GcpMetricsOptions.Builder#withStatsListener(Listener)}.
+ */
+public final class GcpChannelPoolStats {
+  private final String poolIndex;
+  private final long timestampMillis;
+  private final List<ChannelStats> channels;
+  private final int readyChannels;
+  private final long activeStreams;
+  private final int affinityCount;
+  private final long okCalls;
+  private final long errCalls;
+  private final long fallbacksSucceeded;
+  private final long fallbacksFailed;
+  private final long channelConnects;
+  private final long channelDisconnects;
+  private final long unresponsiveDetections;
+
+  GcpChannelPoolStats(
+      String poolIndex,
+      long timestampMillis,
+      List<ChannelStats> channels,
+      int readyChannels,
+      long activeStreams,
+      int affinityCount,
+      long okCalls,
+      long errCalls,
+      long fallbacksSucceeded,
+      long fallbacksFailed,
+      long channelConnects,
+      long channelDisconnects,
+      long unresponsiveDetections) {
+    this.poolIndex = poolIndex;
+    this.timestampMillis = timestampMillis;
+    this.channels = Collections.unmodifiableList(channels);
+    this.readyChannels = readyChannels;
+    this.activeStreams = activeStreams;
+    this.affinityCount = affinityCount;
+    this.okCalls = okCalls;
+    this.errCalls = errCalls;
+    this.fallbacksSucceeded = fallbacksSucceeded;
+    this.fallbacksFailed = fallbacksFailed;
+    this.channelConnects = channelConnects;
+    this.channelDisconnects = channelDisconnects;
+    this.unresponsiveDetections = unresponsiveDetections;
+  }
+
+  /** Returns the index of the pool in the process as used in logs and metrics, e.g. "pool-0". */
+  public String getPoolIndex() {
+    return poolIndex;
+  }
+
+  /** Returns the wall clock time of the snapshot in milliseconds since the epoch. */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /** Returns the stats of every channel in the pool. */
+  public List<ChannelStats> getChannels() {
+    return channels;
+  }
+
+  /** Returns the number of channels in the READY state. */
+  public int getReadyChannels() {
+    return readyChannels;
+  }
+
+  /** Returns the number of active streams across all channels. */
+  public long getActiveStreams() {
+    return activeStreams;
+  }
+
+  /** Returns the number of affinity keys bound across all channels. */
+  public int getAffinityCount() {
+    return affinityCount;
+  }
+
+  /** Returns the number of calls completed successfully. */
+  public long getOkCalls() {
+    return okCalls;
+  }
+
+  /** Returns the number of calls completed with an error. */
+  public long getErrCalls() {
+    return errCalls;
+  }
+
+  /** Returns the number of calls successfully moved to a ready channel by the fallback. */
+  public long getFallbacksSucceeded() {
+    return fallbacksSucceeded;
+  }
+
+  /** Returns the number of calls for which the fallback found no ready channel. */
+  public long getFallbacksFailed() {
+    return fallbacksFailed;
+  }
+
+  /** Returns the number of times a channel became READY. */
+  public long getChannelConnects() {
+    return channelConnects;
+  }
+
+  /** Returns the number of times a channel left the READY state. */
+  public long getChannelDisconnects() {
+    return channelDisconnects;
+  }
+
+  /** Returns the number of unresponsive connections detected. */
+  public long getUnresponsiveDetections() {
+    return unresponsiveDetections;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "{poolIndex: %s, channels: %s, readyChannels: %d, activeStreams: %d, "
+            + "affinityCount: %d, okCalls: %d, errCalls: %d, fallbacksSucceeded: %d, "
+            + "fallbacksFailed: %d, channelConnects: %d, channelDisconnects: %d, "
+            + "unresponsiveDetections: %d}",
+        poolIndex,
+        channels,
+        readyChannels,
+        activeStreams,
+        affinityCount,
+        okCalls,
+        errCalls,
+        fallbacksSucceeded,
+        fallbacksFailed,
+        channelConnects,
+        channelDisconnects,
+        unresponsiveDetections);
+  }
+
+  /** An immutable snapshot of the state and counters of a channel in the pool. */
+  public static final class ChannelStats {
+    private final int id;
+    private final ConnectivityState state;
+    private final int activeStreams;
+    private final int affinityCount;
+    private final long okCalls;
+    private final long errCalls;
+    private final long latencyEwmaNanos;
+
+    ChannelStats(
+        int id,
+        ConnectivityState state,
+        int activeStreams,
+        int affinityCount,
+        long okCalls,
+        long errCalls,
+        long latencyEwmaNanos) {
+      this.id = id;
+      this.state = state;
+      this.activeStreams = activeStreams;
+      this.affinityCount = affinityCount;
+      this.okCalls = okCalls;
+      this.errCalls = errCalls;
+      this.latencyEwmaNanos = latencyEwmaNanos;
+    }
+
+    /** Returns the id of the channel in the pool. */
+    public int getId() {
+      return id;
+    }
+
+    /** Returns the connectivity state of the channel. */
+    public ConnectivityState getState() {
+      return state;
+    }
+
+    /** Returns the number of active streams on the channel. */
+    public int getActiveStreams() {
+      return activeStreams;
+    }
+
+    /** Returns the number of affinity keys bound to the channel. */
+    public int getAffinityCount() {
+      return affinityCount;
+    }
+
+    /** Returns the number of calls completed successfully on the channel. */
+    public long getOkCalls() {
+      return okCalls;
+    }
+
+    /** Returns the number of calls completed with an error on the channel. */
+    public long getErrCalls() {
+      return errCalls;
+    }
+
+    /** Returns the EWMA of call latency on the channel, or zero if no call has completed. */
+    public long getLatencyEwmaNanos() {
+      return latencyEwmaNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "{id: %d, state: %s, activeStreams: %d, affinityCount: %d, okCalls: %d, errCalls: %d}",
+          id, state, activeStreams, affinityCount, okCalls, errCalls);
+    }
+  }
+
+  /** A listener of periodic snapshots of a pool. */
+  public interface Listener {
+    /**
+     * Called with a new snapshot of the pool once a minute. Called on a thread shared by all
+     * pools in the process, so it should return quickly.
+     */
+    void onStats(GcpChannelPoolStats stats);
+  }
+}
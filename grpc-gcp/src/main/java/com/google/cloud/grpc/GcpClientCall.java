@@ -29,7 +29,8 @@ import io.grpc.Status;
 import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
@@ -48,16 +49,23 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
   private final AffinityConfig affinity;
 
   private GcpManagedChannel.ChannelRef delegateChannelRef = null;
-  private ClientCall<ReqT, RespT> delegateCall = null;
+  // Published once, after the operations issued before the first message are replayed on it.
+  // Operations after that go straight to the delegate without locking.
+  private volatile ClientCall<ReqT, RespT> delegateCall = null;
   private List<String> keys = null;
+  // Captures BIND keys from the serialized response if enabled.
+  @Nullable private AffinityKeyCapturingMarshaller<RespT> bindKeysMarshaller = null;
   private boolean received = false;
-  private final AtomicBoolean decremented = new AtomicBoolean(false);
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<GcpClientCall> DECREMENTED =
+      AtomicIntegerFieldUpdater.newUpdater(GcpClientCall.class, "decremented");
 
-  @GuardedBy("this")
-  private final Queue<Runnable> calls = new ArrayDeque<>();
+  // Set to 1 once the active streams count of the channel is decremented for this call.
+  private volatile int decremented = 0;
 
+  // Operations issued before the first message, when the channel is not known yet.
   @GuardedBy("this")
-  private boolean started;
+  private final Queue<Consumer<ClientCall<ReqT, RespT>>> calls = new ArrayDeque<>();
 
   private long startNanos = 0;
 
@@ -74,27 +82,52 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
 
   @Override
   public void start(Listener<RespT> responseListener, Metadata headers) {
-    checkSendMessage(() -> delegateCall.start(getListener(responseListener), headers));
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    if (call != null) {
+      call.start(getListener(responseListener), headers);
+      return;
+    }
+    checkSendMessage(c -> c.start(getListener(responseListener), headers));
   }
 
   @Override
   public void request(int numMessages) {
-    checkSendMessage(() -> delegateCall.request(numMessages));
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    if (call != null) {
+      call.request(numMessages);
+      return;
+    }
+    checkSendMessage(c -> c.request(numMessages));
   }
 
   @Override
   public void setMessageCompression(boolean enabled) {
-    checkSendMessage(() -> delegateCall.setMessageCompression(enabled));
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    if (call != null) {
+      call.setMessageCompression(enabled);
+      return;
+    }
+    checkSendMessage(c -> c.setMessageCompression(enabled));
   }
 
   @Override
   public void cancel(@Nullable String message, @Nullable Throwable cause) {
-    checkSendMessage(() -> checkedCancel(message, cause));
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    if (call != null) {
+      checkedCancel(call, message, cause);
+      return;
+    }
+    checkSendMessage(c -> checkedCancel(c, message, cause));
   }
 
   @Override
   public void halfClose() {
-    checkSendMessage(() -> delegateCall.halfClose());
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    if (call != null) {
+      call.halfClose();
+      return;
+    }
+    checkSendMessage(ClientCall::halfClose);
   }
 
   /**
@@ -103,56 +136,71 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
    */
   @Override
   public void sendMessage(ReqT message) {
-    synchronized (this) {
-      if (!started) {
-        startNanos = System.nanoTime();
-        // Check if the current channelRef is bound with the key and change it if necessary.
-        // If no channel is bound with the key, use the least busy one.
-        keys = delegateChannel.checkKeys(message, true, methodDescriptor);
-        String key = null;
-        if (keys != null
-            && keys.size() == 1
-            && delegateChannel.getChannelRef(keys.get(0)) != null) {
-          key = keys.get(0);
-        }
-
-        if (affinity != null && affinity.getCommand().equals(AffinityConfig.Command.BIND)) {
-          delegateChannelRef = delegateChannel.getChannelRefForBind();
-        } else {
-          delegateChannelRef = delegateChannel.getChannelRef(key);
-        }
-        delegateChannelRef.activeStreamsCountIncr();
+    ClientCall<ReqT, RespT> call = delegateCall;
+    if (call == null) {
+      call = startDelegateCall(message);
+    }
+    call.sendMessage(message);
+  }
 
-        // Create the client call and do the previous operations.
-        delegateCall = delegateChannelRef.getChannel().newCall(methodDescriptor, callOptions);
-        for (Runnable call : calls) {
-          call.run();
-        }
-        calls.clear();
-        started = true;
+  // Picks the channel by the first message, creates the delegate call, does the previous
+  // operations on it and only then publishes it, so that no operation can overtake them.
+  private synchronized ClientCall<ReqT, RespT> startDelegateCall(ReqT message) {
+    if (delegateCall != null) {
+      return delegateCall;
+    }
+    startNanos = System.nanoTime();
+    // Check if the current channelRef is bound with the key and change it if necessary.
+    // If no channel is bound with the key, use the least busy one.
+    keys = delegateChannel.checkKeys(message, true, methodDescriptor);
+    // With multiple keys, the method's multi-key strategy decides which key to route by.
+    String key = delegateChannel.getRoutingKey(keys, affinity);
+
+    MethodDescriptor<ReqT, RespT> callMethodDescriptor = methodDescriptor;
+    if (affinity != null && affinity.getCommand().equals(AffinityConfig.Command.BIND)) {
+      delegateChannelRef = delegateChannel.getChannelRefForBind();
+      // Pick again if the channel has been removed from the pool in the meantime.
+      while (!delegateChannelRef.tryActiveStreamsCountIncr()) {
+        delegateChannelRef = delegateChannel.getChannelRefForBind();
+      }
+      bindKeysMarshaller = delegateChannel.newBindKeysMarshaller(methodDescriptor);
+      if (bindKeysMarshaller != null) {
+        callMethodDescriptor =
+            methodDescriptor
+                .toBuilder(methodDescriptor.getRequestMarshaller(), bindKeysMarshaller)
+                .build();
       }
+    } else {
+      delegateChannelRef =
+          delegateChannel.getChannelRefForStream(key, methodDescriptor.getFullMethodName());
+    }
+
+    // Create the client call and do the previous operations.
+    final ClientCall<ReqT, RespT> call =
+        delegateChannelRef.getChannel().newCall(callMethodDescriptor, callOptions);
+    for (Consumer<ClientCall<ReqT, RespT>> op : calls) {
+      op.accept(call);
     }
-    delegateCall.sendMessage(message);
+    calls.clear();
+    delegateCall = call;
+    return call;
   }
 
   /** Calls that send exactly one message should not check this method. */
   @Override
   public boolean isReady() {
-    synchronized (this) {
-      return started && delegateCall.isReady();
-    }
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    return call != null && call.isReady();
   }
 
   /** May only be called after Listener#onHeaders or Listener#onClose. */
   @Override
   public Attributes getAttributes() {
-    synchronized (this) {
-      if (started) {
-        return delegateCall.getAttributes();
-      } else {
-        throw new IllegalStateException("Calling getAttributes() before sendMessage().");
-      }
+    final ClientCall<ReqT, RespT> call = delegateCall;
+    if (call == null) {
+      throw new IllegalStateException("Calling getAttributes() before sendMessage().");
     }
+    return call.getAttributes();
   }
 
   @Override
@@ -160,21 +208,27 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
     return MoreObjects.toStringHelper(this).add("delegate", delegateCall).toString();
   }
 
-  private void checkedCancel(@Nullable String message, @Nullable Throwable cause) {
-    if (!decremented.getAndSet(true)) {
-      delegateChannelRef.activeStreamsCountDecr(startNanos, Status.CANCELLED, true);
+  private void checkedCancel(
+      ClientCall<ReqT, RespT> call, @Nullable String message, @Nullable Throwable cause) {
+    if (DECREMENTED.compareAndSet(this, 0, 1)) {
+      delegateChannelRef.activeStreamsCountDecr(
+          startNanos, Status.CANCELLED, true, methodDescriptor.getFullMethodName());
     }
-    delegateCall.cancel(message, cause);
+    call.cancel(message, cause);
   }
 
-  private void checkSendMessage(Runnable call) {
+  // Queues the operation until the delegate call is published or runs it if it is published
+  // in the meantime.
+  private void checkSendMessage(Consumer<ClientCall<ReqT, RespT>> op) {
+    final ClientCall<ReqT, RespT> call;
     synchronized (this) {
-      if (started) {
-        call.run();
-      } else {
-        calls.add(call);
+      call = delegateCall;
+      if (call == null) {
+        calls.add(op);
+        return;
       }
     }
+    op.accept(call);
   }
 
   private Listener<RespT> getListener(final Listener<RespT> responseListener) {
@@ -184,15 +238,20 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
       // Decrement the stream number by one when the call is closed.
       @Override
       public void onClose(Status status, Metadata trailers) {
-        if (!decremented.getAndSet(true)) {
-          delegateChannelRef.activeStreamsCountDecr(startNanos, status, false);
+        if (DECREMENTED.compareAndSet(GcpClientCall.this, 0, 1)) {
+          delegateChannelRef.activeStreamsCountDecr(
+              startNanos, status, false, methodDescriptor.getFullMethodName());
         }
         // If the operation completed successfully, bind/unbind the affinity key.
         if (keys != null && status.getCode() == Status.Code.OK) {
           if (affinity.getCommand() == AffinityConfig.Command.UNBIND) {
             delegateChannel.unbind(keys);
           } else if (affinity.getCommand() == AffinityConfig.Command.BIND) {
-            delegateChannel.bind(delegateChannelRef, keys);
+            if (affinity.getDistributeBindKeys() && keys.size() > 1) {
+              delegateChannel.bindDistributed(keys);
+            } else {
+              delegateChannel.bind(delegateChannelRef, keys);
+            }
           }
         }
         responseListener.onClose(status, trailers);
@@ -205,6 +264,10 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
         delegateChannelRef.messageReceived();
         if (!received) {
           received = true;
+          delegateChannelRef.firstMessageReceived(startNanos);
+          if (keys == null && bindKeysMarshaller != null) {
+            keys = bindKeysMarshaller.getKeys();
+          }
           if (keys == null) {
             keys = delegateChannel.checkKeys(message, false, methodDescriptor);
           }
@@ -219,21 +282,42 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
    *
    * <p>It defines the callback function to manage the number of active streams of a ChannelRef
    * everytime a call is started/closed.
+   *
+   * <p>The channel is picked when the call is created but the stream of the call is counted on the
+   * channel only when the call starts, so that a call which is never started holds no stream. If
+   * the channel has been removed from the pool in the meantime, the call starts on another channel.
+   *
+   * <p>This is the path of every call without affinity, so it keeps allocations per call to the
+   * call itself and its listener: the closed flag is a field updated via a static field updater.
+   * The listener cannot be the call itself as {@link ClientCall} and {@link ClientCall.Listener}
+   * are both abstract classes, so it is a minimal inner class reading the state of the call.
    */
   public static class SimpleGcpClientCall<ReqT, RespT> extends ForwardingClientCall<ReqT, RespT> {
-
-    private final GcpManagedChannel.ChannelRef channelRef;
-    private final ClientCall<ReqT, RespT> delegateCall;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<SimpleGcpClientCall> DECREMENTED =
+        AtomicIntegerFieldUpdater.newUpdater(SimpleGcpClientCall.class, "decremented");
+
+    private final GcpManagedChannel delegateChannel;
+    private final MethodDescriptor<ReqT, RespT> methodDescriptor;
+    private final CallOptions callOptions;
+    private GcpManagedChannel.ChannelRef channelRef;
+    // Created when the call starts or is cancelled, on the channel the call starts on.
+    @Nullable private volatile ClientCall<ReqT, RespT> delegateCall;
     private long startNanos = 0;
 
-    private final AtomicBoolean decremented = new AtomicBoolean(false);
+    // Set to 1 once the active streams count of the channel is decremented for this call, or when
+    // the call is cancelled before it starts and never counts its stream.
+    private volatile int decremented = 0;
 
     protected SimpleGcpClientCall(
+        GcpManagedChannel delegateChannel,
         GcpManagedChannel.ChannelRef channelRef,
         MethodDescriptor<ReqT, RespT> methodDescriptor,
         CallOptions callOptions) {
+      this.delegateChannel = delegateChannel;
       this.channelRef = channelRef;
-      this.delegateCall = channelRef.getChannel().newCall(methodDescriptor, callOptions);
+      this.methodDescriptor = methodDescriptor;
+      this.callOptions = callOptions;
     }
 
     @Override
@@ -243,36 +327,70 @@ public class GcpClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
 
     @Override
     public void start(Listener<RespT> responseListener, Metadata headers) {
+      final ClientCall<ReqT, RespT> cancelledCall = delegateCall;
+      if (cancelledCall != null) {
+        // Cancelled before the start, the delegate call reports the cancellation.
+        cancelledCall.start(responseListener, headers);
+        return;
+      }
+      final String methodName = methodDescriptor.getFullMethodName();
+      // Pick again if the channel has been removed from the pool since the call was created.
+      while (!channelRef.tryActiveStreamsCountIncr()) {
+        channelRef = delegateChannel.getChannelRef(null, methodName);
+      }
       startNanos = System.nanoTime();
-
-      Listener<RespT> listener =
-          new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
-              responseListener) {
-            @Override
-            public void onClose(Status status, Metadata trailers) {
-              if (!decremented.getAndSet(true)) {
-                channelRef.activeStreamsCountDecr(startNanos, status, false);
-              }
-              super.onClose(status, trailers);
-            }
-
-            @Override
-            public void onMessage(RespT message) {
-              channelRef.messageReceived();
-              super.onMessage(message);
-            }
-          };
-
-      channelRef.activeStreamsCountIncr();
-      delegateCall.start(listener, headers);
+      final ClientCall<ReqT, RespT> call =
+          channelRef.getChannel().newCall(methodDescriptor, callOptions);
+      delegateCall = call;
+      call.start(new CountingListener(responseListener), headers);
     }
 
     @Override
     public void cancel(String message, Throwable cause) {
-      if (!decremented.getAndSet(true)) {
-        channelRef.activeStreamsCountDecr(startNanos, Status.CANCELLED, true);
+      ClientCall<ReqT, RespT> call = delegateCall;
+      if (call == null) {
+        // Cancelled before the start, no stream to release.
+        DECREMENTED.set(this, 1);
+        call = channelRef.getChannel().newCall(methodDescriptor, callOptions);
+        delegateCall = call;
+      }
+      decrementActiveStreams(Status.CANCELLED, true);
+      call.cancel(message, cause);
+    }
+
+    private void decrementActiveStreams(Status status, boolean fromClientSide) {
+      if (DECREMENTED.compareAndSet(this, 0, 1)) {
+        channelRef.activeStreamsCountDecr(
+            startNanos, status, fromClientSide, methodDescriptor.getFullMethodName());
+      }
+    }
+
+    // Reports call completion and received messages to the channel of the call. Only the flag of
+    // the first received message is kept here, the rest of the state belongs to the call.
+    private final class CountingListener
+        extends ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT> {
+
+      private boolean received = false;
+
+      CountingListener(Listener<RespT> delegate) {
+        super(delegate);
+      }
+
+      @Override
+      public void onClose(Status status, Metadata trailers) {
+        decrementActiveStreams(status, false);
+        super.onClose(status, trailers);
+      }
+
+      @Override
+      public void onMessage(RespT message) {
+        channelRef.messageReceived();
+        if (!received) {
+          received = true;
+          channelRef.firstMessageReceived(startNanos);
+        }
+        super.onMessage(message);
       }
-      delegateCall.cancel(message, cause);
     }
   }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide executors shared by all channel pools, multi-endpoint channels and MultiEndpoints
+ * which were not given their own executors in the options.
+ *
+ * <p>The executors are created on first use and their threads are daemon threads, so they never
+ * need to be shut down. Tasks scheduled by a pool are cancelled when the pool is shut down. Outside
+ * of this package the scheduler is only available through {@link #sharedScheduler()}, which
+ * cannot be shut down.
+ */
+public final class GcpExecutors {
+  // Maintenance and metrics tasks are short, so a couple of threads serve any number of pools.
+  private static final int SCHEDULER_THREADS = 2;
+
+  private GcpExecutors() {}
+
+  /** Returns the shared executor for periodic and delayed tasks. */
+  static ScheduledExecutorService defaultScheduler() {
+    return SchedulerHolder.INSTANCE;
+  }
+
+  /**
+   * Returns the shared executor for periodic and delayed tasks for use outside of the channels,
+   * e.g., by MultiEndpoints created directly. It cannot be shut down or reconfigured, as it is
+   * shared by all channel pools in the process.
+   */
+  public static ScheduledExecutorService sharedScheduler() {
+    return SharedSchedulerHolder.INSTANCE;
+  }
+
+  /** Returns the shared executor for state change callbacks. */
+  static Executor defaultExecutor() {
+    return ExecutorHolder.INSTANCE;
+  }
+
+  /**
+   * Returns the shared executor for starting hedged calls of calls without an executor in their
+   * call options, so that creating, starting and replaying them does not hold up the scheduler.
+   */
+  static Executor hedgingExecutor() {
+    return HedgingExecutorHolder.INSTANCE;
+  }
+
+  private static final class SchedulerHolder {
+    static final ScheduledExecutorService INSTANCE = createScheduler();
+
+    private static ScheduledExecutorService createScheduler() {
+      final ScheduledThreadPoolExecutor scheduler =
+          new ScheduledThreadPoolExecutor(
+              SCHEDULER_THREADS,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("gcp-scheduler-%d")
+                  .setDaemon(true)
+                  .build());
+      // Tasks of shut down pools and recovery timeouts of endpoints that became available are
+      // cancelled and should not be kept until their time comes.
+      scheduler.setRemoveOnCancelPolicy(true);
+      return scheduler;
+    }
+  }
+
+  private static final class SharedSchedulerHolder {
+    static final ScheduledExecutorService INSTANCE = new SharedScheduler(defaultScheduler());
+  }
+
+  // Forwards tasks to the scheduler but refuses to shut it down.
+  private static final class SharedScheduler extends AbstractExecutorService
+      implements ScheduledExecutorService {
+    private final ScheduledExecutorService delegate;
+
+    private SharedScheduler(ScheduledExecutorService delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return delegate.schedule(command, delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      return delegate.schedule(callable, delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+        Runnable command, long initialDelay, long period, TimeUnit unit) {
+      return delegate.scheduleAtFixedRate(command, initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+        Runnable command, long initialDelay, long delay, TimeUnit unit) {
+      return delegate.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      delegate.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+      throw new UnsupportedOperationException("The shared scheduler cannot be shut down.");
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      throw new UnsupportedOperationException("The shared scheduler cannot be shut down.");
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      unit.sleep(timeout);
+      return false;
+    }
+  }
+
+  private static final class ExecutorHolder {
+    static final ExecutorService INSTANCE =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("gcp-state-notifications-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  private static final class HedgingExecutorHolder {
+    static final ExecutorService INSTANCE =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("gcp-hedging-%d")
+                .setDaemon(true)
+                .build());
+  }
+}
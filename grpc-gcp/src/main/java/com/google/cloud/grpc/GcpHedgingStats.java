@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import java.time.Duration;
+
+/**
+ * An immutable snapshot of the hedging counters of a method called through a {@link
+ * GcpMultiEndpointChannel}.
+ *
+ * <p>Counters are cumulative since the channel was created, so rates can be computed from the
+ * difference between two snapshots. Snapshots are taken by {@link
+ * GcpMultiEndpointChannel#getHedgingStats()}.
+ */
+public final class GcpHedgingStats {
+  private final String methodName;
+  private final long calls;
+  private final long hedgesFired;
+  private final long hedgesWon;
+  private final long hedgesThrottled;
+  private final Duration delay;
+
+  GcpHedgingStats(
+      String methodName,
+      long calls,
+      long hedgesFired,
+      long hedgesWon,
+      long hedgesThrottled,
+      Duration delay) {
+    this.methodName = methodName;
+    this.calls = calls;
+    this.hedgesFired = hedgesFired;
+    this.hedgesWon = hedgesWon;
+    this.hedgesThrottled = hedgesThrottled;
+    this.delay = delay;
+  }
+
+  /** Returns the full name of the method. */
+  public String getMethodName() {
+    return methodName;
+  }
+
+  /** Returns the number of calls of the method which could be hedged. */
+  public long getCalls() {
+    return calls;
+  }
+
+  /** Returns the number of hedged calls sent. */
+  public long getHedgesFired() {
+    return hedgesFired;
+  }
+
+  /** Returns the number of calls where the response of the hedged call was used. */
+  public long getHedgesWon() {
+    return hedgesWon;
+  }
+
+  /**
+   * Returns the number of calls not hedged because the hedging budget was exhausted, either when
+   * the call started or when its hedged call was due.
+   */
+  public long getHedgesThrottled() {
+    return hedgesThrottled;
+  }
+
+  /** Returns the current delay after which a call is hedged, zero if calls are not hedged. */
+  public Duration getDelay() {
+    return delay;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "{methodName: %s, calls: %d, hedgesFired: %d, hedgesWon: %d, "
+            + "hedgesThrottled: %d, delay: %s}",
+        methodName, calls, hedgesFired, hedgesWon, hedgesThrottled, delay);
+  }
+}
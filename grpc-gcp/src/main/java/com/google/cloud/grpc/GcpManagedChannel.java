@@ -16,16 +16,16 @@
 
 package com.google.cloud.grpc;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
-import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
 import com.google.cloud.grpc.GcpManagedChannelOptions.GcpMetricsOptions;
 import com.google.cloud.grpc.GcpManagedChannelOptions.GcpResiliencyOptions;
 import com.google.cloud.grpc.proto.AffinityConfig;
 import com.google.cloud.grpc.proto.ApiConfig;
 import com.google.cloud.grpc.proto.MethodConfig;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.base.Joiner;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
 import com.google.protobuf.Descriptors.FieldDescriptor;
@@ -46,23 +46,33 @@ import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
 import io.opencensus.metrics.MetricOptions;
 import io.opencensus.metrics.MetricRegistry;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.LongSummaryStatistics;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
@@ -72,6 +82,18 @@ public class GcpManagedChannel extends ManagedChannel {
   static final AtomicInteger channelPoolIndex = new AtomicInteger();
   static final int DEFAULT_MAX_CHANNEL = 10;
   static final int DEFAULT_MAX_STREAM = 100;
+  static final Duration AUTOSCALER_SAMPLE_PERIOD = Duration.ofSeconds(1);
+  static final Duration AUTOSCALER_SCALE_DOWN_DELAY = Duration.ofSeconds(30);
+  // Weight of the latest sample in the per-channel latency EWMA.
+  static final double LATENCY_EWMA_ALPHA = 0.3;
+  // Decay time constant of the per-channel peak EWMA of latency.
+  static final Duration PEAK_EWMA_DECAY = Duration.ofSeconds(10);
+  // Interval over which call latency percentiles are reported.
+  static final Duration LATENCY_HISTOGRAM_INTERVAL = Duration.ofMinutes(1);
+  // Interval of metrics logging and stats listener reports.
+  private static final Duration METRICS_REPORT_PERIOD = Duration.ofMinutes(1);
+  private static final double[] LATENCY_PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] LATENCY_PERCENTILE_LABELS = {"p50", "p90", "p99", "p999"};
 
   @GuardedBy("this")
   private Integer bindingIndex = -1;
@@ -85,19 +107,79 @@ public class GcpManagedChannel extends ManagedChannel {
   private int maxSize = DEFAULT_MAX_CHANNEL;
   private int minSize = 0;
   private int maxConcurrentStreamsLowWatermark = DEFAULT_MAX_STREAM;
+  // The custom picker from the options or the built-in picker of the pick strategy.
+  private ChannelPicker channelPicker = ChannelPickers.leastBusy();
+  private Duration idleTimeout = Duration.ZERO;
+  private boolean prewarmChannels = false;
+  private boolean predictiveScalingEnabled = false;
+  private Duration affinityKeyTtl = Duration.ZERO;
+  private int maxAffinityKeys = 0;
+  private boolean extractBindKeysFromBytes = false;
+  // Sizes the pool ahead of demand if predictive scaling is enabled.
+  @VisibleForTesting ChannelPoolAutoscaler autoscaler;
+  private Duration maxChannelAge = Duration.ZERO;
+  private Duration maxChannelAgeJitter = Duration.ZERO;
+  // How long to wait for a replacement channel to become ready when recycling a channel.
+  @VisibleForTesting Duration channelWarmupTimeout = Duration.ofSeconds(10);
 
   @VisibleForTesting final Map<String, AffinityConfig> methodToAffinity = new HashMap<>();
 
-  @VisibleForTesting
-  final Map<String, ChannelRef> affinityKeyToChannelRef = new ConcurrentHashMap<>();
+  // Routing decisions cached by method descriptor, which are usually static singletons, to skip
+  // hashing and comparing full method names on every call. Methods without affinity are cached as
+  // NO_AFFINITY. The cache stops growing at MAX_CACHED_METHODS.
+  private final Map<MethodDescriptor<?, ?>, AffinityConfig> affinityByMethod =
+      new ConcurrentHashMap<>();
+  private static final AffinityConfig NO_AFFINITY = AffinityConfig.getDefaultInstance();
+  private static final int MAX_CACHED_METHODS = 1000;
+
+  // Names of the sub-pools assigned to methods in the ApiConfig by method name.
+  private final Map<String, String> methodToSubPoolName = new HashMap<>();
+  // Sub-pools by name. Only the main pool has sub-pools.
+  private final Map<String, GcpManagedChannel> subPools = new LinkedHashMap<>();
+  // The main pool of a sub-pool, null for the main pool.
+  @Nullable private final GcpManagedChannel mainPool;
+  // Cumulative stats of calls for evaluating the health of the endpoint, tracked only when
+  // requested. Shared with the sub-pools.
+  @Nullable private volatile CallStats callStats;
+  // Pools to route calls to, cached by method descriptor as affinityByMethod. Methods not assigned
+  // to a sub-pool are cached with this pool.
+  private final Map<MethodDescriptor<?, ?>, GcpManagedChannel> poolByMethod =
+      new ConcurrentHashMap<>();
+
+  // Affinity key extractors compiled from the affinity key paths by method name.
+  private final Map<String, AffinityKeyExtractor> methodToKeyExtractor = new HashMap<>();
+
+  @VisibleForTesting final AffinityKeyStore<ChannelRef> affinityKeyToChannelRef;
 
   // Map from a broken channel id to the remapped affinity keys (key => ready channel id).
   private final Map<Integer, Map<String, Integer>> fallbackMap = new ConcurrentHashMap<>();
 
   @VisibleForTesting final List<ChannelRef> channelRefs = new CopyOnWriteArrayList<>();
+  // Read-only view of the pool for channel pickers.
+  private final List<ChannelRef> channelRefsView = Collections.unmodifiableList(channelRefs);
+
+  // Channel ids are never reused, so that a channel may be removed from or replaced in the pool
+  // without confusing fallback mappings or affinity bindings referring to the old channel.
+  private final AtomicInteger nextChannelId = new AtomicInteger();
+
+  // Lookup table of the channels in the pool by their ids.
+  private final Map<Integer, ChannelRef> channelRefById = new ConcurrentHashMap<>();
+
+  // Channels removed from the pool and waiting for their streams to complete before shutdown.
+  private final Set<ChannelRef> drainingChannelRefs = ConcurrentHashMap.newKeySet();
+
+  // A connected channel waiting to be added to the pool when the pool needs to grow.
+  @VisibleForTesting volatile ManagedChannel prewarmedChannel;
+
+  // Replacements of recycled channels connecting before they replace the old channels, with their
+  // warm-up timeouts. Kept after the pool is shut down until they terminate with the pool.
+  @GuardedBy("this")
+  @VisibleForTesting
+  final Map<ManagedChannel, ScheduledFuture<?>> warmingChannels = new HashMap<>();
 
-  private final ExecutorService stateNotificationExecutor = Executors.newCachedThreadPool(
-      new ThreadFactoryBuilder().setNameFormat("gcp-mc-state-notifications-%d").build());
+  // Runs state change callbacks. Shared with other pools unless provided in the options.
+  private final Executor stateNotificationExecutor;
+  private volatile boolean shutdown = false;
 
   // Callbacks to call when state changes.
   @GuardedBy("this")
@@ -118,46 +200,66 @@ public class GcpManagedChannel extends ManagedChannel {
       new ArrayList<>(
           Collections.singletonList(LabelValue.create(GcpMetricsConstants.RESULT_ERROR)));
   private String metricPrefix;
-  private final String metricPoolIndex =
-      String.format("pool-%d", channelPoolIndex.incrementAndGet());
+  // "pool-N" for a main pool, "pool-N/name" for its sub-pools.
+  private final String metricPoolIndex;
   private final Map<String, Long> cumulativeMetricValues = new ConcurrentHashMap<>();
-  private ScheduledExecutorService logMetricService;
+  // Runs pool maintenance and metrics reporting tasks, e.g. removing idle channels. Shared with
+  // other pools unless provided in the options.
+  private final ScheduledExecutorService poolMaintenanceService;
+  // Periodic tasks of the pool, cancelled when the pool is shut down.
+  @GuardedBy("this")
+  private final List<ScheduledFuture<?>> periodicTasks = new ArrayList<>();
 
   // Metrics counters.
+  private int maxChannels = 0;
+  private final AtomicLong numChannelsRemoved = new AtomicLong();
+  private final AtomicLong numChannelsRecycled = new AtomicLong();
+  private final AtomicLong numAutoscalerScaleUps = new AtomicLong();
+  private final AtomicLong numAutoscalerScaleDowns = new AtomicLong();
   private final AtomicInteger readyChannels = new AtomicInteger();
-  private int minReadyChannels = 0;
-  private int maxReadyChannels = 0;
+  // Minimums and maximums over a reporting window are accumulated concurrently from gRPC threads
+  // with LongAccumulators, which only write when the value changes and spread contended updates
+  // over multiple cells.
+  private final LongAccumulator minReadyChannels = newMinAccumulator(0);
+  private final LongAccumulator maxReadyChannels = newMaxAccumulator(0);
   private final AtomicLong numChannelConnect = new AtomicLong();
   private final AtomicLong numChannelDisconnect = new AtomicLong();
-  private long minReadinessTime = 0;
-  private long maxReadinessTime = 0;
+  private final LongAccumulator minReadinessTime = newMinAccumulator();
+  private final LongAccumulator maxReadinessTime = newMaxAccumulator();
   private final AtomicLong totalReadinessTime = new AtomicLong();
   private final AtomicLong readinessTimeOccurrences = new AtomicLong();
-  private final AtomicInteger totalActiveStreams = new AtomicInteger();
-  private int minActiveStreams = 0;
-  private int maxActiveStreams = 0;
-  private int minTotalActiveStreams = 0;
-  private int maxTotalActiveStreams = 0;
+  // Counters updated by every call are striped to avoid contention on a single memory location.
+  private final LongAdder totalActiveStreams = new LongAdder();
+  private final LongAccumulator minActiveStreams = newMinAccumulator(0);
+  private final LongAccumulator maxActiveStreams = newMaxAccumulator(0);
+  // Summing the striped total is too costly for every call, so the total is sampled when the
+  // metrics are reported, a stats snapshot is taken or the autoscaler runs.
+  private final LongAccumulator minTotalActiveStreams = newMinAccumulator(0);
+  private final LongAccumulator maxTotalActiveStreams = newMaxAccumulator(0);
   private long minOkCalls = 0;
   private long maxOkCalls = 0;
-  private final AtomicLong totalOkCalls = new AtomicLong();
+  private final LongAdder totalOkCalls = new LongAdder();
   private boolean minOkReported = false;
   private boolean maxOkReported = false;
   private long minErrCalls = 0;
   private long maxErrCalls = 0;
-  private final AtomicLong totalErrCalls = new AtomicLong();
+  private final LongAdder totalErrCalls = new LongAdder();
   private boolean minErrReported = false;
   private boolean maxErrReported = false;
-  private final AtomicInteger minAffinity = new AtomicInteger();
-  private final AtomicInteger maxAffinity = new AtomicInteger();
+  private final LongAccumulator minAffinity = newMinAccumulator(0);
+  private final LongAccumulator maxAffinity = newMaxAccumulator(0);
   private final AtomicInteger totalAffinityCount = new AtomicInteger();
   private final AtomicLong fallbacksSucceeded = new AtomicLong();
   private final AtomicLong fallbacksFailed = new AtomicLong();
   private final AtomicLong unresponsiveDetectionCount = new AtomicLong();
-  private long minUnresponsiveMs = 0;
-  private long maxUnresponsiveMs = 0;
-  private long minUnresponsiveDrops = 0;
-  private long maxUnresponsiveDrops = 0;
+  private final LongAccumulator minUnresponsiveMs = newMinAccumulator();
+  private final LongAccumulator maxUnresponsiveMs = newMaxAccumulator();
+  private final LongAccumulator minUnresponsiveDrops = newMinAccumulator();
+  private final LongAccumulator maxUnresponsiveDrops = newMaxAccumulator();
+  // Call latency histograms of the pool by method. Only used when metrics are enabled.
+  private final Map<String, MethodLatencies> methodLatencies = new ConcurrentHashMap<>();
+  @Nullable private DerivedLongGauge callLatencyMetric;
+  @Nullable private DerivedLongGauge channelCallLatencyMetric;
 
   /**
    * Constructor for GcpManagedChannel.
@@ -170,15 +272,42 @@ public class GcpManagedChannel extends ManagedChannel {
           ManagedChannelBuilder<?> delegateChannelBuilder,
           ApiConfig apiConfig,
           GcpManagedChannelOptions options) {
+    this(delegateChannelBuilder, apiConfig, options, null, null);
+  }
+
+  // Creates a main pool if mainPool is null, or its sub-pool with the name otherwise.
+  private GcpManagedChannel(
+      ManagedChannelBuilder<?> delegateChannelBuilder,
+      ApiConfig apiConfig,
+      GcpManagedChannelOptions options,
+      @Nullable GcpManagedChannel mainPool,
+      @Nullable String subPoolName) {
+    this.mainPool = mainPool;
+    metricPoolIndex =
+        mainPool == null
+            ? String.format("pool-%d", channelPoolIndex.incrementAndGet())
+            : mainPool.metricPoolIndex + "/" + subPoolName;
     loadApiConfig(apiConfig);
     this.delegateChannelBuilder = delegateChannelBuilder;
     this.options = options;
+    stateNotificationExecutor =
+        options.getExecutor() != null ? options.getExecutor() : GcpExecutors.defaultExecutor();
+    poolMaintenanceService =
+        options.getScheduledExecutorService() != null
+            ? options.getScheduledExecutorService()
+            : GcpExecutors.defaultScheduler();
     logger.finer(log(
         "Created with api config: %s, and options: %s",
         apiConfig == null ? "null" : TextFormat.shortDebugString(apiConfig),
         options
     ));
     initOptions();
+    affinityKeyToChannelRef =
+        new AffinityKeyStore<>(
+            affinityKeyTtl.toNanos(),
+            maxAffinityKeys,
+            poolMaintenanceService,
+            this::onAffinityKeyEvicted);
     if (options.getResiliencyOptions() != null) {
       fallbackEnabled = options.getResiliencyOptions().isNotReadyFallbackEnabled();
       unresponsiveDetectionEnabled =
@@ -192,6 +321,12 @@ public class GcpManagedChannel extends ManagedChannel {
       unresponsiveDropCount = 0;
     }
     initMinChannels();
+    initIdleChannelsRemoval();
+    initAutoscaling();
+    initAffinityKeysExpiration();
+    if (mainPool == null) {
+      initSubPools(apiConfig);
+    }
   }
 
   /**
@@ -230,6 +365,31 @@ public class GcpManagedChannel extends ManagedChannel {
     return String.format("%s: %s", metricPoolIndex, String.format(format, args));
   }
 
+  private void initSubPools(ApiConfig apiConfig) {
+    final GcpChannelPoolOptions poolOptions = options.getChannelPoolOptions();
+    if (poolOptions == null || poolOptions.getSubPools().isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, GcpChannelPoolOptions> entry : poolOptions.getSubPools().entrySet()) {
+      final GcpManagedChannelOptions subPoolOptions =
+          GcpManagedChannelOptions.newBuilder(options)
+              .withChannelPoolOptions(entry.getValue())
+              .build();
+      subPools.put(
+          entry.getKey(),
+          new GcpManagedChannel(
+              delegateChannelBuilder, apiConfig, subPoolOptions, this, entry.getKey()));
+    }
+    for (String subPoolName : new HashSet<>(methodToSubPoolName.values())) {
+      if (!subPools.containsKey(subPoolName)) {
+        logger.warning(log(
+            "Sub-pool \"%s\" in the ApiConfig is not configured, its methods will use the main "
+                + "pool.",
+            subPoolName));
+      }
+    }
+  }
+
   private synchronized void initMinChannels() {
     while (minSize - getNumberOfChannels() > 0) {
       createNewChannel();
@@ -242,16 +402,132 @@ public class GcpManagedChannel extends ManagedChannel {
       maxSize = poolOptions.getMaxSize();
       minSize = poolOptions.getMinSize();
       maxConcurrentStreamsLowWatermark = poolOptions.getConcurrentStreamsLowWatermark();
+      channelPicker =
+          poolOptions.getChannelPicker() != null
+              ? poolOptions.getChannelPicker()
+              : ChannelPickers.forStrategy(poolOptions.getChannelPickStrategy());
+      idleTimeout = poolOptions.getIdleTimeout();
+      prewarmChannels = poolOptions.isPrewarmChannels();
+      predictiveScalingEnabled = poolOptions.isPredictiveScalingEnabled();
+      affinityKeyTtl = poolOptions.getAffinityKeyTtl();
+      maxAffinityKeys = poolOptions.getMaxAffinityKeys();
+      extractBindKeysFromBytes = poolOptions.isExtractBindKeysFromBytes();
+      maxChannelAge = poolOptions.getMaxChannelAge();
+      maxChannelAgeJitter = poolOptions.getMaxChannelAgeJitter();
     }
     initMetrics();
   }
 
-  private synchronized void initLogMetrics() {
-    if (logMetricService != null) {
+  private void initIdleChannelsRemoval() {
+    if (idleTimeout.isZero()) {
+      return;
+    }
+    // Check twice per idle timeout, so that an idle channel is removed no later than 1.5 timeouts.
+    schedulePeriodicTask(this::removeIdleChannels, Math.max(idleTimeout.toMillis() / 2, 1));
+  }
+
+  private void initAutoscaling() {
+    if (!predictiveScalingEnabled) {
+      return;
+    }
+    autoscaler =
+        new ChannelPoolAutoscaler(
+            minSize,
+            maxSize,
+            maxConcurrentStreamsLowWatermark,
+            (int) (AUTOSCALER_SCALE_DOWN_DELAY.toMillis() / AUTOSCALER_SAMPLE_PERIOD.toMillis()));
+    schedulePeriodicTask(this::autoscale, AUTOSCALER_SAMPLE_PERIOD.toMillis());
+  }
+
+  private void initAffinityKeysExpiration() {
+    if (affinityKeyTtl.isZero()) {
       return;
     }
-    logMetricService = Executors.newSingleThreadScheduledExecutor();
-    logMetricService.scheduleAtFixedRate(this::logMetrics, 60, 60, SECONDS);
+    // Check twice per TTL, so that an expired key is evicted no later than 1.5 TTLs.
+    schedulePeriodicTask(
+        () -> affinityKeyToChannelRef.evictExpired(System.nanoTime()),
+        Math.max(affinityKeyTtl.toMillis() / 2, 1));
+  }
+
+  private void initLogMetrics() {
+    schedulePeriodicTask(this::logMetrics, METRICS_REPORT_PERIOD.toMillis());
+  }
+
+  private void initStatsListener(@Nullable GcpChannelPoolStats.Listener listener) {
+    if (listener == null) {
+      return;
+    }
+    schedulePeriodicTask(
+        () -> listener.onStats(getStatsSnapshot()), METRICS_REPORT_PERIOD.toMillis());
+  }
+
+  // Runs the task periodically on the maintenance executor until the pool is shut down.
+  private synchronized void schedulePeriodicTask(Runnable task, long periodMs) {
+    if (shutdown) {
+      return;
+    }
+    periodicTasks.add(
+        poolMaintenanceService.scheduleAtFixedRate(
+            () -> {
+              try {
+                task.run();
+              } catch (RuntimeException e) {
+                // Keep the task scheduled.
+                logger.log(Level.WARNING, log("Periodic task failed."), e);
+              }
+            },
+            periodMs,
+            periodMs,
+            MILLISECONDS));
+  }
+
+  // Cancels the periodic tasks and pending recycling of the channels, so that the shared executor
+  // does not keep running or referencing a shut down pool.
+  private synchronized void cancelScheduledTasks() {
+    for (ScheduledFuture<?> task : periodicTasks) {
+      task.cancel(false);
+    }
+    periodicTasks.clear();
+    for (ChannelRef channelRef : channelRefs) {
+      channelRef.cancelRecycling();
+    }
+    // The replacements have no calls yet.
+    warmingChannels.forEach(
+        (channel, warmupTimeout) -> {
+          warmupTimeout.cancel(false);
+          channel.shutdownNow();
+        });
+  }
+
+  private synchronized List<ManagedChannel> getWarmingChannels() {
+    return new ArrayList<>(warmingChannels.keySet());
+  }
+
+  /**
+   * Returns a snapshot of the state and counters of the pool and its channels.
+   *
+   * <p>The snapshot is built from the counters the pool maintains anyway, without locking, so it is
+   * cheap enough to be taken frequently.
+   */
+  public GcpChannelPoolStats getStatsSnapshot() {
+    final List<GcpChannelPoolStats.ChannelStats> channels = new ArrayList<>(channelRefs.size());
+    for (ChannelRef channelRef : channelRefs) {
+      channels.add(channelRef.getStats());
+    }
+    return new GcpChannelPoolStats(
+        metricPoolIndex,
+        System.currentTimeMillis(),
+        channels,
+        readyChannels.get(),
+        sampleTotalActiveStreams(),
+        totalAffinityCount.get(),
+        totalOkCalls.sum(),
+        totalErrCalls.sum(),
+        fallbacksSucceeded.get(),
+        fallbacksFailed.get(),
+        numChannelConnect.get(),
+        numChannelDisconnect.get(),
+        unresponsiveDetectionCount.get());
   }
 
   private void logMetricsOptions() {
@@ -281,6 +557,7 @@ public class GcpManagedChannel extends ManagedChannel {
       return;
     }
     logMetricsOptions();
+    initStatsListener(metricsOptions.getStatsListener());
     if (metricsOptions.getMetricRegistry() == null) {
       logger.info(log("Metric registry is null. Metrics disabled."));
       initLogMetrics();
@@ -327,6 +604,48 @@ public class GcpManagedChannel extends ManagedChannel {
         this,
         GcpManagedChannel::reportMaxChannels);
 
+    createDerivedLongCumulativeTimeSeries(
+        GcpMetricsConstants.METRIC_NUM_CHANNELS_REMOVED,
+        "The number of idle channels removed from the pool.",
+        GcpMetricsConstants.COUNT,
+        this,
+        GcpManagedChannel::reportNumChannelsRemoved);
+
+    createDerivedLongCumulativeTimeSeries(
+        GcpMetricsConstants.METRIC_NUM_CHANNELS_RECYCLED,
+        "The number of channels replaced with new channels after reaching the max channel age.",
+        GcpMetricsConstants.COUNT,
+        this,
+        GcpManagedChannel::reportNumChannelsRecycled);
+
+    createDerivedLongGaugeTimeSeries(
+        GcpMetricsConstants.METRIC_AUTOSCALER_TARGET_CHANNELS,
+        "The pool size recommended by the predictive autoscaler. (0 if autoscaling is disabled)",
+        GcpMetricsConstants.COUNT,
+        this,
+        GcpManagedChannel::reportAutoscalerTargetChannels);
+
+    createDerivedLongCumulativeTimeSeries(
+        GcpMetricsConstants.METRIC_NUM_AUTOSCALER_SCALE_UPS,
+        "The number of channels added to the pool by the predictive autoscaler.",
+        GcpMetricsConstants.COUNT,
+        this,
+        GcpManagedChannel::reportNumAutoscalerScaleUps);
+
+    createDerivedLongCumulativeTimeSeries(
+        GcpMetricsConstants.METRIC_NUM_AUTOSCALER_SCALE_DOWNS,
+        "The number of channels removed from the pool by the predictive autoscaler.",
+        GcpMetricsConstants.COUNT,
+        this,
+        GcpManagedChannel::reportNumAutoscalerScaleDowns);
+
+    createDerivedLongCumulativeTimeSeries(
+        GcpMetricsConstants.METRIC_NUM_AFFINITY_KEYS_EVICTED,
+        "The number of affinity keys evicted due to the TTL or the max number of keys.",
+        GcpMetricsConstants.COUNT,
+        this,
+        GcpManagedChannel::reportNumAffinityKeysEvicted);
+
     createDerivedLongGaugeTimeSeries(
         GcpMetricsConstants.METRIC_MAX_ALLOWED_CHANNELS,
         "The maximum number of channels allowed in the pool. (The poll max size)",
@@ -484,6 +803,111 @@ public class GcpManagedChannel extends ManagedChannel {
         GcpMetricsConstants.MILLISECOND,
         this,
         GcpManagedChannel::reportMaxUnresponsiveDrops);
+
+    initLatencyHistograms();
+  }
+
+  private void initLatencyHistograms() {
+    final List<LabelKey> methodKeys = new ArrayList<>(labelKeysWithResult);
+    methodKeys.add(
+        LabelKey.create(GcpMetricsConstants.METHOD_LABEL, GcpMetricsConstants.METHOD_DESC));
+    methodKeys.add(
+        LabelKey.create(
+            GcpMetricsConstants.PERCENTILE_LABEL, GcpMetricsConstants.PERCENTILE_DESC));
+    callLatencyMetric =
+        metricRegistry.addDerivedLongGauge(
+            metricPrefix + GcpMetricsConstants.METRIC_CALL_LATENCY,
+            createMetricOptions(
+                "Percentiles of call latency by method and result over the last minute.",
+                methodKeys,
+                GcpMetricsConstants.MICROSECOND));
+
+    final List<LabelKey> channelKeys = new ArrayList<>(labelKeys);
+    channelKeys.add(
+        LabelKey.create(
+            GcpMetricsConstants.CHANNEL_ID_LABEL, GcpMetricsConstants.CHANNEL_ID_DESC));
+    channelKeys.add(
+        LabelKey.create(
+            GcpMetricsConstants.PERCENTILE_LABEL, GcpMetricsConstants.PERCENTILE_DESC));
+    channelCallLatencyMetric =
+        metricRegistry.addDerivedLongGauge(
+            metricPrefix + GcpMetricsConstants.METRIC_CHANNEL_CALL_LATENCY,
+            createMetricOptions(
+                "Percentiles of call latency per channel over the last minute.",
+                channelKeys,
+                GcpMetricsConstants.MICROSECOND));
+
+    schedulePeriodicTask(this::rotateLatencyHistograms, LATENCY_HISTOGRAM_INTERVAL.toMillis());
+  }
+
+  @VisibleForTesting
+  void rotateLatencyHistograms() {
+    for (MethodLatencies latencies : methodLatencies.values()) {
+      latencies.ok.rotate();
+      latencies.err.rotate();
+    }
+    for (ChannelRef channelRef : channelRefById.values()) {
+      if (channelRef.latencyHistogram != null) {
+        channelRef.latencyHistogram.rotate();
+      }
+    }
+  }
+
+  // Records the latency of a completed call in the histograms of the pool.
+  private void recordCallLatency(@Nullable String methodName, boolean ok, long latencyNanos) {
+    if (callLatencyMetric == null || methodName == null) {
+      return;
+    }
+    MethodLatencies latencies = methodLatencies.get(methodName);
+    if (latencies == null) {
+      if (methodLatencies.size() >= MAX_CACHED_METHODS) {
+        return;
+      }
+      latencies = methodLatencies.computeIfAbsent(methodName, MethodLatencies::new);
+    }
+    (ok ? latencies.ok : latencies.err).record(latencyNanos);
+  }
+
+  // Creates a time series for every reported percentile of the histogram. The label values are
+  // the base values followed by the extra value and the percentile.
+  private void createLatencyTimeSeries(
+      DerivedLongGauge metric,
+      List<LabelValue> baseValues,
+      LabelValue extraValue,
+      LatencyHistogram histogram) {
+    for (int i = 0; i < LATENCY_PERCENTILES.length; i++) {
+      final double percentile = LATENCY_PERCENTILES[i];
+      final List<LabelValue> values = latencyLabelValues(baseValues, extraValue, i);
+      metric.removeTimeSeries(values);
+      metric.createTimeSeries(values, histogram, h -> h.getPercentileMicros(percentile));
+    }
+  }
+
+  private void removeLatencyTimeSeries(
+      DerivedLongGauge metric, List<LabelValue> baseValues, LabelValue extraValue) {
+    for (int i = 0; i < LATENCY_PERCENTILES.length; i++) {
+      metric.removeTimeSeries(latencyLabelValues(baseValues, extraValue, i));
+    }
+  }
+
+  private static List<LabelValue> latencyLabelValues(
+      List<LabelValue> baseValues, LabelValue extraValue, int percentileIndex) {
+    final List<LabelValue> values = new ArrayList<>(baseValues);
+    values.add(extraValue);
+    values.add(LabelValue.create(LATENCY_PERCENTILE_LABELS[percentileIndex]));
+    return values;
+  }
+
+  // Call latency histograms of a method by result.
+  private final class MethodLatencies {
+    private final LatencyHistogram ok = new LatencyHistogram();
+    private final LatencyHistogram err = new LatencyHistogram();
+
+    private MethodLatencies(String methodName) {
+      final LabelValue method = LabelValue.create(methodName);
+      createLatencyTimeSeries(callLatencyMetric, labelValuesSuccess, method, ok);
+      createLatencyTimeSeries(callLatencyMetric, labelValuesError, method, err);
+    }
   }
 
   private void logGauge(String key, long value) {
@@ -505,6 +929,12 @@ public class GcpManagedChannel extends ManagedChannel {
     reportMinReadyChannels();
     reportMaxReadyChannels();
     reportMaxChannels();
+    reportNumChannelsRemoved();
+    reportNumChannelsRecycled();
+    reportAutoscalerTargetChannels();
+    reportNumAutoscalerScaleUps();
+    reportNumAutoscalerScaleDowns();
+    reportNumAffinityKeysEvicted();
     reportMaxAllowedChannels();
     reportNumChannelDisconnect();
     reportNumChannelConnect();
@@ -596,28 +1026,63 @@ public class GcpManagedChannel extends ManagedChannel {
     metric.createTimeSeries(labelValuesError, obj, funcErr);
   }
 
-  // TODO: When introducing pool downscaling feature this method must be changed accordingly.
-  private long reportMaxChannels() {
-    int value = getNumberOfChannels();
+  private synchronized long reportMaxChannels() {
+    int value = Math.max(maxChannels, getNumberOfChannels());
+    maxChannels = getNumberOfChannels();
     logGauge(GcpMetricsConstants.METRIC_MAX_CHANNELS, value);
     return value;
   }
 
+  private long reportNumChannelsRemoved() {
+    long value = numChannelsRemoved.get();
+    logCumulative(GcpMetricsConstants.METRIC_NUM_CHANNELS_REMOVED, value);
+    return value;
+  }
+
+  private long reportNumChannelsRecycled() {
+    long value = numChannelsRecycled.get();
+    logCumulative(GcpMetricsConstants.METRIC_NUM_CHANNELS_RECYCLED, value);
+    return value;
+  }
+
+  private int reportAutoscalerTargetChannels() {
+    int value = autoscaler == null ? 0 : autoscaler.getTargetSize();
+    logGauge(GcpMetricsConstants.METRIC_AUTOSCALER_TARGET_CHANNELS, value);
+    return value;
+  }
+
+  private long reportNumAutoscalerScaleUps() {
+    long value = numAutoscalerScaleUps.get();
+    logCumulative(GcpMetricsConstants.METRIC_NUM_AUTOSCALER_SCALE_UPS, value);
+    return value;
+  }
+
+  private long reportNumAutoscalerScaleDowns() {
+    long value = numAutoscalerScaleDowns.get();
+    logCumulative(GcpMetricsConstants.METRIC_NUM_AUTOSCALER_SCALE_DOWNS, value);
+    return value;
+  }
+
+  private long reportNumAffinityKeysEvicted() {
+    // The store may not be initialized yet when metrics are registered.
+    long value = affinityKeyToChannelRef == null ? 0 : affinityKeyToChannelRef.getEvictedCount();
+    logCumulative(GcpMetricsConstants.METRIC_NUM_AFFINITY_KEYS_EVICTED, value);
+    return value;
+  }
+
   private long reportMaxAllowedChannels() {
     logGauge(GcpMetricsConstants.METRIC_MAX_ALLOWED_CHANNELS, maxSize);
     return maxSize;
   }
 
   private long reportMinReadyChannels() {
-    int value = minReadyChannels;
-    minReadyChannels = readyChannels.get();
+    long value = getThenResetTo(minReadyChannels, readyChannels.get());
     logGauge(GcpMetricsConstants.METRIC_MIN_READY_CHANNELS, value);
     return value;
   }
 
   private long reportMaxReadyChannels() {
-    int value = maxReadyChannels;
-    maxReadyChannels = readyChannels.get();
+    long value = getThenResetTo(maxReadyChannels, readyChannels.get());
     logGauge(GcpMetricsConstants.METRIC_MAX_READY_CHANNELS, value);
     return value;
   }
@@ -635,8 +1100,7 @@ public class GcpManagedChannel extends ManagedChannel {
   }
 
   private long reportMinReadinessTime() {
-    long value = minReadinessTime;
-    minReadinessTime = 0;
+    long value = getThenReset(minReadinessTime);
     logGauge(GcpMetricsConstants.METRIC_MIN_CHANNEL_READINESS_TIME, value);
     return value;
   }
@@ -653,44 +1117,55 @@ public class GcpManagedChannel extends ManagedChannel {
   }
 
   private long reportMaxReadinessTime() {
-    long value = maxReadinessTime;
-    maxReadinessTime = 0;
+    long value = getThenReset(maxReadinessTime);
     logGauge(GcpMetricsConstants.METRIC_MAX_CHANNEL_READINESS_TIME, value);
     return value;
   }
 
   private int reportMinActiveStreams() {
-    int value = minActiveStreams;
-    minActiveStreams =
-        channelRefs.stream().mapToInt(ChannelRef::getActiveStreamsCount).min().orElse(0);
+    int value =
+        (int)
+            getThenResetTo(
+                minActiveStreams,
+                channelRefs.stream().mapToInt(ChannelRef::getActiveStreamsCount).min().orElse(0));
     logGauge(GcpMetricsConstants.METRIC_MIN_ACTIVE_STREAMS, value);
     return value;
   }
 
   private int reportMaxActiveStreams() {
-    int value = maxActiveStreams;
-    maxActiveStreams =
-        channelRefs.stream().mapToInt(ChannelRef::getActiveStreamsCount).max().orElse(0);
+    int value =
+        (int)
+            getThenResetTo(
+                maxActiveStreams,
+                channelRefs.stream().mapToInt(ChannelRef::getActiveStreamsCount).max().orElse(0));
     logGauge(GcpMetricsConstants.METRIC_MAX_ACTIVE_STREAMS, value);
     return value;
   }
 
+  // Returns the current total number of active streams, accumulating it into the reported minimum
+  // and maximum.
+  private long sampleTotalActiveStreams() {
+    final long value = totalActiveStreams.sum();
+    minTotalActiveStreams.accumulate(value);
+    maxTotalActiveStreams.accumulate(value);
+    return value;
+  }
+
   private int reportMinTotalActiveStreams() {
-    int value = minTotalActiveStreams;
-    minTotalActiveStreams = totalActiveStreams.get();
+    int value = (int) getThenResetTo(minTotalActiveStreams, totalActiveStreams.sum());
     logGauge(GcpMetricsConstants.METRIC_MIN_TOTAL_ACTIVE_STREAMS, value);
     return value;
   }
 
   private int reportMaxTotalActiveStreams() {
-    int value = maxTotalActiveStreams;
-    maxTotalActiveStreams = totalActiveStreams.get();
+    int value = (int) getThenResetTo(maxTotalActiveStreams, totalActiveStreams.sum());
     logGauge(GcpMetricsConstants.METRIC_MAX_TOTAL_ACTIVE_STREAMS, value);
     return value;
   }
 
   private int reportMinAffinity() {
-    int value = minAffinity.getAndSet(
+    int value = (int) getThenResetTo(
+        minAffinity,
         channelRefs.stream().mapToInt(ChannelRef::getAffinityCount).min().orElse(0)
     );
     logGauge(GcpMetricsConstants.METRIC_MIN_AFFINITY, value);
@@ -698,7 +1173,8 @@ public class GcpManagedChannel extends ManagedChannel {
   }
 
   private int reportMaxAffinity() {
-    int value = maxAffinity.getAndSet(
+    int value = (int) getThenResetTo(
+        maxAffinity,
         channelRefs.stream().mapToInt(ChannelRef::getAffinityCount).max().orElse(0)
     );
     logGauge(GcpMetricsConstants.METRIC_MAX_AFFINITY, value);
@@ -726,7 +1202,7 @@ public class GcpManagedChannel extends ManagedChannel {
   }
 
   private long reportTotalOkCalls() {
-    long value = totalOkCalls.get();
+    long value = totalOkCalls.sum();
     logCumulative(GcpMetricsConstants.METRIC_NUM_CALLS_COMPLETED + "_ok", value);
     return value;
   }
@@ -775,7 +1251,7 @@ public class GcpManagedChannel extends ManagedChannel {
   }
 
   private long reportTotalErrCalls() {
-    long value = totalErrCalls.get();
+    long value = totalErrCalls.sum();
     logCumulative(GcpMetricsConstants.METRIC_NUM_CALLS_COMPLETED + "_err", value);
     return value;
   }
@@ -811,76 +1287,92 @@ public class GcpManagedChannel extends ManagedChannel {
   }
 
   private long reportMinUnresponsiveMs() {
-    long value = minUnresponsiveMs;
-    minUnresponsiveMs = 0;
+    long value = getThenReset(minUnresponsiveMs);
     logGauge(GcpMetricsConstants.METRIC_MIN_UNRESPONSIVE_DETECTION_TIME, value);
     return value;
   }
 
   private long reportMaxUnresponsiveMs() {
-    long value = maxUnresponsiveMs;
-    maxUnresponsiveMs = 0;
+    long value = getThenReset(maxUnresponsiveMs);
     logGauge(GcpMetricsConstants.METRIC_MAX_UNRESPONSIVE_DETECTION_TIME, value);
     return value;
   }
 
   private long reportMinUnresponsiveDrops() {
-    long value = minUnresponsiveDrops;
-    minUnresponsiveDrops = 0;
+    long value = getThenReset(minUnresponsiveDrops);
     logGauge(GcpMetricsConstants.METRIC_MIN_UNRESPONSIVE_DROPPED_CALLS, value);
     return value;
   }
 
   private long reportMaxUnresponsiveDrops() {
-    long value = maxUnresponsiveDrops;
-    maxUnresponsiveDrops = 0;
+    long value = getThenReset(maxUnresponsiveDrops);
     logGauge(GcpMetricsConstants.METRIC_MAX_UNRESPONSIVE_DROPPED_CALLS, value);
     return value;
   }
 
+  private static LongAccumulator newMinAccumulator() {
+    return new LongAccumulator(Math::min, Long.MAX_VALUE);
+  }
+
+  private static LongAccumulator newMinAccumulator(long initialValue) {
+    final LongAccumulator accumulator = newMinAccumulator();
+    accumulator.accumulate(initialValue);
+    return accumulator;
+  }
+
+  private static LongAccumulator newMaxAccumulator() {
+    return new LongAccumulator(Math::max, Long.MIN_VALUE);
+  }
+
+  private static LongAccumulator newMaxAccumulator(long initialValue) {
+    final LongAccumulator accumulator = newMaxAccumulator();
+    accumulator.accumulate(initialValue);
+    return accumulator;
+  }
+
+  // Returns the minimum or maximum accumulated since the last reset, or 0 if nothing was
+  // accumulated, and starts a new empty window.
+  private static long getThenReset(LongAccumulator accumulator) {
+    final long value = accumulator.getThenReset();
+    return value == Long.MAX_VALUE || value == Long.MIN_VALUE ? 0 : value;
+  }
+
+  // Returns the minimum or maximum accumulated since the last reset and starts a new window from
+  // the current value.
+  private static long getThenResetTo(LongAccumulator accumulator, long currentValue) {
+    final long value = accumulator.getThenReset();
+    accumulator.accumulate(currentValue);
+    return value == Long.MAX_VALUE || value == Long.MIN_VALUE ? currentValue : value;
+  }
+
   private void incReadyChannels() {
     numChannelConnect.incrementAndGet();
-    final int newReady = readyChannels.incrementAndGet();
-    if (maxReadyChannels < newReady) {
-      maxReadyChannels = newReady;
-    }
+    maxReadyChannels.accumulate(readyChannels.incrementAndGet());
   }
 
   private void decReadyChannels() {
     numChannelDisconnect.incrementAndGet();
-    final int newReady = readyChannels.decrementAndGet();
-    if (minReadyChannels > newReady) {
-      minReadyChannels = newReady;
-    }
+    minReadyChannels.accumulate(readyChannels.decrementAndGet());
   }
 
   private void saveReadinessTime(long readinessNanos) {
     long readinessTimeUs = readinessNanos / 1000;
-    if (minReadinessTime == 0 || readinessTimeUs < minReadinessTime) {
-      minReadinessTime = readinessTimeUs;
-    }
-    if (readinessTimeUs > maxReadinessTime) {
-      maxReadinessTime = readinessTimeUs;
-    }
+    minReadinessTime.accumulate(readinessTimeUs);
+    maxReadinessTime.accumulate(readinessTimeUs);
     totalReadinessTime.addAndGet(readinessTimeUs);
     readinessTimeOccurrences.incrementAndGet();
+    if (autoscaler != null) {
+      autoscaler.recordReadinessTime(readinessNanos);
+    }
   }
 
   private void recordUnresponsiveDetection(long nanos, long dropCount) {
     unresponsiveDetectionCount.incrementAndGet();
     final long ms = nanos / 1000000;
-    if (minUnresponsiveMs == 0 || minUnresponsiveMs > ms) {
-      minUnresponsiveMs = ms;
-    }
-    if (maxUnresponsiveMs < ms) {
-      maxUnresponsiveMs = ms;
-    }
-    if (minUnresponsiveDrops == 0 || minUnresponsiveDrops > dropCount) {
-      minUnresponsiveDrops = dropCount;
-    }
-    if (maxUnresponsiveDrops < dropCount) {
-      maxUnresponsiveDrops = dropCount;
-    }
+    minUnresponsiveMs.accumulate(ms);
+    maxUnresponsiveMs.accumulate(ms);
+    minUnresponsiveDrops.accumulate(dropCount);
+    maxUnresponsiveDrops.accumulate(dropCount);
   }
 
   @Override
@@ -908,12 +1400,14 @@ public class GcpManagedChannel extends ManagedChannel {
   private class ChannelStateMonitor implements Runnable {
     private final int channelId;
     private final ManagedChannel channel;
+    private final ChannelRef channelRef;
     private ConnectivityState currentState;
     private long connectingStartNanos;
 
-    private ChannelStateMonitor(ManagedChannel channel, int channelId) {
-      this.channelId = channelId;
-      this.channel = channel;
+    private ChannelStateMonitor(ChannelRef channelRef) {
+      this.channelRef = channelRef;
+      this.channelId = channelRef.getId();
+      this.channel = channelRef.getChannel();
       run();
     }
 
@@ -923,7 +1417,7 @@ public class GcpManagedChannel extends ManagedChannel {
         return;
       }
       // Keep minSize channels always connected.
-      boolean requestConnection = channelId < minSize;
+      boolean requestConnection = !channelRef.isRetired() && isWithinMinSize(channelRef);
       ConnectivityState newState = channel.getState(requestConnection);
       logger.finer(
           log("Channel %d state change detected: %s -> %s", channelId, currentState, newState)
@@ -940,21 +1434,41 @@ public class GcpManagedChannel extends ManagedChannel {
         connectingStartNanos = System.nanoTime();
       }
       currentState = newState;
-      processChannelStateChange(channelId, newState);
+      if (channelRef.isRetired()) {
+        // The channel is no longer in the pool and must not affect the fallback logic.
+        executeStateChangeCallbacks();
+      } else {
+        processChannelStateChange(channelId, newState);
+      }
       if (newState != ConnectivityState.SHUTDOWN) {
         channel.notifyWhenStateChanged(newState, this);
       }
     }
   }
 
-  private synchronized void executeStateChangeCallbacks() {
-    List<Runnable> callbacksToTrigger = stateChangeCallbacks;
-    stateChangeCallbacks = new LinkedList<>();
-    try {
-      callbacksToTrigger.forEach(stateNotificationExecutor::execute);
-    } catch (RejectedExecutionException e) {
-      // Ignore exceptions on shutdown.
-      logger.fine(log("State notification change task rejected: %s", e.getMessage()));
+  // Whether the channel is (or is going to be, if not yet added) among the first minSize channels.
+  private boolean isWithinMinSize(ChannelRef channelRef) {
+    int index = channelRefs.indexOf(channelRef);
+    if (index < 0) {
+      return channelRefs.size() < minSize;
+    }
+    return index < minSize;
+  }
+
+  private void executeStateChangeCallbacks() {
+    synchronized (this) {
+      List<Runnable> callbacksToTrigger = stateChangeCallbacks;
+      stateChangeCallbacks = new LinkedList<>();
+      try {
+        callbacksToTrigger.forEach(stateNotificationExecutor::execute);
+      } catch (RejectedExecutionException e) {
+        // Ignore exceptions on shutdown.
+        logger.fine(log("State notification change task rejected: %s", e.getMessage()));
+      }
+    }
+    // The state of the main pool includes the states of its sub-pools.
+    if (mainPool != null) {
+      mainPool.executeStateChangeCallbacks();
     }
   }
 
@@ -1044,12 +1558,37 @@ public class GcpManagedChannel extends ManagedChannel {
    *     Otherwise pick the one with the smallest number of streams.
    */
   protected ChannelRef getChannelRef(@Nullable String key) {
+    return getChannelRef(key, null);
+  }
+
+  /**
+   * Pick a {@link ChannelRef} as {@link #getChannelRef(String, String)} does and count a new stream
+   * on it. If the channel is removed from the pool before the stream is counted, another channel is
+   * picked, so that the stream never lands on a channel being shut down.
+   */
+  protected ChannelRef getChannelRefForStream(@Nullable String key, @Nullable String methodName) {
+    ChannelRef channelRef = getChannelRef(key, methodName);
+    while (!channelRef.tryActiveStreamsCountIncr()) {
+      channelRef = getChannelRef(key, methodName);
+    }
+    return channelRef;
+  }
+
+  /**
+   * Pick a {@link ChannelRef} as {@link #getChannelRef(String)} does, passing the method name of
+   * the call to the {@link ChannelPicker} if one is configured.
+   *
+   * @param key affinity key or null.
+   * @param methodName full method name of the call or null if not known.
+   */
+  protected ChannelRef getChannelRef(@Nullable String key, @Nullable String methodName) {
     if (key == null || key.isEmpty()) {
-      return pickLeastBusyChannel(/* forFallback= */ false);
+      return pickLeastBusyChannel(/* forFallback= */ false, methodName, null);
     }
     ChannelRef mappedChannel = affinityKeyToChannelRef.get(key);
-    if (mappedChannel == null) {
-      ChannelRef channelRef = pickLeastBusyChannel(/*forFallback= */ false);
+    if (mappedChannel == null || mappedChannel.isRetired()) {
+      // No mapping or the channel was removed from the pool after the key was bound to it.
+      ChannelRef channelRef = pickLeastBusyChannel(/*forFallback= */ false, methodName, key);
       bind(channelRef, Collections.singletonList(key));
       return channelRef;
     }
@@ -1064,14 +1603,15 @@ public class GcpManagedChannel extends ManagedChannel {
     }
     // Channel is not ready. Look up if the affinity key mapped to another channel.
     Integer channelId = tempMap.get(key);
-    if (channelId != null && !fallbackMap.containsKey(channelId)) {
+    ChannelRef fallbackChannel = channelId == null ? null : channelRefById.get(channelId);
+    if (fallbackChannel != null && !fallbackMap.containsKey(channelId)) {
       // Fallback channel is ready.
       logger.finest(log("Using fallback channel: %d -> %d", mappedChannel.getId(), channelId));
       fallbacksSucceeded.incrementAndGet();
-      return channelRefs.get(channelId);
+      return fallbackChannel;
     }
     // No temp mapping for this key or fallback channel is also broken.
-    ChannelRef channelRef = pickLeastBusyChannel(/* forFallback= */ true);
+    ChannelRef channelRef = pickLeastBusyChannel(/* forFallback= */ true, methodName, key);
     if (!fallbackMap.containsKey(channelRef.getId())
         && channelRef.getActiveStreamsCount() < DEFAULT_MAX_STREAM) {
       // Got a ready and not an overloaded channel.
@@ -1086,23 +1626,64 @@ public class GcpManagedChannel extends ManagedChannel {
     }
     logger.finest(log("Failed to find fallback for channel %d", mappedChannel.getId()));
     fallbacksFailed.incrementAndGet();
-    if (channelId != null) {
+    if (fallbackChannel != null) {
       // Stick with previous mapping if fallback has failed.
-      return channelRefs.get(channelId);
+      return fallbackChannel;
     }
     return mappedChannel;
   }
 
-  // Create a new channel and add it to channelRefs synchronously to make sure its id matches its
-  // channelRef's index.
+  // Create a new channel and add it to channelRefs synchronously to make sure the pool does not
+  // exceed its maximum size.
   private synchronized ChannelRef createNewChannel() {
-    final int size = channelRefs.size();
-    ChannelRef channelRef = new ChannelRef(delegateChannelBuilder.build(), size);
+    ManagedChannel channel = prewarmedChannel;
+    if (channel != null) {
+      prewarmedChannel = null;
+    } else {
+      channel = delegateChannelBuilder.build();
+    }
+    ChannelRef channelRef = new ChannelRef(channel, nextChannelId.getAndIncrement());
     channelRefs.add(channelRef);
+    maxChannels = Math.max(maxChannels, channelRefs.size());
+    scheduleRecycling(channelRef);
     logger.finer(log("Channel %d created.", channelRef.getId()));
     return channelRef;
   }
 
+  // Creates and connects the next channel ahead of demand when every channel in the pool is close
+  // to the concurrent streams low watermark, so that calls on a newly added channel do not wait
+  // for connection establishment.
+  private void maybePrewarmChannel(int minStreams) {
+    if (!prewarmChannels
+        || prewarmedChannel != null
+        || minStreams < maxConcurrentStreamsLowWatermark * 3 / 4
+        || channelRefs.size() >= maxSize) {
+      return;
+    }
+    synchronized (this) {
+      if (prewarmedChannel != null
+          || channelRefs.size() >= maxSize
+          || shutdown) {
+        return;
+      }
+      prewarmedChannel = delegateChannelBuilder.build();
+      prewarmedChannel.getState(true);
+    }
+    logger.finer(log("Pre-warming the next channel at %d min active streams.", minStreams));
+  }
+
+  private synchronized void shutdownPrewarmedChannel(boolean now) {
+    if (prewarmedChannel == null) {
+      return;
+    }
+    if (now) {
+      prewarmedChannel.shutdownNow();
+    } else {
+      prewarmedChannel.shutdown();
+    }
+    prewarmedChannel = null;
+  }
+
   // Returns first newly created channel or null if there are already some channels in the pool.
   @Nullable
   private ChannelRef createFirstChannel() {
@@ -1132,18 +1713,280 @@ public class GcpManagedChannel extends ManagedChannel {
     return null;
   }
 
+  // Removes channels which have been idle for longer than the idle timeout, keeping at least
+  // minSize channels (and at least one channel) in the pool. Most recently created channels are
+  // removed first. A channel recently picked by a call which has not started yet is not idle.
+  @VisibleForTesting
+  synchronized void removeIdleChannels() {
+    final long idleTimeoutNanos = idleTimeout.toNanos();
+    for (int i = channelRefs.size() - 1; i >= 0; i--) {
+      if (channelRefs.size() <= Math.max(minSize, 1)) {
+        return;
+      }
+      final ChannelRef channelRef = channelRefs.get(i);
+      if (!channelRef.isIdleFor(idleTimeoutNanos)) {
+        continue;
+      }
+      channelRefs.remove(i);
+      discardChannel(channelRef);
+      numChannelsRemoved.incrementAndGet();
+      logger.finer(log("Channel %d removed after being idle.", channelRef.getId()));
+    }
+  }
+
+  // Samples the pool's load and adds or removes channels to match the size recommended by the
+  // autoscaler. New channels are connected right away. Only channels without active streams and
+  // bound keys are removed, most recently created first.
+  @VisibleForTesting
+  void autoscale() {
+    final int target =
+        Math.min(
+            autoscaler.sample(
+                System.nanoTime(),
+                (int) sampleTotalActiveStreams(),
+                totalOkCalls.sum() + totalErrCalls.sum()),
+            maxSize);
+    synchronized (this) {
+      if (shutdown) {
+        return;
+      }
+      while (channelRefs.size() < target) {
+        final ChannelRef channelRef = createNewChannel();
+        channelRef.getChannel().getState(true);
+        numAutoscalerScaleUps.incrementAndGet();
+        logger.finer(log("Autoscaler added channel %d.", channelRef.getId()));
+      }
+      for (int i = channelRefs.size() - 1; i >= 0; i--) {
+        if (channelRefs.size() <= Math.max(target, Math.max(minSize, 1))) {
+          break;
+        }
+        final ChannelRef channelRef = channelRefs.get(i);
+        if (!channelRef.isIdleFor(0)) {
+          continue;
+        }
+        channelRefs.remove(i);
+        discardChannel(channelRef);
+        numAutoscalerScaleDowns.incrementAndGet();
+        logger.finer(log("Autoscaler removed channel %d.", channelRef.getId()));
+      }
+    }
+  }
+
+  /**
+   * Removes the channel from the pool and gracefully shuts it down once the calls in progress on
+   * the channel complete. Affinity keys bound to the channel will be bound to other channels on
+   * their next use. The pool will create new channels on demand.
+   *
+   * @param channelRef the channel to remove.
+   * @return true if the channel was in the pool and has been removed.
+   */
+  protected synchronized boolean retireChannel(ChannelRef channelRef) {
+    if (!channelRefs.remove(channelRef)) {
+      return false;
+    }
+    discardChannel(channelRef);
+    logger.finer(log("Channel %d retired.", channelRef.getId()));
+    return true;
+  }
+
+  /**
+   * Replaces the channel in the pool with a new channel, e.g., after a persistent failure or to
+   * refresh the connection. Affinity keys bound to the old channel are moved to the new channel.
+   * The old channel is gracefully shut down once the calls in progress on it complete.
+   *
+   * @param channelRef the channel to replace.
+   * @return the new channel or null if the channel is not in the pool.
+   */
+  @Nullable
+  protected synchronized ChannelRef replaceChannel(ChannelRef channelRef) {
+    if (!channelRefs.contains(channelRef)) {
+      return null;
+    }
+    return replaceChannel(channelRef, delegateChannelBuilder.build());
+  }
+
+  // Replaces the channel in the pool with a new channel wrapping the provided delegate channel.
+  // Returns the new channel or null if the channel is not in the pool or the pool is shut down.
+  @Nullable
+  private synchronized ChannelRef replaceChannel(ChannelRef channelRef, ManagedChannel channel) {
+    final int index = channelRefs.indexOf(channelRef);
+    if (index < 0 || shutdown) {
+      return null;
+    }
+    final ChannelRef newChannelRef = new ChannelRef(channel, nextChannelId.getAndIncrement());
+    channelRefs.set(index, newChannelRef);
+    affinityKeyToChannelRef.forEach(
+        (key, ref) -> {
+          if (ref == channelRef
+              && affinityKeyToChannelRef.replace(key, channelRef, newChannelRef)) {
+            channelRef.affinityCountDecr();
+            newChannelRef.affinityCountIncr();
+          }
+        });
+    discardChannel(channelRef);
+    scheduleRecycling(newChannelRef);
+    logger.finer(log(
+        "Channel %d replaced with channel %d.", channelRef.getId(), newChannelRef.getId()));
+    return newChannelRef;
+  }
+
+  // Schedules recycling of the channel after the max channel age plus a random jitter.
+  private void scheduleRecycling(ChannelRef channelRef) {
+    if (maxChannelAge.isZero()) {
+      return;
+    }
+    long delayNanos = maxChannelAge.toNanos();
+    if (!maxChannelAgeJitter.isZero()) {
+      delayNanos += ThreadLocalRandom.current().nextLong(maxChannelAgeJitter.toNanos() + 1);
+    }
+    try {
+      channelRef.recyclingTask =
+          poolMaintenanceService.schedule(
+              () -> recycleChannel(channelRef), delayNanos, NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // The pool is shutting down.
+    }
+  }
+
+  // Creates a replacement channel and, once it is connected or the warm-up timeout passes, moves
+  // new calls and affinity keys from the old channel to the replacement. The old channel is then
+  // gracefully shut down once its calls complete.
+  @VisibleForTesting
+  void recycleChannel(ChannelRef channelRef) {
+    final ManagedChannel channel;
+    final Runnable complete;
+    // The replacement is tracked under the lock, so that a shutdown of the pool either prevents it
+    // or shuts it down.
+    synchronized (this) {
+      if (channelRef.isRetired() || shutdown) {
+        return;
+      }
+      channel = delegateChannelBuilder.build();
+      final AtomicBoolean completed = new AtomicBoolean();
+      complete = () -> {
+        if (!completed.compareAndSet(false, true)) {
+          return;
+        }
+        final ChannelRef newChannelRef = replaceChannel(channelRef, channel);
+        untrackWarmingChannel(channel);
+        if (newChannelRef == null) {
+          // The old channel was removed or the pool shut down in the meantime.
+          channel.shutdownNow();
+          return;
+        }
+        numChannelsRecycled.incrementAndGet();
+        logger.finer(log(
+            "Channel %d recycled as channel %d (new channel state: %s).",
+            channelRef.getId(), newChannelRef.getId(), channel.getState(false)));
+      };
+      try {
+        warmingChannels.put(
+            channel,
+            poolMaintenanceService.schedule(
+                complete, channelWarmupTimeout.toNanos(), NANOSECONDS));
+      } catch (RejectedExecutionException e) {
+        channel.shutdownNow();
+        return;
+      }
+    }
+    runWhenReady(channel, complete);
+  }
+
+  // Stops tracking a replacement which has replaced the old channel or is not needed anymore,
+  // unless the pool is shut down and waits for it to terminate.
+  private synchronized void untrackWarmingChannel(ManagedChannel channel) {
+    if (shutdown) {
+      return;
+    }
+    final ScheduledFuture<?> warmupTimeout = warmingChannels.remove(channel);
+    if (warmupTimeout != null) {
+      warmupTimeout.cancel(false);
+    }
+  }
+
+  // Requests a connection and runs the callback when the channel becomes ready or is shut down.
+  private static void runWhenReady(ManagedChannel channel, Runnable callback) {
+    final ConnectivityState state = channel.getState(true);
+    if (state == ConnectivityState.READY || state == ConnectivityState.SHUTDOWN) {
+      callback.run();
+      return;
+    }
+    channel.notifyWhenStateChanged(state, () -> runWhenReady(channel, callback));
+  }
+
+  // Forgets about a channel already removed from channelRefs and gracefully shuts it down.
+  private void discardChannel(ChannelRef channelRef) {
+    channelRef.retire();
+    channelRef.cancelRecycling();
+    channelRefById.remove(channelRef.getId());
+    fallbackMap.remove(channelRef.getId());
+    for (Map<String, Integer> keyToChannel : fallbackMap.values()) {
+      keyToChannel.values().removeIf(id -> id == channelRef.getId());
+    }
+    if (channelRef.latencyHistogram != null) {
+      removeLatencyTimeSeries(
+          channelCallLatencyMetric,
+          labelValues,
+          LabelValue.create(String.valueOf(channelRef.getId())));
+    }
+    // Calls starting on the channel from now on go to other channels (see
+    // tryActiveStreamsCountIncr). The calls already started on the channel complete before it is
+    // shut down.
+    drainingChannelRefs.add(channelRef);
+    if (channelRef.getActiveStreamsCount() == 0) {
+      channelRef.shutdownDrained();
+    }
+  }
+
   /**
    * Pick a {@link ChannelRef} (and create a new one if necessary). If notReadyFallbackEnabled is
    * true in the {@link GcpResiliencyOptions} then instead of a channel in a non-READY state another
    * channel in the READY state and having fewer than maximum allowed number of active streams will
    * be provided if available.
    */
-  private ChannelRef pickLeastBusyChannel(boolean forFallback) {
+  private ChannelRef pickLeastBusyChannel(
+      boolean forFallback, @Nullable String methodName, @Nullable String key) {
     ChannelRef first = createFirstChannel();
     if (first != null) {
       return first;
     }
 
+    ChannelRef picked = pickWithChannelPicker(forFallback, methodName, key);
+    if (picked != null) {
+      return picked;
+    }
+    return scanLeastBusyChannel(forFallback);
+  }
+
+  // Picks a channel with the configured picker. Returns null if the full scan is needed to make a
+  // decision, i.e. when a new channel may have to be added to the pool or the picked channel is not
+  // ready while the fallback is enabled.
+  @Nullable
+  private ChannelRef pickWithChannelPicker(
+      boolean forFallback, @Nullable String methodName, @Nullable String key) {
+    final ChannelPicker.ChannelInfo info;
+    try {
+      info = channelPicker.pick(channelRefsView, methodName, key);
+    } catch (IndexOutOfBoundsException e) {
+      // The pool has changed in the meantime.
+      return null;
+    }
+    if (!(info instanceof ChannelRef) || ((ChannelRef) info).isRetired()) {
+      return null;
+    }
+    final ChannelRef picked = (ChannelRef) info;
+    final int streams = picked.getActiveStreamsCount();
+    if (fallbackEnabled
+        && (streams >= DEFAULT_MAX_STREAM || fallbackMap.containsKey(picked.getId()))) {
+      return null;
+    }
+    if (channelRefs.size() < maxSize && streams >= maxConcurrentStreamsLowWatermark) {
+      return null;
+    }
+    return chooseCandidate(picked, streams, picked, streams, forFallback);
+  }
+
+  private ChannelRef scanLeastBusyChannel(boolean forFallback) {
     // Pick the least busy channel and the least busy ready and not overloaded channel (this could
     // be the same channel or different or no channel).
     ChannelRef channelCandidate = channelRefs.get(0);
@@ -1159,12 +2002,24 @@ public class GcpManagedChannel extends ManagedChannel {
       }
       if (cnt < readyMinStreams
           && !fallbackMap.containsKey(channelRef.getId())
-          && channelRef.getActiveStreamsCount() < DEFAULT_MAX_STREAM) {
+          && cnt < DEFAULT_MAX_STREAM) {
         readyMinStreams = cnt;
         readyCandidate = channelRef;
       }
     }
 
+    return chooseCandidate(
+        channelCandidate, minStreams, readyCandidate, readyMinStreams, forFallback);
+  }
+
+  // Decides between the least busy channel, the least busy ready channel and a new channel.
+  private ChannelRef chooseCandidate(
+      ChannelRef channelCandidate,
+      int minStreams,
+      @Nullable ChannelRef readyCandidate,
+      int readyMinStreams,
+      boolean forFallback) {
+    maybePrewarmChannel(minStreams);
     if (!fallbackEnabled) {
       if (channelRefs.size() < maxSize && minStreams >= maxConcurrentStreamsLowWatermark) {
         ChannelRef newChannel = tryCreateNewChannel();
@@ -1223,48 +2078,153 @@ public class GcpManagedChannel extends ManagedChannel {
   @Override
   public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
       MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
-    AffinityConfig affinity = methodToAffinity.get(methodDescriptor.getFullMethodName());
+    final GcpManagedChannel pool = getPool(methodDescriptor);
+    if (pool != this) {
+      return pool.newCall(methodDescriptor, callOptions);
+    }
+    AffinityConfig affinity = getAffinity(methodDescriptor);
     if (affinity == null) {
+      final ChannelRef channelRef = getChannelRef(null, methodDescriptor.getFullMethodName());
+      channelRef.markPicked();
       return new GcpClientCall.SimpleGcpClientCall<>(
-          getChannelRef(null), methodDescriptor, callOptions);
+          this, channelRef, methodDescriptor, callOptions);
     }
     return new GcpClientCall<>(this, methodDescriptor, callOptions, affinity);
   }
 
+  // Returns the sub-pool the method is assigned to or this pool.
+  private GcpManagedChannel getPool(MethodDescriptor<?, ?> methodDescriptor) {
+    if (subPools.isEmpty()) {
+      return this;
+    }
+    GcpManagedChannel pool = poolByMethod.get(methodDescriptor);
+    if (pool == null) {
+      final String subPoolName = methodToSubPoolName.get(methodDescriptor.getFullMethodName());
+      pool = subPoolName == null ? null : subPools.get(subPoolName);
+      if (pool == null) {
+        pool = this;
+      }
+      if (poolByMethod.size() < MAX_CACHED_METHODS) {
+        poolByMethod.put(methodDescriptor, pool);
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Starts tracking the latency and status of calls of this pool and its sub-pools, if not yet
+   * tracked, and returns the stats.
+   */
+  synchronized CallStats enableCallStats() {
+    if (callStats == null) {
+      callStats = new CallStats();
+      for (GcpManagedChannel subPool : subPools.values()) {
+        subPool.callStats = callStats;
+      }
+    }
+    return callStats;
+  }
+
+  /**
+   * Returns the sub-pool with the name or null if there is no such sub-pool.
+   *
+   * <p>The sub-pool shares the lifecycle of this pool and must not be shut down on its own.
+   */
+  @Nullable
+  public GcpManagedChannel getSubPool(String name) {
+    return subPools.get(name);
+  }
+
+  // Returns the affinity config of the method or null if the method has no affinity.
+  @Nullable
+  private AffinityConfig getAffinity(MethodDescriptor<?, ?> methodDescriptor) {
+    if (methodToAffinity.isEmpty()) {
+      return null;
+    }
+    AffinityConfig affinity = affinityByMethod.get(methodDescriptor);
+    if (affinity == null) {
+      affinity = methodToAffinity.get(methodDescriptor.getFullMethodName());
+      if (affinity == null) {
+        affinity = NO_AFFINITY;
+      }
+      if (affinityByMethod.size() < MAX_CACHED_METHODS) {
+        affinityByMethod.put(methodDescriptor, affinity);
+      }
+    }
+    return affinity == NO_AFFINITY ? null : affinity;
+  }
+
   @Override
   public ManagedChannel shutdownNow() {
     logger.finer(log("Shutdown now started."));
+    shutdown = true;
     for (ChannelRef channelRef : channelRefs) {
       if (!channelRef.getChannel().isTerminated()) {
         channelRef.getChannel().shutdownNow();
       }
     }
-    if (logMetricService != null && !logMetricService.isTerminated()) {
-      logMetricService.shutdownNow();
-    }
-    if (!stateNotificationExecutor.isTerminated()) {
-      stateNotificationExecutor.shutdownNow();
+    for (ChannelRef channelRef : drainingChannelRefs) {
+      channelRef.getChannel().shutdownNow();
     }
+    cancelScheduledTasks();
+    shutdownPrewarmedChannel(true);
+    subPools.values().forEach(GcpManagedChannel::shutdownNow);
     return this;
   }
 
   @Override
   public ManagedChannel shutdown() {
     logger.finer(log("Shutdown started."));
+    shutdown = true;
     for (ChannelRef channelRef : channelRefs) {
       channelRef.getChannel().shutdown();
     }
-    if (logMetricService != null) {
-      logMetricService.shutdown();
+    for (ChannelRef channelRef : drainingChannelRefs) {
+      channelRef.getChannel().shutdown();
     }
-    stateNotificationExecutor.shutdown();
+    cancelScheduledTasks();
+    shutdownPrewarmedChannel(false);
+    subPools.values().forEach(GcpManagedChannel::shutdown);
     return this;
   }
 
+  /**
+   * Requests connection on all channels in the pool and its sub-pools (creating the first channel
+   * of a pool if it is empty) and waits for them to become ready. Useful at startup to avoid paying
+   * connection establishment latency on the first calls.
+   *
+   * @param timeout maximum time to wait.
+   * @return true if all channels in the pool and its sub-pools are ready, false if the timeout has
+   *     elapsed first.
+   */
+  public boolean awaitReady(Duration timeout) throws InterruptedException {
+    createFirstChannel();
+    final List<ChannelRef> refs = new ArrayList<>(channelRefs);
+    for (GcpManagedChannel subPool : subPools.values()) {
+      subPool.createFirstChannel();
+      refs.addAll(subPool.channelRefs);
+    }
+    final CountDownLatch latch = new CountDownLatch(refs.size());
+    for (ChannelRef channelRef : refs) {
+      runWhenReady(channelRef.getChannel(), latch::countDown);
+    }
+    if (!latch.await(timeout.toNanos(), NANOSECONDS)) {
+      return false;
+    }
+    for (ChannelRef channelRef : refs) {
+      if (channelRef.getChannel().getState(false) != ConnectivityState.READY) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
     long endTimeNanos = System.nanoTime() + unit.toNanos(timeout);
-    for (ChannelRef channelRef : channelRefs) {
+    final List<ChannelRef> refs = new ArrayList<>(channelRefs);
+    refs.addAll(drainingChannelRefs);
+    for (ChannelRef channelRef : refs) {
       if (channelRef.getChannel().isTerminated()) {
         continue;
       }
@@ -1274,15 +2234,19 @@ public class GcpManagedChannel extends ManagedChannel {
       }
       channelRef.getChannel().awaitTermination(awaitTimeNanos, NANOSECONDS);
     }
-    long awaitTimeNanos = endTimeNanos - System.nanoTime();
-    if (logMetricService != null && awaitTimeNanos > 0) {
-      //noinspection ResultOfMethodCallIgnored
-      logMetricService.awaitTermination(awaitTimeNanos, NANOSECONDS);
+    for (ManagedChannel channel : getWarmingChannels()) {
+      long awaitTimeNanos = endTimeNanos - System.nanoTime();
+      if (awaitTimeNanos <= 0) {
+        break;
+      }
+      channel.awaitTermination(awaitTimeNanos, NANOSECONDS);
     }
-    awaitTimeNanos = endTimeNanos - System.nanoTime();
-    if (awaitTimeNanos > 0) {
-      //noinspection ResultOfMethodCallIgnored
-      stateNotificationExecutor.awaitTermination(awaitTimeNanos, NANOSECONDS);
+    for (GcpManagedChannel subPool : subPools.values()) {
+      long awaitTimeNanos = endTimeNanos - System.nanoTime();
+      if (awaitTimeNanos <= 0) {
+        break;
+      }
+      subPool.awaitTermination(awaitTimeNanos, NANOSECONDS);
     }
     return isTerminated();
   }
@@ -1294,10 +2258,12 @@ public class GcpManagedChannel extends ManagedChannel {
         return false;
       }
     }
-    if (logMetricService != null) {
-      return logMetricService.isShutdown();
+    for (GcpManagedChannel subPool : subPools.values()) {
+      if (!subPool.isShutdown()) {
+        return false;
+      }
     }
-    return stateNotificationExecutor.isShutdown();
+    return shutdown;
   }
 
   @Override
@@ -1307,24 +2273,43 @@ public class GcpManagedChannel extends ManagedChannel {
         return false;
       }
     }
-    if (logMetricService != null) {
-      return logMetricService.isTerminated();
+    for (ChannelRef channelRef : drainingChannelRefs) {
+      if (!channelRef.getChannel().isTerminated()) {
+        return false;
+      }
+    }
+    for (ManagedChannel channel : getWarmingChannels()) {
+      if (!channel.isTerminated()) {
+        return false;
+      }
     }
-    return stateNotificationExecutor.isTerminated();
+    for (GcpManagedChannel subPool : subPools.values()) {
+      if (!subPool.isTerminated()) {
+        return false;
+      }
+    }
+    return shutdown;
   }
 
-  /** Get the current connectivity state of the channel pool. */
+  /**
+   * Get the current connectivity state of the channel pool. The state of a pool with sub-pools
+   * includes the channels of the sub-pools.
+   */
   @Override
   public ConnectivityState getState(boolean requestConnection) {
     if (requestConnection && getNumberOfChannels() == 0) {
       createFirstChannel();
     }
+    final List<ChannelRef> refs = new ArrayList<>(channelRefs);
+    for (GcpManagedChannel subPool : subPools.values()) {
+      refs.addAll(subPool.channelRefs);
+    }
     int ready = 0;
     int idle = 0;
     int connecting = 0;
     int transientFailure = 0;
     int shutdown = 0;
-    for (ChannelRef channelRef : channelRefs) {
+    for (ChannelRef channelRef : refs) {
       ConnectivityState cur = channelRef.getChannel().getState(requestConnection);
       switch (cur) {
         case READY:
@@ -1384,6 +2369,74 @@ public class GcpManagedChannel extends ManagedChannel {
     }
   }
 
+  /**
+   * Bind affinity keys distributing them evenly over the channels in the pool. Every key is bound
+   * to the channel with the fewest bound keys at the time. If all channels have bound keys, a new
+   * channel is created for the key until the pool reaches its max size, as round-robin on bind
+   * does.
+   */
+  protected void bindDistributed(List<String> affinityKeys) {
+    if (affinityKeys == null) {
+      return;
+    }
+    for (String affinityKey : affinityKeys) {
+      ChannelRef channelRef = null;
+      for (ChannelRef ref : channelRefs) {
+        if (channelRef == null || ref.getAffinityCount() < channelRef.getAffinityCount()) {
+          channelRef = ref;
+        }
+      }
+      if (channelRef == null || channelRef.getAffinityCount() > 0) {
+        final ChannelRef newChannel = tryCreateNewChannel();
+        if (newChannel != null) {
+          channelRef = newChannel;
+        }
+      }
+      if (channelRef == null) {
+        channelRef = getChannelRef(null);
+      }
+      bind(channelRef, Collections.singletonList(affinityKey));
+    }
+  }
+
+  /**
+   * Returns the affinity key to route a request with the affinity keys by, following the
+   * multi-key strategy of the method.
+   *
+   * @return the key or null if there are no keys.
+   */
+  @Nullable
+  protected String getRoutingKey(@Nullable List<String> keys, AffinityConfig affinity) {
+    if (keys == null || keys.isEmpty()) {
+      return null;
+    }
+    if (keys.size() == 1
+        || affinity.getMultiKeyStrategy() != AffinityConfig.MultiKeyStrategy.MAJORITY_CHANNEL) {
+      return keys.get(0);
+    }
+    // Pick a key bound to the channel most of the keys are bound to.
+    final Map<ChannelRef, Integer> keysPerChannel = new HashMap<>();
+    String routingKey = keys.get(0);
+    int maxKeys = 0;
+    for (String key : keys) {
+      final ChannelRef channelRef = affinityKeyToChannelRef.get(key);
+      if (channelRef == null || channelRef.isRetired()) {
+        continue;
+      }
+      final int count = keysPerChannel.merge(channelRef, 1, Integer::sum);
+      if (count > maxKeys) {
+        maxKeys = count;
+        routingKey = key;
+      }
+    }
+    return routingKey;
+  }
+
+  private void onAffinityKeyEvicted(String affinityKey, ChannelRef channelRef) {
+    channelRef.affinityCountDecr();
+    logger.finest(log("Evicted key %s bound to channel %d.", affinityKey, channelRef.getId()));
+  }
+
   /** Unbind channel with affinity key. */
   protected void unbind(List<String> affinityKeys) {
     if (affinityKeys == null) {
@@ -1409,17 +2462,28 @@ public class GcpManagedChannel extends ManagedChannel {
     if (apiConfig.getChannelPool().getMaxSize() > 0) {
       maxSize = apiConfig.getChannelPool().getMaxSize();
     }
+    if (apiConfig.getChannelPool().getIdleTimeout() > 0) {
+      idleTimeout = Duration.ofSeconds(apiConfig.getChannelPool().getIdleTimeout());
+    }
     final int lowWatermark = apiConfig.getChannelPool().getMaxConcurrentStreamsLowWatermark();
     if (lowWatermark >= 0 && lowWatermark <= DEFAULT_MAX_STREAM) {
       this.maxConcurrentStreamsLowWatermark = lowWatermark;
     }
     // Get method parameters.
     for (MethodConfig method : apiConfig.getMethodList()) {
+      if (!method.getChannelPool().isEmpty()) {
+        for (String methodName : method.getNameList()) {
+          methodToSubPoolName.put(methodName, method.getChannelPool());
+        }
+      }
       if (method.getAffinity().equals(AffinityConfig.getDefaultInstance())) {
         continue;
       }
+      final AffinityKeyExtractor keyExtractor =
+          new AffinityKeyExtractor(method.getAffinity().getAffinityKey());
       for (String methodName : method.getNameList()) {
         methodToAffinity.put(methodName, method.getAffinity());
+        methodToKeyExtractor.put(methodName, keyExtractor);
       }
     }
   }
@@ -1436,6 +2500,9 @@ public class GcpManagedChannel extends ManagedChannel {
    *
    * <p>If you want to get the key "another session" in the nested message, the name should be
    * "session1.session2".
+   *
+   * <p>This is the reflective reference implementation. The channel uses {@link
+   * AffinityKeyExtractor} which resolves the field path once per message type.
    */
   @VisibleForTesting
   static List<String> getKeysFromMessage(MessageOrBuilder msg, String name) {
@@ -1486,40 +2553,101 @@ public class GcpManagedChannel extends ManagedChannel {
       return null;
     }
 
-    AffinityConfig affinity = methodToAffinity.get(methodDescriptor.getFullMethodName());
-    if (affinity != null) {
-      AffinityConfig.Command cmd = affinity.getCommand();
-      String keyName = affinity.getAffinityKey();
-      List<String> keys = getKeysFromMessage((MessageOrBuilder) message, keyName);
-      if (isReq && (cmd == AffinityConfig.Command.UNBIND || cmd == AffinityConfig.Command.BOUND)) {
-        if (keys.size() > 1) {
-          throw new IllegalStateException("Duplicate affinity key in the request message");
-        }
-        return keys;
-      }
-      if (!isReq && cmd == AffinityConfig.Command.BIND) {
-        return keys;
-      }
+    final String methodName = methodDescriptor.getFullMethodName();
+    AffinityConfig affinity = methodToAffinity.get(methodName);
+    if (affinity == null) {
+      return null;
     }
-    return null;
+    AffinityConfig.Command cmd = affinity.getCommand();
+    boolean keysNeeded =
+        isReq
+            ? cmd == AffinityConfig.Command.UNBIND || cmd == AffinityConfig.Command.BOUND
+            : cmd == AffinityConfig.Command.BIND;
+    if (!keysNeeded) {
+      // Do not spend time on extracting keys not used for this message.
+      return null;
+    }
+    List<String> keys = methodToKeyExtractor.get(methodName).extract((MessageOrBuilder) message);
+    // UNBIND requests unbind all their keys regardless of the strategy.
+    if (isReq
+        && keys.size() > 1
+        && cmd == AffinityConfig.Command.BOUND
+        && affinity.getMultiKeyStrategy() == AffinityConfig.MultiKeyStrategy.REJECT) {
+      throw new IllegalStateException("Duplicate affinity key in the request message");
+    }
+    return keys;
+  }
+
+  /**
+   * Creates a marshaller capturing affinity keys from the serialized response of a BIND call.
+   *
+   * @return the marshaller or null if extracting keys from serialized responses is disabled or the
+   *     method does not use protobuf messages.
+   */
+  @Nullable
+  <ReqT, RespT> AffinityKeyCapturingMarshaller<RespT> newBindKeysMarshaller(
+      MethodDescriptor<ReqT, RespT> methodDescriptor) {
+    if (!extractBindKeysFromBytes) {
+      return null;
+    }
+    final AffinityKeyExtractor extractor =
+        methodToKeyExtractor.get(methodDescriptor.getFullMethodName());
+    final MethodDescriptor.Marshaller<RespT> marshaller = methodDescriptor.getResponseMarshaller();
+    if (extractor == null || !(marshaller instanceof MethodDescriptor.PrototypeMarshaller)) {
+      return null;
+    }
+    final Object prototype =
+        ((MethodDescriptor.PrototypeMarshaller<RespT>) marshaller).getMessagePrototype();
+    if (!(prototype instanceof MessageOrBuilder)) {
+      return null;
+    }
+    return new AffinityKeyCapturingMarshaller<>(
+        marshaller, extractor, ((MessageOrBuilder) prototype).getDescriptorForType());
   }
 
   /**
    * A wrapper of real grpc channel, it provides helper functions to calculate affinity counts and
    * active streams count.
    */
-  protected class ChannelRef {
+  protected class ChannelRef implements ChannelPicker.ChannelInfo {
 
     private final ManagedChannel delegate;
     private final int channelId;
-    private final AtomicInteger affinityCount;
+    // Counters mutated by many threads on every call are padded to their own cache lines, so
+    // that updating one of them does not invalidate the others or the read-mostly fields of the
+    // channel in the caches of other cores.
+    private final PaddedAtomicInteger affinityCount;
     // activeStreamsCount are mutated from the GcpClientCall concurrently using the
     // `activeStreamsCountIncr()` and `activeStreamsCountDecr()` methods.
-    private final AtomicInteger activeStreamsCount;
+    private final PaddedAtomicInteger activeStreamsCount;
+    // Only updated when unresponsive connection detection is enabled.
     private long lastResponseNanos = System.nanoTime();
+    // When the channel has become idle, i.e. has no active streams and no affinity keys.
+    private volatile long idleSinceNanos = System.nanoTime();
+    // When the channel was last picked by a call which counts its stream only when it starts.
+    // Not an active stream, so a call which is never started or cancelled leaks nothing.
+    private volatile long pickedNanos = idleSinceNanos;
+    private volatile boolean retired = false;
+    // Pending recycling of the channel, if scheduled.
+    @Nullable private volatile ScheduledFuture<?> recyclingTask;
     private final AtomicInteger deadlineExceededCount = new AtomicInteger();
-    private final AtomicLong okCalls = new AtomicLong();
-    private final AtomicLong errCalls = new AtomicLong();
+    // Only read when metrics are reported, so striped. Cumulative, while the metrics report the
+    // calls since the previous report.
+    private final LongAdder okCalls = new LongAdder();
+    private final LongAdder errCalls = new LongAdder();
+    @GuardedBy("GcpManagedChannel.this")
+    private long okCallsReported = 0;
+    @GuardedBy("GcpManagedChannel.this")
+    private long errCallsReported = 0;
+    // EWMAs of call latency and time to the first response message. Concurrent updates may lose a
+    // sample, which is fine for an estimate.
+    private volatile long latencyEwmaNanos = 0;
+    private volatile long firstMessageLatencyEwmaNanos = 0;
+    // Peak EWMA of time to the first response message and when it was last updated.
+    private volatile double peakLatencyEwmaNanos = 0;
+    private volatile long peakLatencyUpdateNanos = 0;
+    // Call latencies of the channel. Only when metrics are enabled.
+    @Nullable private final LatencyHistogram latencyHistogram;
 
     protected ChannelRef(ManagedChannel channel, int channelId) {
       this(channel, channelId, 0, 0);
@@ -1529,82 +2657,258 @@ public class GcpManagedChannel extends ManagedChannel {
         ManagedChannel channel, int channelId, int affinityCount, int activeStreamsCount) {
       this.delegate = channel;
       this.channelId = channelId;
-      this.affinityCount = new AtomicInteger(affinityCount);
-      this.activeStreamsCount = new AtomicInteger(activeStreamsCount);
-      new ChannelStateMonitor(channel, channelId);
+      this.affinityCount = new PaddedAtomicInteger(affinityCount);
+      this.activeStreamsCount = new PaddedAtomicInteger(activeStreamsCount);
+      nextChannelId.accumulateAndGet(channelId + 1, Math::max);
+      if (channelCallLatencyMetric != null) {
+        latencyHistogram = new LatencyHistogram();
+        createLatencyTimeSeries(
+            channelCallLatencyMetric,
+            labelValues,
+            LabelValue.create(String.valueOf(channelId)),
+            latencyHistogram);
+      } else {
+        latencyHistogram = null;
+      }
+      channelRefById.put(channelId, this);
+      new ChannelStateMonitor(this);
     }
 
     protected ManagedChannel getChannel() {
       return delegate;
     }
 
-    protected int getId() {
+    @Override
+    public int getId() {
       return channelId;
     }
 
     protected void affinityCountIncr() {
       int count = affinityCount.incrementAndGet();
-      maxAffinity.getAndUpdate(currentMax -> Math.max(currentMax, count));
+      maxAffinity.accumulate(count);
       totalAffinityCount.incrementAndGet();
     }
 
     protected void affinityCountDecr() {
       int count = affinityCount.decrementAndGet();
-      minAffinity.getAndUpdate(currentMin -> Math.min(currentMin, count));
+      if (count == 0) {
+        idleSinceNanos = System.nanoTime();
+      }
+      minAffinity.accumulate(count);
       totalAffinityCount.decrementAndGet();
     }
 
     protected void activeStreamsCountIncr() {
-      int actStreams = activeStreamsCount.incrementAndGet();
-      if (maxActiveStreams < actStreams) {
-        maxActiveStreams = actStreams;
-      }
-      int totalActStreams = totalActiveStreams.incrementAndGet();
-      if (maxTotalActiveStreams < totalActStreams) {
-        maxTotalActiveStreams = totalActStreams;
+      streamAdded(activeStreamsCount.incrementAndGet());
+    }
+
+    /**
+     * Marks the channel as picked by a call which has not started yet, so that the channel is not
+     * removed as idle before the call starts.
+     */
+    protected void markPicked() {
+      pickedNanos = System.nanoTime();
+    }
+
+    /**
+     * Increments active streams count unless the channel has been removed from the pool. A call
+     * counts its stream on the picked channel this way when starting, so that the channel is not
+     * shut down under the call.
+     *
+     * @return false if the channel has been removed from the pool and the call must pick another
+     *     channel.
+     */
+    protected boolean tryActiveStreamsCountIncr() {
+      final int actStreams = activeStreamsCount.incrementAndGet();
+      // Either this sees the channel retired or discardChannel sees the stream and leaves the
+      // shutdown to the completion of the last stream.
+      if (retired) {
+        if (activeStreamsCount.decrementAndGet() == 0) {
+          shutdownDrained();
+        }
+        return false;
       }
+      streamAdded(actStreams);
+      return true;
+    }
+
+    private void streamAdded(int actStreams) {
+      maxActiveStreams.accumulate(actStreams);
+      totalActiveStreams.increment();
     }
 
     protected void activeStreamsCountDecr(long startNanos, Status status, boolean fromClientSide) {
+      activeStreamsCountDecr(startNanos, status, fromClientSide, null);
+    }
+
+    /**
+     * Decrements active streams count when a call started at startNanos completes, recording its
+     * latency by the full method name if provided.
+     */
+    protected void activeStreamsCountDecr(
+        long startNanos, Status status, boolean fromClientSide, @Nullable String methodName) {
       int actStreams = activeStreamsCount.decrementAndGet();
-      if (minActiveStreams > actStreams) {
-        minActiveStreams = actStreams;
-      }
-      int totalActStreams = totalActiveStreams.decrementAndGet();
-      if (minTotalActiveStreams > totalActStreams) {
-        minTotalActiveStreams = totalActStreams;
+      if (actStreams == 0) {
+        idleSinceNanos = System.nanoTime();
+        if (retired) {
+          shutdownDrained();
+        }
       }
+      minActiveStreams.accumulate(actStreams);
+      totalActiveStreams.decrement();
       if (status.isOk()) {
-        okCalls.incrementAndGet();
-        totalOkCalls.incrementAndGet();
+        okCalls.increment();
+        totalOkCalls.increment();
       } else {
-        errCalls.incrementAndGet();
-        totalErrCalls.incrementAndGet();
+        errCalls.increment();
+        totalErrCalls.increment();
+      }
+      if (!fromClientSide && startNanos != 0) {
+        final long latencyNanos = System.nanoTime() - startNanos;
+        recordLatency(latencyNanos, status.isOk(), methodName);
+        final CallStats stats = callStats;
+        if (stats != null) {
+          stats.record(latencyNanos, status.getCode());
+        }
       }
       if (unresponsiveDetectionEnabled) {
         detectUnresponsiveConnection(startNanos, status, fromClientSide);
       }
     }
 
+    private void recordLatency(long latencyNanos, boolean ok, @Nullable String methodName) {
+      latencyEwmaNanos = updateEwma(latencyEwmaNanos, latencyNanos);
+      if (latencyHistogram != null) {
+        latencyHistogram.record(latencyNanos);
+      }
+      recordCallLatency(methodName, ok, latencyNanos);
+    }
+
+    /** Records the time to the first response message of a call started at startNanos. */
+    protected void firstMessageReceived(long startNanos) {
+      final long now = System.nanoTime();
+      final long latencyNanos = now - startNanos;
+      firstMessageLatencyEwmaNanos = updateEwma(firstMessageLatencyEwmaNanos, latencyNanos);
+      // A higher sample is taken at once, otherwise the weight of the current value decays with
+      // the time since its last update.
+      final double peak = peakLatencyEwmaNanos;
+      if (latencyNanos > peak) {
+        peakLatencyEwmaNanos = latencyNanos;
+      } else {
+        final double weight = peakDecayWeight(now);
+        peakLatencyEwmaNanos = peak * weight + latencyNanos * (1 - weight);
+      }
+      peakLatencyUpdateNanos = now;
+    }
+
+    private long updateEwma(long ewma, long sample) {
+      return ewma == 0 ? sample : ewma + (long) (LATENCY_EWMA_ALPHA * (sample - ewma));
+    }
+
+    private double peakDecayWeight(long now) {
+      final long elapsed = Math.max(now - peakLatencyUpdateNanos, 0);
+      return Math.exp(-(double) elapsed / PEAK_EWMA_DECAY.toNanos());
+    }
+
     protected void messageReceived() {
+      if (!unresponsiveDetectionEnabled) {
+        return;
+      }
       lastResponseNanos = System.nanoTime();
-      deadlineExceededCount.set(0);
+      // Avoid writing the shared counter on every message.
+      if (deadlineExceededCount.get() != 0) {
+        deadlineExceededCount.set(0);
+      }
     }
 
-    protected int getAffinityCount() {
+    @Override
+    public int getAffinityCount() {
       return affinityCount.get();
     }
 
-    protected int getActiveStreamsCount() {
+    @Override
+    public int getActiveStreamsCount() {
       return activeStreamsCount.get();
     }
 
+    @Override
+    public long getLatencyEwmaNanos() {
+      return latencyEwmaNanos;
+    }
+
+    @Override
+    public long getFirstMessageLatencyEwmaNanos() {
+      return firstMessageLatencyEwmaNanos;
+    }
+
+    @Override
+    public long getPeakLatencyEwmaNanos() {
+      final double peak = peakLatencyEwmaNanos;
+      if (peak == 0) {
+        return 0;
+      }
+      // Decays towards zero while there are no new samples. Never zero to keep the channel
+      // distinguishable from a channel without samples.
+      return Math.max((long) (peak * peakDecayWeight(System.nanoTime())), 1);
+    }
+
+    // Whether the channel has had no active streams and no affinity keys and has not been picked
+    // by a call for at least idleNanos.
+    boolean isIdleFor(long idleNanos) {
+      final long now = System.nanoTime();
+      return activeStreamsCount.get() == 0
+          && affinityCount.get() == 0
+          && now - idleSinceNanos >= idleNanos
+          && now - pickedNanos >= idleNanos;
+    }
+
+    // Marks the channel as removed from the pool.
+    private void retire() {
+      retired = true;
+    }
+
+    // Gracefully shuts down a channel removed from the pool once it has no streams.
+    private void shutdownDrained() {
+      drainingChannelRefs.remove(this);
+      delegate.shutdown();
+    }
+
+    private void cancelRecycling() {
+      final ScheduledFuture<?> task = recyclingTask;
+      if (task != null) {
+        task.cancel(false);
+      }
+    }
+
+    boolean isRetired() {
+      return retired;
+    }
+
+    // Returns the number of successful calls since the previous invocation.
     protected long getAndResetOkCalls() {
-      return okCalls.getAndSet(0);
+      final long total = okCalls.sum();
+      final long value = total - okCallsReported;
+      okCallsReported = total;
+      return value;
     }
 
+    // Returns the number of failed calls since the previous invocation.
     protected long getAndResetErrCalls() {
-      return errCalls.getAndSet(0);
+      final long total = errCalls.sum();
+      final long value = total - errCallsReported;
+      errCallsReported = total;
+      return value;
+    }
+
+    GcpChannelPoolStats.ChannelStats getStats() {
+      return new GcpChannelPoolStats.ChannelStats(
+          channelId,
+          delegate.getState(false),
+          activeStreamsCount.get(),
+          affinityCount.get(),
+          okCalls.sum(),
+          errCalls.sum(),
+          latencyEwmaNanos);
     }
 
     private void detectUnresponsiveConnection(
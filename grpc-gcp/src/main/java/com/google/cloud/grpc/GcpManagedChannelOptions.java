@@ -21,9 +21,15 @@ import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
 import io.opencensus.metrics.MetricRegistry;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
@@ -34,17 +40,24 @@ public class GcpManagedChannelOptions {
   @Nullable private final GcpChannelPoolOptions channelPoolOptions;
   @Nullable private final GcpMetricsOptions metricsOptions;
   @Nullable private final GcpResiliencyOptions resiliencyOptions;
+  // Executors shared with other pools. Process-wide daemon executors are used if not provided.
+  @Nullable private final ScheduledExecutorService scheduledExecutorService;
+  @Nullable private final Executor executor;
 
   public GcpManagedChannelOptions() {
     channelPoolOptions = null;
     metricsOptions = null;
     resiliencyOptions = null;
+    scheduledExecutorService = null;
+    executor = null;
   }
 
   public GcpManagedChannelOptions(Builder builder) {
     channelPoolOptions = builder.channelPoolOptions;
     metricsOptions = builder.metricsOptions;
     resiliencyOptions = builder.resiliencyOptions;
+    scheduledExecutorService = builder.scheduledExecutorService;
+    executor = builder.executor;
   }
 
   @Nullable
@@ -62,6 +75,16 @@ public class GcpManagedChannelOptions {
     return resiliencyOptions;
   }
 
+  @Nullable
+  public ScheduledExecutorService getScheduledExecutorService() {
+    return scheduledExecutorService;
+  }
+
+  @Nullable
+  public Executor getExecutor() {
+    return executor;
+  }
+
   @Override
   public String toString() {
     return String.format(
@@ -86,6 +109,8 @@ public class GcpManagedChannelOptions {
     private GcpChannelPoolOptions channelPoolOptions;
     private GcpMetricsOptions metricsOptions;
     private GcpResiliencyOptions resiliencyOptions;
+    private ScheduledExecutorService scheduledExecutorService;
+    private Executor executor;
 
     public Builder() {}
 
@@ -93,6 +118,8 @@ public class GcpManagedChannelOptions {
       this.channelPoolOptions = options.getChannelPoolOptions();
       this.metricsOptions = options.getMetricsOptions();
       this.resiliencyOptions = options.getResiliencyOptions();
+      this.scheduledExecutorService = options.getScheduledExecutorService();
+      this.executor = options.getExecutor();
     }
 
     public GcpManagedChannelOptions build() {
@@ -158,6 +185,36 @@ public class GcpManagedChannelOptions {
       this.resiliencyOptions = resiliencyOptions;
       return this;
     }
+
+    /**
+     * Sets the executor to run pool maintenance (idle channels removal, autoscaling, channel
+     * recycling, affinity keys expiration) and periodic metrics reporting on.
+     *
+     * <p>By default, a small daemon executor created on first use is shared by all pools in the
+     * process, so that the number of threads does not grow with the number of pools. The
+     * executor is not shut down by the {@link GcpManagedChannel}. Tasks are short and must not
+     * be starved, so a provided executor should not be used for blocking work.
+     *
+     * @param scheduledExecutorService the executor for the periodic and delayed tasks of the pool.
+     */
+    public Builder withScheduledExecutorService(
+        @Nullable ScheduledExecutorService scheduledExecutorService) {
+      this.scheduledExecutorService = scheduledExecutorService;
+      return this;
+    }
+
+    /**
+     * Sets the executor to run connectivity state change callbacks of the pool on.
+     *
+     * <p>By default, a daemon cached thread pool created on first use is shared by all pools in
+     * the process. The executor is not shut down by the {@link GcpManagedChannel}.
+     *
+     * @param executor the executor for state change callbacks.
+     */
+    public Builder withExecutor(@Nullable Executor executor) {
+      this.executor = executor;
+      return this;
+    }
   }
 
   /** Channel pool configuration for the GCP managed channel. */
@@ -172,12 +229,71 @@ public class GcpManagedChannelOptions {
     private final int concurrentStreamsLowWatermark;
     // Use round-robin channel selection for affinity binding calls.
     private final boolean useRoundRobinOnBind;
+    // How to pick a channel for calls without affinity.
+    private final ChannelPickStrategy channelPickStrategy;
+    // A custom picker of channels for calls without affinity, overrides the pick strategy.
+    @Nullable private final ChannelPicker channelPicker;
+    // Channels without active streams and bound keys for this long are removed from the pool unless
+    // the pool is at its minimum size. Zero disables downscaling.
+    private final Duration idleTimeout;
+    // Create and connect the next channel before the pool needs to grow.
+    private final boolean prewarmChannels;
+    // Size the pool ahead of demand based on the active streams trend.
+    private final boolean predictiveScalingEnabled;
+    // Affinity keys not used for this long are unbound. Zero disables expiration.
+    private final Duration affinityKeyTtl;
+    // Maximum number of bound affinity keys, least recently used keys are unbound when exceeded.
+    // Zero means unbounded.
+    private final int maxAffinityKeys;
+    // Extract keys of BIND calls from serialized responses instead of parsed messages.
+    private final boolean extractBindKeysFromBytes;
+    // Channels older than this (plus a random jitter) are replaced with new channels. Zero
+    // disables recycling.
+    private final Duration maxChannelAge;
+    private final Duration maxChannelAgeJitter;
+    // Named sub-pools with their own channels for the methods assigned to them in the ApiConfig.
+    private final Map<String, GcpChannelPoolOptions> subPools;
 
     public GcpChannelPoolOptions(Builder builder) {
       maxSize = builder.maxSize;
       minSize = builder.minSize;
       concurrentStreamsLowWatermark = builder.concurrentStreamsLowWatermark;
       useRoundRobinOnBind = builder.useRoundRobinOnBind;
+      channelPickStrategy = builder.channelPickStrategy;
+      channelPicker = builder.channelPicker;
+      idleTimeout = builder.idleTimeout;
+      prewarmChannels = builder.prewarmChannels;
+      predictiveScalingEnabled = builder.predictiveScalingEnabled;
+      affinityKeyTtl = builder.affinityKeyTtl;
+      maxAffinityKeys = builder.maxAffinityKeys;
+      extractBindKeysFromBytes = builder.extractBindKeysFromBytes;
+      maxChannelAge = builder.maxChannelAge;
+      maxChannelAgeJitter = builder.maxChannelAgeJitter;
+      subPools = Collections.unmodifiableMap(new LinkedHashMap<>(builder.subPools));
+    }
+
+    /** Strategy of picking a channel from the pool for a call without affinity. */
+    public enum ChannelPickStrategy {
+      /**
+       * Scan all channels in the pool and pick the one with the fewest active streams. The cost of
+       * a pick grows linearly with the pool size.
+       */
+      LEAST_BUSY,
+      /**
+       * Sample two random channels and pick the one with fewer active streams. The cost of a pick
+       * does not depend on the pool size, while the load stays close to evenly distributed. A full
+       * scan is still performed before adding a new channel to the pool to make sure that every
+       * channel has reached the concurrent streams low watermark.
+       */
+      POWER_OF_TWO_CHOICES,
+      /**
+       * Pick the channel with the fewest active streams weighted by the observed latency of the
+       * channel, see {@link ChannelPickers#peakEwma()}. Channels landing on slow backends get
+       * fewer calls. The latency is the time to the first response message of a call, tracked as
+       * a moving average which rises at once on slow calls and decays over 10 seconds. Scans all
+       * channels in the pool as {@link #LEAST_BUSY} does.
+       */
+      PEAK_EWMA,
     }
 
     public int getMaxSize() {
@@ -206,14 +322,74 @@ public class GcpManagedChannelOptions {
       return useRoundRobinOnBind;
     }
 
+    public ChannelPickStrategy getChannelPickStrategy() {
+      return channelPickStrategy;
+    }
+
+    @Nullable
+    public ChannelPicker getChannelPicker() {
+      return channelPicker;
+    }
+
+    public Duration getIdleTimeout() {
+      return idleTimeout;
+    }
+
+    public boolean isPrewarmChannels() {
+      return prewarmChannels;
+    }
+
+    public boolean isPredictiveScalingEnabled() {
+      return predictiveScalingEnabled;
+    }
+
+    public Duration getAffinityKeyTtl() {
+      return affinityKeyTtl;
+    }
+
+    public int getMaxAffinityKeys() {
+      return maxAffinityKeys;
+    }
+
+    public boolean isExtractBindKeysFromBytes() {
+      return extractBindKeysFromBytes;
+    }
+
+    public Duration getMaxChannelAge() {
+      return maxChannelAge;
+    }
+
+    public Duration getMaxChannelAgeJitter() {
+      return maxChannelAgeJitter;
+    }
+
+    public Map<String, GcpChannelPoolOptions> getSubPools() {
+      return subPools;
+    }
+
     @Override
     public String toString() {
       return String.format(
-          "{maxSize: %d, minSize: %d, concurrentStreamsLowWatermark: %d, useRoundRobinOnBind: %s}",
+          "{maxSize: %d, minSize: %d, concurrentStreamsLowWatermark: %d, useRoundRobinOnBind: %s, "
+              + "channelPickStrategy: %s, channelPicker: %s, idleTimeout: %s, prewarmChannels: %s, "
+              + "predictiveScalingEnabled: %s, affinityKeyTtl: %s, maxAffinityKeys: %d, "
+              + "extractBindKeysFromBytes: %s, maxChannelAge: %s, maxChannelAgeJitter: %s, "
+              + "subPools: %s}",
           getMaxSize(),
           getMinSize(),
           getConcurrentStreamsLowWatermark(),
-          isUseRoundRobinOnBind()
+          isUseRoundRobinOnBind(),
+          getChannelPickStrategy(),
+          getChannelPicker(),
+          getIdleTimeout(),
+          isPrewarmChannels(),
+          isPredictiveScalingEnabled(),
+          getAffinityKeyTtl(),
+          getMaxAffinityKeys(),
+          isExtractBindKeysFromBytes(),
+          getMaxChannelAge(),
+          getMaxChannelAgeJitter(),
+          getSubPools()
       );
     }
 
@@ -222,6 +398,17 @@ public class GcpManagedChannelOptions {
       private int minSize = 0;
       private int concurrentStreamsLowWatermark = GcpManagedChannel.DEFAULT_MAX_STREAM;
       private boolean useRoundRobinOnBind = false;
+      private ChannelPickStrategy channelPickStrategy = ChannelPickStrategy.LEAST_BUSY;
+      private ChannelPicker channelPicker = null;
+      private Duration idleTimeout = Duration.ZERO;
+      private boolean prewarmChannels = false;
+      private boolean predictiveScalingEnabled = false;
+      private Duration affinityKeyTtl = Duration.ZERO;
+      private int maxAffinityKeys = 0;
+      private boolean extractBindKeysFromBytes = false;
+      private Duration maxChannelAge = Duration.ZERO;
+      private Duration maxChannelAgeJitter = Duration.ZERO;
+      private final Map<String, GcpChannelPoolOptions> subPools = new LinkedHashMap<>();
 
       public Builder() {}
 
@@ -234,6 +421,17 @@ public class GcpManagedChannelOptions {
         this.minSize = options.getMinSize();
         this.concurrentStreamsLowWatermark = options.getConcurrentStreamsLowWatermark();
         this.useRoundRobinOnBind = options.isUseRoundRobinOnBind();
+        this.channelPickStrategy = options.getChannelPickStrategy();
+        this.channelPicker = options.getChannelPicker();
+        this.idleTimeout = options.getIdleTimeout();
+        this.prewarmChannels = options.isPrewarmChannels();
+        this.predictiveScalingEnabled = options.isPredictiveScalingEnabled();
+        this.affinityKeyTtl = options.getAffinityKeyTtl();
+        this.maxAffinityKeys = options.getMaxAffinityKeys();
+        this.extractBindKeysFromBytes = options.isExtractBindKeysFromBytes();
+        this.maxChannelAge = options.getMaxChannelAge();
+        this.maxChannelAgeJitter = options.getMaxChannelAgeJitter();
+        this.subPools.putAll(options.getSubPools());
       }
 
       public GcpChannelPoolOptions build() {
@@ -286,6 +484,180 @@ public class GcpManagedChannelOptions {
         this.useRoundRobinOnBind = enabled;
         return this;
       }
+
+      /**
+       * Sets the strategy of picking a channel for calls without affinity. The default is {@link
+       * ChannelPickStrategy#LEAST_BUSY}. For large pools consider using {@link
+       * ChannelPickStrategy#POWER_OF_TWO_CHOICES}.
+       *
+       * @param strategy a {@link ChannelPickStrategy} to use.
+       */
+      public Builder setChannelPickStrategy(ChannelPickStrategy strategy) {
+        Preconditions.checkNotNull(strategy);
+        this.channelPickStrategy = strategy;
+        return this;
+      }
+
+      /**
+       * Sets a custom picker of channels for calls without affinity and for affinity keys not yet
+       * bound to a channel. When set, it is used instead of the channel pick strategy. See {@link
+       * ChannelPickers} for the built-in pickers.
+       *
+       * <p>The pool still decides when to add a channel: if the picked channel has reached the
+       * concurrent streams low watermark, all channels are checked and a new channel is created if
+       * every channel has reached it. With the fallback enabled, a picked channel which is not
+       * ready is replaced with the least busy ready channel.
+       *
+       * @param channelPicker a {@link ChannelPicker} to use or null to use the pick strategy.
+       */
+      public Builder setChannelPicker(@Nullable ChannelPicker channelPicker) {
+        this.channelPicker = channelPicker;
+        return this;
+      }
+
+      /**
+       * Sets the idle timeout for channels in the pool. A channel that has no active streams and
+       * no affinity keys bound to it for this amount of time will be shut down and removed from
+       * the pool, unless the pool has only minSize channels. Zero (default) disables downscaling.
+       *
+       * @param idleTimeout time a channel may stay idle before it is removed from the pool.
+       */
+      public Builder setIdleTimeout(Duration idleTimeout) {
+        Preconditions.checkNotNull(idleTimeout);
+        Preconditions.checkArgument(
+            !idleTimeout.isNegative(), "Idle timeout must not be negative.");
+        this.idleTimeout = idleTimeout;
+        return this;
+      }
+
+      /**
+       * Enables/disables pre-warming of channels. When enabled and every channel in the pool has
+       * at least 3/4 of the concurrent streams low watermark active streams, the next channel is
+       * created and connected ahead of demand, so that the first calls on it do not wait for
+       * connection establishment.
+       *
+       * @param enabled If true, connect the next channel before the pool needs to grow.
+       */
+      public Builder setPrewarmChannels(boolean enabled) {
+        this.prewarmChannels = enabled;
+        return this;
+      }
+
+      /**
+       * Enables/disables predictive scaling of the pool. When enabled, the pool samples its active
+       * streams, call rate and channel readiness time every second and keeps as many connected
+       * channels as the demand predicted one channel readiness time ahead requires (with every
+       * channel having the concurrent streams low watermark of active streams), between the
+       * minimum and maximum pool sizes. Channels are added as soon as the prediction grows, but
+       * removed only after the demand stays low for 30 seconds.
+       *
+       * @param enabled If true, size the pool ahead of demand.
+       */
+      public Builder setPredictiveScalingEnabled(boolean enabled) {
+        this.predictiveScalingEnabled = enabled;
+        return this;
+      }
+
+      /**
+       * Sets the TTL of affinity keys. A key not used by any call for this amount of time is
+       * unbound from its channel, as if an UNBIND call was made. This protects from unbounded
+       * growth of the affinity map when UNBIND calls are missing. Zero (default) disables
+       * expiration.
+       *
+       * @param affinityKeyTtl time after the last use when an affinity key is unbound.
+       */
+      public Builder setAffinityKeyTtl(Duration affinityKeyTtl) {
+        Preconditions.checkNotNull(affinityKeyTtl);
+        Preconditions.checkArgument(
+            !affinityKeyTtl.isNegative(), "Affinity key TTL must not be negative.");
+        this.affinityKeyTtl = affinityKeyTtl;
+        return this;
+      }
+
+      /**
+       * Sets the maximum number of bound affinity keys. When exceeded, the least recently used keys
+       * are unbound on the pool maintenance executor, so the number of keys may briefly exceed the
+       * maximum. Zero (default) means unbounded.
+       *
+       * @param maxAffinityKeys maximum number of bound affinity keys.
+       */
+      public Builder setMaxAffinityKeys(int maxAffinityKeys) {
+        Preconditions.checkArgument(
+            maxAffinityKeys >= 0, "Max affinity keys must be 0 or positive.");
+        this.maxAffinityKeys = maxAffinityKeys;
+        return this;
+      }
+
+      /**
+       * Enables/disables extracting affinity keys of BIND calls from serialized response messages.
+       * When enabled, the response bytes are scanned for the affinity key fields before the
+       * message is parsed, instead of traversing the parsed message. This is faster for large
+       * responses, e.g., with hundreds of sessions. Applies to protobuf messages only. Response
+       * streams which cannot be rewound are copied once for the scan, unless larger than 1 MiB, in
+       * which case the keys are extracted from the parsed message.
+       *
+       * @param enabled If true, extract BIND keys from serialized responses.
+       */
+      public Builder setExtractBindKeysFromBytes(boolean enabled) {
+        this.extractBindKeysFromBytes = enabled;
+        return this;
+      }
+
+      /**
+       * Sets the maximum age of channels in the pool. When a channel reaches this age (plus a
+       * random jitter, see {@link #setMaxChannelAgeJitter(Duration)}) a replacement channel is
+       * created and connected, then new calls and affinity keys are moved to the replacement and
+       * the old channel is gracefully shut down letting its calls complete. This lets connections
+       * be gradually rebalanced across backends. Zero (default) disables recycling.
+       *
+       * @param maxChannelAge time after which a channel is replaced with a new one.
+       */
+      public Builder setMaxChannelAge(Duration maxChannelAge) {
+        Preconditions.checkNotNull(maxChannelAge);
+        Preconditions.checkArgument(
+            !maxChannelAge.isNegative(), "Max channel age must not be negative.");
+        this.maxChannelAge = maxChannelAge;
+        return this;
+      }
+
+      /**
+       * Sets the upper bound of a random time added to the max channel age of every channel, so
+       * that channels created at the same time are not recycled at the same time.
+       *
+       * @param maxChannelAgeJitter maximum random time added to the max channel age.
+       */
+      public Builder setMaxChannelAgeJitter(Duration maxChannelAgeJitter) {
+        Preconditions.checkNotNull(maxChannelAgeJitter);
+        Preconditions.checkArgument(
+            !maxChannelAgeJitter.isNegative(), "Max channel age jitter must not be negative.");
+        this.maxChannelAgeJitter = maxChannelAgeJitter;
+        return this;
+      }
+
+      /**
+       * Adds a named sub-pool. Methods assigned to the sub-pool with the {@code channel_pool}
+       * field of their {@code MethodConfig} in the ApiConfig use the channels of the sub-pool
+       * only, while all other methods use the channels of the main pool.
+       *
+       * <p>This keeps calls of different kinds from competing for the same channels, e.g.
+       * long-lived streaming calls from skewing the channel selection and delaying short unary
+       * calls on the same HTTP/2 connections. Every sub-pool has its own size, watermark and
+       * other pool options, while metrics, resiliency options, executors and the lifecycle are
+       * shared with the main pool. Affinity keys are tracked per sub-pool, so methods sharing
+       * affinity keys should be assigned to the same sub-pool.
+       *
+       * @param name the name of the sub-pool referenced from the ApiConfig.
+       * @param options the options of the sub-pool, which cannot have sub-pools of its own.
+       */
+      public Builder addSubPool(String name, GcpChannelPoolOptions options) {
+        Preconditions.checkArgument(
+            name != null && !name.isEmpty(), "Sub-pool name must not be empty.");
+        Preconditions.checkNotNull(options);
+        Preconditions.checkArgument(
+            options.getSubPools().isEmpty(), "Sub-pools cannot have sub-pools.");
+        this.subPools.put(name, options);
+        return this;
+      }
     }
   }
 
@@ -295,12 +667,14 @@ public class GcpManagedChannelOptions {
     private final List<LabelKey> labelKeys;
     private final List<LabelValue> labelValues;
     private final String namePrefix;
+    @Nullable private final GcpChannelPoolStats.Listener statsListener;
 
     public GcpMetricsOptions(Builder builder) {
       metricRegistry = builder.metricRegistry;
       labelKeys = builder.labelKeys;
       labelValues = builder.labelValues;
       namePrefix = builder.namePrefix;
+      statsListener = builder.statsListener;
     }
 
     public MetricRegistry getMetricRegistry() {
@@ -319,6 +693,11 @@ public class GcpManagedChannelOptions {
       return namePrefix;
     }
 
+    @Nullable
+    public GcpChannelPoolStats.Listener getStatsListener() {
+      return statsListener;
+    }
+
     @Override
     public String toString() {
       Iterator<LabelKey> keyIterator = getLabelKeys().iterator();
@@ -333,10 +712,11 @@ public class GcpManagedChannelOptions {
         );
       }
       return String.format(
-          "{namePrefix: \"%s\", labels: [%s], metricRegistry: %s}",
+          "{namePrefix: \"%s\", labels: [%s], metricRegistry: %s, statsListener: %s}",
           getNamePrefix(),
           String.join(", ", labels),
-          getMetricRegistry()
+          getMetricRegistry(),
+          getStatsListener()
       );
     }
 
@@ -355,6 +735,7 @@ public class GcpManagedChannelOptions {
       private List<LabelKey> labelKeys;
       private List<LabelValue> labelValues;
       private String namePrefix;
+      private GcpChannelPoolStats.Listener statsListener;
 
       /** Constructor for GcpMetricsOptions.Builder. */
       public Builder() {
@@ -372,6 +753,7 @@ public class GcpManagedChannelOptions {
         this.labelKeys = options.getLabelKeys();
         this.labelValues = options.getLabelValues();
         this.namePrefix = options.getNamePrefix();
+        this.statsListener = options.getStatsListener();
       }
 
       public GcpMetricsOptions build() {
@@ -409,6 +791,18 @@ public class GcpManagedChannelOptions {
         this.namePrefix = namePrefix;
         return this;
       }
+
+      /**
+       * Sets a listener to receive a {@link GcpChannelPoolStats} snapshot of the pool once a
+       * minute. The listener works with or without a metric registry and can be used to export the
+       * stats to any monitoring system.
+       *
+       * @param statsListener the listener or null to not push snapshots.
+       */
+      public Builder withStatsListener(@Nullable GcpChannelPoolStats.Listener statsListener) {
+        this.statsListener = statsListener;
+        return this;
+      }
     }
   }
 
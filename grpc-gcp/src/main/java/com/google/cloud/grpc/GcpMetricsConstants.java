@@ -23,6 +23,12 @@ class GcpMetricsConstants {
   public static String RESULT_DESC = "Outcome.";
   public static String RESULT_SUCCESS = "SUCCESS";
   public static String RESULT_ERROR = "ERROR";
+  public static String METHOD_LABEL = "method";
+  public static String METHOD_DESC = "gRPC method name.";
+  public static String CHANNEL_ID_LABEL = "channel_id";
+  public static String CHANNEL_ID_DESC = "Channel id within the gRPC GCP channel pool.";
+  public static String PERCENTILE_LABEL = "percentile";
+  public static String PERCENTILE_DESC = "Percentile of the distribution.";
 
   // Unit to represent count.
   static final String COUNT = "1";
@@ -30,6 +36,12 @@ class GcpMetricsConstants {
   static final String MILLISECOND = "ms";
 
   public static String METRIC_MAX_CHANNELS = "max_channels";
+  public static String METRIC_NUM_CHANNELS_REMOVED = "num_channels_removed";
+  public static String METRIC_NUM_CHANNELS_RECYCLED = "num_channels_recycled";
+  public static String METRIC_AUTOSCALER_TARGET_CHANNELS = "autoscaler_target_channels";
+  public static String METRIC_NUM_AUTOSCALER_SCALE_UPS = "num_autoscaler_scale_ups";
+  public static String METRIC_NUM_AUTOSCALER_SCALE_DOWNS = "num_autoscaler_scale_downs";
+  public static String METRIC_NUM_AFFINITY_KEYS_EVICTED = "num_affinity_keys_evicted";
   public static String METRIC_MIN_READY_CHANNELS = "min_ready_channels";
   public static String METRIC_MAX_READY_CHANNELS = "max_ready_channels";
   public static String METRIC_MAX_ALLOWED_CHANNELS = "max_allowed_channels";
@@ -54,4 +66,11 @@ class GcpMetricsConstants {
   public static String METRIC_MAX_UNRESPONSIVE_DETECTION_TIME = "max_unresponsive_detection_time";
   public static String METRIC_MIN_UNRESPONSIVE_DROPPED_CALLS = "min_unresponsive_dropped_calls";
   public static String METRIC_MAX_UNRESPONSIVE_DROPPED_CALLS = "max_unresponsive_dropped_calls";
+  public static String METRIC_CALL_LATENCY = "call_latency";
+  public static String METRIC_CHANNEL_CALL_LATENCY = "channel_call_latency";
+  public static String METRIC_NUM_HEDGING_CALLS = "num_hedging_calls";
+  public static String METRIC_NUM_HEDGES_FIRED = "num_hedges_fired";
+  public static String METRIC_NUM_HEDGES_WON = "num_hedges_won";
+  public static String METRIC_NUM_HEDGES_THROTTLED = "num_hedges_throttled";
+  public static String METRIC_HEDGING_DELAY = "hedging_delay";
 }
@@ -21,8 +21,12 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
 import com.google.cloud.grpc.GcpManagedChannelOptions.GcpMetricsOptions;
+import com.google.cloud.grpc.GcpMultiEndpointOptions.EndpointHealthOptions;
+import com.google.cloud.grpc.GcpMultiEndpointOptions.FailoverOptions;
 import com.google.cloud.grpc.multiendpoint.MultiEndpoint;
 import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.cloud.grpc.proto.MethodConfig;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
@@ -36,13 +40,19 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
+import io.opencensus.metrics.DerivedLongCumulative;
+import io.opencensus.metrics.DerivedLongGauge;
 import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
+import io.opencensus.metrics.MetricOptions;
+import io.opencensus.metrics.MetricRegistry;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -50,8 +60,10 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The purpose of GcpMultiEndpointChannel is twofold:
@@ -119,12 +131,16 @@ import java.util.concurrent.TimeUnit;
  * endpoint. For the example above three channel pools will be created.
  */
 public class GcpMultiEndpointChannel extends ManagedChannel {
+  private static final Logger logger = Logger.getLogger(GcpMultiEndpointChannel.class.getName());
 
   public static final CallOptions.Key<String> ME_KEY = CallOptions.Key.create("MultiEndpoint");
   public static final Context.Key<String> ME_CONTEXT_KEY = Context.key("MultiEndpoint");
   private final LabelKey endpointKey =
       LabelKey.create("endpoint", "Endpoint address.");
   private final Map<String, MultiEndpoint> multiEndpoints = new ConcurrentHashMap<>();
+  // The MultiEndpoints using every endpoint, so that a pool state change notifies only them.
+  // Replaced as a whole when MultiEndpoints are updated.
+  private volatile Map<String, List<MultiEndpoint>> subscribers = Collections.emptyMap();
   private MultiEndpoint defaultMultiEndpoint;
   private final ApiConfig apiConfig;
   private final GcpManagedChannelOptions gcpManagedChannelOptions;
@@ -134,7 +150,23 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
   @GuardedBy("this")
   private final Set<String> currentEndpoints = new HashSet<>();
 
-  private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+  // Runs delayed removal of pools and the delayed tasks of MultiEndpoints without own executors.
+  private final ScheduledExecutorService executor;
+
+  // Health trackers, their periodic evaluations and the evaluated endpoints of the MultiEndpoints
+  // with endpoint health options by MultiEndpoint name.
+  @GuardedBy("this")
+  private final Map<String, EndpointHealthTracker> healthTrackers = new HashMap<>();
+  @GuardedBy("this")
+  private final Map<String, ScheduledFuture<?>> healthEvaluations = new HashMap<>();
+  @GuardedBy("this")
+  private final Map<String, List<String>> healthEndpoints = new HashMap<>();
+
+  // Hedging policies by full method name of the methods with hedging in the ApiConfig.
+  private final Map<String, HedgingPolicy> hedgingPolicies;
+
+  // Failover policies of the MultiEndpoints with failover options.
+  private final Map<MultiEndpoint, FailoverPolicy> failoverPolicies = new ConcurrentHashMap<>();
 
   /**
    * Constructor for {@link GcpMultiEndpointChannel}.
@@ -149,9 +181,115 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
       GcpManagedChannelOptions gcpManagedChannelOptions) {
     this.apiConfig = apiConfig;
     this.gcpManagedChannelOptions = gcpManagedChannelOptions;
+    this.executor =
+        gcpManagedChannelOptions.getScheduledExecutorService() != null
+            ? gcpManagedChannelOptions.getScheduledExecutorService()
+            : GcpExecutors.defaultScheduler();
+    this.hedgingPolicies = loadHedgingPolicies(apiConfig);
+    initHedgingMetrics(hedgingPolicies, gcpManagedChannelOptions.getMetricsOptions());
     setMultiEndpoints(meOptions);
   }
 
+  private static Map<String, HedgingPolicy> loadHedgingPolicies(ApiConfig apiConfig) {
+    final Map<String, HedgingPolicy> policies = new HashMap<>();
+    if (apiConfig == null) {
+      return policies;
+    }
+    final long now = System.nanoTime();
+    for (MethodConfig method : apiConfig.getMethodList()) {
+      if (!method.hasHedging()) {
+        continue;
+      }
+      if (!HedgingPolicy.isEnabled(method.getHedging())) {
+        logger.warning(
+            String.format(
+                "Ignoring hedging config without a delay for methods %s.", method.getNameList()));
+        continue;
+      }
+      for (String methodName : method.getNameList()) {
+        // The first method config takes precedence.
+        policies.putIfAbsent(methodName, new HedgingPolicy(methodName, method.getHedging(), now));
+      }
+    }
+    return policies;
+  }
+
+  // Exports the hedging counters of every method with hedging to the metric registry, if any.
+  @VisibleForTesting
+  static void initHedgingMetrics(
+      Map<String, HedgingPolicy> policies, GcpMetricsOptions metricsOptions) {
+    if (policies.isEmpty()
+        || metricsOptions == null
+        || metricsOptions.getMetricRegistry() == null) {
+      return;
+    }
+    final MetricRegistry registry = metricsOptions.getMetricRegistry();
+    final String prefix = metricsOptions.getNamePrefix();
+    final List<LabelKey> labelKeys = new ArrayList<>(metricsOptions.getLabelKeys());
+    labelKeys.add(
+        LabelKey.create(GcpMetricsConstants.METHOD_LABEL, GcpMetricsConstants.METHOD_DESC));
+
+    final DerivedLongCumulative calls =
+        registry.addDerivedLongCumulative(
+            prefix + GcpMetricsConstants.METRIC_NUM_HEDGING_CALLS,
+            createMetricOptions(
+                "The number of calls of methods with hedging.",
+                labelKeys,
+                GcpMetricsConstants.COUNT));
+    final DerivedLongCumulative fired =
+        registry.addDerivedLongCumulative(
+            prefix + GcpMetricsConstants.METRIC_NUM_HEDGES_FIRED,
+            createMetricOptions(
+                "The number of hedged calls started.", labelKeys, GcpMetricsConstants.COUNT));
+    final DerivedLongCumulative won =
+        registry.addDerivedLongCumulative(
+            prefix + GcpMetricsConstants.METRIC_NUM_HEDGES_WON,
+            createMetricOptions(
+                "The number of calls where the response of the hedged call was used.",
+                labelKeys,
+                GcpMetricsConstants.COUNT));
+    final DerivedLongCumulative throttled =
+        registry.addDerivedLongCumulative(
+            prefix + GcpMetricsConstants.METRIC_NUM_HEDGES_THROTTLED,
+            createMetricOptions(
+                "The number of calls not hedged because the hedging budget was exhausted.",
+                labelKeys,
+                GcpMetricsConstants.COUNT));
+    final DerivedLongGauge delay =
+        registry.addDerivedLongGauge(
+            prefix + GcpMetricsConstants.METRIC_HEDGING_DELAY,
+            createMetricOptions(
+                "The current delay before a call is hedged.",
+                labelKeys,
+                GcpMetricsConstants.MILLISECOND));
+
+    policies.forEach(
+        (method, policy) -> {
+          final List<LabelValue> labelValues = new ArrayList<>(metricsOptions.getLabelValues());
+          labelValues.add(LabelValue.create(method));
+          calls.removeTimeSeries(labelValues);
+          calls.createTimeSeries(labelValues, policy, p -> p.getStats().getCalls());
+          fired.removeTimeSeries(labelValues);
+          fired.createTimeSeries(labelValues, policy, p -> p.getStats().getHedgesFired());
+          won.removeTimeSeries(labelValues);
+          won.createTimeSeries(labelValues, policy, p -> p.getStats().getHedgesWon());
+          throttled.removeTimeSeries(labelValues);
+          throttled.createTimeSeries(
+              labelValues, policy, p -> p.getStats().getHedgesThrottled());
+          delay.removeTimeSeries(labelValues);
+          delay.createTimeSeries(labelValues, policy, p -> p.getStats().getDelay().toMillis());
+        });
+  }
+
+  private static MetricOptions createMetricOptions(
+      String description, List<LabelKey> labelKeys, String unit) {
+    return MetricOptions.builder()
+        .setDescription(description)
+        .setLabelKeys(labelKeys)
+        .setUnit(unit)
+        .build();
+  }
+
   private class EndpointStateMonitor implements Runnable {
 
     private final ManagedChannel channel;
@@ -178,8 +316,8 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
   // Checks and returns channel pool state. Also notifies all MultiEndpoints of the pool state.
   private ConnectivityState checkPoolState(ManagedChannel channel, String endpoint) {
     ConnectivityState state = channel.getState(false);
-    // Update endpoint state in all multiendpoints.
-    for (MultiEndpoint me : multiEndpoints.values()) {
+    // Update endpoint state in the multiendpoints using the endpoint.
+    for (MultiEndpoint me : subscribers.getOrDefault(endpoint, Collections.emptyList())) {
       me.setEndpointAvailable(endpoint, state.equals(ConnectivityState.READY));
     }
     return state;
@@ -262,23 +400,8 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
     Preconditions.checkArgument(!meOptions.isEmpty(), "MultiEndpoints list is empty");
     Set<String> currentMultiEndpoints = new HashSet<>();
 
-    // Must have all multiendpoints before initializing the pools so that all multiendpoints
-    // can get status update of every pool.
-    meOptions.forEach(options -> {
-      currentMultiEndpoints.add(options.getName());
-      // Create or update MultiEndpoint
-      if (multiEndpoints.containsKey(options.getName())) {
-        multiEndpoints.get(options.getName()).setEndpoints(options.getEndpoints());
-      } else {
-        multiEndpoints.put(options.getName(),
-            (new MultiEndpoint.Builder(options.getEndpoints()))
-                .withRecoveryTimeout(options.getRecoveryTimeout())
-                .withSwitchingDelay(options.getSwitchingDelay())
-                .build());
-      }
-    });
-
-    final Set<String> existingPools = new HashSet<>(pools.keySet());
+    // Create the missing pools before any MultiEndpoint can pick their endpoints, so that a call
+    // never picks an endpoint without a pool.
     currentEndpoints.clear();
     // TODO: Support the same endpoint in different MultiEndpoint to use different channel
     //       credentials.
@@ -310,15 +433,38 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
         });
       });
     });
-    existingPools.retainAll(currentEndpoints);
-    existingPools.forEach(e -> {
-      // Communicate current state to MultiEndpoints.
-      checkPoolState(pools.get(e), e);
+
+    meOptions.forEach(options -> {
+      currentMultiEndpoints.add(options.getName());
+      // Create or update MultiEndpoint
+      if (multiEndpoints.containsKey(options.getName())) {
+        MultiEndpoint me = multiEndpoints.get(options.getName());
+        me.setEndpoints(options.getEndpoints());
+        me.setWeights(options.getEndpointWeights());
+      } else {
+        multiEndpoints.put(options.getName(),
+            (new MultiEndpoint.Builder(options.getEndpoints()))
+                .withRecoveryTimeout(options.getRecoveryTimeout())
+                .withSwitchingDelay(options.getSwitchingDelay())
+                .withExecutor(
+                    options.getScheduledExecutorService() != null
+                        ? options.getScheduledExecutorService()
+                        : executor)
+                .withWeights(options.getEndpointWeights())
+                .build());
+      }
+      updateFailover(multiEndpoints.get(options.getName()), options.getFailoverOptions());
     });
+    updateSubscribers(meOptions);
+    updateHealthTracking(meOptions);
+    // Communicate current state of all pools to the MultiEndpoints, including the pools created
+    // above, whose first state updates could precede their subscribers.
+    currentEndpoints.forEach(e -> checkPoolState(pools.get(e), e));
     defaultMultiEndpoint = multiEndpoints.get(meOptions.get(0).getName());
 
     // Remove obsolete multiendpoints.
     multiEndpoints.keySet().removeIf(name -> !currentMultiEndpoints.contains(name));
+    failoverPolicies.keySet().retainAll(multiEndpoints.values());
 
     // Shutdown and remove the pools not present in options.
     final Set<String> poolsToRemove = new HashSet<>(pools.keySet());
@@ -340,6 +486,116 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
     }
   }
 
+  // Rebuilds the index of the MultiEndpoints by endpoint from the current MultiEndpoint options.
+  private void updateSubscribers(List<GcpMultiEndpointOptions> meOptions) {
+    final Map<String, List<MultiEndpoint>> updated = new HashMap<>();
+    for (GcpMultiEndpointOptions options : meOptions) {
+      final MultiEndpoint me = multiEndpoints.get(options.getName());
+      for (String endpoint : options.getEndpoints()) {
+        updated.computeIfAbsent(endpoint, e -> new ArrayList<>()).add(me);
+      }
+    }
+    subscribers = updated;
+  }
+
+  // Sets the failover policy of the MultiEndpoint, keeping the retry budget if the options are the
+  // same.
+  private void updateFailover(MultiEndpoint me, FailoverOptions failoverOptions) {
+    if (failoverOptions == null) {
+      failoverPolicies.remove(me);
+      return;
+    }
+    final FailoverPolicy policy = failoverPolicies.get(me);
+    // Equal options keep the policy and its retry budget.
+    if (policy == null || !policy.getOptions().equals(failoverOptions)) {
+      failoverPolicies.put(me, new FailoverPolicy(failoverOptions));
+    }
+  }
+
+  // Starts, updates or stops periodic health evaluation of the endpoints of every MultiEndpoint
+  // according to its endpoint health options.
+  private synchronized void updateHealthTracking(List<GcpMultiEndpointOptions> meOptions) {
+    final Set<String> tracked = new HashSet<>();
+    for (GcpMultiEndpointOptions options : meOptions) {
+      final EndpointHealthOptions healthOptions = options.getEndpointHealthOptions();
+      if (healthOptions == null) {
+        continue;
+      }
+      final String name = options.getName();
+      final List<String> endpoints = new ArrayList<>(options.getEndpoints());
+      tracked.add(name);
+      endpoints.forEach(e -> pools.get(e).enableCallStats());
+      EndpointHealthTracker tracker = healthTrackers.get(name);
+      final boolean optionsChanged =
+          tracker == null || !tracker.getOptions().equals(healthOptions);
+      if (!optionsChanged && endpoints.equals(healthEndpoints.get(name))) {
+        // Keep the tracker state and the evaluation schedule.
+        continue;
+      }
+      if (optionsChanged) {
+        tracker = new EndpointHealthTracker(healthOptions);
+        healthTrackers.put(name, tracker);
+      }
+      tracker.retainAll(endpoints);
+      healthEndpoints.put(name, endpoints);
+      final EndpointHealthTracker evaluatedTracker = tracker;
+      final long periodMs = healthOptions.getEvaluationInterval().toMillis();
+      final ScheduledFuture<?> previous =
+          healthEvaluations.put(
+              name,
+              executor.scheduleAtFixedRate(
+                  () -> evaluateHealth(name, endpoints, evaluatedTracker),
+                  periodMs,
+                  periodMs,
+                  MILLISECONDS));
+      if (previous != null) {
+        previous.cancel(false);
+      }
+    }
+    for (String name : new ArrayList<>(healthTrackers.keySet())) {
+      if (tracked.contains(name)) {
+        continue;
+      }
+      healthTrackers.remove(name);
+      healthEndpoints.remove(name);
+      healthEvaluations.remove(name).cancel(false);
+      final MultiEndpoint me = multiEndpoints.get(name);
+      if (me != null) {
+        // Health options were removed, select endpoints by availability only.
+        currentEndpoints.forEach(e -> me.setEndpointDegraded(e, false));
+      }
+    }
+  }
+
+  private void evaluateHealth(
+      String name, List<String> endpoints, EndpointHealthTracker tracker) {
+    try {
+      final MultiEndpoint me = multiEndpoints.get(name);
+      if (me == null) {
+        return;
+      }
+      final long nowNanos = System.nanoTime();
+      for (String endpoint : endpoints) {
+        final GcpManagedChannel pool = pools.get(endpoint);
+        if (pool == null) {
+          continue;
+        }
+        me.setEndpointDegraded(
+            endpoint, tracker.evaluate(endpoint, pool.enableCallStats().snapshot(), nowNanos));
+      }
+    } catch (RuntimeException e) {
+      // Keep the evaluation scheduled.
+      logger.log(Level.WARNING, "Endpoint health evaluation failed.", e);
+    }
+  }
+
+  private synchronized void cancelHealthEvaluations() {
+    healthEvaluations.values().forEach(f -> f.cancel(false));
+    healthEvaluations.clear();
+    healthTrackers.clear();
+    healthEndpoints.clear();
+  }
+
   private synchronized void maybeCleanupPools(Set<String> endpoints) {
     for (String endpoint : endpoints) {
       if (currentEndpoints.contains(endpoint)) {
@@ -360,6 +616,7 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
   @Override
   @CanIgnoreReturnValue
   public ManagedChannel shutdown() {
+    cancelHealthEvaluations();
     pools.values().forEach(GcpManagedChannel::shutdown);
     return this;
   }
@@ -400,6 +657,7 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
   @Override
   @CanIgnoreReturnValue
   public ManagedChannel shutdownNow() {
+    cancelHealthEvaluations();
     pools.values().forEach(GcpManagedChannel::shutdownNow);
     return this;
   }
@@ -430,6 +688,11 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
    * Check the value of {@link #ME_KEY} key in the {@link CallOptions} and if found use
    * the MultiEndpoint with the same name for this call.
    *
+   * <p>If the method has hedging configured in the ApiConfig, a hedged copy of the call is sent to
+   * another endpoint of the MultiEndpoint when the call has not received a response after the
+   * configured delay, and the first response is used. Otherwise, if the MultiEndpoint has
+   * failover options, a call failed before receiving any response is retried on another endpoint.
+   *
    * <p>Create a {@link ClientCall} to the remote operation specified by the given {@link
    * MethodDescriptor}. The returned {@link ClientCall} does not trigger any remote behavior until
    * {@link ClientCall#start(Listener, Metadata)} is invoked.
@@ -450,7 +713,68 @@ public class GcpMultiEndpointChannel extends ManagedChannel {
     if (multiEndpointKey != null) {
       me = multiEndpoints.getOrDefault(multiEndpointKey, defaultMultiEndpoint);
     }
-    return pools.get(me.getCurrentId()).newCall(methodDescriptor, callOptions);
+    final String endpointId = me.pickEndpointId();
+    final GcpManagedChannel pool = pools.get(endpointId);
+    final HedgingPolicy hedgingPolicy =
+        hedgingPolicies.isEmpty()
+            ? null
+            : hedgingPolicies.get(methodDescriptor.getFullMethodName());
+    if (hedgingPolicy == null || !HedgingClientCall.isHedgeable(methodDescriptor)) {
+      return newFailoverCall(me, endpointId, pool, methodDescriptor, callOptions);
+    }
+    final long delayNanos = hedgingPolicy.onCall(System.nanoTime());
+    if (delayNanos <= 0) {
+      final ClientCall<RequestT, ResponseT> call =
+          newFailoverCall(me, endpointId, pool, methodDescriptor, callOptions);
+      // Calls which are not hedged count for the percentile delay too. Without a fixed delay, the
+      // first percentile is computed from these calls only.
+      return hedgingPolicy.hasPercentileDelay()
+          ? HedgingClientCall.recordingLatency(call, hedgingPolicy)
+          : call;
+    }
+    final MultiEndpoint hedgeMultiEndpoint = me;
+    return new HedgingClientCall<>(
+        methodDescriptor,
+        callOptions,
+        pool,
+        () -> {
+          // Hedge to another endpoint if available, otherwise to another channel of the pool.
+          final String alternativeId =
+              hedgeMultiEndpoint.getAlternativeId(Collections.singleton(endpointId));
+          final GcpManagedChannel alternativePool =
+              alternativeId == null ? null : pools.get(alternativeId);
+          return alternativePool != null ? alternativePool : pool;
+        },
+        executor,
+        hedgingPolicy,
+        delayNanos);
+  }
+
+  // Returns a call retried on another endpoint on failure if the MultiEndpoint has failover
+  // options, or a call of the pool otherwise.
+  private <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newFailoverCall(
+      MultiEndpoint me,
+      String endpointId,
+      GcpManagedChannel pool,
+      MethodDescriptor<RequestT, ResponseT> methodDescriptor,
+      CallOptions callOptions) {
+    final FailoverPolicy failoverPolicy =
+        failoverPolicies.isEmpty() ? null : failoverPolicies.get(me);
+    if (failoverPolicy == null) {
+      return pool.newCall(methodDescriptor, callOptions);
+    }
+    return new FailoverClientCall<>(
+        methodDescriptor, callOptions, endpointId, pool, me, pools::get, failoverPolicy);
+  }
+
+  /**
+   * Returns snapshots of the hedging counters by full method name of the methods with hedging
+   * configured in the ApiConfig.
+   */
+  public Map<String, GcpHedgingStats> getHedgingStats() {
+    final Map<String, GcpHedgingStats> stats = new HashMap<>();
+    hedgingPolicies.forEach((method, policy) -> stats.put(method, policy.getStats()));
+    return Collections.unmodifiableMap(stats);
   }
 
   /**
@@ -22,8 +22,18 @@ import com.google.common.base.Preconditions;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import io.grpc.ChannelCredentials;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.Nullable;
 
 /**
  * {@link MultiEndpoint} configuration for the {@link GcpMultiEndpointChannel}.
@@ -36,6 +46,10 @@ public class GcpMultiEndpointOptions {
   private final ChannelCredentials channelCredentials;
   private final Duration recoveryTimeout;
   private final Duration switchingDelay;
+  @Nullable private final ScheduledExecutorService scheduledExecutorService;
+  @Nullable private final EndpointHealthOptions endpointHealthOptions;
+  private final Map<String, Integer> endpointWeights;
+  @Nullable private final FailoverOptions failoverOptions;
 
   public static String DEFAULT_NAME = "default";
 
@@ -46,6 +60,10 @@ public class GcpMultiEndpointOptions {
     this.channelCredentials = builder.channelCredentials;
     this.recoveryTimeout = builder.recoveryTimeout;
     this.switchingDelay = builder.switchingDelay;
+    this.scheduledExecutorService = builder.scheduledExecutorService;
+    this.endpointHealthOptions = builder.endpointHealthOptions;
+    this.endpointWeights = builder.endpointWeights;
+    this.failoverOptions = builder.failoverOptions;
   }
 
   /**
@@ -88,6 +106,25 @@ public class GcpMultiEndpointOptions {
     return switchingDelay;
   }
 
+  @Nullable
+  public ScheduledExecutorService getScheduledExecutorService() {
+    return scheduledExecutorService;
+  }
+
+  @Nullable
+  public EndpointHealthOptions getEndpointHealthOptions() {
+    return endpointHealthOptions;
+  }
+
+  public Map<String, Integer> getEndpointWeights() {
+    return endpointWeights;
+  }
+
+  @Nullable
+  public FailoverOptions getFailoverOptions() {
+    return failoverOptions;
+  }
+
   public static class Builder {
 
     private String name = GcpMultiEndpointOptions.DEFAULT_NAME;
@@ -96,6 +133,10 @@ public class GcpMultiEndpointOptions {
     private ChannelCredentials channelCredentials;
     private Duration recoveryTimeout = Duration.ZERO;
     private Duration switchingDelay = Duration.ZERO;
+    private ScheduledExecutorService scheduledExecutorService;
+    private EndpointHealthOptions endpointHealthOptions;
+    private Map<String, Integer> endpointWeights = Collections.emptyMap();
+    private FailoverOptions failoverOptions;
 
     public Builder(List<String> endpoints) {
       setEndpoints(endpoints);
@@ -108,6 +149,10 @@ public class GcpMultiEndpointOptions {
       this.channelCredentials = options.getChannelCredentials();
       this.recoveryTimeout = options.getRecoveryTimeout();
       this.switchingDelay = options.getSwitchingDelay();
+      this.scheduledExecutorService = options.getScheduledExecutorService();
+      this.endpointHealthOptions = options.getEndpointHealthOptions();
+      this.endpointWeights = options.getEndpointWeights();
+      this.failoverOptions = options.getFailoverOptions();
     }
 
     public GcpMultiEndpointOptions build() {
@@ -193,5 +238,477 @@ public class GcpMultiEndpointOptions {
       this.switchingDelay = switchingDelay;
       return this;
     }
+
+    /**
+     * Sets the executor for recovery timeouts and delayed switching of the MultiEndpoint.
+     *
+     * <p>If not set, the executor of the {@link GcpMultiEndpointChannel} is used, which is shared
+     * by all MultiEndpoints and pools in the process unless provided in the {@link
+     * GcpManagedChannelOptions}. The executor is not shut down by the MultiEndpoint.
+     *
+     * @param scheduledExecutorService the executor for the delayed tasks of the MultiEndpoint.
+     */
+    @CanIgnoreReturnValue
+    public GcpMultiEndpointOptions.Builder withScheduledExecutorService(
+        ScheduledExecutorService scheduledExecutorService) {
+      this.scheduledExecutorService = scheduledExecutorService;
+      return this;
+    }
+
+    /**
+     * Enables latency and error aware endpoint selection for the MultiEndpoint.
+     *
+     * <p>The latency and status of calls on every endpoint are evaluated periodically, and an
+     * available endpoint exceeding the latency or error rate threshold is demoted below all other
+     * available endpoints until it recovers. See {@link EndpointHealthOptions} for details.
+     *
+     * @param endpointHealthOptions the thresholds for demoting endpoints, or null to select
+     *     endpoints by availability only (default).
+     */
+    @CanIgnoreReturnValue
+    public GcpMultiEndpointOptions.Builder withEndpointHealthOptions(
+        EndpointHealthOptions endpointHealthOptions) {
+      this.endpointHealthOptions = endpointHealthOptions;
+      return this;
+    }
+
+    /**
+     * Splits calls across the endpoints in proportion to their weights.
+     *
+     * <p>Each call goes to one of the available endpoints with a positive weight, picked randomly
+     * with the probability of its weight divided by the sum of weights of all such endpoints. E.g.
+     * weights 90 and 10 for two endpoints send about 10% of calls to the second endpoint, and all
+     * calls to the first endpoint while the second one is unavailable. Endpoints missing in the map
+     * have zero weight and get calls only when none of the weighted endpoints is available, in
+     * which case the endpoint is selected by priority as without weights.
+     *
+     * @param endpointWeights non-negative weights by endpoint, or an empty map to send all calls
+     *     to the endpoint selected by priority (default).
+     */
+    @CanIgnoreReturnValue
+    public GcpMultiEndpointOptions.Builder withEndpointWeights(
+        Map<String, Integer> endpointWeights) {
+      Preconditions.checkNotNull(endpointWeights);
+      Preconditions.checkArgument(
+          endpointWeights.values().stream().allMatch(w -> w != null && w >= 0),
+          "Endpoint weights must not be negative.");
+      this.endpointWeights = Collections.unmodifiableMap(new HashMap<>(endpointWeights));
+      return this;
+    }
+
+    /**
+     * Enables retrying failed calls on another endpoint of the MultiEndpoint.
+     *
+     * <p>A call failed with a retryable status before receiving any response is sent again to the
+     * top priority available endpoint it was not sent to yet, replaying the buffered request
+     * messages, as long as the retry budget allows. See {@link FailoverOptions} for details.
+     *
+     * @param failoverOptions the retry configuration, or null to never retry calls (default).
+     */
+    @CanIgnoreReturnValue
+    public GcpMultiEndpointOptions.Builder withFailoverOptions(FailoverOptions failoverOptions) {
+      this.failoverOptions = failoverOptions;
+      return this;
+    }
+  }
+
+  /**
+   * Configuration of retrying failed calls on another endpoint of a MultiEndpoint.
+   *
+   * <p>A call is retried only if it failed with one of the retryable status codes before any
+   * response headers or messages were received, it was not cancelled, and all its request
+   * messages are still buffered. Calls of methods with hedging configured are not retried.
+   *
+   * <p>Retries of all calls of the MultiEndpoint share a retry budget: a token bucket where every
+   * call failed with a retryable status takes a token and every successful call adds the token
+   * ratio of a token, up to the maximum tokens. Calls are retried only while there are more than
+   * half of the maximum tokens, so retries stop amplifying the load when most calls fail.
+   */
+  public static class FailoverOptions {
+    private final Set<Status.Code> retryableCodes;
+    private final int maxAttempts;
+    private final int maxBufferedMessages;
+    private final int maxTokens;
+    private final double tokenRatio;
+
+    public FailoverOptions(Builder builder) {
+      retryableCodes = Collections.unmodifiableSet(EnumSet.copyOf(builder.retryableCodes));
+      maxAttempts = builder.maxAttempts;
+      maxBufferedMessages = builder.maxBufferedMessages;
+      maxTokens = builder.maxTokens;
+      tokenRatio = builder.tokenRatio;
+    }
+
+    /** Creates a new FailoverOptions.Builder. */
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** Creates a new FailoverOptions.Builder from FailoverOptions. */
+    public static Builder newBuilder(FailoverOptions options) {
+      return new Builder(options);
+    }
+
+    public Set<Status.Code> getRetryableCodes() {
+      return retryableCodes;
+    }
+
+    public int getMaxAttempts() {
+      return maxAttempts;
+    }
+
+    public int getMaxBufferedMessages() {
+      return maxBufferedMessages;
+    }
+
+    public int getMaxTokens() {
+      return maxTokens;
+    }
+
+    public double getTokenRatio() {
+      return tokenRatio;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "{retryableCodes: %s, maxAttempts: %d, maxBufferedMessages: %d, maxTokens: %d, "
+              + "tokenRatio: %s}",
+          getRetryableCodes(),
+          getMaxAttempts(),
+          getMaxBufferedMessages(),
+          getMaxTokens(),
+          getTokenRatio());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof FailoverOptions)) {
+        return false;
+      }
+      final FailoverOptions that = (FailoverOptions) o;
+      return retryableCodes.equals(that.retryableCodes)
+          && maxAttempts == that.maxAttempts
+          && maxBufferedMessages == that.maxBufferedMessages
+          && maxTokens == that.maxTokens
+          && Double.compare(tokenRatio, that.tokenRatio) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(retryableCodes, maxAttempts, maxBufferedMessages, maxTokens, tokenRatio);
+    }
+
+    public static class Builder {
+      private Set<Status.Code> retryableCodes = EnumSet.of(Status.Code.UNAVAILABLE);
+      private int maxAttempts = 2;
+      private int maxBufferedMessages = 16;
+      private int maxTokens = 10;
+      private double tokenRatio = 0.1;
+
+      public Builder() {}
+
+      public Builder(FailoverOptions options) {
+        this.retryableCodes = options.getRetryableCodes();
+        this.maxAttempts = options.getMaxAttempts();
+        this.maxBufferedMessages = options.getMaxBufferedMessages();
+        this.maxTokens = options.getMaxTokens();
+        this.tokenRatio = options.getTokenRatio();
+      }
+
+      public FailoverOptions build() {
+        return new FailoverOptions(this);
+      }
+
+      /**
+       * Sets the status codes of failed calls to retry, UNAVAILABLE by default.
+       *
+       * @param codes the retryable status codes, must not include OK.
+       */
+      @CanIgnoreReturnValue
+      public Builder setRetryableCodes(Status.Code... codes) {
+        Preconditions.checkArgument(codes.length > 0, "Retryable codes must not be empty.");
+        Preconditions.checkArgument(
+            !Arrays.asList(codes).contains(Status.Code.OK), "OK is not retryable.");
+        this.retryableCodes = EnumSet.copyOf(Arrays.asList(codes));
+        return this;
+      }
+
+      /**
+       * Sets the maximum number of attempts of a call including the original one, 2 by default.
+       * A call is sent to every endpoint at most once.
+       *
+       * @param maxAttempts the maximum number of attempts, at least 2.
+       */
+      @CanIgnoreReturnValue
+      public Builder setMaxAttempts(int maxAttempts) {
+        Preconditions.checkArgument(maxAttempts > 1, "Max attempts must be at least 2.");
+        this.maxAttempts = maxAttempts;
+        return this;
+      }
+
+      /**
+       * Sets the maximum number of request messages buffered for a retry, 16 by default. A
+       * client streaming call sending more messages is not retried.
+       *
+       * @param maxBufferedMessages the maximum number of buffered messages.
+       */
+      @CanIgnoreReturnValue
+      public Builder setMaxBufferedMessages(int maxBufferedMessages) {
+        Preconditions.checkArgument(
+            maxBufferedMessages > 0, "Max buffered messages must be positive.");
+        this.maxBufferedMessages = maxBufferedMessages;
+        return this;
+      }
+
+      /**
+       * Sets the retry budget, 10 tokens with the token ratio of 0.1 by default, i.e. about one
+       * retry per ten successful calls while failing.
+       *
+       * @param maxTokens the maximum number of tokens in the bucket.
+       * @param tokenRatio the share of a token added by every successful call, in (0, 1].
+       */
+      @CanIgnoreReturnValue
+      public Builder setRetryBudget(int maxTokens, double tokenRatio) {
+        Preconditions.checkArgument(maxTokens > 0, "Max tokens must be positive.");
+        Preconditions.checkArgument(
+            tokenRatio > 0 && tokenRatio <= 1, "Token ratio must be in (0, 1].");
+        this.maxTokens = maxTokens;
+        this.tokenRatio = tokenRatio;
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Thresholds for demoting a degraded endpoint of a MultiEndpoint.
+   *
+   * <p>Every evaluation interval the calls completed on the channel pool of an endpoint during the
+   * interval are evaluated if there were at least the minimum number of calls. The endpoint is
+   * demoted if the latency at the configured percentile or the share of calls failed with
+   * UNAVAILABLE, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED, INTERNAL or UNKNOWN exceeds its threshold.
+   *
+   * <p>For hysteresis, a demoted endpoint stays demoted for at least the minimum demotion time and
+   * recovers only when both metrics fall below their thresholds multiplied by the recovery ratio.
+   * As a demoted endpoint usually gets no calls, it also recovers after the minimum demotion time
+   * if it had too few calls in the interval to be evaluated, to be probed with calls again.
+   */
+  public static class EndpointHealthOptions {
+    private final double latencyPercentile;
+    private final Duration latencyThreshold;
+    private final double errorRateThreshold;
+    private final double recoveryRatio;
+    private final int minCalls;
+    private final Duration evaluationInterval;
+    private final Duration minDemotionTime;
+
+    public EndpointHealthOptions(Builder builder) {
+      latencyPercentile = builder.latencyPercentile;
+      latencyThreshold = builder.latencyThreshold;
+      errorRateThreshold = builder.errorRateThreshold;
+      recoveryRatio = builder.recoveryRatio;
+      minCalls = builder.minCalls;
+      evaluationInterval = builder.evaluationInterval;
+      minDemotionTime = builder.minDemotionTime;
+    }
+
+    /** Creates a new EndpointHealthOptions.Builder. */
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** Creates a new EndpointHealthOptions.Builder from EndpointHealthOptions. */
+    public static Builder newBuilder(EndpointHealthOptions options) {
+      return new Builder(options);
+    }
+
+    public double getLatencyPercentile() {
+      return latencyPercentile;
+    }
+
+    public Duration getLatencyThreshold() {
+      return latencyThreshold;
+    }
+
+    public double getErrorRateThreshold() {
+      return errorRateThreshold;
+    }
+
+    public double getRecoveryRatio() {
+      return recoveryRatio;
+    }
+
+    public int getMinCalls() {
+      return minCalls;
+    }
+
+    public Duration getEvaluationInterval() {
+      return evaluationInterval;
+    }
+
+    public Duration getMinDemotionTime() {
+      return minDemotionTime;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "{latencyPercentile: %s, latencyThreshold: %s, errorRateThreshold: %s, "
+              + "recoveryRatio: %s, minCalls: %d, evaluationInterval: %s, minDemotionTime: %s}",
+          getLatencyPercentile(),
+          getLatencyThreshold(),
+          getErrorRateThreshold(),
+          getRecoveryRatio(),
+          getMinCalls(),
+          getEvaluationInterval(),
+          getMinDemotionTime());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof EndpointHealthOptions)) {
+        return false;
+      }
+      final EndpointHealthOptions that = (EndpointHealthOptions) o;
+      return Double.compare(latencyPercentile, that.latencyPercentile) == 0
+          && latencyThreshold.equals(that.latencyThreshold)
+          && Double.compare(errorRateThreshold, that.errorRateThreshold) == 0
+          && Double.compare(recoveryRatio, that.recoveryRatio) == 0
+          && minCalls == that.minCalls
+          && evaluationInterval.equals(that.evaluationInterval)
+          && minDemotionTime.equals(that.minDemotionTime);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          latencyPercentile,
+          latencyThreshold,
+          errorRateThreshold,
+          recoveryRatio,
+          minCalls,
+          evaluationInterval,
+          minDemotionTime);
+    }
+
+    public static class Builder {
+      private double latencyPercentile = 99;
+      private Duration latencyThreshold = Duration.ZERO;
+      private double errorRateThreshold = 0;
+      private double recoveryRatio = 0.8;
+      private int minCalls = 100;
+      private Duration evaluationInterval = Duration.ofSeconds(10);
+      private Duration minDemotionTime = Duration.ofSeconds(30);
+
+      public Builder() {}
+
+      public Builder(EndpointHealthOptions options) {
+        this.latencyPercentile = options.getLatencyPercentile();
+        this.latencyThreshold = options.getLatencyThreshold();
+        this.errorRateThreshold = options.getErrorRateThreshold();
+        this.recoveryRatio = options.getRecoveryRatio();
+        this.minCalls = options.getMinCalls();
+        this.evaluationInterval = options.getEvaluationInterval();
+        this.minDemotionTime = options.getMinDemotionTime();
+      }
+
+      public EndpointHealthOptions build() {
+        return new EndpointHealthOptions(this);
+      }
+
+      /**
+       * Demote an endpoint when the latency of its calls at the percentile exceeds the threshold.
+       * Zero threshold (default) disables the latency check.
+       *
+       * @param percentile the latency percentile between 0 and 100, 99 by default.
+       * @param threshold the maximum latency at the percentile.
+       */
+      @CanIgnoreReturnValue
+      public Builder setLatencyThreshold(double percentile, Duration threshold) {
+        Preconditions.checkArgument(
+            percentile > 0 && percentile <= 100, "Percentile must be in (0, 100].");
+        Preconditions.checkNotNull(threshold);
+        Preconditions.checkArgument(!threshold.isNegative(), "Threshold must not be negative.");
+        this.latencyPercentile = percentile;
+        this.latencyThreshold = threshold;
+        return this;
+      }
+
+      /**
+       * Demote an endpoint when the share of its calls failed with an endpoint error exceeds the
+       * threshold. Zero (default) disables the error rate check.
+       *
+       * @param errorRateThreshold the maximum share of failed calls between 0 and 1.
+       */
+      @CanIgnoreReturnValue
+      public Builder setErrorRateThreshold(double errorRateThreshold) {
+        Preconditions.checkArgument(
+            errorRateThreshold >= 0 && errorRateThreshold <= 1,
+            "Error rate threshold must be in [0, 1].");
+        this.errorRateThreshold = errorRateThreshold;
+        return this;
+      }
+
+      /**
+       * Sets the ratio of the thresholds the metrics of a demoted endpoint must fall below to
+       * recover, 0.8 by default.
+       *
+       * @param recoveryRatio the ratio in (0, 1].
+       */
+      @CanIgnoreReturnValue
+      public Builder setRecoveryRatio(double recoveryRatio) {
+        Preconditions.checkArgument(
+            recoveryRatio > 0 && recoveryRatio <= 1, "Recovery ratio must be in (0, 1].");
+        this.recoveryRatio = recoveryRatio;
+        return this;
+      }
+
+      /**
+       * Sets the minimum number of calls completed in an evaluation interval to evaluate an
+       * endpoint, 100 by default.
+       *
+       * @param minCalls the minimum number of calls.
+       */
+      @CanIgnoreReturnValue
+      public Builder setMinCalls(int minCalls) {
+        Preconditions.checkArgument(minCalls > 0, "Min calls must be positive.");
+        this.minCalls = minCalls;
+        return this;
+      }
+
+      /**
+       * Sets how often endpoints are evaluated, 10 seconds by default.
+       *
+       * @param evaluationInterval the interval over which calls are evaluated.
+       */
+      @CanIgnoreReturnValue
+      public Builder setEvaluationInterval(Duration evaluationInterval) {
+        Preconditions.checkNotNull(evaluationInterval);
+        Preconditions.checkArgument(
+            evaluationInterval.toMillis() > 0, "Evaluation interval must be positive.");
+        this.evaluationInterval = evaluationInterval;
+        return this;
+      }
+
+      /**
+       * Sets the minimum time an endpoint stays demoted, 30 seconds by default.
+       *
+       * @param minDemotionTime the minimum time before a demoted endpoint can recover.
+       */
+      @CanIgnoreReturnValue
+      public Builder setMinDemotionTime(Duration minDemotionTime) {
+        Preconditions.checkNotNull(minDemotionTime);
+        Preconditions.checkArgument(
+            !minDemotionTime.isNegative(), "Min demotion time must not be negative.");
+        this.minDemotionTime = minDemotionTime;
+        return this;
+      }
+    }
   }
 }
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * A call which sends a second, hedged copy of itself if it has not received a response after a
+ * delay, and uses whichever copy responds first.
+ *
+ * <p>The first of the calls to receive headers, a message or a successful close is committed: its
+ * responses are delivered to the listener and the other call is cancelled. A failed call is
+ * committed only if the other call has failed too or was never sent, so a hedged call can mask a
+ * failure of the original call.
+ *
+ * <p>The request messages are buffered until a call is committed, so that they can be replayed on
+ * the hedged call. Hence only methods where the client sends a single message are hedged, see
+ * {@link #isHedgeable(MethodDescriptor)}. The hedged call is started and the state of the call is
+ * replayed on it outside the lock; the call methods invoked by the application in the meantime
+ * are recorded and replayed afterwards, so the hedged call sees every call method exactly once.
+ *
+ * <p>The scheduler only runs the timer of the hedged call. The hedged call is created, started and
+ * replayed on the executor of the call options, or on a shared hedging executor if there is none.
+ */
+final class HedgingClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+  private final MethodDescriptor<ReqT, RespT> methodDescriptor;
+  private final CallOptions callOptions;
+  private final Channel channel;
+  private final Supplier<Channel> hedgeChannel;
+  private final ScheduledExecutorService scheduler;
+  // Starts the hedged call when the scheduler fires, the scheduler only runs the timer.
+  private final Executor hedgeExecutor;
+  private final HedgingPolicy policy;
+  private final long delayNanos;
+  // The context of the call for the hedged call started on the hedge executor.
+  private final Context context = Context.current();
+
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final List<Attempt> attempts = new ArrayList<>(2);
+
+  @GuardedBy("lock")
+  private int inFlight = 0;
+
+  @GuardedBy("lock")
+  @Nullable
+  private Attempt committed;
+
+  @GuardedBy("lock")
+  private boolean cancelled = false;
+
+  // The state of the call to replay on the hedged call.
+  @GuardedBy("lock")
+  private Listener<RespT> responseListener;
+
+  @GuardedBy("lock")
+  private Metadata headers;
+
+  @GuardedBy("lock")
+  private final List<ReqT> messages = new ArrayList<>(1);
+
+  @GuardedBy("lock")
+  private int requested = 0;
+
+  @GuardedBy("lock")
+  private boolean halfClosed = false;
+
+  @GuardedBy("lock")
+  @Nullable
+  private Boolean messageCompression;
+
+  @GuardedBy("lock")
+  @Nullable
+  private ScheduledFuture<?> hedgeTask;
+
+  private long startNanos;
+
+  HedgingClientCall(
+      MethodDescriptor<ReqT, RespT> methodDescriptor,
+      CallOptions callOptions,
+      Channel channel,
+      Supplier<Channel> hedgeChannel,
+      ScheduledExecutorService scheduler,
+      HedgingPolicy policy,
+      long delayNanos) {
+    this.methodDescriptor = methodDescriptor;
+    this.callOptions = callOptions;
+    this.channel = channel;
+    this.hedgeChannel = hedgeChannel;
+    this.scheduler = scheduler;
+    this.hedgeExecutor =
+        callOptions.getExecutor() != null
+            ? callOptions.getExecutor()
+            : GcpExecutors.hedgingExecutor();
+    this.policy = policy;
+    this.delayNanos = delayNanos;
+  }
+
+  /** Returns true if calls of the method can be hedged, i.e. the client sends a single message. */
+  static boolean isHedgeable(MethodDescriptor<?, ?> methodDescriptor) {
+    return methodDescriptor.getType() == MethodDescriptor.MethodType.UNARY
+        || methodDescriptor.getType() == MethodDescriptor.MethodType.SERVER_STREAMING;
+  }
+
+  /**
+   * Returns the call recording its latency to the policy if successful. For the calls of a method
+   * with a percentile delay which are not hedged, so that the percentile covers all calls.
+   */
+  static <ReqT, RespT> ClientCall<ReqT, RespT> recordingLatency(
+      ClientCall<ReqT, RespT> call, HedgingPolicy policy) {
+    return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+      @Override
+      public void start(Listener<RespT> responseListener, Metadata headers) {
+        final long startNanos = System.nanoTime();
+        super.start(
+            new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+                responseListener) {
+              @Override
+              public void onClose(Status status, Metadata trailers) {
+                if (status.isOk()) {
+                  policy.recordLatency(System.nanoTime() - startNanos);
+                }
+                super.onClose(status, trailers);
+              }
+            },
+            headers);
+      }
+    };
+  }
+
+  @Override
+  public void start(Listener<RespT> responseListener, Metadata headers) {
+    final Attempt attempt = new Attempt(channel.newCall(methodDescriptor, callOptions), false);
+    synchronized (lock) {
+      this.responseListener = responseListener;
+      // Keep a copy as the channel may modify the headers of the original call.
+      this.headers = new Metadata();
+      this.headers.merge(headers);
+      attempts.add(attempt);
+      inFlight++;
+      startNanos = System.nanoTime();
+      hedgeTask =
+          scheduler.schedule(
+              () -> hedgeExecutor.execute(context.wrap(this::startHedge)),
+              delayNanos,
+              NANOSECONDS);
+    }
+    attempt.call.start(attempt, headers);
+  }
+
+  // Sends the hedged call replaying the state of the original call, unless a call is committed.
+  private void startHedge() {
+    final Metadata hedgeHeaders = new Metadata();
+    synchronized (lock) {
+      // The budget is taken only for a hedged call which is certain to be sent. If a call is
+      // committed or the call is cancelled from now on, the hedged call cancels itself in replay.
+      if (committed != null || cancelled || !policy.tryAcquireHedge()) {
+        return;
+      }
+      // Reserve the hedged call, so that a failure of the original call waits for it.
+      inFlight++;
+      hedgeHeaders.merge(headers);
+    }
+    final Attempt attempt =
+        new Attempt(hedgeChannel.get().newCall(methodDescriptor, callOptions), true);
+    synchronized (lock) {
+      attempts.add(attempt);
+    }
+    attempt.call.start(attempt, hedgeHeaders);
+    replay(attempt);
+  }
+
+  // Replays the call methods recorded so far on the hedged call, repeating until it has caught up
+  // with the application. Until then the application call methods are only recorded for the
+  // hedged call, so that they are not invoked concurrently with the replay.
+  private void replay(Attempt attempt) {
+    Boolean replayedCompression = null;
+    int replayedRequested = 0;
+    int replayedMessages = 0;
+    boolean replayedHalfClose = false;
+    while (true) {
+      final Boolean compression;
+      final int request;
+      final List<ReqT> newMessages;
+      final boolean halfClose;
+      synchronized (lock) {
+        if (cancelled || (committed != null && committed != attempt)) {
+          attempt.replayed = true;
+          break;
+        }
+        compression =
+            messageCompression != null && !messageCompression.equals(replayedCompression)
+                ? messageCompression
+                : null;
+        request = requested - replayedRequested;
+        newMessages = new ArrayList<>(messages.subList(replayedMessages, messages.size()));
+        halfClose = halfClosed && !replayedHalfClose;
+        if (compression == null && request == 0 && newMessages.isEmpty() && !halfClose) {
+          attempt.replayed = true;
+          if (committed == attempt) {
+            messages.clear();
+          }
+          return;
+        }
+      }
+      if (compression != null) {
+        attempt.call.setMessageCompression(compression);
+        replayedCompression = compression;
+      }
+      if (request > 0) {
+        attempt.call.request(request);
+        replayedRequested += request;
+      }
+      for (ReqT message : newMessages) {
+        attempt.call.sendMessage(message);
+      }
+      replayedMessages += newMessages.size();
+      if (halfClose) {
+        attempt.call.halfClose();
+        replayedHalfClose = true;
+      }
+    }
+    // The call has been cancelled or the other call committed while replaying.
+    attempt.call.cancel("Another hedged call was committed or the call was cancelled.", null);
+  }
+
+  // Returns the calls the application call methods should be forwarded to. A hedged call still
+  // being replayed picks the call methods up from the recorded state instead.
+  @GuardedBy("lock")
+  private List<Attempt> targets() {
+    final List<Attempt> targets = new ArrayList<>(2);
+    if (committed != null) {
+      if (committed.replayed) {
+        targets.add(committed);
+      }
+      return targets;
+    }
+    for (Attempt attempt : attempts) {
+      if (attempt.replayed) {
+        targets.add(attempt);
+      }
+    }
+    return targets;
+  }
+
+  @Override
+  public void request(int numMessages) {
+    final List<Attempt> targets;
+    synchronized (lock) {
+      requested = (int) Math.min((long) requested + numMessages, Integer.MAX_VALUE);
+      targets = targets();
+    }
+    for (Attempt attempt : targets) {
+      attempt.call.request(numMessages);
+    }
+  }
+
+  @Override
+  public void cancel(@Nullable String message, @Nullable Throwable cause) {
+    final List<Attempt> targets;
+    synchronized (lock) {
+      cancelled = true;
+      if (hedgeTask != null) {
+        hedgeTask.cancel(false);
+      }
+      targets = targets();
+    }
+    for (Attempt attempt : targets) {
+      attempt.call.cancel(message, cause);
+    }
+  }
+
+  @Override
+  public void halfClose() {
+    final List<Attempt> targets;
+    synchronized (lock) {
+      halfClosed = true;
+      targets = targets();
+    }
+    for (Attempt attempt : targets) {
+      attempt.call.halfClose();
+    }
+  }
+
+  @Override
+  public void sendMessage(ReqT message) {
+    final List<Attempt> targets;
+    synchronized (lock) {
+      if (committed == null || !committed.replayed) {
+        messages.add(message);
+      }
+      targets = targets();
+    }
+    for (Attempt attempt : targets) {
+      attempt.call.sendMessage(message);
+    }
+  }
+
+  @Override
+  public void setMessageCompression(boolean enabled) {
+    final List<Attempt> targets;
+    synchronized (lock) {
+      messageCompression = enabled;
+      targets = targets();
+    }
+    for (Attempt attempt : targets) {
+      attempt.call.setMessageCompression(enabled);
+    }
+  }
+
+  @Override
+  public boolean isReady() {
+    final Attempt attempt;
+    synchronized (lock) {
+      attempt = committed != null ? committed : attempts.get(0);
+      if (!attempt.replayed) {
+        return false;
+      }
+    }
+    return attempt.call.isReady();
+  }
+
+  // Commits the attempt if no attempt is committed yet and cancels the other attempts. Returns
+  // true if the attempt is committed.
+  private boolean commit(Attempt attempt) {
+    final List<Attempt> losers;
+    synchronized (lock) {
+      if (committed != null) {
+        return committed == attempt;
+      }
+      committed = attempt;
+      if (hedgeTask != null) {
+        hedgeTask.cancel(false);
+      }
+      // A hedged call still being replayed needs the messages and cancels itself if it lost.
+      if (attempt.replayed) {
+        messages.clear();
+      }
+      losers = new ArrayList<>(attempts.size());
+      for (Attempt other : attempts) {
+        if (other != attempt && other.replayed) {
+          losers.add(other);
+        }
+      }
+    }
+    if (attempt.hedge) {
+      policy.recordHedgeWon();
+    }
+    for (Attempt loser : losers) {
+      loser.call.cancel("Another hedged call was committed.", null);
+    }
+    return true;
+  }
+
+  private Listener<RespT> listener() {
+    synchronized (lock) {
+      return responseListener;
+    }
+  }
+
+  // A call sent and the listener of its responses.
+  private final class Attempt extends ClientCall.Listener<RespT> {
+    private final ClientCall<ReqT, RespT> call;
+    private final boolean hedge;
+    // Whether the call has caught up with the call methods of the application.
+    @GuardedBy("lock")
+    private boolean replayed;
+
+    private Attempt(ClientCall<ReqT, RespT> call, boolean hedge) {
+      this.call = call;
+      this.hedge = hedge;
+      this.replayed = !hedge;
+    }
+
+    @Override
+    public void onHeaders(Metadata headers) {
+      if (commit(this)) {
+        listener().onHeaders(headers);
+      }
+    }
+
+    @Override
+    public void onMessage(RespT message) {
+      if (commit(this)) {
+        listener().onMessage(message);
+      }
+    }
+
+    @Override
+    public void onClose(Status status, Metadata trailers) {
+      final boolean deliver;
+      synchronized (lock) {
+        inFlight--;
+        if (status.isOk() || committed == this) {
+          deliver = true;
+        } else {
+          // Wait for the other call unless it is not in flight or there won't be one.
+          deliver = committed == null && inFlight == 0;
+        }
+      }
+      if (!deliver || !commit(this)) {
+        return;
+      }
+      if (status.isOk()) {
+        policy.recordLatency(System.nanoTime() - startNanos);
+      }
+      listener().onClose(status, trailers);
+    }
+
+    @Override
+    public void onReady() {
+      final boolean deliver;
+      synchronized (lock) {
+        deliver = committed == this || (committed == null && !hedge);
+      }
+      if (deliver) {
+        listener().onReady();
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.cloud.grpc.proto.HedgingConfig;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedging configuration and state of a method: the delay before a call is hedged, the budget of
+ * hedged calls and the hedging counters.
+ *
+ * <p>The budget is a token bucket: every call adds the allowed percentage of a token, up to a
+ * burst of {@link #MAX_BURST} tokens, and every hedged call takes a whole token. A call arriving
+ * while there is no whole token is not hedged at all, so no timer is armed for it. Both the budget
+ * and the delay are updated without locking.
+ */
+final class HedgingPolicy {
+  static final int DEFAULT_MAX_HEDGED_PERCENT = 10;
+  // Hedged calls allowed in a burst after a period with fewer hedges than the budget.
+  static final int MAX_BURST = 10;
+  // A token is 100 units, so that a call adds the percentage of a token in whole units.
+  private static final long TOKEN = 100;
+  private static final long MAX_TOKENS = MAX_BURST * TOKEN;
+  private static final long PERCENTILE_PERIOD_NANOS = SECONDS.toNanos(10);
+  // Calls needed in a period to use the latency percentile as the delay.
+  static final long MIN_PERCENTILE_CALLS = 100;
+
+  private final String methodName;
+  private final long fixedDelayNanos;
+  private final double delayPercentile;
+  private final int maxHedgedPercent;
+
+  private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final AtomicLong nextPercentileUpdateNanos;
+  private volatile long delayNanos;
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder hedgesFired = new LongAdder();
+  private final LongAdder hedgesWon = new LongAdder();
+  private final LongAdder hedgesThrottled = new LongAdder();
+
+  HedgingPolicy(String methodName, HedgingConfig config, long nowNanos) {
+    this.methodName = methodName;
+    this.fixedDelayNanos = MILLISECONDS.toNanos(config.getDelayMs());
+    this.delayPercentile =
+        config.getDelayPercentile() > 0 && config.getDelayPercentile() < 100
+            ? config.getDelayPercentile()
+            : 0;
+    this.maxHedgedPercent =
+        config.getMaxHedgedPercent() > 0
+            ? config.getMaxHedgedPercent()
+            : DEFAULT_MAX_HEDGED_PERCENT;
+    this.delayNanos = fixedDelayNanos;
+    this.nextPercentileUpdateNanos = new AtomicLong(nowNanos + PERCENTILE_PERIOD_NANOS);
+  }
+
+  /** Returns true if the config enables hedging, i.e. has a delay or a delay percentile. */
+  static boolean isEnabled(HedgingConfig config) {
+    return config.getDelayMs() > 0
+        || (config.getDelayPercentile() > 0 && config.getDelayPercentile() < 100);
+  }
+
+  /**
+   * Counts a new call of the method adding to the hedging budget and returns the delay in
+   * nanoseconds after which the call should be hedged, or zero if the call should not be hedged
+   * because the budget is exhausted or there is no delay yet, i.e. only a percentile delay is
+   * configured and not enough latencies are observed.
+   */
+  long onCall(long nowNanos) {
+    calls.increment();
+    final long available =
+        tokens.accumulateAndGet(
+            maxHedgedPercent, (current, allowance) -> Math.min(current + allowance, MAX_TOKENS));
+    if (delayPercentile > 0) {
+      maybeUpdateDelay(nowNanos);
+    }
+    if (available < TOKEN) {
+      hedgesThrottled.increment();
+      return 0;
+    }
+    return delayNanos;
+  }
+
+  // Updates the delay to the latency percentile of the last period once per period.
+  private void maybeUpdateDelay(long nowNanos) {
+    final long next = nextPercentileUpdateNanos.get();
+    if (nowNanos - next < 0
+        || !nextPercentileUpdateNanos.compareAndSet(next, nowNanos + PERCENTILE_PERIOD_NANOS)) {
+      return;
+    }
+    latencies.rotate();
+    if (latencies.getCount() >= MIN_PERCENTILE_CALLS) {
+      delayNanos = latencies.getPercentileMicros(delayPercentile) * 1000;
+    } else {
+      delayNanos = fixedDelayNanos;
+    }
+  }
+
+  /** Returns true if the delay is a latency percentile, i.e. latencies of all calls are needed. */
+  boolean hasPercentileDelay() {
+    return delayPercentile > 0;
+  }
+
+  /** Takes a token for a hedged call, returns false if the budget is exhausted. */
+  boolean tryAcquireHedge() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current < TOKEN) {
+        hedgesThrottled.increment();
+        return false;
+      }
+    } while (!tokens.compareAndSet(current, current - TOKEN));
+    hedgesFired.increment();
+    return true;
+  }
+
+  /** Records the latency of a successful call, including the time before it was hedged. */
+  void recordLatency(long latencyNanos) {
+    latencies.record(latencyNanos);
+  }
+
+  /** Counts a call where the response of the hedged call was used. */
+  void recordHedgeWon() {
+    hedgesWon.increment();
+  }
+
+  GcpHedgingStats getStats() {
+    return new GcpHedgingStats(
+        methodName,
+        calls.sum(),
+        hedgesFired.sum(),
+        hedgesWon.sum(),
+        hedgesThrottled.sum(),
+        Duration.ofNanos(delayNanos));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies for reporting percentiles over fixed intervals.
+ *
+ * <p>Latencies are counted in log-linear buckets of microseconds, as in HdrHistogram: values below
+ * 16 us have a bucket each, and every following power of two range is split into 16 equal
+ * buckets, so a reported percentile is within 1/16 of the true value. Recording is a single atomic
+ * increment and does not allocate.
+ *
+ * <p>Percentiles are reported for the last completed interval. {@link #rotate()} completes the
+ * current interval and starts a new one.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values of 2^41 us (25 days) and more are counted in the last bucket.
+  private static final int MAX_EXPONENT = 40;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  // Counts of the last completed interval. Replaced as a whole on rotation.
+  private volatile long[] completedCounts = new long[BUCKETS];
+  private volatile long completedTotal = 0;
+
+  /** Records a latency in nanoseconds. */
+  void record(long latencyNanos) {
+    counts.incrementAndGet(bucketIndex(latencyNanos / 1000));
+  }
+
+  /** Completes the current interval making its percentiles available and starts a new one. */
+  synchronized void rotate() {
+    final long[] completed = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      // Latencies recorded after reading a bucket are counted in the next interval.
+      completed[i] = counts.getAndSet(i, 0);
+      total += completed[i];
+    }
+    completedCounts = completed;
+    completedTotal = total;
+  }
+
+  /** Returns the number of latencies recorded in the last completed interval. */
+  long getCount() {
+    return completedTotal;
+  }
+
+  /**
+   * Returns the latency in microseconds at the percentile (between 0 and 100) of the last
+   * completed interval, or zero if no latency was recorded in the interval.
+   */
+  long getPercentileMicros(double percentile) {
+    return percentileMicros(completedCounts, percentile);
+  }
+
+  /**
+   * Returns the latency in microseconds at the percentile (between 0 and 100) of the bucket
+   * counts, or zero if the counts are all zero.
+   */
+  static long percentileMicros(long[] counts, double percentile) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max((long) Math.ceil(percentile / 100 * total), 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return highestValueInBucket(i);
+      }
+    }
+    return highestValueInBucket(BUCKETS - 1);
+  }
+
+  static int bucketIndex(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) Math.max(micros, 0);
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValueInBucket(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * An atomic int alone on its cache line.
+ *
+ * <p>Counters of a channel are updated by many threads on every call. When such counters are
+ * allocated next to each other (or next to other often read objects), updating one of them
+ * invalidates the cache line holding the others in the caches of all cores (false sharing). The
+ * value is padded on both sides to take a cache line of up to 128 bytes alone. Superclass fields
+ * are laid out before subclass fields, so the padding is split across the class hierarchy.
+ */
+final class PaddedAtomicInteger extends PaddedAtomicIntegerValue {
+  private static final AtomicIntegerFieldUpdater<PaddedAtomicIntegerValue> VALUE =
+      AtomicIntegerFieldUpdater.newUpdater(PaddedAtomicIntegerValue.class, "value");
+
+  @SuppressWarnings("unused")
+  private long p10, p11, p12, p13, p14, p15, p16, p17;
+
+  PaddedAtomicInteger(int initialValue) {
+    value = initialValue;
+  }
+
+  int get() {
+    return value;
+  }
+
+  void set(int newValue) {
+    value = newValue;
+  }
+
+  int incrementAndGet() {
+    return VALUE.incrementAndGet(this);
+  }
+
+  int decrementAndGet() {
+    return VALUE.decrementAndGet(this);
+  }
+
+  @Override
+  public String toString() {
+    return Integer.toString(value);
+  }
+}
+
+abstract class PaddedAtomicIntegerLeftPadding {
+  @SuppressWarnings("unused")
+  private long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class PaddedAtomicIntegerValue extends PaddedAtomicIntegerLeftPadding {
+  volatile int value;
+}
@@ -16,13 +16,15 @@
 
 package com.google.cloud.grpc.multiendpoint;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-
 import com.google.errorprone.annotations.CheckReturnValue;
-import java.util.concurrent.ScheduledFuture;
+import com.google.errorprone.annotations.Immutable;
 
-/** Endpoint holds an endpoint's state, priority and a future of upcoming state change. */
+/**
+ * Endpoint holds an endpoint's state and priority. Endpoint is immutable, a state change creates
+ * a new Endpoint which replaces the previous one in the snapshot of a {@link MultiEndpoint}.
+ */
 @CheckReturnValue
+@Immutable
 final class Endpoint {
 
   /** Holds a state of an endpoint. */
@@ -33,17 +35,33 @@ final class Endpoint {
   }
 
   private final String id;
-  private EndpointState state;
-  private long lastStateChangeNano;
-  private int priority;
-  private ScheduledFuture<?> changeStateFuture;
-  private final MultiEndpoint multiEndpoint;
+  private final EndpointState state;
+  private final long lastStateChangeNano;
+  private final int priority;
+  // An available endpoint serving calls with high latency or error rate.
+  private final boolean degraded;
+  // Whether the endpoint has ever been available. A new endpoint may start recovering without
+  // having been connected yet.
+  private final boolean wasAvailable;
+
+  Endpoint(
+      String id, EndpointState state, long lastStateChangeNano, int priority, boolean degraded) {
+    this(id, state, lastStateChangeNano, priority, degraded, state == EndpointState.AVAILABLE);
+  }
 
-  Endpoint(String id, EndpointState state, int priority, MultiEndpoint multiEndpoint) {
+  private Endpoint(
+      String id,
+      EndpointState state,
+      long lastStateChangeNano,
+      int priority,
+      boolean degraded,
+      boolean wasAvailable) {
     this.id = id;
+    this.state = state;
+    this.lastStateChangeNano = lastStateChangeNano;
     this.priority = priority;
-    this.multiEndpoint = multiEndpoint;
-    setAvailability(EndpointState.AVAILABLE.equals(state));
+    this.degraded = degraded;
+    this.wasAvailable = wasAvailable;
   }
 
   public String getId() {
@@ -54,61 +72,38 @@ final class Endpoint {
     return state;
   }
 
+  long getLastStateChangeNano() {
+    return lastStateChangeNano;
+  }
+
   public int getPriority() {
     return priority;
   }
 
-  public void setPriority(int priority) {
-    this.priority = priority;
+  public boolean isDegraded() {
+    return degraded;
   }
 
-  // Internal method to change state to any state.
-  private void setState(EndpointState state) {
-    synchronized (multiEndpoint) {
-      if (changeStateFuture != null) {
-        changeStateFuture.cancel(false);
-      }
-      this.state = state;
-      lastStateChangeNano = System.nanoTime();
-    }
+  boolean wasAvailable() {
+    return wasAvailable;
   }
 
-  void setAvailability(boolean available) {
-    synchronized (multiEndpoint) {
-      if (available) {
-        setState(EndpointState.AVAILABLE);
-        return;
-      }
-
-      if (state != null && !EndpointState.AVAILABLE.equals(state)) {
-        return;
-      }
-
-      if (!multiEndpoint.isRecoveryEnabled()) {
-        setState(EndpointState.UNAVAILABLE);
-        return;
-      }
-
-      setState(EndpointState.RECOVERING);
-      final long stateChangeNano = lastStateChangeNano;
-      changeStateFuture =
-          multiEndpoint.executor.schedule(
-              () -> triggerRecoveryTimeout(stateChangeNano),
-              multiEndpoint.getRecoveryTimeout().toMillis(),
-              MILLISECONDS);
-    }
+  Endpoint withState(EndpointState state, long stateChangeNano) {
+    return new Endpoint(
+        id,
+        state,
+        stateChangeNano,
+        priority,
+        degraded,
+        wasAvailable || state == EndpointState.AVAILABLE);
   }
 
-  private void triggerRecoveryTimeout(long statusChangeNano) {
-    synchronized (multiEndpoint) {
-      if (lastStateChangeNano != statusChangeNano) {
-        // This timer is outdated.
-        return;
-      }
+  Endpoint withPriority(int priority) {
+    return new Endpoint(id, state, lastStateChangeNano, priority, degraded, wasAvailable);
+  }
 
-      setState(EndpointState.UNAVAILABLE);
-      multiEndpoint.maybeUpdateCurrentEndpoint();
-    }
+  Endpoint withDegraded(boolean degraded) {
+    return new Endpoint(id, state, lastStateChangeNano, priority, degraded, wasAvailable);
   }
 
   @Override
@@ -122,8 +117,10 @@ final class Endpoint {
         + lastStateChangeNano
         + ", priority="
         + priority
-        + ", changeStateFuture="
-        + changeStateFuture
+        + ", degraded="
+        + degraded
+        + ", wasAvailable="
+        + wasAvailable
         + '}';
   }
 }
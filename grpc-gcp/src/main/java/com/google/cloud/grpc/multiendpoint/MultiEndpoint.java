@@ -19,19 +19,22 @@ package com.google.cloud.grpc.multiendpoint;
 import static java.util.Comparator.comparingInt;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.cloud.grpc.GcpExecutors;
 import com.google.cloud.grpc.multiendpoint.Endpoint.EndpointState;
 import com.google.common.base.Preconditions;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.errorprone.annotations.CheckReturnValue;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import javax.annotation.Nullable;
 
 /**
  * MultiEndpoint holds a list of endpoints, tracks their availability and defines the current
@@ -55,11 +58,30 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
  * switching from an available endpoint to another endpoint for this amount of time.
  *
  * <p>The initial state of endpoint is "unavailable" or "recovering" if using recovery timeout.
+ *
+ * <p>An available endpoint can also be marked as degraded with {@link #setEndpointDegraded}, e.g.
+ * when it serves calls with high latency or error rate. Degraded endpoints are demoted below all
+ * other available endpoints, so that traffic fails over on brownouts and not only on outages, but
+ * are still preferred to unavailable endpoints.
+ *
+ * <p>With endpoint weights (see {@link Builder#withWeights}) calls are split across the available
+ * endpoints with positive weights in proportion to the weights, e.g. 90/10 across two regions,
+ * instead of all going to the current endpoint. Use {@link #pickEndpointId()} to pick an endpoint
+ * for a call. If none of the weighted endpoints is available the current endpoint is picked, so
+ * the priority-based failover still applies. Without weights every pick is the current endpoint.
+ *
+ * <p>The state of the endpoints is an immutable snapshot replaced on every change, so reading the
+ * current endpoint, picking an endpoint and notifications which do not change the state of an
+ * endpoint do not lock. Changes are serialized by the MultiEndpoint monitor.
  */
 @CheckReturnValue
 public final class MultiEndpoint {
+  // Immutable snapshot of the endpoints by id. Replaced as a whole under the lock on every change.
+  private volatile Map<String, Endpoint> endpointsMap = Collections.emptyMap();
+
+  // Recovery timeouts of the recovering endpoints by id.
   @GuardedBy("this")
-  private final Map<String, Endpoint> endpointsMap = new HashMap<>();
+  private final Map<String, ScheduledFuture<?>> recoveryTimeouts = new HashMap<>();
 
   @GuardedBy("this")
   private volatile String currentId;
@@ -73,11 +95,21 @@ public final class MultiEndpoint {
   @GuardedBy("this")
   private volatile String switchTo;
 
-  final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+  private final ScheduledExecutorService executor;
+
+  // Weights of endpoints by id, endpoints without a weight have zero weight.
+  @GuardedBy("this")
+  private Map<String, Integer> weights;
+
+  // Picker over the available weighted endpoints, null if none. Rebuilt on every state change.
+  @Nullable private volatile WeightedPicker picker;
 
   private MultiEndpoint(Builder builder) {
     this.recoveryTimeout = builder.recoveryTimeout;
     this.switchingDelay = builder.switchingDelay;
+    this.executor =
+        builder.executor != null ? builder.executor : GcpExecutors.sharedScheduler();
+    this.weights = builder.weights;
     this.setEndpoints(builder.endpoints);
   }
 
@@ -86,6 +118,8 @@ public final class MultiEndpoint {
     private final List<String> endpoints;
     private Duration recoveryTimeout = Duration.ZERO;
     private Duration switchingDelay = Duration.ZERO;
+    @Nullable private ScheduledExecutorService executor;
+    private Map<String, Integer> weights = Collections.emptyMap();
 
     public Builder(List<String> endpoints) {
       Preconditions.checkNotNull(endpoints);
@@ -115,6 +149,28 @@ public final class MultiEndpoint {
       return this;
     }
 
+    /**
+     * MultiEndpoint will schedule recovery timeouts and delayed switching on this executor. By
+     * default, the {@link GcpExecutors#sharedScheduler()} shared by all channel pools and
+     * MultiEndpoints in the process is used. The executor is never shut down by the MultiEndpoint.
+     */
+    @CanIgnoreReturnValue
+    public Builder withExecutor(@Nullable ScheduledExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * MultiEndpoint will split calls across the available endpoints with positive weights in
+     * proportion to the weights. Endpoints missing in the map have zero weight. Empty map
+     * (default) sends all calls to the current endpoint.
+     */
+    @CanIgnoreReturnValue
+    public Builder withWeights(Map<String, Integer> weights) {
+      this.weights = checkWeights(weights);
+      return this;
+    }
+
     public MultiEndpoint build() {
       return new MultiEndpoint(this);
     }
@@ -131,15 +187,72 @@ public final class MultiEndpoint {
     return currentId;
   }
 
-  synchronized Map<String, Endpoint> getEndpointsMap() {
-    return endpointsMap;
+  /**
+   * Returns the endpoint id to use for a call: a weighted random pick among the available weighted
+   * endpoints, or the current endpoint if there are no weights or none of the weighted endpoints
+   * is available.
+   *
+   * <p>The pick does not lock and reads the state of the endpoints from its last update.
+   */
+  public String pickEndpointId() {
+    final WeightedPicker weightedPicker = picker;
+    if (weightedPicker == null) {
+      return getCurrentId();
+    }
+    return weightedPicker.pick();
+  }
+
+  /**
+   * Returns the id of the top priority available endpoint other than the excluded ones, preferring
+   * endpoints which are not degraded, or null if there is no such endpoint. Used to pick an
+   * endpoint for a hedged copy or a retry of a call.
+   */
+  @Nullable
+  public String getAlternativeId(Collection<String> excludedIds) {
+    final Endpoint endpoint = topAvailable(endpointsMap, excludedIds);
+    return endpoint == null ? null : endpoint.getId();
   }
 
-  Duration getRecoveryTimeout() {
-    return recoveryTimeout;
+  // Returns the top priority available endpoint not among the excluded ones, preferring endpoints
+  // which are not degraded, or null if there is no such endpoint.
+  @Nullable
+  private static Endpoint topAvailable(
+      Map<String, Endpoint> endpoints, Collection<String> excludedIds) {
+    Endpoint top = null;
+    for (Endpoint endpoint : endpoints.values()) {
+      if (!endpoint.getState().equals(EndpointState.AVAILABLE)
+          || excludedIds.contains(endpoint.getId())) {
+        continue;
+      }
+      if (top == null
+          || (top.isDegraded() && !endpoint.isDegraded())
+          || (top.isDegraded() == endpoint.isDegraded()
+              && endpoint.getPriority() < top.getPriority())) {
+        top = endpoint;
+      }
+    }
+    return top;
   }
 
-  boolean isRecoveryEnabled() {
+  /** Provide updated endpoint weights to MultiEndpoint, see {@link Builder#withWeights}. */
+  public synchronized void setWeights(Map<String, Integer> weights) {
+    this.weights = checkWeights(weights);
+    maybeUpdateCurrentEndpoint();
+  }
+
+  private static Map<String, Integer> checkWeights(Map<String, Integer> weights) {
+    Preconditions.checkNotNull(weights);
+    Preconditions.checkArgument(
+        weights.values().stream().allMatch(w -> w != null && w >= 0),
+        "Endpoint weights must not be negative.");
+    return Collections.unmodifiableMap(new HashMap<>(weights));
+  }
+
+  Map<String, Endpoint> getEndpointsMap() {
+    return endpointsMap;
+  }
+
+  private boolean isRecoveryEnabled() {
     return !recoveryTimeout.isNegative() && !recoveryTimeout.isZero();
   }
 
@@ -147,15 +260,49 @@ public final class MultiEndpoint {
     return !switchingDelay.isNegative() && !switchingDelay.isZero();
   }
 
-  /** Inform MultiEndpoint when an endpoint becomes available or unavailable. */
-  public synchronized void setEndpointAvailable(String endpointId, boolean available) {
-    Endpoint endpoint = endpointsMap.get(endpointId);
-    if (endpoint == null) {
+  /**
+   * Inform MultiEndpoint when an endpoint becomes available or unavailable.
+   *
+   * <p>Notifications which do not change the state of the endpoint return without locking.
+   */
+  public void setEndpointAvailable(String endpointId, boolean available) {
+    final Endpoint endpoint = endpointsMap.get(endpointId);
+    if (endpoint == null || isAvailabilityUnchanged(endpoint, available)) {
       return;
     }
+    synchronized (this) {
+      final Endpoint current = endpointsMap.get(endpointId);
+      if (current == null || isAvailabilityUnchanged(current, available)) {
+        return;
+      }
+      replaceEndpoint(withAvailability(current, available));
+      maybeUpdateCurrentEndpoint();
+    }
+  }
 
-    endpoint.setAvailability(available);
-    maybeUpdateCurrentEndpoint();
+  // An available endpoint stays available, and an unavailable or recovering endpoint stays in its
+  // state until its recovery timeout when it becomes unavailable again.
+  private static boolean isAvailabilityUnchanged(Endpoint endpoint, boolean available) {
+    return available == endpoint.getState().equals(EndpointState.AVAILABLE);
+  }
+
+  /**
+   * Inform MultiEndpoint when an endpoint becomes degraded or recovers. A degraded endpoint is
+   * only used as current if no other available endpoint is not degraded.
+   */
+  public void setEndpointDegraded(String endpointId, boolean degraded) {
+    final Endpoint endpoint = endpointsMap.get(endpointId);
+    if (endpoint == null || endpoint.isDegraded() == degraded) {
+      return;
+    }
+    synchronized (this) {
+      final Endpoint current = endpointsMap.get(endpointId);
+      if (current == null || current.isDegraded() == degraded) {
+        return;
+      }
+      replaceEndpoint(current.withDegraded(degraded));
+      maybeUpdateCurrentEndpoint();
+    }
   }
 
   /**
@@ -168,48 +315,173 @@ public final class MultiEndpoint {
     Preconditions.checkNotNull(endpoints);
     Preconditions.checkArgument(!endpoints.isEmpty(), "Endpoints list must not be empty.");
 
-    // Remove obsolete endpoints.
-    endpointsMap.keySet().retainAll(endpoints);
-
+    final Map<String, Endpoint> updated = new HashMap<>();
     // Add new endpoints and update priority.
     int priority = 0;
     for (String endpointId : endpoints) {
       Endpoint existingEndpoint = endpointsMap.get(endpointId);
       if (existingEndpoint != null) {
-        existingEndpoint.setPriority(priority++);
+        updated.put(endpointId, existingEndpoint.withPriority(priority++));
         continue;
       }
-      endpointsMap.put(
-          endpointId, new Endpoint(endpointId, EndpointState.UNAVAILABLE, priority++, this));
+      updated.put(endpointId, newEndpoint(endpointId, priority++));
+    }
+
+    // Stop recovery timeouts of obsolete endpoints.
+    recoveryTimeouts.keySet().removeIf(
+        endpointId -> {
+          if (updated.containsKey(endpointId)) {
+            return false;
+          }
+          recoveryTimeouts.get(endpointId).cancel(false);
+          return true;
+        });
+
+    endpointsMap = Collections.unmodifiableMap(updated);
+    maybeUpdateCurrentEndpoint();
+  }
+
+  // Creates a new endpoint in the unavailable state, or recovering if using recovery timeout.
+  @GuardedBy("this")
+  private Endpoint newEndpoint(String endpointId, int priority) {
+    final long now = System.nanoTime();
+    if (!isRecoveryEnabled()) {
+      return new Endpoint(endpointId, EndpointState.UNAVAILABLE, now, priority, false);
+    }
+    return startRecovery(new Endpoint(endpointId, EndpointState.RECOVERING, now, priority, false));
+  }
+
+  // Returns the endpoint with the availability changed, starting or stopping its recovery timeout.
+  @GuardedBy("this")
+  private Endpoint withAvailability(Endpoint endpoint, boolean available) {
+    cancelRecoveryTimeout(endpoint.getId());
+    final long now = System.nanoTime();
+    if (available) {
+      return endpoint.withState(EndpointState.AVAILABLE, now);
+    }
+    if (!isRecoveryEnabled()) {
+      return endpoint.withState(EndpointState.UNAVAILABLE, now);
+    }
+    return startRecovery(endpoint.withState(EndpointState.RECOVERING, now));
+  }
+
+  @GuardedBy("this")
+  private Endpoint startRecovery(Endpoint endpoint) {
+    final String endpointId = endpoint.getId();
+    final long stateChangeNano = endpoint.getLastStateChangeNano();
+    recoveryTimeouts.put(
+        endpointId,
+        executor.schedule(
+            () -> triggerRecoveryTimeout(endpointId, stateChangeNano),
+            recoveryTimeout.toMillis(),
+            MILLISECONDS));
+    return endpoint;
+  }
+
+  @GuardedBy("this")
+  private void cancelRecoveryTimeout(String endpointId) {
+    final ScheduledFuture<?> timeout = recoveryTimeouts.remove(endpointId);
+    if (timeout != null) {
+      timeout.cancel(false);
     }
+  }
 
+  private synchronized void triggerRecoveryTimeout(String endpointId, long stateChangeNano) {
+    final Endpoint endpoint = endpointsMap.get(endpointId);
+    if (endpoint == null || endpoint.getLastStateChangeNano() != stateChangeNano) {
+      // This timer is outdated.
+      return;
+    }
+    recoveryTimeouts.remove(endpointId);
+    replaceEndpoint(endpoint.withState(EndpointState.UNAVAILABLE, System.nanoTime()));
     maybeUpdateCurrentEndpoint();
   }
 
-  // Updates currentId to the top-priority available endpoint unless the current endpoint is
-  // recovering.
-  synchronized void maybeUpdateCurrentEndpoint() {
-    Optional<Endpoint> topEndpoint =
-        endpointsMap.values().stream()
-            .filter((c) -> c.getState().equals(EndpointState.AVAILABLE))
-            .min(comparingInt(Endpoint::getPriority));
+  // Publishes a new snapshot with the endpoint replaced.
+  @GuardedBy("this")
+  private void replaceEndpoint(Endpoint endpoint) {
+    final Map<String, Endpoint> updated = new HashMap<>(endpointsMap);
+    updated.put(endpoint.getId(), endpoint);
+    endpointsMap = Collections.unmodifiableMap(updated);
+  }
 
-    Endpoint current = endpointsMap.get(currentId);
+  // Updates currentId to the top-priority available endpoint, preferring endpoints which are not
+  // degraded, unless the current endpoint is recovering.
+  @GuardedBy("this")
+  private void maybeUpdateCurrentEndpoint() {
+    final Map<String, Endpoint> endpoints = endpointsMap;
+    updatePicker(endpoints);
+    Endpoint topEndpoint = topAvailable(endpoints, Collections.emptySet());
+
+    final Endpoint current = endpoints.get(currentId);
     if (current != null && current.getState().equals(EndpointState.RECOVERING)) {
       // Keep recovering endpoint as current unless a higher priority endpoint became available.
-      if (!topEndpoint.isPresent() || topEndpoint.get().getPriority() >= current.getPriority()) {
+      if (topEndpoint == null || topEndpoint.getPriority() >= current.getPriority()) {
         return;
       }
     }
 
-    if (!topEndpoint.isPresent() && current == null) {
-      topEndpoint = endpointsMap.values().stream().min(comparingInt(Endpoint::getPriority));
+    if (topEndpoint == null && current == null) {
+      for (Endpoint endpoint : endpoints.values()) {
+        if (topEndpoint == null || endpoint.getPriority() < topEndpoint.getPriority()) {
+          topEndpoint = endpoint;
+        }
+      }
     }
 
-    topEndpoint.ifPresent(endpoint -> updateCurrentEndpoint(current, endpoint.getId()));
+    if (topEndpoint != null) {
+      updateCurrentEndpoint(current, topEndpoint.getId());
+    }
   }
 
-  private synchronized void updateCurrentEndpoint(Endpoint current, String newCurrentId) {
+  // Rebuilds the picker over the available endpoints with positive weights, preferring endpoints
+  // which are not degraded. Recovering endpoints which were available are kept in the picker until
+  // the recovery timeout as they are kept as current without weights. New endpoints recovering
+  // before their first connection are not picked.
+  @GuardedBy("this")
+  private void updatePicker(Map<String, Endpoint> endpoints) {
+    if (weights.isEmpty()) {
+      picker = null;
+      return;
+    }
+    List<Endpoint> eligible = new ArrayList<>();
+    boolean anyHealthy = false;
+    for (Endpoint endpoint : endpoints.values()) {
+      if (isPickable(endpoint) && weights.getOrDefault(endpoint.getId(), 0) > 0) {
+        eligible.add(endpoint);
+        anyHealthy |= !endpoint.isDegraded();
+      }
+    }
+    if (anyHealthy) {
+      eligible.removeIf(Endpoint::isDegraded);
+    }
+    if (eligible.isEmpty()) {
+      picker = null;
+      return;
+    }
+    eligible.sort(comparingInt(Endpoint::getPriority));
+    final List<String> ids = new ArrayList<>(eligible.size());
+    final List<Integer> endpointWeights = new ArrayList<>(eligible.size());
+    for (Endpoint endpoint : eligible) {
+      ids.add(endpoint.getId());
+      endpointWeights.add(weights.get(endpoint.getId()));
+    }
+    picker = new WeightedPicker(ids, endpointWeights);
+  }
+
+  private static boolean isPickable(Endpoint endpoint) {
+    switch (endpoint.getState()) {
+      case AVAILABLE:
+        return true;
+      case RECOVERING:
+        return endpoint.wasAvailable();
+      default:
+        return false;
+    }
+  }
+
+  @GuardedBy("this")
+  private void updateCurrentEndpoint(Endpoint current, String newCurrentId) {
     // If no current or became unavailable then switch immediately.
     if (current == null || current.getState().equals(EndpointState.UNAVAILABLE)) {
       currentId = newCurrentId;
@@ -236,7 +508,7 @@ public final class MultiEndpoint {
     currentId = switchTo;
   }
 
-  // It is okay to read currentId and endpointsMap without obtaining a lock here.
+  // It is okay to read the state without obtaining a lock here.
   @SuppressWarnings("GuardedBy")
   @Override
   public String toString() {
@@ -253,7 +525,11 @@ public final class MultiEndpoint {
         + scheduledSwitch
         + ", switchTo='"
         + switchTo
-        + "', executor="
+        + "', weights="
+        + weights
+        + ", picker="
+        + picker
+        + ", executor="
         + executor
         + '}';
   }
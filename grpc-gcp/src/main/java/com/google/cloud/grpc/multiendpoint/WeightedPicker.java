@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc.multiendpoint;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An immutable picker of endpoint ids at random with probabilities proportional to their weights.
+ * A pick is a random number and a binary search over the cumulative weights, without locking or
+ * allocation.
+ */
+final class WeightedPicker {
+  private final String[] ids;
+  // Cumulative weights, the last one is the total weight.
+  private final long[] cumulativeWeights;
+
+  /** Creates a picker of the ids with the weights, which must be positive. */
+  WeightedPicker(List<String> ids, List<Integer> weights) {
+    this.ids = ids.toArray(new String[0]);
+    this.cumulativeWeights = new long[weights.size()];
+    long total = 0;
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      total += weights.get(i);
+      cumulativeWeights[i] = total;
+    }
+  }
+
+  String pick() {
+    if (ids.length == 1) {
+      return ids[0];
+    }
+    final long point =
+        ThreadLocalRandom.current().nextLong(cumulativeWeights[cumulativeWeights.length - 1]);
+    final int index = Arrays.binarySearch(cumulativeWeights, point);
+    // The first cumulative weight greater than the point.
+    return ids[index >= 0 ? index + 1 : -index - 1];
+  }
+
+  @Override
+  public String toString() {
+    return "WeightedPicker{ids="
+        + Arrays.toString(ids)
+        + ", cumulativeWeights="
+        + Arrays.toString(cumulativeWeights)
+        + '}';
+  }
+}
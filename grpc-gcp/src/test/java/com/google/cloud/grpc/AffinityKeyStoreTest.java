@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AffinityKeyStoreTest {
+
+  private final List<String> evicted = new ArrayList<>();
+
+  @Test
+  public void testBindUnbind() {
+    AffinityKeyStore<String> store =
+        new AffinityKeyStore<>(0, 0, Runnable::run, (k, v) -> evicted.add(k));
+    assertThat(store.putIfAbsent("key", "a")).isNull();
+    assertThat(store.putIfAbsent("key", "b")).isEqualTo("a");
+    assertThat(store.get("key")).isEqualTo("a");
+    assertThat(store.size()).isEqualTo(1);
+
+    assertThat(store.replace("key", "b", "c")).isFalse();
+    assertThat(store.replace("key", "a", "c")).isTrue();
+    assertThat(store.get("key")).isEqualTo("c");
+    assertThat(store.values()).containsExactly("c");
+
+    assertThat(store.remove("key")).isEqualTo("c");
+    assertThat(store.remove("key")).isNull();
+    assertThat(store.get("key")).isNull();
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(evicted).isEmpty();
+  }
+
+  @Test
+  public void testEvictExpired() throws InterruptedException {
+    AffinityKeyStore<String> store =
+        new AffinityKeyStore<>(
+            TimeUnit.MILLISECONDS.toNanos(50),
+            0,
+            Runnable::run,
+            (k, v) -> evicted.add(k + "=" + v));
+    store.putIfAbsent("key1", "a");
+    store.putIfAbsent("key2", "b");
+    assertThat(store.evictExpired(System.nanoTime())).isEqualTo(0);
+
+    TimeUnit.MILLISECONDS.sleep(30);
+    // Access refreshes the key.
+    store.get("key2");
+    TimeUnit.MILLISECONDS.sleep(30);
+    assertThat(store.evictExpired(System.nanoTime())).isEqualTo(1);
+    assertThat(evicted).containsExactly("key1=a");
+    assertThat(store.get("key1")).isNull();
+    assertThat(store.get("key2")).isEqualTo("b");
+    assertThat(store.getEvictedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testEvictLeastRecentlyAccessed() throws InterruptedException {
+    final List<Runnable> evictions = new ArrayList<>();
+    AffinityKeyStore<String> store =
+        new AffinityKeyStore<>(0, 3, evictions::add, (k, v) -> evicted.add(k));
+    store.putIfAbsent("key1", "a");
+    TimeUnit.MILLISECONDS.sleep(1);
+    store.putIfAbsent("key2", "b");
+    TimeUnit.MILLISECONDS.sleep(1);
+    store.putIfAbsent("key3", "c");
+    TimeUnit.MILLISECONDS.sleep(1);
+    store.get("key1");
+    TimeUnit.MILLISECONDS.sleep(1);
+
+    // Binding a key does not evict, the eviction is scheduled once on the executor.
+    store.putIfAbsent("key4", "d");
+    store.putIfAbsent("key5", "e");
+    assertThat(store.size()).isEqualTo(5);
+    assertThat(evicted).isEmpty();
+    assertThat(evictions).hasSize(1);
+
+    evictions.remove(0).run();
+    assertThat(evictions).isEmpty();
+    assertThat(store.size()).isEqualTo(3);
+    assertThat(evicted).containsExactly("key2", "key3");
+    assertThat(store.get("key1")).isEqualTo("a");
+    assertThat(store.get("key4")).isEqualTo("d");
+    assertThat(store.get("key5")).isEqualTo("e");
+    assertThat(store.getEvictedCount()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.grpc.ChannelPicker.ChannelInfo;
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions.ChannelPickStrategy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ChannelPickersTest {
+
+  private static final class Channel implements ChannelInfo {
+    private final int id;
+    private final int streams;
+    private final long latencyNanos;
+
+    Channel(int id, int streams, long latencyNanos) {
+      this.id = id;
+      this.streams = streams;
+      this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public int getId() {
+      return id;
+    }
+
+    @Override
+    public int getActiveStreamsCount() {
+      return streams;
+    }
+
+    @Override
+    public int getAffinityCount() {
+      return 0;
+    }
+
+    @Override
+    public long getLatencyEwmaNanos() {
+      return latencyNanos;
+    }
+
+    @Override
+    public long getFirstMessageLatencyEwmaNanos() {
+      return latencyNanos;
+    }
+
+    @Override
+    public long getPeakLatencyEwmaNanos() {
+      return latencyNanos * 2;
+    }
+  }
+
+  private static int pickId(ChannelPicker picker, List<Channel> channels) {
+    return picker.pick(channels, "service/Method", null).getId();
+  }
+
+  @Test
+  public void testLeastBusy() {
+    List<Channel> channels =
+        Arrays.asList(new Channel(0, 5, 0), new Channel(1, 2, 0), new Channel(2, 3, 0));
+    assertThat(pickId(ChannelPickers.leastBusy(), channels)).isEqualTo(1);
+  }
+
+  @Test
+  public void testRoundRobin() {
+    List<Channel> channels =
+        Arrays.asList(new Channel(0, 5, 0), new Channel(1, 2, 0), new Channel(2, 3, 0));
+    ChannelPicker picker = ChannelPickers.roundRobin();
+    List<Integer> picked = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      picked.add(pickId(picker, channels));
+    }
+    assertThat(picked).containsExactly(0, 1, 2, 0, 1, 2).inOrder();
+  }
+
+  @Test
+  public void testPowerOfTwoChoices() {
+    List<Channel> channels =
+        Arrays.asList(new Channel(0, 5, 0), new Channel(1, 2, 0), new Channel(2, 3, 0));
+    ChannelPicker picker = ChannelPickers.powerOfTwoChoices();
+    Set<Integer> picked = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      picked.add(pickId(picker, channels));
+    }
+    // The busiest channel always loses the comparison.
+    assertThat(picked).containsExactly(1, 2);
+    assertThat(pickId(picker, channels.subList(0, 1))).isEqualTo(0);
+  }
+
+  @Test
+  public void testLatencyEwma() {
+    ChannelPicker picker = ChannelPickers.latencyEwma();
+    // Without latency samples picks the least busy channel.
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 5, 0), new Channel(1, 2, 0))))
+        .isEqualTo(1);
+    // A less busy but 10 times slower channel is avoided.
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 5, 1000), new Channel(1, 2, 10000))))
+        .isEqualTo(0);
+    // A channel without samples is assumed to be as fast as the fastest one.
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 5, 1000), new Channel(1, 2, 0))))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testPeakEwma() {
+    ChannelPicker picker = ChannelPickers.peakEwma();
+    // Equally busy channels, one of them slow.
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 3, 5000), new Channel(1, 3, 1000))))
+        .isEqualTo(1);
+    // The fast channel gets more streams until it is as costly as the slow one.
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 3, 5000), new Channel(1, 18, 1000))))
+        .isEqualTo(1);
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 3, 5000), new Channel(1, 20, 1000))))
+        .isEqualTo(0);
+    // Without samples picks the least busy channel.
+    assertThat(pickId(picker, Arrays.asList(new Channel(0, 5, 0), new Channel(1, 2, 0))))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testForStrategy() {
+    assertThat(ChannelPickers.forStrategy(ChannelPickStrategy.LEAST_BUSY))
+        .isSameAs(ChannelPickers.leastBusy());
+    assertThat(ChannelPickers.forStrategy(ChannelPickStrategy.POWER_OF_TWO_CHOICES))
+        .isSameAs(ChannelPickers.powerOfTwoChoices());
+    assertThat(ChannelPickers.forStrategy(ChannelPickStrategy.PEAK_EWMA))
+        .isSameAs(ChannelPickers.peakEwma());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ChannelPoolAutoscalerTest {
+
+  private static final long SECOND = SECONDS.toNanos(1);
+
+  @Test
+  public void testStaysWithinBounds() {
+    ChannelPoolAutoscaler autoscaler = new ChannelPoolAutoscaler(2, 5, 10, 3);
+    assertThat(autoscaler.sample(0, 0, 0)).isEqualTo(2);
+    assertThat(autoscaler.getTargetSize()).isEqualTo(2);
+    long now = 0;
+    for (int i = 0; i < 10; i++) {
+      now += SECOND;
+      assertThat(autoscaler.sample(now, 1000, 0)).isEqualTo(5);
+    }
+  }
+
+  @Test
+  public void testScalesUpAheadOfDemand() {
+    ChannelPoolAutoscaler autoscaler = new ChannelPoolAutoscaler(1, 100, 10, 3);
+    // Connecting a channel takes 5 seconds.
+    autoscaler.recordReadinessTime(5 * SECOND);
+    long now = 0;
+    autoscaler.sample(now, 10, 0);
+    // Active streams grow by 10 every second.
+    int streams = 10;
+    int target = 0;
+    for (int i = 0; i < 20; i++) {
+      now += SECOND;
+      streams += 10;
+      target = autoscaler.sample(now, streams, 0);
+    }
+    // The current demand requires 21 channels, but the pool is sized for the demand expected by
+    // the time new channels become ready.
+    assertThat(streams).isEqualTo(210);
+    assertThat(target).isGreaterThan(21);
+  }
+
+  @Test
+  public void testScalesUpOnCallRateBurst() {
+    ChannelPoolAutoscaler autoscaler = new ChannelPoolAutoscaler(1, 100, 10, 3);
+    long now = 0;
+    long calls = 0;
+    autoscaler.sample(now, 20, calls);
+    for (int i = 0; i < 10; i++) {
+      now += SECOND;
+      calls += 100;
+      assertThat(autoscaler.sample(now, 20, calls)).isEqualTo(2);
+    }
+    // The call rate doubles before the active streams reflect it.
+    now += SECOND;
+    calls += 200;
+    assertThat(autoscaler.sample(now, 20, calls)).isGreaterThan(2);
+  }
+
+  @Test
+  public void testScaleDownHysteresis() {
+    ChannelPoolAutoscaler autoscaler = new ChannelPoolAutoscaler(1, 10, 10, 3);
+    long now = 0;
+    autoscaler.sample(now, 50, 0);
+    assertThat(autoscaler.getTargetSize()).isEqualTo(5);
+
+    // A short dip does not shrink the pool.
+    now += MILLISECONDS.toNanos(100);
+    assertThat(autoscaler.sample(now, 0, 0)).isEqualTo(5);
+    now += MILLISECONDS.toNanos(100);
+    assertThat(autoscaler.sample(now, 50, 0)).isEqualTo(5);
+
+    // Demand just below the capacity of a smaller pool is within the margin.
+    for (int i = 0; i < 20; i++) {
+      now += SECOND;
+      assertThat(autoscaler.sample(now, 38, 0)).isEqualTo(5);
+    }
+
+    // Sustained low demand shrinks the pool after the configured number of samples.
+    int target = 5;
+    for (int i = 0; i < 20; i++) {
+      now += SECOND;
+      target = autoscaler.sample(now, 0, 0);
+    }
+    assertThat(target).isEqualTo(1);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.grpc.GcpMultiEndpointOptions.EndpointHealthOptions;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class EndpointHealthTrackerTest {
+  private static final String ENDPOINT = "first";
+  private static final long SECOND_NANOS = Duration.ofSeconds(1).toNanos();
+
+  private final CallStats stats = new CallStats();
+
+  private final EndpointHealthTracker tracker =
+      new EndpointHealthTracker(
+          EndpointHealthOptions.newBuilder()
+              .setLatencyThreshold(90, Duration.ofMillis(100))
+              .setErrorRateThreshold(0.1)
+              .setRecoveryRatio(0.5)
+              .setMinCalls(10)
+              .setMinDemotionTime(Duration.ofSeconds(30))
+              .build());
+
+  private void record(int calls, Duration latency, Status.Code code) {
+    for (int i = 0; i < calls; i++) {
+      stats.record(latency.toNanos(), code);
+    }
+  }
+
+  private boolean evaluate(long seconds) {
+    return tracker.evaluate(ENDPOINT, stats.snapshot(), seconds * SECOND_NANOS);
+  }
+
+  @Test
+  public void testCallStatsIntervals() {
+    record(9, Duration.ofMillis(10), Status.Code.OK);
+    record(1, Duration.ofMillis(200), Status.Code.UNAVAILABLE);
+    // Application errors are not endpoint errors.
+    record(10, Duration.ofMillis(10), Status.Code.NOT_FOUND);
+    final CallStats.Snapshot first = stats.snapshot();
+    assertThat(first.getCalls()).isEqualTo(20L);
+    assertThat(first.getErrors()).isEqualTo(1L);
+    assertThat(first.getErrorRate()).isEqualTo(0.05);
+    assertThat(first.getLatencyPercentileMicros(50)).isAtLeast(10_000L);
+    assertThat(first.getLatencyPercentileMicros(50)).isLessThan(11_000L);
+
+    record(5, Duration.ofMillis(200), Status.Code.DEADLINE_EXCEEDED);
+    final CallStats.Snapshot interval = stats.snapshot().minus(first);
+    assertThat(interval.getCalls()).isEqualTo(5L);
+    assertThat(interval.getErrorRate()).isEqualTo(1.0);
+    assertThat(interval.getLatencyPercentileMicros(50)).isAtLeast(200_000L);
+    assertThat(CallStats.Snapshot.EMPTY.getErrorRate()).isEqualTo(0.0);
+  }
+
+  @Test
+  public void testDemotionByLatency() {
+    assertThat(evaluate(0)).isFalse();
+
+    // Too few calls to evaluate.
+    record(9, Duration.ofSeconds(1), Status.Code.OK);
+    assertThat(evaluate(10)).isFalse();
+
+    record(80, Duration.ofMillis(10), Status.Code.OK);
+    record(20, Duration.ofMillis(150), Status.Code.OK);
+    assertThat(evaluate(20)).isTrue();
+
+    // Stays demoted for the min demotion time even if healthy.
+    record(100, Duration.ofMillis(10), Status.Code.OK);
+    assertThat(evaluate(40)).isTrue();
+
+    // Below the threshold but not below the recovery threshold.
+    record(100, Duration.ofMillis(80), Status.Code.OK);
+    assertThat(evaluate(50)).isTrue();
+
+    record(100, Duration.ofMillis(40), Status.Code.OK);
+    assertThat(evaluate(60)).isFalse();
+  }
+
+  @Test
+  public void testDemotionByErrorRate() {
+    assertThat(evaluate(0)).isFalse();
+    record(90, Duration.ofMillis(10), Status.Code.OK);
+    record(10, Duration.ofMillis(10), Status.Code.UNAVAILABLE);
+    // At the threshold.
+    assertThat(evaluate(10)).isFalse();
+
+    record(85, Duration.ofMillis(10), Status.Code.OK);
+    record(15, Duration.ofMillis(10), Status.Code.UNAVAILABLE);
+    assertThat(evaluate(20)).isTrue();
+
+    // A demoted endpoint without calls recovers after the min demotion time to be probed.
+    assertThat(evaluate(30)).isTrue();
+    assertThat(evaluate(50)).isFalse();
+  }
+
+  @Test
+  public void testRetainAll() {
+    assertThat(evaluate(0)).isFalse();
+    record(100, Duration.ofSeconds(1), Status.Code.OK);
+    assertThat(evaluate(10)).isTrue();
+
+    // A removed endpoint is forgotten.
+    tracker.retainAll(Collections.singletonList("second"));
+    assertThat(evaluate(20)).isFalse();
+  }
+
+  @Test
+  public void testOptionsEquality() {
+    final EndpointHealthOptions options = tracker.getOptions();
+    final EndpointHealthOptions copy = EndpointHealthOptions.newBuilder(options).build();
+    assertThat(copy).isNotSameAs(options);
+    assertThat(copy).isEqualTo(options);
+    assertThat(copy.hashCode()).isEqualTo(options.hashCode());
+    assertThat(EndpointHealthOptions.newBuilder(options).setMinCalls(20).build())
+        .isNotEqualTo(options);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.cloud.grpc.FakeClientCalls.FakeCall;
+import com.google.cloud.grpc.FakeClientCalls.FakeChannel;
+import com.google.cloud.grpc.FakeClientCalls.RecordingListener;
+import com.google.cloud.grpc.GcpMultiEndpointOptions.FailoverOptions;
+import com.google.cloud.grpc.multiendpoint.MultiEndpoint;
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.common.collect.ImmutableList;
+import io.grpc.CallOptions;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FailoverClientCallTest {
+  private static final MethodDescriptor.Marshaller<ApiConfig> MARSHALLER =
+      ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+  private static final MethodDescriptor<ApiConfig, ApiConfig> METHOD =
+      MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName("google.spanner.v1.Spanner/Commit")
+          .setRequestMarshaller(MARSHALLER)
+          .setResponseMarshaller(MARSHALLER)
+          .build();
+  private static final ApiConfig MESSAGE = ApiConfig.getDefaultInstance();
+
+  private final List<String> endpoints = ImmutableList.of("first", "second", "third");
+  private final Map<String, FakeChannel> channels = new HashMap<>();
+  private final RecordingListener listener = new RecordingListener();
+  private MultiEndpoint multiEndpoint;
+
+  @Before
+  public void setUp() {
+    multiEndpoint = new MultiEndpoint.Builder(endpoints).build();
+    for (String endpoint : endpoints) {
+      channels.put(endpoint, new FakeChannel());
+      multiEndpoint.setEndpointAvailable(endpoint, true);
+    }
+  }
+
+  private FailoverClientCall<ApiConfig, ApiConfig> newCall(FailoverOptions options) {
+    return new FailoverClientCall<>(
+        METHOD,
+        CallOptions.DEFAULT,
+        "first",
+        channels.get("first"),
+        multiEndpoint,
+        channels::get,
+        new FailoverPolicy(options));
+  }
+
+  private FailoverClientCall<ApiConfig, ApiConfig> startCall(FailoverOptions options) {
+    final FailoverClientCall<ApiConfig, ApiConfig> call = newCall(options);
+    call.start(listener, new Metadata());
+    call.request(1);
+    call.sendMessage(MESSAGE);
+    call.halfClose();
+    return call;
+  }
+
+  private FakeCall nextCall(String endpoint) throws InterruptedException {
+    final FakeCall call = channels.get(endpoint).calls.poll(1, SECONDS);
+    assertThat(call).isNotNull();
+    return call;
+  }
+
+  @Test
+  public void testRetriesOnNextEndpoint() throws InterruptedException {
+    startCall(FailoverOptions.newBuilder().build());
+    nextCall("first").listener.onClose(Status.UNAVAILABLE, new Metadata());
+    assertThat(listener.events).isEmpty();
+
+    // The retry replays the call on the next available endpoint.
+    final FakeCall retry = nextCall("second");
+    assertThat(retry.events).containsExactly("start", "request 1", "sendMessage", "halfClose")
+        .inOrder();
+    retry.listener.onMessage(MESSAGE);
+    retry.listener.onClose(Status.OK, new Metadata());
+    assertThat(listener.events).containsExactly("message", "close OK").inOrder();
+  }
+
+  @Test
+  public void testRecordsCallMethodsWhileReplaying() throws InterruptedException {
+    final CountDownLatch sendMessageLatch = new CountDownLatch(1);
+    channels.get("second").sendMessageLatch = sendMessageLatch;
+    final FailoverClientCall<ApiConfig, ApiConfig> call =
+        newCall(FailoverOptions.newBuilder().build());
+    call.start(listener, new Metadata());
+    call.request(1);
+    call.sendMessage(MESSAGE);
+    final FakeCall original = nextCall("first");
+    final Thread closing =
+        new Thread(() -> original.listener.onClose(Status.UNAVAILABLE, new Metadata()));
+    closing.start();
+
+    // The replay of the retry blocks in sendMessage without holding the lock, the call methods of
+    // the application are recorded and replayed after the blocked one.
+    final FakeCall retry = nextCall("second");
+    call.sendMessage(MESSAGE);
+    call.halfClose();
+    assertThat(original.events).containsExactly("start", "request 1", "sendMessage").inOrder();
+    sendMessageLatch.countDown();
+    closing.join();
+    assertThat(retry.events)
+        .containsExactly("start", "request 1", "sendMessage", "sendMessage", "halfClose")
+        .inOrder();
+
+    // Once replayed, the call methods are forwarded to the retry.
+    call.request(1);
+    assertThat(retry.events).hasSize(6);
+    assertThat(retry.events.get(5)).isEqualTo("request 1");
+  }
+
+  @Test
+  public void testSkipsUnavailableEndpoints() throws InterruptedException {
+    multiEndpoint.setEndpointAvailable("second", false);
+    startCall(FailoverOptions.newBuilder().build());
+    nextCall("first").listener.onClose(Status.UNAVAILABLE, new Metadata());
+    nextCall("third").listener.onClose(Status.OK, new Metadata());
+    assertThat(listener.events).containsExactly("close OK");
+    assertThat(channels.get("second").calls).isEmpty();
+  }
+
+  @Test
+  public void testMaxAttempts() throws InterruptedException {
+    startCall(FailoverOptions.newBuilder().setMaxAttempts(3).build());
+    nextCall("first").listener.onClose(Status.UNAVAILABLE, new Metadata());
+    nextCall("second").listener.onClose(Status.UNAVAILABLE, new Metadata());
+    // Every endpoint is tried once.
+    nextCall("third").listener.onClose(Status.UNAVAILABLE, new Metadata());
+    assertThat(listener.events).containsExactly("close UNAVAILABLE");
+    assertThat(channels.get("first").calls).isEmpty();
+  }
+
+  @Test
+  public void testNoRetryAfterResponse() throws InterruptedException {
+    startCall(FailoverOptions.newBuilder().build());
+    final FakeCall original = nextCall("first");
+    original.listener.onHeaders(new Metadata());
+    original.listener.onClose(Status.UNAVAILABLE, new Metadata());
+    assertThat(listener.events).containsExactly("headers", "close UNAVAILABLE").inOrder();
+    assertThat(channels.get("second").calls).isEmpty();
+  }
+
+  @Test
+  public void testNoRetryForOtherCodes() throws InterruptedException {
+    startCall(FailoverOptions.newBuilder().build());
+    nextCall("first").listener.onClose(Status.DEADLINE_EXCEEDED, new Metadata());
+    assertThat(listener.events).containsExactly("close DEADLINE_EXCEEDED");
+    assertThat(channels.get("second").calls).isEmpty();
+  }
+
+  @Test
+  public void testNoRetryWhenCancelled() throws InterruptedException {
+    final FailoverClientCall<ApiConfig, ApiConfig> call =
+        startCall(
+            FailoverOptions.newBuilder()
+                .setRetryableCodes(Status.Code.UNAVAILABLE, Status.Code.CANCELLED)
+                .build());
+    final FakeCall original = nextCall("first");
+    call.cancel("Cancelled by the test.", null);
+    assertThat(original.events).contains("cancel");
+    original.listener.onClose(Status.CANCELLED, new Metadata());
+    assertThat(listener.events).containsExactly("close CANCELLED");
+    assertThat(channels.get("second").calls).isEmpty();
+  }
+
+  @Test
+  public void testNoRetryWhenBufferExceeded() throws InterruptedException {
+    final FailoverClientCall<ApiConfig, ApiConfig> call =
+        startCall(FailoverOptions.newBuilder().setMaxBufferedMessages(1).build());
+    call.sendMessage(MESSAGE);
+    nextCall("first").listener.onClose(Status.UNAVAILABLE, new Metadata());
+    assertThat(listener.events).containsExactly("close UNAVAILABLE");
+    assertThat(channels.get("second").calls).isEmpty();
+  }
+}
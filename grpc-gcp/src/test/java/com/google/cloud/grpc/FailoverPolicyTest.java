@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.grpc.GcpMultiEndpointOptions.FailoverOptions;
+import io.grpc.Status;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FailoverPolicyTest {
+
+  @Test
+  public void testRetryableCodes() {
+    final FailoverPolicy policy =
+        new FailoverPolicy(
+            FailoverOptions.newBuilder()
+                .setRetryableCodes(Status.Code.UNAVAILABLE, Status.Code.RESOURCE_EXHAUSTED)
+                .build());
+    assertThat(policy.isRetryable(Status.Code.UNAVAILABLE)).isTrue();
+    assertThat(policy.isRetryable(Status.Code.RESOURCE_EXHAUSTED)).isTrue();
+    assertThat(policy.isRetryable(Status.Code.DEADLINE_EXCEEDED)).isFalse();
+
+    // Non-retryable failures neither retry nor take tokens.
+    assertThat(policy.onAttemptCompleted(Status.Code.DEADLINE_EXCEEDED)).isFalse();
+    assertThat(policy.getTokens()).isEqualTo(10.0);
+  }
+
+  @Test
+  public void testRetryBudget() {
+    final FailoverPolicy policy = new FailoverPolicy(FailoverOptions.newBuilder().build());
+
+    // Retries are allowed while more than half of the tokens are left.
+    for (int i = 0; i < 4; i++) {
+      assertThat(policy.onAttemptCompleted(Status.Code.UNAVAILABLE)).isTrue();
+    }
+    assertThat(policy.onAttemptCompleted(Status.Code.UNAVAILABLE)).isFalse();
+    assertThat(policy.getTokens()).isEqualTo(5.0);
+
+    // Every successful call adds 0.1 of a token.
+    for (int i = 0; i < 11; i++) {
+      assertThat(policy.onAttemptCompleted(Status.Code.OK)).isFalse();
+    }
+    assertThat(policy.getTokens()).isEqualTo(6.1);
+    assertThat(policy.onAttemptCompleted(Status.Code.UNAVAILABLE)).isTrue();
+    assertThat(policy.onAttemptCompleted(Status.Code.UNAVAILABLE)).isFalse();
+
+    // The bucket does not go below zero or above the maximum.
+    for (int i = 0; i < 100; i++) {
+      policy.onAttemptCompleted(Status.Code.UNAVAILABLE);
+    }
+    assertThat(policy.getTokens()).isEqualTo(0.0);
+    for (int i = 0; i < 1000; i++) {
+      policy.onAttemptCompleted(Status.Code.OK);
+    }
+    assertThat(policy.getTokens()).isEqualTo(10.0);
+  }
+
+  @Test
+  public void testOptionsEquality() {
+    final FailoverOptions options =
+        FailoverOptions.newBuilder().setRetryableCodes(Status.Code.UNAVAILABLE).build();
+    final FailoverOptions copy = FailoverOptions.newBuilder(options).build();
+    assertThat(copy).isNotSameAs(options);
+    assertThat(copy).isEqualTo(options);
+    assertThat(copy.hashCode()).isEqualTo(options.hashCode());
+    assertThat(FailoverOptions.newBuilder(options).setMaxAttempts(5).build())
+        .isNotEqualTo(options);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.annotation.Nullable;
+
+/** Fake calls and channels recording the call methods invoked, for tests of call wrappers. */
+class FakeClientCalls {
+
+  static final class FakeCall extends ClientCall<ApiConfig, ApiConfig> {
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    volatile Listener<ApiConfig> listener;
+    // If set, sendMessage blocks until the latch is released.
+    @Nullable private final CountDownLatch sendMessageLatch;
+
+    FakeCall(@Nullable CountDownLatch sendMessageLatch) {
+      this.sendMessageLatch = sendMessageLatch;
+    }
+
+    @Override
+    public void start(Listener<ApiConfig> listener, Metadata headers) {
+      this.listener = listener;
+      events.add("start");
+    }
+
+    @Override
+    public void request(int numMessages) {
+      events.add("request " + numMessages);
+    }
+
+    @Override
+    public void cancel(String message, Throwable cause) {
+      events.add("cancel");
+    }
+
+    @Override
+    public void halfClose() {
+      events.add("halfClose");
+    }
+
+    @Override
+    public void sendMessage(ApiConfig message) {
+      if (sendMessageLatch != null) {
+        Uninterruptibles.awaitUninterruptibly(sendMessageLatch);
+      }
+      events.add("sendMessage");
+    }
+  }
+
+  static final class FakeChannel extends Channel {
+    final BlockingQueue<FakeCall> calls = new LinkedBlockingQueue<>();
+    // Makes sendMessage of the new calls block until the latch is released.
+    @Nullable volatile CountDownLatch sendMessageLatch;
+
+    @Override
+    public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
+        MethodDescriptor<RequestT, ResponseT> methodDescriptor, CallOptions callOptions) {
+      final FakeCall call = new FakeCall(sendMessageLatch);
+      calls.add(call);
+      @SuppressWarnings("unchecked")
+      final ClientCall<RequestT, ResponseT> result = (ClientCall<RequestT, ResponseT>) call;
+      return result;
+    }
+
+    @Override
+    public String authority() {
+      return "localhost";
+    }
+  }
+
+  static final class RecordingListener extends ClientCall.Listener<ApiConfig> {
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void onHeaders(Metadata headers) {
+      events.add("headers");
+    }
+
+    @Override
+    public void onMessage(ApiConfig message) {
+      events.add("message");
+    }
+
+    @Override
+    public void onClose(Status status, Metadata trailers) {
+      events.add("close " + status.getCode());
+    }
+  }
+}
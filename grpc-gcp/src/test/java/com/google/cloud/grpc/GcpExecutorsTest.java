@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GcpExecutorsTest {
+
+  @Test
+  public void testSharedSchedulerCannotBeShutDown()
+      throws ExecutionException, InterruptedException, TimeoutException {
+    final ScheduledExecutorService scheduler = GcpExecutors.sharedScheduler();
+    assertThat(scheduler.schedule(() -> "done", 1, MILLISECONDS).get(1, SECONDS))
+        .isEqualTo("done");
+
+    assertThrows(UnsupportedOperationException.class, scheduler::shutdown);
+    assertThrows(UnsupportedOperationException.class, scheduler::shutdownNow);
+    assertThat(scheduler.isShutdown()).isFalse();
+    assertThat(GcpExecutors.defaultScheduler().isShutdown()).isFalse();
+  }
+}
@@ -20,6 +20,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.grpc.GcpManagedChannelOptions.GcpChannelPoolOptions;
@@ -29,7 +30,11 @@ import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
 import io.opencensus.metrics.MetricRegistry;
 import io.opencensus.metrics.Metrics;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -46,6 +51,7 @@ public final class GcpManagedChannelOptionsTest {
   private static final MetricRegistry metricRegistry = Metrics.getMetricRegistry();
   private static final int unresponsiveMs = 100;
   private static final int unresponsiveDroppedCount = 3;
+  private static final GcpChannelPoolStats.Listener statsListener = stats -> {};
 
   @Rule public ExpectedException exceptionRule = ExpectedException.none();
 
@@ -58,6 +64,7 @@ public final class GcpManagedChannelOptionsTest {
                     Collections.singletonList(LabelKey.create(labelName, labelDescription)),
                     Collections.singletonList(LabelValue.create(labelValue)))
                 .withMetricRegistry(metricRegistry)
+                .withStatsListener(statsListener)
                 .build())
         .withResiliencyOptions(
             GcpResiliencyOptions.newBuilder()
@@ -77,6 +84,7 @@ public final class GcpManagedChannelOptionsTest {
     GcpResiliencyOptions resOpts = opts.getResiliencyOptions();
     assertEquals(metricRegistry, metricsOpts.getMetricRegistry());
     assertEquals(namePrefix, metricsOpts.getNamePrefix());
+    assertEquals(statsListener, metricsOpts.getStatsListener());
     assertEquals(1, metricsOpts.getLabelKeys().size());
     assertEquals(1, metricsOpts.getLabelValues().size());
     assertEquals(labelName, metricsOpts.getLabelKeys().get(0).getKey());
@@ -136,6 +144,7 @@ public final class GcpManagedChannelOptionsTest {
     GcpResiliencyOptions resOpts = updatedOptions.getResiliencyOptions();
     assertEquals(metricRegistry, metricsOpts.getMetricRegistry());
     assertEquals(namePrefix, metricsOpts.getNamePrefix());
+    assertEquals(statsListener, metricsOpts.getStatsListener());
     assertEquals(1, metricsOpts.getLabelKeys().size());
     assertEquals(1, metricsOpts.getLabelValues().size());
     assertEquals(labelName, metricsOpts.getLabelKeys().get(0).getKey());
@@ -160,6 +169,7 @@ public final class GcpManagedChannelOptionsTest {
     resOpts = updatedOptions.getResiliencyOptions();
     assertEquals(metricRegistry, metricsOpts.getMetricRegistry());
     assertEquals(namePrefix, metricsOpts.getNamePrefix());
+    assertEquals(statsListener, metricsOpts.getStatsListener());
     assertEquals(1, metricsOpts.getLabelKeys().size());
     assertEquals(1, metricsOpts.getLabelValues().size());
     assertEquals(labelName, metricsOpts.getLabelKeys().get(0).getKey());
@@ -171,6 +181,49 @@ public final class GcpManagedChannelOptionsTest {
     assertEquals(unresponsiveDroppedCount, resOpts.getUnresponsiveDetectionDroppedCount());
   }
 
+  @Test
+  public void testSubPoolOptions() {
+    final GcpChannelPoolOptions subPoolOptions =
+        GcpChannelPoolOptions.newBuilder().setMaxSize(2).setMinSize(1).build();
+    final GcpChannelPoolOptions poolOptions =
+        GcpChannelPoolOptions.newBuilder().addSubPool("streaming", subPoolOptions).build();
+    assertThat(poolOptions.getSubPools()).containsExactly("streaming", subPoolOptions);
+    assertThat(GcpChannelPoolOptions.newBuilder(poolOptions).build().getSubPools())
+        .containsExactly("streaming", subPoolOptions);
+    assertThat(GcpChannelPoolOptions.newBuilder().build().getSubPools()).isEmpty();
+
+    exceptionRule.expect(IllegalArgumentException.class);
+    exceptionRule.expectMessage("Sub-pools cannot have sub-pools.");
+    GcpChannelPoolOptions.newBuilder().addSubPool("nested", poolOptions);
+  }
+
+  @Test
+  public void testExecutorOptions() {
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    final Executor executor = Runnable::run;
+    try {
+      final GcpManagedChannelOptions opts =
+          GcpManagedChannelOptions.newBuilder()
+              .withScheduledExecutorService(scheduler)
+              .withExecutor(executor)
+              .build();
+      assertEquals(scheduler, opts.getScheduledExecutorService());
+      assertEquals(executor, opts.getExecutor());
+
+      final GcpManagedChannelOptions rebuilt =
+          GcpManagedChannelOptions.newBuilder(opts)
+              .withResiliencyOptions(GcpResiliencyOptions.newBuilder().build())
+              .build();
+      assertEquals(scheduler, rebuilt.getScheduledExecutorService());
+      assertEquals(executor, rebuilt.getExecutor());
+
+      assertNull(buildOptions().getScheduledExecutorService());
+      assertNull(buildOptions().getExecutor());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
   @Test
   public void testPoolOptions() {
     final GcpManagedChannelOptions opts = GcpManagedChannelOptions.newBuilder()
@@ -180,6 +233,14 @@ public final class GcpManagedChannelOptionsTest {
                 .setMinSize(2)
                 .setConcurrentStreamsLowWatermark(10)
                 .setUseRoundRobinOnBind(true)
+                .setIdleTimeout(Duration.ofMinutes(5))
+                .setPrewarmChannels(true)
+                .setPredictiveScalingEnabled(true)
+                .setAffinityKeyTtl(Duration.ofHours(2))
+                .setMaxAffinityKeys(1000)
+                .setExtractBindKeysFromBytes(true)
+                .setMaxChannelAge(Duration.ofHours(1))
+                .setMaxChannelAgeJitter(Duration.ofMinutes(10))
                 .build()
         )
         .build();
@@ -190,5 +251,24 @@ public final class GcpManagedChannelOptionsTest {
     assertThat(channelPoolOptions.getMinSize()).isEqualTo(2);
     assertThat(channelPoolOptions.getConcurrentStreamsLowWatermark()).isEqualTo(10);
     assertThat(channelPoolOptions.isUseRoundRobinOnBind()).isTrue();
+    assertThat(channelPoolOptions.getIdleTimeout()).isEqualTo(Duration.ofMinutes(5));
+    assertThat(channelPoolOptions.isPrewarmChannels()).isTrue();
+    assertThat(channelPoolOptions.isPredictiveScalingEnabled()).isTrue();
+    assertThat(channelPoolOptions.getAffinityKeyTtl()).isEqualTo(Duration.ofHours(2));
+    assertThat(channelPoolOptions.getMaxAffinityKeys()).isEqualTo(1000);
+    assertThat(channelPoolOptions.isExtractBindKeysFromBytes()).isTrue();
+    assertThat(channelPoolOptions.getMaxChannelAge()).isEqualTo(Duration.ofHours(1));
+    assertThat(channelPoolOptions.getMaxChannelAgeJitter()).isEqualTo(Duration.ofMinutes(10));
+    assertThat(channelPoolOptions.getChannelPickStrategy())
+        .isEqualTo(GcpChannelPoolOptions.ChannelPickStrategy.LEAST_BUSY);
+
+    GcpChannelPoolOptions updatedOptions =
+        GcpChannelPoolOptions.newBuilder(channelPoolOptions)
+            .setChannelPickStrategy(GcpChannelPoolOptions.ChannelPickStrategy.POWER_OF_TWO_CHOICES)
+            .build();
+    assertThat(updatedOptions.getMaxSize()).isEqualTo(5);
+    assertThat(updatedOptions.getMaxChannelAge()).isEqualTo(Duration.ofHours(1));
+    assertThat(updatedOptions.getChannelPickStrategy())
+        .isEqualTo(GcpChannelPoolOptions.ChannelPickStrategy.POWER_OF_TWO_CHOICES);
   }
 }
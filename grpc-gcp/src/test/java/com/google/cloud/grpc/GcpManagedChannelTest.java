@@ -32,29 +32,48 @@ import com.google.cloud.grpc.proto.AffinityConfig;
 import com.google.cloud.grpc.proto.ApiConfig;
 import com.google.cloud.grpc.proto.ChannelPoolConfig;
 import com.google.cloud.grpc.proto.MethodConfig;
+import com.google.common.base.Strings;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedInputStream;
 import com.google.spanner.v1.PartitionReadRequest;
 import com.google.spanner.v1.TransactionSelector;
 import io.grpc.CallOptions;
 import io.grpc.ClientCall;
 import io.grpc.ConnectivityState;
+import io.grpc.KnownLength;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.Status;
 import io.grpc.Status.Code;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
 import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -310,6 +329,168 @@ public final class GcpManagedChannelTest {
     assertEquals(6, gcpChannel.getChannelRef(null).getAffinityCount());
   }
 
+  @Test
+  public void testGetChannelRefPowerOfTwoChoices() {
+    final int maxSize = 5;
+    final int lowWatermark = 3;
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(maxSize)
+                                .setConcurrentStreamsLowWatermark(lowWatermark)
+                                .setChannelPickStrategy(
+                                    GcpChannelPoolOptions.ChannelPickStrategy.POWER_OF_TWO_CHOICES)
+                                .build())
+                        .build())
+                .build();
+    try {
+      // The pool grows only when every channel has reached the low watermark.
+      for (int i = 0; i < maxSize * lowWatermark; i++) {
+        pool.getChannelRef(null).activeStreamsCountIncr();
+        assertThat(pool.getNumberOfChannels()).isEqualTo(i / lowWatermark + 1);
+      }
+      assertThat(pool.getMinActiveStreams()).isEqualTo(lowWatermark);
+      assertThat(pool.getMaxActiveStreams()).isEqualTo(lowWatermark);
+
+      // Make channel 2 the busiest. It must never be picked as the least busy of any two channels.
+      for (int i = 0; i < 10; i++) {
+        pool.channelRefs.get(2).activeStreamsCountIncr();
+      }
+      for (int i = 0; i < 100; i++) {
+        assertThat(pool.getChannelRef(null).getId()).isNotEqualTo(2);
+      }
+      assertThat(pool.getNumberOfChannels()).isEqualTo(maxSize);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testGetChannelRefWithChannelPicker() {
+    final int maxSize = 3;
+    final int lowWatermark = 2;
+    final List<String> pickedFor = new ArrayList<>();
+    // Always picks the last channel in the pool.
+    final ChannelPicker lastChannel =
+        (channels, methodName, affinityKey) -> {
+          pickedFor.add(methodName + "|" + affinityKey);
+          return channels.get(channels.size() - 1);
+        };
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(maxSize)
+                                .setConcurrentStreamsLowWatermark(lowWatermark)
+                                .setChannelPicker(lastChannel)
+                                .build())
+                        .build())
+                .build();
+    try {
+      // The first channel is created without asking the picker.
+      final ChannelRef first = pool.getChannelRef(null, "service/Method");
+      assertThat(pickedFor).isEmpty();
+      assertThat(pool.getChannelRef(null, "service/Method")).isSameAs(first);
+      assertThat(pickedFor).containsExactly("service/Method|null");
+
+      // The pool grows only when every channel has reached the low watermark.
+      first.activeStreamsCountIncr();
+      first.activeStreamsCountIncr();
+      final ChannelRef second = pool.getChannelRef("key");
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+      assertThat(pickedFor).containsExactly("service/Method|null", "null|key").inOrder();
+      second.activeStreamsCountIncr();
+      second.activeStreamsCountIncr();
+      for (int i = 0; i < 2; i++) {
+        first.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+      }
+      // The picked channel reached the watermark, but the first channel has not.
+      assertThat(pool.getChannelRef(null)).isSameAs(first);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testLatencyEwma() {
+    final ChannelRef channelRef = gcpChannel.new ChannelRef(builder.build(), 1, 0, 3);
+    assertThat(channelRef.getLatencyEwmaNanos()).isEqualTo(0);
+
+    final long now = System.nanoTime();
+    channelRef.activeStreamsCountDecr(now - 1_000_000_000L, Status.OK, false);
+    final long first = channelRef.getLatencyEwmaNanos();
+    assertThat(first).isAtLeast(1_000_000_000L);
+
+    // Client side cancellations do not count.
+    channelRef.activeStreamsCountDecr(now - 5_000_000_000L, Status.CANCELLED, true);
+    assertThat(channelRef.getLatencyEwmaNanos()).isEqualTo(first);
+
+    // A faster call moves the average towards it.
+    channelRef.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+    assertThat(channelRef.getLatencyEwmaNanos()).isLessThan(first);
+    assertThat(channelRef.getLatencyEwmaNanos()).isGreaterThan(first / 2);
+  }
+
+  @Test
+  public void testPeakEwma() {
+    final ChannelRef channelRef = gcpChannel.new ChannelRef(builder.build(), 1, 0, 0);
+    assertThat(channelRef.getFirstMessageLatencyEwmaNanos()).isEqualTo(0);
+    assertThat(channelRef.getPeakLatencyEwmaNanos()).isEqualTo(0);
+
+    channelRef.firstMessageReceived(System.nanoTime() - 1_000_000_000L);
+    assertThat(channelRef.getFirstMessageLatencyEwmaNanos()).isAtLeast(1_000_000_000L);
+    assertThat(channelRef.getPeakLatencyEwmaNanos()).isGreaterThan(900_000_000L);
+
+    // A fast call lowers the EWMA, while the peak EWMA keeps the slow sample until it decays.
+    channelRef.firstMessageReceived(System.nanoTime());
+    assertThat(channelRef.getFirstMessageLatencyEwmaNanos()).isLessThan(800_000_000L);
+    assertThat(channelRef.getPeakLatencyEwmaNanos()).isGreaterThan(900_000_000L);
+
+    // A slow call raises the peak EWMA at once.
+    channelRef.firstMessageReceived(System.nanoTime() - 3_000_000_000L);
+    assertThat(channelRef.getPeakLatencyEwmaNanos()).isGreaterThan(2_900_000_000L);
+  }
+
+  @Test
+  public void testPeakEwmaPickStrategy() {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(2)
+                                .setConcurrentStreamsLowWatermark(0)
+                                .setChannelPickStrategy(
+                                    GcpChannelPoolOptions.ChannelPickStrategy.PEAK_EWMA)
+                                .build())
+                        .build())
+                .build();
+    try {
+      final ChannelRef slow = pool.getChannelRef(null);
+      final ChannelRef fast = pool.getChannelRef(null);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+      slow.firstMessageReceived(System.nanoTime() - 1_000_000_000L);
+      fast.firstMessageReceived(System.nanoTime() - 1_000_000L);
+      // The slow channel is avoided even when it is less busy.
+      for (int i = 0; i < 5; i++) {
+        assertThat(pool.getChannelRef(null)).isSameAs(fast);
+        fast.activeStreamsCountIncr();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   private void assertFallbacksMetric(
       FakeMetricRegistry fakeRegistry, long successes, long failures) {
     MetricsRecord record = fakeRegistry.pollRecord();
@@ -523,15 +704,577 @@ public final class GcpManagedChannelTest {
   }
 
   @Test
-  public void testGetChannelRefMaxSize() {
-    resetGcpChannel();
-    for (int i = 0; i < MAX_CHANNEL; i++) {
-      ManagedChannel channel = builder.build();
-      gcpChannel.channelRefs.add(gcpChannel.new ChannelRef(channel, i, i, MAX_STREAM));
+  public void testGetChannelRefMaxSize() {
+    resetGcpChannel();
+    for (int i = 0; i < MAX_CHANNEL; i++) {
+      ManagedChannel channel = builder.build();
+      gcpChannel.channelRefs.add(gcpChannel.new ChannelRef(channel, i, i, MAX_STREAM));
+    }
+    assertEquals(MAX_CHANNEL, gcpChannel.channelRefs.size());
+    assertEquals(MAX_STREAM, gcpChannel.getChannelRef(null).getActiveStreamsCount());
+    assertEquals(MAX_CHANNEL, gcpChannel.channelRefs.size());
+  }
+
+  @Test
+  public void testIdleChannelsRemoval() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(3)
+                                .setMinSize(1)
+                                .setConcurrentStreamsLowWatermark(1)
+                                .setIdleTimeout(Duration.ofMillis(50))
+                                .build())
+                        .build())
+                .build();
+    try {
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+      // Grow the pool to its max size.
+      final List<ChannelRef> refs = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        ChannelRef ref = pool.getChannelRef(null);
+        ref.activeStreamsCountIncr();
+        refs.add(ref);
+      }
+      assertThat(pool.getNumberOfChannels()).isEqualTo(3);
+
+      // Busy channels are not removed.
+      TimeUnit.MILLISECONDS.sleep(100);
+      pool.removeIdleChannels();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(3);
+
+      // Channel 1 has an affinity key bound, channels 0 and 2 become idle.
+      pool.bind(refs.get(1), Collections.singletonList("key"));
+      for (ChannelRef ref : refs) {
+        ref.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+      }
+      TimeUnit.MILLISECONDS.sleep(100);
+      pool.removeIdleChannels();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(refs.get(2).getChannel().isShutdown()).isTrue();
+      assertThat(refs.get(0).getChannel().isShutdown()).isTrue();
+      assertThat(refs.get(1).getChannel().isShutdown()).isFalse();
+      assertThat(pool.channelRefs.get(0)).isSameAs(refs.get(1));
+      assertThat(pool.getChannelRef("key")).isSameAs(refs.get(1));
+
+      // After unbinding channel 1 is idle, but the pool must keep at least minSize channels.
+      pool.unbind(Collections.singletonList("key"));
+      TimeUnit.MILLISECONDS.sleep(100);
+      pool.removeIdleChannels();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(refs.get(1).getChannel().isShutdown()).isFalse();
+
+      // The pool can grow again and ids of the removed channels are not reused.
+      pool.getChannelRef(null).activeStreamsCountIncr();
+      assertThat(pool.getChannelRef(null).getId()).isEqualTo(3);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testIdleChannelsRemovalKeepsPickedChannels() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(2)
+                                .setConcurrentStreamsLowWatermark(1)
+                                .setIdleTimeout(Duration.ofMillis(50))
+                                .build())
+                        .build())
+                .build();
+    final MethodDescriptor.Marshaller<ApiConfig> marshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final MethodDescriptor<ApiConfig, ApiConfig> method =
+        MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("google.spanner.v1.Spanner/ExecuteSql")
+            .setRequestMarshaller(marshaller)
+            .setResponseMarshaller(marshaller)
+            .build();
+    try {
+      final ChannelRef first = pool.getChannelRefForStream(null, null);
+      final ChannelRef second = pool.getChannelRefForStream(null, null);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+      second.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+      TimeUnit.MILLISECONDS.sleep(100);
+
+      // The second channel is picked by a call which has not started yet. The stream of the call
+      // is not counted until it starts, but the channel is not idle.
+      final ClientCall<ApiConfig, ApiConfig> call = pool.newCall(method, CallOptions.DEFAULT);
+      assertThat(second.getActiveStreamsCount()).isEqualTo(0);
+      pool.removeIdleChannels();
+      assertThat(pool.channelRefs).containsExactly(first, second);
+
+      // A call cancelled before it starts leaves no stream behind.
+      call.cancel("cancelled", null);
+      assertThat(second.getActiveStreamsCount()).isEqualTo(0);
+
+      // Once the pick is older than the idle timeout, the channel is removed.
+      TimeUnit.MILLISECONDS.sleep(100);
+      pool.removeIdleChannels();
+      assertThat(pool.channelRefs).containsExactly(first);
+      assertThat(second.getChannel().isShutdown()).isTrue();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRemovedChannelDrainsPickedCalls() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(2)
+                                .setConcurrentStreamsLowWatermark(1)
+                                .build())
+                        .build())
+                .build();
+    try {
+      // A call counts its stream on the channel when it starts.
+      final ChannelRef picked = pool.getChannelRefForStream(null, null);
+      assertThat(picked.getActiveStreamsCount()).isEqualTo(1);
+      // The channel is removed from the pool while the call is in progress and is not shut down
+      // under the call.
+      assertThat(pool.retireChannel(picked)).isTrue();
+      assertThat(picked.getChannel().isShutdown()).isFalse();
+      picked.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+      assertThat(picked.getChannel().isShutdown()).isTrue();
+
+      // A call which picked an idle channel right before its removal picks another channel.
+      final ChannelRef idle = pool.getChannelRef(null);
+      assertThat(pool.retireChannel(idle)).isTrue();
+      assertThat(idle.getChannel().isShutdown()).isTrue();
+      assertThat(idle.tryActiveStreamsCountIncr()).isFalse();
+      assertThat(idle.getActiveStreamsCount()).isEqualTo(0);
+      final ChannelRef repicked = pool.getChannelRefForStream(null, null);
+      assertThat(repicked).isNotSameAs(idle);
+      assertThat(repicked.isRetired()).isFalse();
+      assertThat(repicked.getActiveStreamsCount()).isEqualTo(1);
+
+      // Draining channels are shut down with the pool.
+      assertThat(pool.retireChannel(repicked)).isTrue();
+      pool.shutdownNow();
+      assertThat(repicked.getChannel().isShutdown()).isTrue();
+      assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPrewarmChannels() {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(2)
+                                .setConcurrentStreamsLowWatermark(4)
+                                .setPrewarmChannels(true)
+                                .build())
+                        .build())
+                .build();
+    try {
+      // No pre-warming until the pool is close to the low watermark.
+      for (int i = 0; i < 4; i++) {
+        assertThat(pool.prewarmedChannel).isNull();
+        pool.getChannelRef(null).activeStreamsCountIncr();
+      }
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+      final ManagedChannel prewarmed = pool.prewarmedChannel;
+      assertThat(prewarmed).isNotNull();
+
+      // The pre-warmed channel is added to the pool when the pool grows.
+      final ChannelRef newChannel = pool.getChannelRef(null);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+      assertThat(newChannel.getChannel()).isSameAs(prewarmed);
+
+      // Nothing is pre-warmed when the pool is at its max size.
+      for (int i = 0; i < 8; i++) {
+        pool.getChannelRef(null).activeStreamsCountIncr();
+      }
+      assertThat(pool.prewarmedChannel).isNull();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPrewarmedChannelShutdown() {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(2)
+                                .setConcurrentStreamsLowWatermark(1)
+                                .setPrewarmChannels(true)
+                                .build())
+                        .build())
+                .build();
+    // The first channel is created right away, the second pick triggers pre-warming.
+    pool.getChannelRef(null);
+    pool.getChannelRef(null);
+    final ManagedChannel prewarmed = pool.prewarmedChannel;
+    assertThat(prewarmed).isNotNull();
+    pool.shutdown();
+    assertThat(prewarmed.isShutdown()).isTrue();
+    assertThat(pool.prewarmedChannel).isNull();
+  }
+
+  @Test
+  public void testAwaitReady() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(
+                    ManagedChannelBuilder.forAddress("localhost", 1).usePlaintext())
+                .build();
+    try {
+      assertThat(pool.getNumberOfChannels()).isEqualTo(0);
+      // Nothing is listening on the port, so the channel cannot become ready.
+      assertThat(pool.awaitReady(Duration.ofMillis(200))).isFalse();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(pool.channelRefs.get(0).getChannel().getState(false))
+          .isNotEqualTo(ConnectivityState.IDLE);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAwaitReadyWithSubPools() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(
+                    ManagedChannelBuilder.forAddress("localhost", 1).usePlaintext())
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .addSubPool(
+                                    "streaming", GcpChannelPoolOptions.newBuilder().build())
+                                .build())
+                        .build())
+                .build();
+    try {
+      final GcpManagedChannel subPool = pool.getSubPool("streaming");
+      assertNotNull(subPool);
+      assertThat(subPool.getNumberOfChannels()).isEqualTo(0);
+      assertThat(pool.awaitReady(Duration.ofMillis(200))).isFalse();
+      // The sub-pool gets its first channel and connects too.
+      assertThat(subPool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(subPool.channelRefs.get(0).getChannel().getState(false))
+          .isNotEqualTo(ConnectivityState.IDLE);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPredictiveScaling() {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(5)
+                                .setMinSize(1)
+                                .setConcurrentStreamsLowWatermark(2)
+                                .setPredictiveScalingEnabled(true)
+                                .build())
+                        .build())
+                .build();
+    try {
+      assertThat(pool.autoscaler).isNotNull();
+      pool.autoscale();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+
+      // The pool grows to fit the demand without waiting for new calls.
+      final ChannelRef ref = pool.channelRefs.get(0);
+      for (int i = 0; i < 6; i++) {
+        ref.activeStreamsCountIncr();
+      }
+      pool.autoscale();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(3);
+      assertThat(pool.autoscaler.getTargetSize()).isEqualTo(3);
+
+      // And shrinks only after the demand stays low.
+      for (int i = 0; i < 6; i++) {
+        ref.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+      }
+      pool.autoscale();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(3);
+      for (int i = 0; i < 100; i++) {
+        pool.autoscale();
+      }
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(pool.channelRefs.get(0)).isSameAs(ref);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testChannelRecycling() throws InterruptedException {
+    final GcpChannelPoolOptions poolOptions =
+        GcpChannelPoolOptions.newBuilder()
+            .setMaxSize(2)
+            .setMinSize(2)
+            .setMaxChannelAge(Duration.ofHours(1))
+            .build();
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(poolOptions)
+                        .build())
+                .build();
+    pool.channelWarmupTimeout = Duration.ofMillis(50);
+    try {
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+      final ChannelRef old = pool.channelRefs.get(0);
+      pool.bind(old, Collections.singletonList("key"));
+      old.activeStreamsCountIncr();
+
+      pool.recycleChannel(old);
+      for (int i = 0; i < 100 && !old.isRetired(); i++) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+
+      // The replacement takes the place of the old channel along with its affinity keys.
+      assertThat(old.isRetired()).isTrue();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(2);
+      final ChannelRef replacement = pool.channelRefs.get(0);
+      assertThat(replacement.getId()).isEqualTo(2);
+      assertThat(replacement.getAffinityCount()).isEqualTo(1);
+      assertThat(pool.getChannelRef("key")).isSameAs(replacement);
+      assertThat(old.getAffinityCount()).isEqualTo(0);
+      // The old channel is draining and is shut down once its stream completes.
+      assertThat(old.getChannel().isShutdown()).isFalse();
+      assertThat(old.getActiveStreamsCount()).isEqualTo(1);
+      old.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+      assertThat(old.getChannel().isShutdown()).isTrue();
+
+      // Recycling a channel which is not in the pool is a no-op.
+      pool.recycleChannel(old);
+      TimeUnit.MILLISECONDS.sleep(100);
+      assertThat(pool.channelRefs.get(0)).isSameAs(replacement);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    // Channels are recycled automatically when reaching their max age.
+    final GcpManagedChannel agingPool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder(poolOptions)
+                                .setMaxChannelAge(Duration.ofMillis(100))
+                                .setMaxChannelAgeJitter(Duration.ofMillis(50))
+                                .build())
+                        .build())
+                .build();
+    agingPool.channelWarmupTimeout = Duration.ofMillis(10);
+    try {
+      final List<ChannelRef> initial = new ArrayList<>(agingPool.channelRefs);
+      TimeUnit.MILLISECONDS.sleep(500);
+      assertThat(agingPool.getNumberOfChannels()).isEqualTo(2);
+      for (ChannelRef ref : initial) {
+        assertThat(ref.isRetired()).isTrue();
+        assertThat(agingPool.channelRefs).doesNotContain(ref);
+      }
+    } finally {
+      agingPool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testShutdownWithWarmingChannel() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(
+                    ManagedChannelBuilder.forAddress("localhost", 1).usePlaintext())
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMinSize(1)
+                                .setMaxChannelAge(Duration.ofHours(1))
+                                .build())
+                        .build())
+                .build();
+    try {
+      final ChannelRef old = pool.channelRefs.get(0);
+      // Nothing is listening on the port, so the replacement waits for the warm-up timeout.
+      pool.recycleChannel(old);
+      final ManagedChannel replacement;
+      final ScheduledFuture<?> warmupTimeout;
+      synchronized (pool) {
+        assertThat(pool.warmingChannels).hasSize(1);
+        replacement = pool.warmingChannels.keySet().iterator().next();
+        warmupTimeout = pool.warmingChannels.get(replacement);
+      }
+
+      // The replacement and its warm-up timeout are shut down with the pool.
+      pool.shutdown();
+      assertThat(warmupTimeout.isCancelled()).isTrue();
+      assertThat(replacement.isShutdown()).isTrue();
+      assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(replacement.isTerminated()).isTrue();
+      assertThat(pool.isTerminated()).isTrue();
+      assertThat(old.isRetired()).isFalse();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReplaceChannelUnderLoad() throws Exception {
+    final int poolSize = 4;
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(poolSize)
+                                .setMinSize(poolSize)
+                                .build())
+                        .build())
+                .build();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    try {
+      assertThat(pool.getNumberOfChannels()).isEqualTo(poolSize);
+      for (int t = 0; t < 4; t++) {
+        final String key = t % 2 == 0 ? "key" + t : null;
+        executor.execute(
+            () -> {
+              try {
+                while (!done.get()) {
+                  ChannelRef ref = pool.getChannelRef(key);
+                  if (key != null && !ref.isRetired()) {
+                    pool.bind(ref, Collections.singletonList(key));
+                  }
+                  ref.activeStreamsCountIncr();
+                  ref.activeStreamsCountDecr(System.nanoTime(), Status.OK, false);
+                }
+              } catch (Throwable e) {
+                error.set(e);
+              }
+            });
+      }
+
+      final List<ChannelRef> replaced = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        ChannelRef old = pool.channelRefs.get(i % poolSize);
+        assertThat(pool.replaceChannel(old)).isNotNull();
+        replaced.add(old);
+        TimeUnit.MILLISECONDS.sleep(5);
+      }
+      done.set(true);
+      executor.shutdown();
+      assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(error.get()).isNull();
+
+      // Replacing a channel which is not in the pool is a no-op.
+      assertThat(pool.replaceChannel(replaced.get(0))).isNull();
+      assertThat(pool.getNumberOfChannels()).isEqualTo(poolSize);
+      for (ChannelRef old : replaced) {
+        assertThat(old.isRetired()).isTrue();
+        assertThat(old.getChannel().isShutdown()).isTrue();
+        assertThat(pool.channelRefs).doesNotContain(old);
+      }
+      // Ids are unique and all bound keys point to live channels with consistent affinity counts.
+      final Map<Integer, Integer> affinityCounts = new HashMap<>();
+      for (ChannelRef ref : pool.channelRefs) {
+        assertThat(affinityCounts.put(ref.getId(), 0)).isNull();
+        assertThat(ref.getId()).isAtLeast(poolSize);
+      }
+      for (ChannelRef ref : pool.affinityKeyToChannelRef.values()) {
+        if (!ref.isRetired()) {
+          assertThat(pool.channelRefs).contains(ref);
+          affinityCounts.merge(ref.getId(), 1, Integer::sum);
+        }
+      }
+      for (ChannelRef ref : pool.channelRefs) {
+        assertThat(ref.getAffinityCount()).isEqualTo(affinityCounts.get(ref.getId()));
+        assertThat(ref.getActiveStreamsCount()).isEqualTo(0);
+      }
+    } finally {
+      done.set(true);
+      executor.shutdownNow();
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAffinityKeysEviction() throws InterruptedException {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(2)
+                                .setAffinityKeyTtl(Duration.ofMillis(50))
+                                .setMaxAffinityKeys(2)
+                                .build())
+                        .build())
+                .build();
+    try {
+      final ChannelRef ref = pool.getChannelRef(null);
+      pool.bind(ref, Arrays.asList("key1", "key2"));
+      assertThat(ref.getAffinityCount()).isEqualTo(2);
+
+      // Exceeding the max number of keys evicts the least recently used key on the maintenance
+      // executor.
+      TimeUnit.MILLISECONDS.sleep(1);
+      assertThat(pool.getChannelRef("key1")).isSameAs(ref);
+      pool.bind(ref, Collections.singletonList("key3"));
+      for (int i = 0; i < 20 && pool.affinityKeyToChannelRef.size() > 2; i++) {
+        TimeUnit.MILLISECONDS.sleep(1);
+      }
+      assertThat(pool.affinityKeyToChannelRef.size()).isEqualTo(2);
+      assertThat(pool.affinityKeyToChannelRef.get("key2")).isNull();
+      assertThat(ref.getAffinityCount()).isEqualTo(2);
+
+      // Keys not used for the TTL are evicted.
+      for (int i = 0; i < 40 && pool.affinityKeyToChannelRef.size() > 0; i++) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      assertThat(pool.affinityKeyToChannelRef.size()).isEqualTo(0);
+      assertThat(ref.getAffinityCount()).isEqualTo(0);
+      assertThat(pool.affinityKeyToChannelRef.getEvictedCount()).isEqualTo(3);
+    } finally {
+      pool.shutdownNow();
     }
-    assertEquals(MAX_CHANNEL, gcpChannel.channelRefs.size());
-    assertEquals(MAX_STREAM, gcpChannel.getChannelRef(null).getActiveStreamsCount());
-    assertEquals(MAX_CHANNEL, gcpChannel.channelRefs.size());
   }
 
   @Test
@@ -622,6 +1365,152 @@ public final class GcpManagedChannelTest {
     assertThat(channelRef.getId()).isEqualTo(2);
   }
 
+  @Test
+  public void testMultiKeyRouting() {
+    ChannelRef cf1 = gcpChannel.new ChannelRef(builder.build(), 1, 0, 5);
+    ChannelRef cf2 = gcpChannel.new ChannelRef(builder.build(), 2, 0, 4);
+    gcpChannel.channelRefs.add(cf1);
+    gcpChannel.channelRefs.add(cf2);
+    gcpChannel.bind(cf1, Collections.singletonList("key1"));
+    gcpChannel.bind(cf2, Arrays.asList("key2", "key3"));
+
+    final List<String> keys = Arrays.asList("key1", "key2", "unbound", "key3");
+    final AffinityConfig firstKey =
+        AffinityConfig.newBuilder()
+            .setCommand(AffinityConfig.Command.BOUND)
+            .setMultiKeyStrategy(AffinityConfig.MultiKeyStrategy.FIRST_KEY)
+            .build();
+    assertThat(gcpChannel.getRoutingKey(keys, firstKey)).isEqualTo("key1");
+
+    final AffinityConfig majority =
+        firstKey.toBuilder()
+            .setMultiKeyStrategy(AffinityConfig.MultiKeyStrategy.MAJORITY_CHANNEL)
+            .build();
+    assertThat(gcpChannel.getChannelRef(gcpChannel.getRoutingKey(keys, majority)).getId())
+        .isEqualTo(2);
+    // Falls back to the first key if no key is bound.
+    assertThat(gcpChannel.getRoutingKey(Arrays.asList("unbound1", "unbound2"), majority))
+        .isEqualTo("unbound1");
+    assertThat(gcpChannel.getRoutingKey(Collections.emptyList(), majority)).isNull();
+    assertThat(gcpChannel.getRoutingKey(null, majority)).isNull();
+  }
+
+  @Test
+  public void testMultiKeyUnbindIsNotRejected() {
+    final String keyPath = "method.affinity.affinity_key";
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withApiConfig(
+                    ApiConfig.newBuilder()
+                        .addMethod(
+                            MethodConfig.newBuilder()
+                                .addName("test.Service/Bound")
+                                .setAffinity(
+                                    AffinityConfig.newBuilder()
+                                        .setCommand(AffinityConfig.Command.BOUND)
+                                        .setAffinityKey(keyPath)))
+                        .addMethod(
+                            MethodConfig.newBuilder()
+                                .addName("test.Service/Unbind")
+                                .setAffinity(
+                                    AffinityConfig.newBuilder()
+                                        .setCommand(AffinityConfig.Command.UNBIND)
+                                        .setAffinityKey(keyPath)))
+                        .build())
+                .build();
+    final MethodDescriptor.Marshaller<ApiConfig> marshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final MethodDescriptor<ApiConfig, ApiConfig> bound =
+        MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Bound")
+            .setRequestMarshaller(marshaller)
+            .setResponseMarshaller(marshaller)
+            .build();
+    final MethodDescriptor<ApiConfig, ApiConfig> unbind =
+        bound.toBuilder().setFullMethodName("test.Service/Unbind").build();
+    final ApiConfig request =
+        ApiConfig.newBuilder()
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key1")))
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key2")))
+            .build();
+    try {
+      // The default REJECT strategy fails BOUND requests with multiple keys.
+      Assert.assertThrows(
+          IllegalStateException.class, () -> pool.checkKeys(request, true, bound));
+      // UNBIND requests unbind all their keys regardless of the strategy.
+      assertThat(pool.checkKeys(request, true, unbind)).containsExactly("key1", "key2").inOrder();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testBindDistributed() {
+    // The pool is full, so the keys are distributed over the existing channels.
+    gcpChannel =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder().setMaxSize(3).build())
+                        .build())
+                .build();
+    ChannelRef cf1 = gcpChannel.new ChannelRef(builder.build(), 1, 0, 5);
+    ChannelRef cf2 = gcpChannel.new ChannelRef(builder.build(), 2, 0, 4);
+    ChannelRef cf3 = gcpChannel.new ChannelRef(builder.build(), 3, 0, 0);
+    gcpChannel.channelRefs.add(cf1);
+    gcpChannel.channelRefs.add(cf2);
+    gcpChannel.channelRefs.add(cf3);
+    gcpChannel.bind(cf1, Arrays.asList("key1", "key2"));
+
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      keys.add("session" + i);
+    }
+    gcpChannel.bindDistributed(keys);
+
+    assertThat(cf1.getAffinityCount()).isEqualTo(3);
+    assertThat(cf2.getAffinityCount()).isEqualTo(3);
+    assertThat(cf3.getAffinityCount()).isEqualTo(3);
+    assertThat(gcpChannel.affinityKeyToChannelRef.size()).isEqualTo(9);
+  }
+
+  @Test
+  public void testBindDistributedGrowsPool() {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder().setMaxSize(3).build())
+                        .build())
+                .build();
+    try {
+      pool.getChannelRef(null);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+
+      pool.bindDistributed(
+          Arrays.asList("session0", "session1", "session2", "session3", "session4", "session5"));
+
+      // New channels are created for the keys up to the max size of the pool.
+      assertThat(pool.getNumberOfChannels()).isEqualTo(3);
+      for (ChannelRef channelRef : pool.channelRefs) {
+        assertThat(channelRef.getAffinityCount()).isEqualTo(2);
+      }
+      assertThat(pool.affinityKeyToChannelRef.size()).isEqualTo(6);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   @Test
   public void testGetKeysFromRequest() {
     String expected = "thisisaname";
@@ -639,6 +1528,380 @@ public final class GcpManagedChannelTest {
     assertEquals(0, result.size());
   }
 
+  @Test
+  public void testAffinityKeyExtractor() {
+    PartitionReadRequest req =
+        PartitionReadRequest.newBuilder()
+            .setSession("thisisaname")
+            .setTable("jenny")
+            .setTransaction(TransactionSelector.getDefaultInstance())
+            .addColumns("users")
+            .build();
+    ApiConfig apiConfig =
+        ApiConfig.newBuilder()
+            .setChannelPool(ChannelPoolConfig.newBuilder().setMaxSize(3))
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .addName("method1")
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key1")))
+            .addMethod(MethodConfig.newBuilder().addName("method2"))
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .addName("method3")
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key3")))
+            .build();
+
+    // The compiled extractor must give the same results as the reflective one.
+    String[][] cases = {
+      {"session", "thisisaname"},
+      {"table", "jenny"},
+      {"fakesession"},
+      // Repeated string field.
+      {"columns"},
+      // Not a string field.
+      {"transaction"},
+      {"transaction.fake"},
+    };
+    for (String[] testCase : cases) {
+      List<String> expected = getKeysFromMessage(req, testCase[0]);
+      assertThat(expected)
+          .containsExactlyElementsIn(Arrays.asList(testCase).subList(1, testCase.length));
+      assertThat(new AffinityKeyExtractor(testCase[0]).extract(req))
+          .containsExactlyElementsIn(expected)
+          .inOrder();
+      CodedInputStream input = CodedInputStream.newInstance(req.toByteArray());
+      assertThat(new AffinityKeyExtractor(testCase[0]).extract(input, req.getDescriptorForType()))
+          .containsExactlyElementsIn(expected)
+          .inOrder();
+    }
+
+    // Repeated nested messages.
+    AffinityKeyExtractor extractor = new AffinityKeyExtractor("method.affinity.affinity_key");
+    assertThat(extractor.extract(apiConfig))
+        .containsExactlyElementsIn(getKeysFromMessage(apiConfig, "method.affinity.affinity_key"))
+        .inOrder();
+    assertThat(extractor.extract(apiConfig)).containsExactly("key1", "key3").inOrder();
+    assertThat(
+            extractor.extract(
+                CodedInputStream.newInstance(apiConfig.toByteArray()),
+                apiConfig.getDescriptorForType()))
+        .containsExactly("key1", "key3")
+        .inOrder();
+    // The same extractor works for other message types.
+    assertThat(extractor.extract(req)).isEmpty();
+    assertThat(extractor.extract(ApiConfig.getDefaultInstance())).isEmpty();
+  }
+
+  @Test
+  public void testAffinityKeyCapturingMarshaller() {
+    final ApiConfig apiConfig =
+        ApiConfig.newBuilder()
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key1")))
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key2")))
+            .build();
+    final MethodDescriptor.Marshaller<ApiConfig> protoMarshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final AffinityKeyCapturingMarshaller<ApiConfig> marshaller =
+        new AffinityKeyCapturingMarshaller<>(
+            protoMarshaller,
+            new AffinityKeyExtractor("method.affinity.affinity_key"),
+            ApiConfig.getDescriptor());
+    assertThat(marshaller.getKeys()).isNull();
+
+    // Keys are captured from the first message which is parsed as usual.
+    assertThat(marshaller.parse(new KnownLengthStream(apiConfig.toByteArray())))
+        .isEqualTo(apiConfig);
+    assertThat(marshaller.getKeys()).containsExactly("key1", "key2").inOrder();
+
+    // Following messages are not scanned.
+    assertThat(marshaller.parse(protoMarshaller.stream(ApiConfig.getDefaultInstance())))
+        .isEqualTo(ApiConfig.getDefaultInstance());
+    assertThat(marshaller.getKeys()).containsExactly("key1", "key2").inOrder();
+
+    // A stream which cannot be rewound is copied to capture the keys.
+    final AffinityKeyCapturingMarshaller<ApiConfig> noMarkMarshaller =
+        new AffinityKeyCapturingMarshaller<>(
+            protoMarshaller,
+            new AffinityKeyExtractor("method.affinity.affinity_key"),
+            ApiConfig.getDescriptor());
+    assertThat(noMarkMarshaller.parse(protoMarshaller.stream(apiConfig))).isEqualTo(apiConfig);
+    assertThat(noMarkMarshaller.getKeys()).containsExactly("key1", "key2").inOrder();
+
+    // Unless it is too large to copy.
+    final ApiConfig largeApiConfig =
+        apiConfig.toBuilder()
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .addName(Strings.repeat("a", AffinityKeyCapturingMarshaller.MAX_COPY_BYTES)))
+            .build();
+    final AffinityKeyCapturingMarshaller<ApiConfig> largeMarshaller =
+        new AffinityKeyCapturingMarshaller<>(
+            protoMarshaller,
+            new AffinityKeyExtractor("method.affinity.affinity_key"),
+            ApiConfig.getDescriptor());
+    assertThat(largeMarshaller.parse(new ByteArrayInputStream(largeApiConfig.toByteArray())))
+        .isEqualTo(largeApiConfig);
+    assertThat(largeMarshaller.getKeys()).isNull();
+  }
+
+  @Test
+  public void testAffinityKeyCapturingMarshallerInProcess() throws IOException {
+    final ApiConfig response =
+        ApiConfig.newBuilder()
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .setAffinity(AffinityConfig.newBuilder().setAffinityKey("key1")))
+            .build();
+    final MethodDescriptor.Marshaller<ApiConfig> protoMarshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final MethodDescriptor<ApiConfig, ApiConfig> method =
+        MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Sessions/BatchCreate")
+            .setRequestMarshaller(protoMarshaller)
+            .setResponseMarshaller(protoMarshaller)
+            .build();
+    final String serverName = InProcessServerBuilder.generateName();
+    final Server server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                ServerServiceDefinition.builder("test.Sessions")
+                    .addMethod(
+                        method,
+                        ServerCalls.asyncUnaryCall(
+                            (request, observer) -> {
+                              observer.onNext(response);
+                              observer.onCompleted();
+                            }))
+                    .build())
+            .build()
+            .start();
+    final ManagedChannel channel =
+        InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    try {
+      // The response stream provided by the transport is scanned for the keys.
+      final AffinityKeyCapturingMarshaller<ApiConfig> marshaller =
+          new AffinityKeyCapturingMarshaller<>(
+              protoMarshaller,
+              new AffinityKeyExtractor("method.affinity.affinity_key"),
+              ApiConfig.getDescriptor());
+      assertThat(
+              ClientCalls.blockingUnaryCall(
+                  channel,
+                  method.toBuilder(protoMarshaller, marshaller).build(),
+                  CallOptions.DEFAULT,
+                  ApiConfig.getDefaultInstance()))
+          .isEqualTo(response);
+      assertThat(marshaller.getKeys()).containsExactly("key1");
+    } finally {
+      channel.shutdownNow();
+      server.shutdownNow();
+    }
+  }
+
+  // A serialized message stream of known length supporting mark and reset, as provided by the
+  // transport.
+  private static final class KnownLengthStream extends ByteArrayInputStream
+      implements KnownLength {
+    KnownLengthStream(byte[] bytes) {
+      super(bytes);
+    }
+  }
+
+  @Test
+  public void testNewCallByMethodAffinity() {
+    resetGcpChannel();
+    final URL resource = GcpManagedChannelTest.class.getClassLoader().getResource(API_FILE);
+    assertNotNull(resource);
+    gcpChannel =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withApiConfigJsonFile(new File(resource.getFile()))
+                .build();
+    final MethodDescriptor.Marshaller<ApiConfig> marshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final MethodDescriptor<ApiConfig, ApiConfig> getSession =
+        MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("google.spanner.v1.Spanner/GetSession")
+            .setRequestMarshaller(marshaller)
+            .setResponseMarshaller(marshaller)
+            .build();
+    final MethodDescriptor<ApiConfig, ApiConfig> executeSql =
+        getSession.toBuilder().setFullMethodName("google.spanner.v1.Spanner/ExecuteSql").build();
+
+    // Repeated calls use the cached routing decision.
+    for (int i = 0; i < 2; i++) {
+      assertThat(gcpChannel.newCall(getSession, CallOptions.DEFAULT))
+          .isInstanceOf(GcpClientCall.class);
+      assertThat(gcpChannel.newCall(executeSql, CallOptions.DEFAULT))
+          .isInstanceOf(GcpClientCall.SimpleGcpClientCall.class);
+    }
+  }
+
+  @Test
+  public void testSubPools() throws InterruptedException {
+    final ApiConfig apiConfig =
+        ApiConfig.newBuilder()
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .addName("google.spanner.v1.Spanner/ExecuteStreamingSql")
+                    .setChannelPool("streaming"))
+            .addMethod(
+                MethodConfig.newBuilder()
+                    .addName("google.spanner.v1.Spanner/Read")
+                    .setChannelPool("unknown"))
+            .build();
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withApiConfig(apiConfig)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(3)
+                                .addSubPool(
+                                    "streaming",
+                                    GcpChannelPoolOptions.newBuilder()
+                                        .setMaxSize(2)
+                                        .setMinSize(1)
+                                        .setConcurrentStreamsLowWatermark(1)
+                                        .build())
+                                .build())
+                        .build())
+                .build();
+    final MethodDescriptor.Marshaller<ApiConfig> marshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final MethodDescriptor<ApiConfig, ApiConfig> streamingSql =
+        MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName("google.spanner.v1.Spanner/ExecuteStreamingSql")
+            .setRequestMarshaller(marshaller)
+            .setResponseMarshaller(marshaller)
+            .build();
+    final MethodDescriptor<ApiConfig, ApiConfig> read =
+        streamingSql.toBuilder().setFullMethodName("google.spanner.v1.Spanner/Read").build();
+
+    try {
+      assertThat(pool.getSubPool("unknown")).isNull();
+      final GcpManagedChannel subPool = pool.getSubPool("streaming");
+      assertNotNull(subPool);
+      assertThat(subPool.getMaxSize()).isEqualTo(2);
+      assertThat(subPool.getMinSize()).isEqualTo(1);
+      // Min channels of the sub-pool are created with the pool.
+      assertThat(subPool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(0);
+      assertThat(subPool.getStatsSnapshot().getPoolIndex())
+          .isEqualTo(pool.getStatsSnapshot().getPoolIndex() + "/streaming");
+
+      // Calls of the assigned method use the channels of the sub-pool only.
+      pool.newCall(streamingSql, CallOptions.DEFAULT);
+      assertThat(subPool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(0);
+
+      // Methods assigned to a sub-pool which is not configured use the main pool.
+      pool.newCall(read, CallOptions.DEFAULT);
+      assertThat(subPool.getNumberOfChannels()).isEqualTo(1);
+      assertThat(pool.getNumberOfChannels()).isEqualTo(1);
+
+      // Sub-pools are shut down with the main pool.
+      pool.shutdownNow();
+      assertThat(subPool.isShutdown()).isTrue();
+      assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(subPool.isTerminated()).isTrue();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testGcpClientCallReplaysOperations() {
+    final List<String> ops = Collections.synchronizedList(new ArrayList<>());
+    final ClientCall<ApiConfig, ApiConfig> recordingCall =
+        new ClientCall<ApiConfig, ApiConfig>() {
+          @Override
+          public void start(Listener<ApiConfig> responseListener, Metadata headers) {
+            ops.add("start");
+          }
+
+          @Override
+          public void request(int numMessages) {
+            ops.add("request" + numMessages);
+          }
+
+          @Override
+          public void cancel(String message, Throwable cause) {
+            ops.add("cancel");
+          }
+
+          @Override
+          public void halfClose() {
+            ops.add("halfClose");
+          }
+
+          @Override
+          public void sendMessage(ApiConfig message) {
+            ops.add("sendMessage");
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+        };
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    final FakeManagedChannel channel =
+        new FakeManagedChannel(executorService) {
+          @SuppressWarnings("unchecked")
+          @Override
+          public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
+              MethodDescriptor<RequestT, ResponseT> methodDescriptor, CallOptions callOptions) {
+            return (ClientCall<RequestT, ResponseT>) recordingCall;
+          }
+        };
+    gcpChannel.channelRefs.add(gcpChannel.new ChannelRef(channel, 0));
+    final MethodDescriptor.Marshaller<ApiConfig> marshaller =
+        ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+    final GcpClientCall<ApiConfig, ApiConfig> call =
+        new GcpClientCall<>(
+            gcpChannel,
+            MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+                .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+                .setFullMethodName("google.spanner.v1.Spanner/ExecuteStreamingSql")
+                .setRequestMarshaller(marshaller)
+                .setResponseMarshaller(marshaller)
+                .build(),
+            CallOptions.DEFAULT,
+            AffinityConfig.newBuilder().setCommand(AffinityConfig.Command.BOUND).build());
+
+    // Operations before the first message are delayed until the channel is picked.
+    call.start(new ClientCall.Listener<ApiConfig>() {}, new Metadata());
+    call.request(2);
+    assertThat(call.isReady()).isFalse();
+    assertThat(ops).isEmpty();
+
+    call.sendMessage(ApiConfig.getDefaultInstance());
+    assertThat(ops).containsExactly("start", "request2", "sendMessage").inOrder();
+    assertThat(gcpChannel.channelRefs.get(0).getActiveStreamsCount()).isEqualTo(1);
+
+    // Operations after the first message go straight to the delegate call.
+    assertThat(call.isReady()).isTrue();
+    call.sendMessage(ApiConfig.getDefaultInstance());
+    call.halfClose();
+    call.cancel("test", null);
+    assertThat(ops)
+        .containsExactly("start", "request2", "sendMessage", "sendMessage", "halfClose", "cancel")
+        .inOrder();
+    assertThat(gcpChannel.channelRefs.get(0).getActiveStreamsCount()).isEqualTo(0);
+    executorService.shutdownNow();
+  }
+
   @Test
   public void testParseGoodJsonFile() {
     final URL resource = GcpManagedChannelTest.class.getClassLoader().getResource(API_FILE);
@@ -793,7 +2056,7 @@ public final class GcpManagedChannelTest {
       }
 
       MetricsRecord record = fakeRegistry.pollRecord();
-      assertThat(record.getMetrics().size()).isEqualTo(25);
+      assertThat(record.getMetrics().size()).isEqualTo(32);
 
       // Initial log messages count.
       int logCount = logRecords.size();
@@ -859,6 +2122,254 @@ public final class GcpManagedChannelTest {
     }
   }
 
+  @Test
+  public void testCallLatencyMetrics() {
+    final FakeMetricRegistry fakeRegistry = new FakeMetricRegistry();
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withMetricsOptions(
+                            GcpMetricsOptions.newBuilder().withMetricRegistry(fakeRegistry).build())
+                        .build())
+                .build();
+    final String method = "google.spanner.v1.Spanner/ExecuteSql";
+
+    try {
+      final ChannelRef ref = pool.getChannelRef(null);
+      for (int i = 0; i < 3; i++) {
+        ref.activeStreamsCountIncr();
+      }
+      ref.activeStreamsCountDecr(System.nanoTime() - 2_000_000L, Status.OK, false, method);
+      ref.activeStreamsCountDecr(
+          System.nanoTime() - 50_000_000L, Status.UNAVAILABLE, false, method);
+      // Client side cancellations are not recorded.
+      ref.activeStreamsCountDecr(
+          System.nanoTime() - 900_000_000L, Status.CANCELLED, true, method);
+
+      MetricsRecord record = fakeRegistry.pollRecord();
+      List<PointWithFunction<?>> callLatency =
+          record.getMetrics().get(GcpMetricsConstants.METRIC_CALL_LATENCY);
+      // 4 percentiles for each result.
+      assertThat(callLatency.size()).isEqualTo(8);
+      List<PointWithFunction<?>> channelLatency =
+          record.getMetrics().get(GcpMetricsConstants.METRIC_CHANNEL_CALL_LATENCY);
+      assertThat(channelLatency.size()).isEqualTo(4);
+
+      // Percentiles are reported for the completed interval only.
+      for (PointWithFunction<?> point : callLatency) {
+        assertThat(point.value()).isEqualTo(0L);
+      }
+
+      pool.rotateLatencyHistograms();
+      for (PointWithFunction<?> point : callLatency) {
+        final List<LabelValue> values = point.values();
+        assertThat(values.get(values.size() - 2)).isEqualTo(LabelValue.create(method));
+        if (values.contains(LabelValue.create(GcpMetricsConstants.RESULT_SUCCESS))) {
+          assertThat(point.value()).isAtLeast(2_000L);
+          assertThat(point.value()).isLessThan(50_000L);
+        } else {
+          assertThat(point.value()).isAtLeast(50_000L);
+          assertThat(point.value()).isLessThan(900_000L);
+        }
+      }
+      for (PointWithFunction<?> point : channelLatency) {
+        final List<LabelValue> values = point.values();
+        assertThat(values.get(values.size() - 2))
+            .isEqualTo(LabelValue.create(String.valueOf(ref.getId())));
+      }
+      // p50 of the channel is the successful call and p99 is the failed one.
+      assertThat(channelLatency.get(0).values().get(channelLatency.get(0).values().size() - 1))
+          .isEqualTo(LabelValue.create("p50"));
+      assertThat(channelLatency.get(0).value()).isLessThan(50_000L);
+      assertThat(channelLatency.get(2).value()).isAtLeast(50_000L);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrentCallMetrics() throws InterruptedException {
+    final FakeMetricRegistry fakeRegistry = new FakeMetricRegistry();
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withMetricsOptions(
+                            GcpMetricsOptions.newBuilder().withMetricRegistry(fakeRegistry).build())
+                        .build())
+                .build();
+    final int threads = 8;
+    final int callsPerThread = 10000;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try {
+      final List<ChannelRef> refs = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        refs.add(pool.new ChannelRef(builder.build(), i));
+      }
+      for (int t = 0; t < threads; t++) {
+        final ChannelRef ref = refs.get(t % refs.size());
+        executor.execute(
+            () -> {
+              for (int i = 0; i < callsPerThread; i++) {
+                ref.activeStreamsCountIncr();
+                ref.activeStreamsCountDecr(
+                    System.nanoTime(), i % 2 == 0 ? Status.OK : Status.UNAVAILABLE, false);
+              }
+            });
+      }
+      executor.shutdown();
+      assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+      MetricsRecord record = fakeRegistry.pollRecord();
+      List<PointWithFunction<?>> callsCompleted =
+          record.getMetrics().get(GcpMetricsConstants.METRIC_NUM_CALLS_COMPLETED);
+      assertThat(callsCompleted.get(0).value()).isEqualTo((long) threads * callsPerThread / 2);
+      assertThat(callsCompleted.get(1).value()).isEqualTo((long) threads * callsPerThread / 2);
+
+      final long maxTotal =
+          record
+              .getMetrics()
+              .get(GcpMetricsConstants.METRIC_MAX_TOTAL_ACTIVE_STREAMS)
+              .get(0)
+              .value();
+      // The total is sampled when reported, i.e. after all calls have completed.
+      assertThat(maxTotal).isEqualTo(0L);
+      final long maxPerChannel =
+          record.getMetrics().get(GcpMetricsConstants.METRIC_MAX_ACTIVE_STREAMS).get(0).value();
+      assertThat(maxPerChannel).isAtLeast(1L);
+      assertThat(maxPerChannel).isAtMost((long) threads / refs.size());
+
+      // A new window starts from the current values once reported.
+      for (ChannelRef ref : refs) {
+        assertThat(ref.getActiveStreamsCount()).isEqualTo(0);
+      }
+      assertThat(
+              record
+                  .getMetrics()
+                  .get(GcpMetricsConstants.METRIC_MAX_TOTAL_ACTIVE_STREAMS)
+                  .get(0)
+                  .value())
+          .isEqualTo(0L);
+    } finally {
+      executor.shutdownNow();
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStatsSnapshot() {
+    final GcpManagedChannel pool =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder)
+                .withOptions(
+                    GcpManagedChannelOptions.newBuilder()
+                        .withChannelPoolOptions(
+                            GcpChannelPoolOptions.newBuilder()
+                                .setMaxSize(5)
+                                .setConcurrentStreamsLowWatermark(1)
+                                .build())
+                        .build())
+                .build();
+
+    try {
+      GcpChannelPoolStats stats = pool.getStatsSnapshot();
+      assertThat(stats.getPoolIndex())
+          .isEqualTo(String.format("pool-%d", GcpManagedChannel.channelPoolIndex.get()));
+      assertThat(stats.getChannels()).isEmpty();
+
+      final ChannelRef first = pool.getChannelRef(null);
+      first.activeStreamsCountIncr();
+      final ChannelRef second = pool.getChannelRef(null);
+      assertThat(second).isNotSameAs(first);
+      pool.bind(second, Collections.singletonList("key"));
+      for (int i = 0; i < 3; i++) {
+        second.activeStreamsCountIncr();
+        second.activeStreamsCountDecr(
+            System.nanoTime(), i == 0 ? Status.UNAVAILABLE : Status.OK, false);
+      }
+
+      stats = pool.getStatsSnapshot();
+      assertThat(stats.getChannels()).hasSize(2);
+      assertThat(stats.getActiveStreams()).isEqualTo(1L);
+      assertThat(stats.getAffinityCount()).isEqualTo(1);
+      assertThat(stats.getOkCalls()).isEqualTo(2L);
+      assertThat(stats.getErrCalls()).isEqualTo(1L);
+
+      final GcpChannelPoolStats.ChannelStats firstStats = stats.getChannels().get(0);
+      assertThat(firstStats.getId()).isEqualTo(first.getId());
+      assertThat(firstStats.getActiveStreams()).isEqualTo(1);
+      assertThat(firstStats.getAffinityCount()).isEqualTo(0);
+      assertThat(firstStats.getOkCalls()).isEqualTo(0L);
+      final GcpChannelPoolStats.ChannelStats secondStats = stats.getChannels().get(1);
+      assertThat(secondStats.getId()).isEqualTo(second.getId());
+      assertThat(secondStats.getActiveStreams()).isEqualTo(0);
+      assertThat(secondStats.getAffinityCount()).isEqualTo(1);
+      assertThat(secondStats.getOkCalls()).isEqualTo(2L);
+      assertThat(secondStats.getErrCalls()).isEqualTo(1L);
+      assertThat(secondStats.getState()).isEqualTo(second.getChannel().getState(false));
+
+      // Reporting metrics does not reset the cumulative counters of the snapshot.
+      pool.logMetrics();
+      assertThat(pool.getStatsSnapshot().getChannels().get(1).getOkCalls()).isEqualTo(2L);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSharedExecutors() {
+    final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.setRemoveOnCancelPolicy(true);
+    final AtomicInteger executed = new AtomicInteger();
+    final Executor executor =
+        command -> {
+          executed.incrementAndGet();
+          command.run();
+        };
+    final GcpManagedChannelOptions options =
+        GcpManagedChannelOptions.newBuilder()
+            .withChannelPoolOptions(
+                GcpChannelPoolOptions.newBuilder()
+                    .setMaxSize(5)
+                    .setMinSize(1)
+                    .setIdleTimeout(Duration.ofMinutes(1))
+                    .setMaxChannelAge(Duration.ofHours(1))
+                    .build())
+            .withScheduledExecutorService(scheduler)
+            .withExecutor(executor)
+            .build();
+    final GcpManagedChannel pool1 =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder).withOptions(options).build();
+    final GcpManagedChannel pool2 =
+        (GcpManagedChannel)
+            GcpManagedChannelBuilder.forDelegateBuilder(builder).withOptions(options).build();
+
+    try {
+      // Metrics logging, idle channels removal and recycling of the min channel of both pools.
+      assertThat(scheduler.getQueue()).hasSize(6);
+
+      pool1.notifyWhenStateChanged(ConnectivityState.SHUTDOWN, () -> {});
+      assertThat(executed.get()).isEqualTo(1);
+
+      // Shutting down a pool cancels its tasks but does not shut down the shared executor.
+      pool1.shutdownNow();
+      assertThat(pool1.isShutdown()).isTrue();
+      assertThat(scheduler.getQueue()).hasSize(3);
+      pool2.shutdownNow();
+      assertThat(scheduler.getQueue()).isEmpty();
+      assertThat(scheduler.isShutdown()).isFalse();
+    } finally {
+      pool1.shutdownNow();
+      pool2.shutdownNow();
+      scheduler.shutdownNow();
+    }
+  }
+
   @Test
   public void testLogMetrics() throws InterruptedException {
     // Watch debug messages.
@@ -974,6 +2485,7 @@ public final class GcpManagedChannelTest {
       assertThat(messages).contains(poolIndex + ": stat: min_ready_channels = 0");
       assertThat(messages).contains(poolIndex + ": stat: max_ready_channels = 4");
       assertThat(messages).contains(poolIndex + ": stat: max_channels = 5");
+      assertThat(messages).contains(poolIndex + ": stat: num_channels_removed = 0");
       assertThat(messages).contains(poolIndex + ": stat: max_allowed_channels = 5");
       assertThat(messages).contains(poolIndex + ": stat: num_channel_disconnect = 4");
       assertThat(messages).contains(poolIndex + ": stat: num_channel_connect = 5");
@@ -1018,7 +2530,7 @@ public final class GcpManagedChannelTest {
       assertThat(messages).contains(poolIndex + ": stat: min_unresponsive_dropped_calls = 2");
       assertThat(messages).contains(poolIndex + ": stat: max_unresponsive_dropped_calls = 3");
 
-      assertThat(logRecords.size()).isEqualTo(34);
+      assertThat(logRecords.size()).isEqualTo(40);
       logRecords.forEach(logRecord ->
           assertThat(logRecord.getLevel()).named(logRecord.getMessage()).isEqualTo(Level.FINE)
       );
@@ -1066,7 +2578,7 @@ public final class GcpManagedChannelTest {
       assertThat(messages).contains(poolIndex + ": stat: min_unresponsive_dropped_calls = 0");
       assertThat(messages).contains(poolIndex + ": stat: max_unresponsive_dropped_calls = 0");
 
-      assertThat(logRecords.size()).isEqualTo(34);
+      assertThat(logRecords.size()).isEqualTo(40);
 
     } finally {
       pool.shutdownNow();
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.cloud.grpc.FakeClientCalls.FakeCall;
+import com.google.cloud.grpc.FakeClientCalls.FakeChannel;
+import com.google.cloud.grpc.FakeClientCalls.RecordingListener;
+import com.google.cloud.grpc.proto.ApiConfig;
+import com.google.cloud.grpc.proto.HedgingConfig;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class HedgingClientCallTest {
+  private static final MethodDescriptor.Marshaller<ApiConfig> MARSHALLER =
+      ProtoUtils.marshaller(ApiConfig.getDefaultInstance());
+  private static final MethodDescriptor<ApiConfig, ApiConfig> METHOD =
+      MethodDescriptor.<ApiConfig, ApiConfig>newBuilder()
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName("google.spanner.v1.Spanner/Read")
+          .setRequestMarshaller(MARSHALLER)
+          .setResponseMarshaller(MARSHALLER)
+          .build();
+  private static final ApiConfig MESSAGE = ApiConfig.getDefaultInstance();
+
+  private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+  private final FakeChannel channel = new FakeChannel();
+  private final FakeChannel hedgeChannel = new FakeChannel();
+  private final RecordingListener listener = new RecordingListener();
+  private final HedgingPolicy policy =
+      new HedgingPolicy(
+          METHOD.getFullMethodName(), HedgingConfig.newBuilder().setDelayMs(10).build(), 0);
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  private HedgingClientCall<ApiConfig, ApiConfig> startCall(Duration delay) {
+    final HedgingClientCall<ApiConfig, ApiConfig> call =
+        new HedgingClientCall<>(
+            METHOD,
+            CallOptions.DEFAULT,
+            channel,
+            () -> hedgeChannel,
+            scheduler,
+            policy,
+            delay.toNanos());
+    call.start(listener, new Metadata());
+    call.request(1);
+    call.sendMessage(MESSAGE);
+    call.halfClose();
+    return call;
+  }
+
+  // Waits for the call method to be invoked on the call, e.g. by the replay on the hedged call.
+  private static void awaitEvent(FakeCall call, String event) throws InterruptedException {
+    for (int i = 0; i < 100 && !call.events.contains(event); i++) {
+      MILLISECONDS.sleep(10);
+    }
+    assertThat(call.events).contains(event);
+  }
+
+  @Test
+  public void testIsHedgeable() {
+    assertThat(HedgingClientCall.isHedgeable(METHOD)).isTrue();
+    assertThat(
+            HedgingClientCall.isHedgeable(
+                METHOD.toBuilder().setType(MethodDescriptor.MethodType.SERVER_STREAMING).build()))
+        .isTrue();
+    assertThat(
+            HedgingClientCall.isHedgeable(
+                METHOD.toBuilder().setType(MethodDescriptor.MethodType.BIDI_STREAMING).build()))
+        .isFalse();
+  }
+
+  @Test
+  public void testHedgeWins() throws InterruptedException {
+    startCall(Duration.ofMillis(10));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+    final FakeCall hedge = hedgeChannel.calls.poll(1, SECONDS);
+    assertThat(original).isNotNull();
+    assertThat(hedge).isNotNull();
+    // The hedged call replays the original call.
+    awaitEvent(hedge, "halfClose");
+    assertThat(hedge.events).containsExactly("start", "request 1", "sendMessage", "halfClose")
+        .inOrder();
+
+    hedge.listener.onHeaders(new Metadata());
+    hedge.listener.onMessage(MESSAGE);
+    hedge.listener.onClose(Status.OK, new Metadata());
+    assertThat(listener.events).containsExactly("headers", "message", "close OK").inOrder();
+    assertThat(original.events).contains("cancel");
+
+    // The close of the cancelled original call is not delivered.
+    original.listener.onClose(Status.CANCELLED, new Metadata());
+    assertThat(listener.events).hasSize(3);
+
+    final GcpHedgingStats stats = policy.getStats();
+    assertThat(stats.getHedgesFired()).isEqualTo(1L);
+    assertThat(stats.getHedgesWon()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testHedgeStartsOnCallExecutor() throws InterruptedException {
+    final AtomicInteger executed = new AtomicInteger();
+    final Executor executor =
+        command -> {
+          executed.incrementAndGet();
+          command.run();
+        };
+    final HedgingClientCall<ApiConfig, ApiConfig> call =
+        new HedgingClientCall<>(
+            METHOD,
+            CallOptions.DEFAULT.withExecutor(executor),
+            channel,
+            () -> hedgeChannel,
+            scheduler,
+            policy,
+            Duration.ofMillis(10).toNanos());
+    call.start(listener, new Metadata());
+    final FakeCall hedge = hedgeChannel.calls.poll(1, SECONDS);
+    assertThat(hedge).isNotNull();
+    assertThat(executed.get()).isEqualTo(1);
+    call.cancel("cancelled", null);
+  }
+
+  @Test
+  public void testOriginalRespondsBeforeDelay() throws InterruptedException {
+    scheduler.setRemoveOnCancelPolicy(true);
+    startCall(Duration.ofMinutes(1));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+    assertThat(original).isNotNull();
+    assertThat(scheduler.getQueue()).hasSize(1);
+
+    original.listener.onMessage(MESSAGE);
+    original.listener.onClose(Status.OK, new Metadata());
+    assertThat(listener.events).containsExactly("message", "close OK").inOrder();
+    // The hedged call is not sent.
+    assertThat(scheduler.getQueue()).isEmpty();
+    assertThat(hedgeChannel.calls).isEmpty();
+    assertThat(policy.getStats().getHedgesFired()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testFailureWaitsForHedge() throws InterruptedException {
+    startCall(Duration.ofMillis(10));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+    final FakeCall hedge = hedgeChannel.calls.poll(1, SECONDS);
+    assertThat(hedge).isNotNull();
+
+    original.listener.onClose(Status.UNAVAILABLE, new Metadata());
+    assertThat(listener.events).isEmpty();
+
+    hedge.listener.onMessage(MESSAGE);
+    hedge.listener.onClose(Status.OK, new Metadata());
+    assertThat(listener.events).containsExactly("message", "close OK").inOrder();
+  }
+
+  @Test
+  public void testFailureBeforeHedge() throws InterruptedException {
+    startCall(Duration.ofMinutes(1));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+
+    original.listener.onClose(Status.UNAVAILABLE, new Metadata());
+    assertThat(listener.events).containsExactly("close UNAVAILABLE");
+    assertThat(hedgeChannel.calls).isEmpty();
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    final HedgingClientCall<ApiConfig, ApiConfig> call = startCall(Duration.ofMillis(10));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+    final FakeCall hedge = hedgeChannel.calls.poll(1, SECONDS);
+    assertThat(hedge).isNotNull();
+
+    call.cancel("Cancelled by the test.", null);
+    assertThat(original.events).contains("cancel");
+    awaitEvent(hedge, "cancel");
+
+    // Only one close is delivered.
+    original.listener.onClose(Status.CANCELLED, new Metadata());
+    hedge.listener.onClose(Status.CANCELLED, new Metadata());
+    assertThat(listener.events).containsExactly("close CANCELLED");
+  }
+
+  @Test
+  public void testCommitWhileCreatingHedge() throws InterruptedException {
+    // The original call responds while the hedged call is being created.
+    final HedgingClientCall<ApiConfig, ApiConfig> call =
+        new HedgingClientCall<>(
+            METHOD,
+            CallOptions.DEFAULT,
+            channel,
+            () -> {
+              channel.calls.peek().listener.onHeaders(new Metadata());
+              return hedgeChannel;
+            },
+            scheduler,
+            policy,
+            Duration.ofMillis(10).toNanos());
+    call.start(listener, new Metadata());
+    call.request(1);
+    call.sendMessage(MESSAGE);
+    call.halfClose();
+
+    // The hedged call is sent as its budget was taken, and cancels itself right away.
+    final FakeCall hedge = hedgeChannel.calls.poll(1, SECONDS);
+    assertThat(hedge).isNotNull();
+    awaitEvent(hedge, "cancel");
+    assertThat(hedge.events).containsExactly("start", "cancel").inOrder();
+    assertThat(listener.events).containsExactly("headers");
+    assertThat(policy.getStats().getHedgesFired()).isEqualTo(1L);
+    assertThat(policy.getStats().getHedgesWon()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testCallMethodsDuringReplay() throws InterruptedException {
+    final CountDownLatch replayBlocked = new CountDownLatch(1);
+    hedgeChannel.sendMessageLatch = replayBlocked;
+    final HedgingClientCall<ApiConfig, ApiConfig> call = startCall(Duration.ofMillis(10));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+    final FakeCall hedge = hedgeChannel.calls.poll(1, SECONDS);
+    assertThat(hedge).isNotNull();
+    awaitEvent(hedge, "request 1");
+
+    // Invoked while the hedged call is replaying the message, so not forwarded to it directly.
+    call.request(2);
+    assertThat(original.events).contains("request 2");
+    assertThat(hedge.events).doesNotContain("request 2");
+
+    // The replay catches up with the call methods invoked in the meantime.
+    replayBlocked.countDown();
+    awaitEvent(hedge, "request 2");
+    assertThat(hedge.events)
+        .containsExactly("start", "request 1", "sendMessage", "halfClose", "request 2")
+        .inOrder();
+
+    // Later call methods reach the hedged call exactly once too.
+    call.request(3);
+    awaitEvent(hedge, "request 3");
+    assertThat(hedge.events).containsNoDuplicates();
+  }
+
+  @Test
+  public void testRecordingLatency() throws InterruptedException {
+    final HedgingPolicy percentilePolicy =
+        new HedgingPolicy(
+            METHOD.getFullMethodName(),
+            HedgingConfig.newBuilder().setDelayPercentile(90).build(),
+            0);
+    assertThat(percentilePolicy.hasPercentileDelay()).isTrue();
+    assertThat(policy.hasPercentileDelay()).isFalse();
+
+    // Without a fixed delay, calls are not hedged until their latencies give the percentile.
+    for (int i = 0; i < HedgingPolicy.MIN_PERCENTILE_CALLS; i++) {
+      assertThat(percentilePolicy.onCall(0)).isEqualTo(0L);
+      final ClientCall<ApiConfig, ApiConfig> call =
+          HedgingClientCall.recordingLatency(
+              channel.newCall(METHOD, CallOptions.DEFAULT), percentilePolicy);
+      call.start(listener, new Metadata());
+      MILLISECONDS.sleep(1);
+      channel.calls.poll().listener.onClose(Status.OK, new Metadata());
+    }
+    assertThat(listener.events).hasSize((int) HedgingPolicy.MIN_PERCENTILE_CALLS);
+    assertThat(percentilePolicy.onCall(Duration.ofSeconds(10).toNanos()))
+        .isAtLeast(Duration.ofMillis(1).toNanos());
+  }
+
+  @Test
+  public void testBudgetExhausted() throws InterruptedException {
+    for (int i = 0; i < HedgingPolicy.MAX_BURST; i++) {
+      assertThat(policy.tryAcquireHedge()).isTrue();
+    }
+    startCall(Duration.ofMillis(10));
+    final FakeCall original = channel.calls.poll(1, SECONDS);
+    assertThat(original).isNotNull();
+    assertThat(hedgeChannel.calls.poll(100, MILLISECONDS)).isNull();
+    assertThat(policy.getStats().getHedgesThrottled()).isEqualTo(1L);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.grpc.GcpManagedChannelOptions.GcpMetricsOptions;
+import com.google.cloud.grpc.MetricRegistryTestUtils.FakeMetricRegistry;
+import com.google.cloud.grpc.MetricRegistryTestUtils.PointWithFunction;
+import com.google.cloud.grpc.proto.HedgingConfig;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class HedgingPolicyTest {
+  private static final long SECOND_NANOS = Duration.ofSeconds(1).toNanos();
+
+  @Test
+  public void testIsEnabled() {
+    assertThat(HedgingPolicy.isEnabled(HedgingConfig.getDefaultInstance())).isFalse();
+    assertThat(HedgingPolicy.isEnabled(HedgingConfig.newBuilder().setDelayMs(10).build()))
+        .isTrue();
+    assertThat(HedgingPolicy.isEnabled(HedgingConfig.newBuilder().setDelayPercentile(95).build()))
+        .isTrue();
+    assertThat(HedgingPolicy.isEnabled(HedgingConfig.newBuilder().setDelayPercentile(100).build()))
+        .isFalse();
+  }
+
+  @Test
+  public void testBudget() {
+    final HedgingPolicy policy =
+        new HedgingPolicy(
+            "method", HedgingConfig.newBuilder().setDelayMs(10).setMaxHedgedPercent(20).build(), 0);
+
+    // A burst is allowed initially.
+    for (int i = 0; i < HedgingPolicy.MAX_BURST; i++) {
+      assertThat(policy.tryAcquireHedge()).isTrue();
+    }
+    assertThat(policy.tryAcquireHedge()).isFalse();
+
+    // Then one hedged call every 5 calls. Calls arriving without a whole token are not hedged.
+    for (int i = 0; i < 4; i++) {
+      assertThat(policy.onCall(0)).isEqualTo(0L);
+      assertThat(policy.tryAcquireHedge()).isFalse();
+    }
+    assertThat(policy.onCall(0)).isEqualTo(Duration.ofMillis(10).toNanos());
+    assertThat(policy.tryAcquireHedge()).isTrue();
+
+    // The budget does not grow beyond the burst.
+    for (int i = 0; i < 1000; i++) {
+      policy.onCall(0);
+    }
+    for (int i = 0; i < HedgingPolicy.MAX_BURST; i++) {
+      assertThat(policy.tryAcquireHedge()).isTrue();
+    }
+    assertThat(policy.tryAcquireHedge()).isFalse();
+
+    policy.recordHedgeWon();
+    final GcpHedgingStats stats = policy.getStats();
+    assertThat(stats.getMethodName()).isEqualTo("method");
+    assertThat(stats.getCalls()).isEqualTo(1005L);
+    assertThat(stats.getHedgesFired()).isEqualTo(21L);
+    assertThat(stats.getHedgesWon()).isEqualTo(1L);
+    assertThat(stats.getHedgesThrottled()).isEqualTo(14L);
+  }
+
+  @Test
+  public void testDefaultBudget() {
+    final HedgingPolicy policy =
+        new HedgingPolicy("method", HedgingConfig.newBuilder().setDelayMs(10).build(), 0);
+    for (int i = 0; i < HedgingPolicy.MAX_BURST; i++) {
+      assertThat(policy.tryAcquireHedge()).isTrue();
+    }
+    for (int i = 0; i < 100 / HedgingPolicy.DEFAULT_MAX_HEDGED_PERCENT - 1; i++) {
+      policy.onCall(0);
+    }
+    assertThat(policy.tryAcquireHedge()).isFalse();
+    policy.onCall(0);
+    assertThat(policy.tryAcquireHedge()).isTrue();
+  }
+
+  @Test
+  public void testPercentileDelay() {
+    final long fixedDelay = Duration.ofMillis(50).toNanos();
+    final HedgingPolicy policy =
+        new HedgingPolicy(
+            "method",
+            HedgingConfig.newBuilder().setDelayMs(50).setDelayPercentile(90).build(),
+            0);
+
+    // The fixed delay is used until there are enough latencies.
+    for (int i = 0; i < HedgingPolicy.MIN_PERCENTILE_CALLS; i++) {
+      assertThat(policy.onCall(SECOND_NANOS)).isEqualTo(fixedDelay);
+      policy.recordLatency(Duration.ofMillis(i < 90 ? 10 : 200).toNanos());
+    }
+    // Updated after the period.
+    final long delay = policy.onCall(10 * SECOND_NANOS);
+    assertThat(delay).isAtLeast(Duration.ofMillis(10).toNanos());
+    assertThat(delay).isLessThan(Duration.ofMillis(11).toNanos());
+    assertThat(policy.getStats().getDelay()).isEqualTo(Duration.ofNanos(delay));
+
+    // Not updated until the next period.
+    policy.recordLatency(Duration.ofMillis(200).toNanos());
+    assertThat(policy.onCall(19 * SECOND_NANOS)).isEqualTo(delay);
+
+    // Back to the fixed delay without enough latencies in the period.
+    assertThat(policy.onCall(20 * SECOND_NANOS)).isEqualTo(fixedDelay);
+  }
+
+  @Test
+  public void testMetrics() {
+    final HedgingPolicy policy =
+        new HedgingPolicy("method", HedgingConfig.newBuilder().setDelayMs(10).build(), 0);
+    final FakeMetricRegistry registry = new FakeMetricRegistry();
+    GcpMultiEndpointChannel.initHedgingMetrics(
+        Collections.singletonMap("method", policy),
+        GcpMetricsOptions.newBuilder().withMetricRegistry(registry).build());
+
+    policy.onCall(0);
+    policy.onCall(0);
+    assertThat(policy.tryAcquireHedge()).isTrue();
+    policy.recordHedgeWon();
+
+    final Map<String, List<PointWithFunction<?>>> metrics = registry.pollRecord().getMetrics();
+    assertThat(metrics.get(GcpMetricsConstants.METRIC_NUM_HEDGING_CALLS).get(0).value())
+        .isEqualTo(2L);
+    assertThat(metrics.get(GcpMetricsConstants.METRIC_NUM_HEDGES_FIRED).get(0).value())
+        .isEqualTo(1L);
+    assertThat(metrics.get(GcpMetricsConstants.METRIC_NUM_HEDGES_WON).get(0).value())
+        .isEqualTo(1L);
+    assertThat(metrics.get(GcpMetricsConstants.METRIC_NUM_HEDGES_THROTTLED).get(0).value())
+        .isEqualTo(0L);
+    final PointWithFunction<?> delay = metrics.get(GcpMetricsConstants.METRIC_HEDGING_DELAY).get(0);
+    assertThat(delay.value()).isEqualTo(10L);
+    assertThat(delay.keys().get(0).getKey()).isEqualTo(GcpMetricsConstants.METHOD_LABEL);
+    assertThat(delay.values().get(0).getValue()).isEqualTo("method");
+  }
+}
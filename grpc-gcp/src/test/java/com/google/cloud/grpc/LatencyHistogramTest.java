@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.grpc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    // Exact buckets for small values.
+    for (int i = 0; i < 16; i++) {
+      assertThat(LatencyHistogram.bucketIndex(i)).isEqualTo(i);
+      assertThat(LatencyHistogram.highestValueInBucket(i)).isEqualTo(i);
+    }
+    assertThat(LatencyHistogram.bucketIndex(-5)).isEqualTo(0);
+    assertThat(LatencyHistogram.bucketIndex(Long.MAX_VALUE))
+        .isEqualTo(LatencyHistogram.BUCKETS - 1);
+
+    // Every value is within its bucket and buckets are within 1/16 of their values.
+    long previousHighest = -1;
+    for (long micros = 0; micros < 1_000_000; micros += 7) {
+      final int index = LatencyHistogram.bucketIndex(micros);
+      final long highest = LatencyHistogram.highestValueInBucket(index);
+      assertThat(highest).isAtLeast(micros);
+      assertThat(highest - micros).isAtMost(micros / 16);
+      if (index > 0) {
+        assertThat(LatencyHistogram.highestValueInBucket(index - 1)).isLessThan(micros);
+      }
+      assertThat(highest).isAtLeast(previousHighest);
+      previousHighest = highest;
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    // 1..1000 ms.
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1_000_000L);
+    }
+    // Nothing is reported until the interval is completed.
+    assertThat(histogram.getCount()).isEqualTo(0);
+    assertThat(histogram.getPercentileMicros(50)).isEqualTo(0);
+
+    histogram.rotate();
+    assertThat(histogram.getCount()).isEqualTo(1000);
+    assertWithin(histogram.getPercentileMicros(50), 500_000);
+    assertWithin(histogram.getPercentileMicros(90), 900_000);
+    assertWithin(histogram.getPercentileMicros(99), 990_000);
+    assertWithin(histogram.getPercentileMicros(99.9), 999_000);
+    assertWithin(histogram.getPercentileMicros(100), 1_000_000);
+
+    // A new interval starts empty.
+    histogram.record(5_000L);
+    histogram.rotate();
+    assertThat(histogram.getCount()).isEqualTo(1);
+    assertThat(histogram.getPercentileMicros(50)).isEqualTo(5);
+    histogram.rotate();
+    assertThat(histogram.getCount()).isEqualTo(0);
+    assertThat(histogram.getPercentileMicros(99)).isEqualTo(0);
+  }
+
+  private static void assertWithin(long actual, long expected) {
+    assertThat(actual).isAtLeast(expected);
+    assertThat(actual).isAtMost(expected + expected / 16);
+  }
+}
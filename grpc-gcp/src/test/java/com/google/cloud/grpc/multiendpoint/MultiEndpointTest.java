@@ -22,9 +22,14 @@ import static org.junit.Assert.assertThrows;
 import com.google.api.client.util.Sleeper;
 import com.google.cloud.grpc.multiendpoint.Endpoint.EndpointState;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -85,6 +90,27 @@ public final class MultiEndpointTest {
     assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(0));
   }
 
+  @Test
+  public void constructor_usesProvidedExecutor() throws InterruptedException {
+    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    try {
+      MultiEndpoint multiEndpoint =
+          new MultiEndpoint.Builder(threeEndpoints)
+              .withRecoveryTimeout(Duration.ofMillis(RECOVERY_MS))
+              .withExecutor(executor)
+              .build();
+
+      // Recovery timeouts of all endpoints are scheduled on the provided executor.
+      assertThat(executor.getQueue()).hasSize(threeEndpoints.size());
+
+      multiEndpoint.setEndpointAvailable(threeEndpoints.get(1), true);
+      sleep(RECOVERY_MS + MARGIN_MS);
+      assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void getCurrent_returnsTopPriorityAvailableEndpointWithoutRecovery() {
     MultiEndpoint multiEndpoint = initPlain(threeEndpoints);
@@ -225,6 +251,30 @@ public final class MultiEndpointTest {
     assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(1));
   }
 
+  @Test
+  public void setEndpointDegraded_demotesBelowAvailableEndpoints() {
+    MultiEndpoint multiEndpoint = initPlain(threeEndpoints);
+    multiEndpoint.setEndpointAvailable(threeEndpoints.get(0), true);
+    multiEndpoint.setEndpointAvailable(threeEndpoints.get(1), true);
+    assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(0));
+
+    // First is degraded, second is the top priority available endpoint which is not degraded.
+    multiEndpoint.setEndpointDegraded(threeEndpoints.get(0), true);
+    assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(1));
+
+    // Degraded endpoints are still preferred to unavailable endpoints, by priority.
+    multiEndpoint.setEndpointDegraded(threeEndpoints.get(1), true);
+    assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(0));
+    multiEndpoint.setEndpointAvailable(threeEndpoints.get(0), false);
+    assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(1));
+
+    // Recovered endpoint is preferred to degraded.
+    multiEndpoint.setEndpointAvailable(threeEndpoints.get(2), true);
+    assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(2));
+    multiEndpoint.setEndpointDegraded(threeEndpoints.get(1), false);
+    assertThat(multiEndpoint.getCurrentId()).isEqualTo(threeEndpoints.get(1));
+  }
+
   @Test
   public void setEndpoints_raisesErrorWhenEmptyEndpoints() {
     MultiEndpoint multiEndpoint = initPlain(threeEndpoints);
@@ -537,4 +587,140 @@ public final class MultiEndpointTest {
     sleep(DELAY_MS / 2 + MARGIN_MS);
     assertThat(multiEndpoint.getCurrentId()).isEqualTo("extra2");
   }
+
+  private Map<String, Integer> countPicks(MultiEndpoint multiEndpoint, int picks) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < picks; i++) {
+      counts.merge(multiEndpoint.pickEndpointId(), 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  @Test
+  public void pickEndpointId_returnsCurrentWithoutWeights() {
+    MultiEndpoint multiEndpoint = initPlain(threeEndpoints);
+    threeEndpoints.forEach(e -> multiEndpoint.setEndpointAvailable(e, true));
+
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(threeEndpoints.get(0), 100);
+  }
+
+  @Test
+  public void pickEndpointId_splitsByWeights() {
+    final String first = threeEndpoints.get(0);
+    final String second = threeEndpoints.get(1);
+    final String third = threeEndpoints.get(2);
+    MultiEndpoint multiEndpoint =
+        new MultiEndpoint.Builder(threeEndpoints)
+            .withWeights(ImmutableMap.of(first, 90, second, 10))
+            .build();
+
+    // None of the weighted endpoints is available, falls back to the current endpoint.
+    multiEndpoint.setEndpointAvailable(third, true);
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(third, 100);
+
+    threeEndpoints.forEach(e -> multiEndpoint.setEndpointAvailable(e, true));
+    Map<String, Integer> counts = countPicks(multiEndpoint, 10000);
+    assertThat(counts.keySet()).containsExactly(first, second);
+    assertThat(counts.get(second)).isIn(Range.closed(700, 1300));
+
+    // The traffic of an unavailable endpoint is split among the remaining weighted endpoints.
+    multiEndpoint.setEndpointAvailable(first, false);
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(second, 100);
+
+    // A degraded endpoint gets no calls while other weighted endpoints are healthy.
+    multiEndpoint.setEndpointAvailable(first, true);
+    multiEndpoint.setEndpointDegraded(second, true);
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(first, 100);
+
+    // Updated weights apply immediately.
+    multiEndpoint.setEndpointDegraded(second, false);
+    multiEndpoint.setWeights(ImmutableMap.of(third, 1));
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(third, 100);
+
+    // Without weights all calls go to the current endpoint again.
+    multiEndpoint.setWeights(ImmutableMap.of());
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(first, 100);
+  }
+
+  @Test
+  public void pickEndpointId_skipsRecoveringEndpointsNeverAvailable() {
+    final String first = threeEndpoints.get(0);
+    final String second = threeEndpoints.get(1);
+    final String third = threeEndpoints.get(2);
+    MultiEndpoint multiEndpoint =
+        new MultiEndpoint.Builder(ImmutableList.of(first, second))
+            .withRecoveryTimeout(Duration.ofSeconds(10))
+            .withWeights(ImmutableMap.of(first, 50, second, 50, third, 50))
+            .build();
+
+    // New endpoints are recovering before their first connection and are not picked.
+    multiEndpoint.setEndpointAvailable(second, true);
+    assertThat(countPicks(multiEndpoint, 100)).containsExactly(second, 100);
+
+    // An endpoint recovering after being available keeps its share until the recovery timeout.
+    multiEndpoint.setEndpointAvailable(first, true);
+    multiEndpoint.setEndpointAvailable(first, false);
+    assertThat(multiEndpoint.getEndpointsMap().get(first).getState())
+        .isEqualTo(EndpointState.RECOVERING);
+    assertThat(countPicks(multiEndpoint, 1000).keySet()).containsExactly(first, second);
+
+    // A weighted endpoint added later is not picked until it becomes available.
+    multiEndpoint.setEndpoints(threeEndpoints);
+    assertThat(countPicks(multiEndpoint, 1000).keySet()).containsExactly(first, second);
+    multiEndpoint.setEndpointAvailable(third, true);
+    assertThat(countPicks(multiEndpoint, 1000).keySet()).containsExactly(first, second, third);
+  }
+
+  @Test
+  public void setWeights_raisesErrorWhenNegative() {
+    MultiEndpoint multiEndpoint = initPlain(threeEndpoints);
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> multiEndpoint.setWeights(ImmutableMap.of(threeEndpoints.get(0), -1)));
+    assertThat(thrown).hasMessageThat().contains("Endpoint weights must not be negative.");
+  }
+
+  @Test
+  public void setEndpointAvailable_publishesSnapshotsOnlyOnChange() {
+    MultiEndpoint multiEndpoint = initWithRecovery(threeEndpoints, RECOVERY_MS);
+    final String first = threeEndpoints.get(0);
+    multiEndpoint.setEndpointAvailable(first, true);
+    final Map<String, Endpoint> snapshot = multiEndpoint.getEndpointsMap();
+
+    // Repeated notifications do not change the state.
+    multiEndpoint.setEndpointAvailable(first, true);
+    multiEndpoint.setEndpointDegraded(first, false);
+    assertThat(multiEndpoint.getEndpointsMap()).isSameAs(snapshot);
+
+    // A change publishes a new snapshot and leaves the previous one intact.
+    multiEndpoint.setEndpointAvailable(first, false);
+    assertThat(multiEndpoint.getEndpointsMap().get(first).getState())
+        .isEqualTo(EndpointState.RECOVERING);
+    assertThat(snapshot.get(first).getState()).isEqualTo(EndpointState.AVAILABLE);
+    assertThrows(UnsupportedOperationException.class, () -> snapshot.remove(first));
+  }
+
+  @Test
+  public void getAlternativeId_returnsTopPriorityAvailableExceptExcluded() {
+    MultiEndpoint multiEndpoint = initPlain(fourEndpoints);
+    assertThat(multiEndpoint.getAlternativeId(ImmutableList.of())).isNull();
+
+    fourEndpoints.forEach(e -> multiEndpoint.setEndpointAvailable(e, true));
+    assertThat(multiEndpoint.getAlternativeId(ImmutableList.of(fourEndpoints.get(0))))
+        .isEqualTo(fourEndpoints.get(1));
+    assertThat(
+            multiEndpoint.getAlternativeId(
+                ImmutableList.of(fourEndpoints.get(0), fourEndpoints.get(1))))
+        .isEqualTo(fourEndpoints.get(2));
+
+    // Degraded endpoints are picked last.
+    multiEndpoint.setEndpointDegraded(fourEndpoints.get(1), true);
+    assertThat(multiEndpoint.getAlternativeId(ImmutableList.of(fourEndpoints.get(0))))
+        .isEqualTo(fourEndpoints.get(2));
+    multiEndpoint.setEndpointAvailable(fourEndpoints.get(2), false);
+    multiEndpoint.setEndpointAvailable(fourEndpoints.get(3), false);
+    assertThat(multiEndpoint.getAlternativeId(ImmutableList.of(fourEndpoints.get(0))))
+        .isEqualTo(fourEndpoints.get(1));
+  }
 }